@@ -0,0 +1,77 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.analytics.ClickAnalytics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cost of recording clicks on the redirect path, from four threads. resolve is the redirect without recording,
+ * resolveAndRecord with it; the AtomicLong variant shows what a single shared counter would cost on a hot token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ClickAnalyticsBenchmark {
+    private static final int TOKENS = 10_000;
+
+    private TokenService tokenService;
+    private ClickAnalytics clickAnalytics;
+    private final AtomicLong sharedCounter = new AtomicLong();
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        tokenService = new TokenService();
+        clickAnalytics = new ClickAnalytics();
+        clickAnalytics.start();
+        ReflectionTestUtils.setField(tokenService, "clickAnalytics", clickAnalytics);
+        final User user = User.builder().username("user").build();
+        names = new String[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            names[i] = "t" + i;
+            tokenService.create(names[i], "https://dr.dk/" + i, null, user);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        clickAnalytics.stop();
+    }
+
+    private String pick() {
+        return names[ThreadLocalRandom.current().nextInt(TOKENS)];
+    }
+
+    @Benchmark
+    public String resolve() {
+        return tokenService.resolveToken(pick(), null);
+    }
+
+    @Benchmark
+    public String resolveAndRecord() {
+        final String token = pick();
+        final String targetUrl = tokenService.resolveToken(token, null);
+        tokenService.recordClick(token);
+        return targetUrl;
+    }
+
+    @Benchmark
+    public void recordHotToken() {
+        clickAnalytics.record("t0");
+    }
+
+    @Benchmark
+    public long recordHotTokenAtomicLong() {
+        return sharedCounter.incrementAndGet();
+    }
+}
@@ -0,0 +1,141 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.codes.ShortCodeGenerator;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.export.ChangeLog;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.export.ExportFormat;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.export.StoreExporter;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.CompactTokenStore;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Times exporting a store of compact tokens to a file in each format and importing it into an empty store, with
+ * 1000 owners and URLs of 40 to 110 characters. A writer thread updates tokens throughout each export, so the
+ * change log tail is exercised as it would be on a live instance.
+ * <pre>
+ * MAVEN_OPTS=-Xmx8g mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=dk.lundogbendsen.springbootcourse.urlshortener.benchmark.ExportLoad \
+ *     -Dexec.args="10000000"
+ * </pre>
+ * Arguments are the number of tokens and optionally the directory to write the exports to.
+ */
+public class ExportLoad {
+    private static final int OWNERS = 1000;
+    private static final String PATH_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789-/";
+
+    public static void main(String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        final Path directory = args.length > 1 ? Path.of(args[1]) : Files.createTempDirectory("export");
+        StoreExporter source = exporter();
+        TokenService tokenService = (TokenService) ReflectionTestUtils.getField(source, "tokenService");
+        final long fillStart = System.nanoTime();
+        fill(tokenService, count);
+        System.out.printf("filled with %,d tokens in %.1f s%n", count, (System.nanoTime() - fillStart) / 1e9);
+
+        for (ExportFormat format : ExportFormat.values()) {
+            final Thread writer = updating(tokenService, count);
+            final long start = System.nanoTime();
+            final long written;
+            try (OutputStream out = Files.newOutputStream(file(directory, format))) {
+                written = source.export(out, format);
+            } finally {
+                writer.interrupt();
+                writer.join();
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-6s export: %,d changes, %,d bytes in %.1f s (%,.0f changes/s)%n", format, written,
+                    Files.size(file(directory, format)), seconds, written / seconds);
+        }
+        // Imported one at a time once the source is gone, so only one store is in memory
+        source = null;
+        tokenService = null;
+        for (ExportFormat format : ExportFormat.values()) {
+            final long start = System.nanoTime();
+            final long read;
+            try (InputStream in = Files.newInputStream(file(directory, format))) {
+                read = exporter().importFrom(in, format);
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-6s import: %,d changes in %.1f s (%,.0f changes/s)%n", format, read, seconds, read / seconds);
+            Files.delete(file(directory, format));
+        }
+    }
+
+    private static Path file(Path directory, ExportFormat format) {
+        return directory.resolve("export." + format.name().toLowerCase(Locale.ROOT));
+    }
+
+    private static StoreExporter exporter() {
+        final ChangeLog changeLog = new ChangeLog(1 << 16);
+        final TokenService tokenService = TokenService.withStore(new CompactTokenStore());
+        final UserService userService = new UserService();
+        final ShortCodeGenerator codes = new ShortCodeGenerator();
+        ReflectionTestUtils.setField(tokenService, "changeLog", changeLog);
+        ReflectionTestUtils.setField(tokenService, "codes", codes);
+        ReflectionTestUtils.setField(userService, "changeLog", changeLog);
+        ReflectionTestUtils.setField(userService, "tokenService", tokenService);
+        final StoreExporter exporter = new StoreExporter();
+        ReflectionTestUtils.setField(exporter, "tokenService", tokenService);
+        ReflectionTestUtils.setField(exporter, "userService", userService);
+        ReflectionTestUtils.setField(exporter, "codes", codes);
+        ReflectionTestUtils.setField(exporter, "changeLog", changeLog);
+        return exporter;
+    }
+
+    private static void fill(TokenService tokenService, int count) {
+        final Random random = new Random(42);
+        final StringBuilder url = new StringBuilder();
+        final List<Change> batch = new ArrayList<>(1000);
+        for (int i = 0; i < count; i++) {
+            url.setLength(0);
+            url.append("https://www.site").append(random.nextInt(200)).append(".example.com/");
+            final int length = 10 + random.nextInt(71);
+            for (int c = 0; c < length; c++) {
+                url.append(PATH_CHARS.charAt(random.nextInt(PATH_CHARS.length())));
+            }
+            batch.add(Change.tokenSaved(Token.builder().token(token(i)).targetUrl(url.toString())
+                    .user(User.builder().username("user" + random.nextInt(OWNERS)).build()).build()));
+            if (batch.size() == 1000) {
+                tokenService.adopt(batch);
+                batch.clear();
+            }
+        }
+        tokenService.adopt(batch);
+    }
+
+    private static String token(int i) {
+        return Long.toString(i * 0x9E3779B97F4A7C15L >>> 23, 36);
+    }
+
+    // Updates random tokens, a few hundred a second, until interrupted
+    private static Thread updating(TokenService tokenService, int count) {
+        final Thread thread = new Thread(() -> {
+            final Random random = new Random();
+            while (!Thread.currentThread().isInterrupted()) {
+                final int i = random.nextInt(count);
+                tokenService.adopt(List.of(Change.tokenSaved(Token.builder().token(token(i)).targetUrl("https://updated.example.com/" + i)
+                        .user(User.builder().username("user" + random.nextInt(OWNERS)).build()).build())));
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "export-load-writer");
+        thread.start();
+        return thread;
+    }
+}
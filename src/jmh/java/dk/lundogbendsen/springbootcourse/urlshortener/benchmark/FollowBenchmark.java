@@ -0,0 +1,77 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.controller.ControllerAdvicerServiceLayer;
+import dk.lundogbendsen.springbootcourse.urlshortener.controller.FollowTokenController;
+import dk.lundogbendsen.springbootcourse.urlshortener.controller.RedirectFastPathFilter;
+import dk.lundogbendsen.springbootcourse.urlshortener.controller.security.SecurityIntercepter;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * End-to-end {@code GET /{token}} through MockMvc, with and without the redirect fast path. Run with
+ * {@code -Djmh.args="FollowBenchmark -prof gc"} to see the allocation rate as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FollowBenchmark {
+    private MockMvc mvc;
+    private MockMvc fastPathMvc;
+
+    @Setup
+    public void setup() {
+        final TokenService tokenService = new TokenService();
+        final User user = User.builder().username("user1").password("password1").build();
+        tokenService.create("abc", "https://dr.dk", null, user);
+        tokenService.create("protected", "https://dr.dk", "pt", user);
+
+        final UserService userService = new UserService();
+        ReflectionTestUtils.setField(userService, "tokenService", tokenService);
+        final FollowTokenController controller = new FollowTokenController();
+        ReflectionTestUtils.setField(controller, "tokenService", tokenService);
+        final SecurityIntercepter intercepter = new SecurityIntercepter();
+        ReflectionTestUtils.setField(intercepter, "userService", userService);
+
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .addInterceptors(intercepter)
+                .setControllerAdvice(new ControllerAdvicerServiceLayer())
+                .build();
+        fastPathMvc = MockMvcBuilders.standaloneSetup(controller)
+                .addInterceptors(intercepter)
+                .setControllerAdvice(new ControllerAdvicerServiceLayer())
+                .addFilters(new RedirectFastPathFilter(tokenService))
+                .build();
+    }
+
+    @Benchmark
+    public int follow() throws Exception {
+        return mvc.perform(get("/abc")).andReturn().getResponse().getStatus();
+    }
+
+    @Benchmark
+    public int followFastPath() throws Exception {
+        return fastPathMvc.perform(get("/abc")).andReturn().getResponse().getStatus();
+    }
+
+    @Benchmark
+    public int followProtected() throws Exception {
+        return mvc.perform(get("/protected").header("protectToken", "pt")).andReturn().getResponse().getStatus();
+    }
+
+    @Benchmark
+    public int followMissing() throws Exception {
+        return mvc.perform(get("/missing")).andReturn().getResponse().getStatus();
+    }
+}
@@ -0,0 +1,46 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimiter;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a rate limit adds to each request, from four threads. hotKey is every thread hitting one token, so every
+ * acquire contends on the same bucket; clients is requests spread over a million addresses, sixteen times the
+ * table, so most acquires also evict a bucket, as under a flood of spoofed addresses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RateLimiterBenchmark {
+    private static final int CLIENTS = 1 << 20;
+
+    private RateLimiter limiter;
+    private String[] addresses;
+
+    @Setup
+    public void setup() {
+        limiter = new RateLimiter(1_000_000, Duration.ofSeconds(1), 1000, 65536);
+        addresses = new String[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            addresses[i] = "10." + (i >>> 16) + "." + ((i >>> 8) & 0xff) + "." + (i & 0xff);
+        }
+    }
+
+    @Benchmark
+    public long hotKey() {
+        return limiter.acquire("abc");
+    }
+
+    @Benchmark
+    public long clients() {
+        return limiter.acquire(addresses[ThreadLocalRandom.current().nextInt(CLIENTS)]);
+    }
+}
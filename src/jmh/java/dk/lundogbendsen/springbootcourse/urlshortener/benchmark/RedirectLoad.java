@@ -0,0 +1,151 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed loop HTTP load against a running server, for comparing redirect throughput and latency between the full
+ * application and the edge server, which JMH can't do over real sockets. Each connection has its own thread and
+ * keeps {@code depth} pipelined requests in flight:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=dk.lundogbendsen.springbootcourse.urlshortener.benchmark.RedirectLoad \
+ *     -Dexec.args="localhost 8080 /abc 16 1 10"
+ * </pre>
+ * Arguments are host, port, path, connections, pipelining depth and seconds. Latency is per request, measured from
+ * writing a batch to reading its response.
+ */
+public class RedirectLoad {
+
+    public static void main(String[] args) throws Exception {
+        final String host = args.length > 0 ? args[0] : "localhost";
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        final String path = args.length > 2 ? args[2] : "/abc";
+        final int connections = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        final int depth = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        final int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+
+        report(host, port, path, connections, depth, seconds);
+    }
+
+    static void report(String host, int port, String path, int connections, int depth, int seconds) throws Exception {
+        final byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        final byte[] batch = new byte[request.length * depth];
+        for (int i = 0; i < depth; i++) {
+            System.arraycopy(request, 0, batch, i * request.length, request.length);
+        }
+
+        // One warmup second that isn't counted
+        run(host, port, batch, depth, connections, TimeUnit.SECONDS.toNanos(1));
+        final long started = System.nanoTime();
+        final List<long[]> latencies = run(host, port, batch, depth, connections, TimeUnit.SECONDS.toNanos(seconds));
+        final double elapsed = (System.nanoTime() - started) / 1e9;
+
+        final long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%d connections, depth %d: %.0f requests/s%n", connections, depth, all.length / elapsed);
+        for (double percentile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            final long nanos = all.length == 0 ? 0 : all[Math.min(all.length - 1, (int) (all.length * percentile))];
+            System.out.printf("  p%-5s %8.1f us%n", percentile * 100, nanos / 1e3);
+        }
+    }
+
+    private static List<long[]> run(String host, int port, byte[] batch, int depth, int connections, long nanos) throws Exception {
+        final long deadline = System.nanoTime() + nanos;
+        final List<Connection> running = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            final Connection connection = new Connection(host, port, batch, depth, deadline);
+            running.add(connection);
+            threads.add(new Thread(connection, "load-" + i));
+        }
+        threads.forEach(Thread::start);
+        final List<long[]> latencies = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            threads.get(i).join();
+            latencies.add(Arrays.copyOf(running.get(i).latencies, running.get(i).count));
+        }
+        return latencies;
+    }
+
+    private static class Connection implements Runnable {
+        private final String host;
+        private final int port;
+        private final byte[] batch;
+        private final int depth;
+        private final long deadline;
+        private long[] latencies = new long[1 << 16];
+        private int count;
+
+        Connection(String host, int port, byte[] batch, int depth, long deadline) {
+            this.host = host;
+            this.port = port;
+            this.batch = batch;
+            this.depth = depth;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            while (now < deadline) {
+                // Servers close kept alive connections after a number of requests, Tomcat after 100 by default
+                try (Socket socket = new Socket(host, port)) {
+                    socket.setTcpNoDelay(true);
+                    // A server that stops answering costs a reconnect instead of hanging the run
+                    socket.setSoTimeout(10_000);
+                    final OutputStream out = socket.getOutputStream();
+                    final InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                    while (now < deadline) {
+                        out.write(batch);
+                        for (int i = 0; i < depth; i++) {
+                            readResponse(in);
+                        }
+                        final long done = System.nanoTime();
+                        final long latency = done - now;
+                        if (count + depth > latencies.length) {
+                            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+                        }
+                        for (int i = 0; i < depth; i++) {
+                            latencies[count++] = latency;
+                        }
+                        now = done;
+                    }
+                } catch (IOException e) {
+                    now = System.nanoTime();
+                }
+            }
+        }
+
+        // Reads one response head and skips its Content-Length body
+        private static void readResponse(InputStream in) throws IOException {
+            int contentLength = 0;
+            final StringBuilder line = new StringBuilder();
+            while (true) {
+                final int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Closed by server");
+                }
+                if (b == '\n') {
+                    if (line.length() <= 1) {
+                        break;
+                    }
+                    if (line.toString().regionMatches(true, 0, "content-length:", 0, 15)) {
+                        contentLength = Integer.parseInt(line.substring(15).trim());
+                    }
+                    line.setLength(0);
+                } else {
+                    line.append((char) b);
+                }
+            }
+            in.skipNBytes(contentLength);
+        }
+    }
+}
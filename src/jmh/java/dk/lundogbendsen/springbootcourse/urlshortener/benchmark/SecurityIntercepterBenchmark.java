@@ -0,0 +1,54 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.controller.security.SecurityIntercepter;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityIntercepterBenchmark {
+    private SecurityIntercepter intercepter;
+    private MockHttpServletRequest basic;
+    private MockHttpServletRequest bearer;
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Setup
+    public void setup() {
+        final UserService userService = new UserService();
+        ReflectionTestUtils.setField(userService, "tokenService", new TokenService());
+        userService.create("user1", "password1");
+        intercepter = new SecurityIntercepter();
+        ReflectionTestUtils.setField(intercepter, "userService", userService);
+
+        basic = new MockHttpServletRequest("GET", "/token");
+        basic.addHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString("user1:password1".getBytes(StandardCharsets.UTF_8)));
+        bearer = new MockHttpServletRequest("GET", "/abc");
+        bearer.addHeader("Authorization", "Bearer protectAbc");
+    }
+
+    @Benchmark
+    public boolean basicAuth() throws Exception {
+        final boolean result = intercepter.preHandle(basic, response, null);
+        intercepter.afterCompletion(basic, response, null, null);
+        return result;
+    }
+
+    @Benchmark
+    public boolean bearerAuth() throws Exception {
+        final boolean result = intercepter.preHandle(bearer, response, null);
+        intercepter.afterCompletion(bearer, response, null, null);
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.Application;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redirect throughput and latency of the MVC and the reactive API while many slow clients are connected, each
+ * uploading a POST /token body a byte at a time. MVC holds a Tomcat thread per upload while it reads the body,
+ * WebFlux only reads what has arrived. Both modes start the application in this JVM, then RedirectLoad runs
+ * against it next to the slow clients:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=dk.lundogbendsen.springbootcourse.urlshortener.benchmark.SlowClientsLoad \
+ *     -Dexec.args="5000 16 10"
+ * </pre>
+ * Arguments are slow clients, redirect connections and seconds per mode. Every connection costs two file
+ * descriptors here, since client and server share the process.
+ */
+public class SlowClientsLoad {
+    private static final String CREDENTIALS = "Basic dXNlcjE6cGFzc3dvcmQx";
+
+    public static void main(String[] args) throws Exception {
+        final int slowClients = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        for (String mode : new String[]{"servlet", "reactive"}) {
+            final ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                    .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN",
+                            // Closing the slow clients at the end aborts their requests
+                            "logging.level.org.springframework.web=OFF", "logging.level.org.apache.catalina=OFF",
+                            "spring.main.web-application-type=" + mode)
+                    .run();
+            try {
+                final User user = context.getBean(UserService.class).create("user1", "password1");
+                context.getBean(TokenService.class).create("abc", "https://dr.dk", null, user);
+                final int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                // Verify the password once, so the slow clients don't all wait for the hash
+                HttpClient.newHttpClient().send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/token"))
+                        .header("Authorization", CREDENTIALS).build(), HttpResponse.BodyHandlers.discarding());
+
+                try (SlowClients slow = new SlowClients(port, slowClients)) {
+                    slow.start();
+                    Thread.sleep(2000);
+                    System.out.printf("%s, %d slow clients, %d server threads%n", mode, slowClients, serverThreads());
+                    RedirectLoad.report("localhost", port, "/abc", connections, 1, seconds);
+                }
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    // Live threads other than the load generator's own
+    private static long serverThreads() {
+        final ThreadInfo[] threads = ManagementFactory.getThreadMXBean().dumpAllThreads(false, false);
+        return Arrays.stream(threads).map(ThreadInfo::getThreadName)
+                .filter(name -> !name.startsWith("load-") && !name.equals("slow-clients") && !name.equals("main"))
+                .count();
+    }
+
+    /**
+     * Connections that send a POST /token head, then one byte of its body per connection every second, from a single
+     * thread.
+     */
+    private static class SlowClients implements AutoCloseable {
+        private final List<SocketChannel> channels = new ArrayList<>();
+        private final Thread thread = new Thread(this::trickle, "slow-clients");
+        private volatile boolean running = true;
+
+        SlowClients(int port, int count) throws IOException {
+            final byte[] head = ("POST /token HTTP/1.1\r\nHost: localhost\r\nAuthorization: " + CREDENTIALS
+                    + "\r\nContent-Type: application/json\r\nContent-Length: 100000\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < count; i++) {
+                final SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+                channel.write(ByteBuffer.wrap(head));
+                channel.configureBlocking(false);
+                channels.add(channel);
+            }
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        private void trickle() {
+            final ByteBuffer space = ByteBuffer.wrap(new byte[]{' '});
+            while (running) {
+                final long next = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                for (SocketChannel channel : channels) {
+                    try {
+                        channel.write(space.rewind());
+                    } catch (IOException e) {
+                        // Closed by the server, it stays closed
+                    }
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            running = false;
+            thread.interrupt();
+            thread.join();
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.TokenStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * The HashMap TokenService used to have, made thread safe the simplest way. Unsynchronized it loses writes under
+ * concurrent use, so this is the baseline the concurrent stores are measured against.
+ */
+public class SynchronizedHashMapTokenStore implements TokenStore {
+    private final HashMap<String, Token> tokens = new HashMap<>();
+
+    @Override
+    public synchronized Token get(String token) {
+        return tokens.get(token);
+    }
+
+    @Override
+    public synchronized Token compute(String token, UnaryOperator<Token> remapping) {
+        return tokens.compute(token, (name, current) -> remapping.apply(current));
+    }
+
+    @Override
+    public synchronized Stream<Token> tokens() {
+        return new ArrayList<>(tokens.values()).stream();
+    }
+
+    @Override
+    public synchronized long size() {
+        return tokens.size();
+    }
+}
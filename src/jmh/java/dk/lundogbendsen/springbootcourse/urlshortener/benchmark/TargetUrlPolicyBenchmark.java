@@ -0,0 +1,89 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.policy.TargetUrlPolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Target URL validation per URL, over a mix of valid, malformed and blocked URLs as a bulk import sees them.
+ * urlAndContains and uri are the checks create and update used to make, policy and configuredPolicy the compiled
+ * policy with the default rules and with a larger blocklist and some ranges.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TargetUrlPolicyBenchmark {
+    private static final String[] URLS = {
+            "https://dr.dk",
+            "https://tv2.dk/nyheder/2024-01-01-en-lang-artikel?side=1&utm_source=newsletter",
+            "https://www.example.com/a/b/c/d.html#top",
+            "http://localhost:8080/abc",
+            "htt",
+            "https://dr.dk/æble",
+            "http://10.1.2.3/admin",
+            "https://images.cdn.example.org/2024/01/picture.jpg",
+    };
+
+    private final TargetUrlPolicy policy = TargetUrlPolicy.DEFAULT;
+    private TargetUrlPolicy configuredPolicy;
+    private int next;
+
+    @Setup
+    public void setup() {
+        configuredPolicy = TargetUrlPolicy.builder()
+                .blockedHosts(List.of("localhost", "ads.example.com", "tracker.example.net", "evil.test", "internal", "corp", "lan"))
+                .blockedRanges(List.of("0.0.0.0/8", "127.0.0.0/8", "10.0.0.0/8", "172.16.0.0/12", "192.168.0.0/16",
+                        "169.254.0.0/16", "::/128", "::1/128", "fc00::/7", "fe80::/10"))
+                .build();
+    }
+
+    private String nextUrl() {
+        next = (next + 1) & (URLS.length - 1);
+        return URLS[next];
+    }
+
+    @Benchmark
+    public int urlAndContains() {
+        final String url = nextUrl();
+        if (url.contains("localhost")) {
+            return 1;
+        }
+        try {
+            return new URL(url).getPort();
+        } catch (MalformedURLException e) {
+            return 2;
+        }
+    }
+
+    @Benchmark
+    public int uri() {
+        final String url = nextUrl();
+        if (url.contains("localhost")) {
+            return 1;
+        }
+        try {
+            return new URI(url).getPort();
+        } catch (URISyntaxException e) {
+            return 2;
+        }
+    }
+
+    @Benchmark
+    public TargetUrlPolicy.Verdict policy() {
+        return policy.check(nextUrl());
+    }
+
+    @Benchmark
+    public TargetUrlPolicy.Verdict configuredPolicy() {
+        return configuredPolicy.check(nextUrl());
+    }
+}
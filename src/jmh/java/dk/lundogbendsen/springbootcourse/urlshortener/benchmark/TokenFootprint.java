@@ -0,0 +1,79 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.CompactTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.InMemoryTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.TokenStore;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Heap bytes per token of the in-memory stores, filled with the same tokens: 1000 owners, URLs on 200 hosts with
+ * paths of 20 to 80 characters, one in ten protected. memory holds tokens as they are created through the API,
+ * sharing each owner's User; memory-replayed as they are after a journal replay, a restart of a follower or a
+ * rebalance, each with a User of its own; compact is the {@link CompactTokenStore}. Each store is measured from a
+ * collected heap to a collected heap, and the name of each token is included.
+ * <pre>
+ * MAVEN_OPTS=-Xmx8g mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=dk.lundogbendsen.springbootcourse.urlshortener.benchmark.TokenFootprint \
+ *     -Dexec.args="10000000"
+ * </pre>
+ * Arguments are the number of tokens and optionally one store to measure.
+ */
+public class TokenFootprint {
+    private static final int OWNERS = 1000;
+    private static final int HOSTS = 200;
+    private static final String PATH_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789-/";
+
+    public static void main(String[] args) {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        final String[] stores = args.length > 1 ? new String[]{args[1]} : new String[]{"memory", "memory-replayed", "compact"};
+        for (String name : stores) {
+            final long before = usedAfterGc();
+            TokenStore store = fill(name, count);
+            final long after = usedAfterGc();
+            System.out.printf("%-16s %,d tokens: %,d bytes, %.1f bytes per token%n", name, store.size(), after - before,
+                    (double) (after - before) / count);
+            store = null;
+        }
+    }
+
+    private static TokenStore fill(String name, int count) {
+        final TokenStore store = name.equals("compact") ? new CompactTokenStore() : new InMemoryTokenStore();
+        final boolean replayed = name.equals("memory-replayed");
+        final User[] owners = new User[OWNERS];
+        for (int i = 0; i < OWNERS; i++) {
+            owners[i] = User.builder().username("user" + i).password("{bcrypt}$2a$10$abcdefghijklmnopqrstuv0123456789ABCDEFGHIJKLMNOPQRSTU").build();
+        }
+        final String[] hosts = new String[HOSTS];
+        for (int i = 0; i < HOSTS; i++) {
+            hosts[i] = (i % 4 == 0 ? "http://" : "https://") + "www.site" + i + ".example.com";
+        }
+        final Random random = new Random(42);
+        final StringBuilder url = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            final String token = Long.toString(i * 0x9E3779B97F4A7C15L >>> 23, 36);
+            url.setLength(0);
+            url.append(hosts[random.nextInt(HOSTS)]).append('/');
+            final int length = 20 + random.nextInt(61);
+            for (int c = 0; c < length; c++) {
+                url.append(PATH_CHARS.charAt(random.nextInt(PATH_CHARS.length())));
+            }
+            final Token created = Token.builder().token(token).targetUrl(url.toString()).user(owners[random.nextInt(OWNERS)])
+                    .protectToken(random.nextInt(10) == 0 ? "pt" + random.nextInt(1000) : null).build();
+            final Token stored = replayed ? Change.tokenSaved(created).savedToken() : created;
+            store.compute(token, current -> stored);
+        }
+        return store;
+    }
+
+    private static long usedAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,96 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenNotFoundExistsException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenServiceBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"1000", "100000"})
+    int storeSize;
+    @Param({"10", "1000"})
+    int userTokens;
+
+    private TokenService tokenService;
+    private TokenService createService;
+    private User user;
+    private String[] names;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        tokenService = new TokenService();
+        user = User.builder().username("user").password("password").build();
+        final User others = User.builder().username("others").password("password").build();
+        names = new String[storeSize];
+        for (int i = 0; i < storeSize; i++) {
+            names[i] = "t" + i;
+            tokenService.create(names[i], "https://dr.dk/" + i, null, i < userTokens ? user : others);
+        }
+        tokenService.create("protected", "https://dr.dk", "pt", user);
+    }
+
+    // A fresh service per iteration keeps the store from growing without bound
+    @Setup(Level.Iteration)
+    public void setupCreate() {
+        createService = new TokenService();
+    }
+
+    @Benchmark
+    public String resolveHit() {
+        next = (next + 1) % names.length;
+        return tokenService.resolveToken(names[next], null);
+    }
+
+    @Benchmark
+    public String resolveMiss() {
+        try {
+            return tokenService.resolveToken("missing", null);
+        } catch (TokenNotFoundExistsException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public String resolveProtected() {
+        return tokenService.resolveToken("protected", "pt");
+    }
+
+    @Benchmark
+    public Token create() {
+        return createService.create("c" + next++, "https://dr.dk", null, user);
+    }
+
+    @Benchmark
+    public Token createWithGeneratedCode() {
+        return createService.create(null, "https://dr.dk", null, user);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<RuntimeException> createAll() {
+        final List<Token> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(Token.builder().token("c" + next++).targetUrl("https://dr.dk").build());
+        }
+        return createService.createAll(batch, user);
+    }
+
+    @Benchmark
+    public List<Token> listUserTokens() {
+        return tokenService.listUserTokens(user);
+    }
+}
@@ -0,0 +1,112 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.CachingTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.FilteredTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.InMemoryTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.MappedTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.TokenStore;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded throughput of the token stores: three readers and one writer per group, four readers alone, and
+ * four readers asking for random codes that don't exist, like a bot scanning for tokens.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenStoreBenchmark {
+    private static final int TOKENS = 100_000;
+
+    @Param({"synchronized-hashmap", "in-memory", "mapped", "mapped-cached", "mapped-filtered"})
+    String store;
+
+    private TokenStore tokenStore;
+    private Path directory;
+    private Token[] tokens;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        switch (store) {
+            case "synchronized-hashmap":
+                tokenStore = new SynchronizedHashMapTokenStore();
+                break;
+            case "in-memory":
+                tokenStore = new InMemoryTokenStore();
+                break;
+            default:
+                directory = Files.createTempDirectory("token-store-benchmark");
+                final MappedTokenStore mapped = new MappedTokenStore(directory, 64 << 20);
+                if (store.equals("mapped")) {
+                    tokenStore = mapped;
+                } else if (store.equals("mapped-cached")) {
+                    tokenStore = new CachingTokenStore(mapped, 10_000);
+                } else {
+                    tokenStore = new CachingTokenStore(new FilteredTokenStore(mapped, TOKENS, 0.01), 10_000);
+                }
+        }
+        final User user = User.builder().username("user").build();
+        tokens = new Token[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            final Token token = Token.builder().token("t" + i).targetUrl("https://dr.dk/" + i).user(user).build();
+            tokens[i] = token;
+            tokenStore.compute(token.getToken(), current -> token);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (directory != null) {
+            final TokenStore backing = tokenStore;
+            if (backing instanceof Closeable) {
+                ((Closeable) backing).close();
+            }
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    // Skewed like real traffic: half of the reads go to the 1% most popular tokens
+    private String pick() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return tokens[random.nextBoolean() ? random.nextInt(TOKENS / 100) : random.nextInt(TOKENS)].getToken();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public String mixedRead() {
+        return tokenStore.resolve(pick(), null, 0);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Token mixedWrite() {
+        final Token token = tokens[ThreadLocalRandom.current().nextInt(TOKENS)];
+        return tokenStore.compute(token.getToken(), current -> token);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String read() {
+        return tokenStore.resolve(pick(), null, 0);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String readMissing() {
+        return tokenStore.resolve(Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36), null, 0);
+    }
+}
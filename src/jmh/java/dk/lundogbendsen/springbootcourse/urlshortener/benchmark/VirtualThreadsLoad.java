@@ -0,0 +1,83 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.benchmark;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.Application;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.InMemoryTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.TokenStore;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Redirect throughput and tail latency of the application on Tomcat's platform thread pool against virtual
+ * threads, with a store that blocks for a while on every read, like a remote store would. Each mode starts the
+ * application in this JVM and runs RedirectLoad against it:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=dk.lundogbendsen.springbootcourse.urlshortener.benchmark.VirtualThreadsLoad \
+ *     -Dexec.args="1000 5 10"
+ * </pre>
+ * Arguments are connections, store latency in milliseconds and seconds per mode. Needs Java 21 to see a
+ * difference; older runtimes run the platform pool twice.
+ */
+public class VirtualThreadsLoad {
+
+    public static void main(String[] args) throws Exception {
+        final int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            final ServletWebServerApplicationContext context = (ServletWebServerApplicationContext) new SpringApplicationBuilder(Application.class)
+                    .initializers(initialized -> ((GenericApplicationContext) initialized).registerBean("slowTokenStore", TokenStore.class,
+                            () -> new SlowTokenStore(new InMemoryTokenStore(), latencyMillis), definition -> definition.setPrimary(true)))
+                    .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN",
+                            "urlshortener.virtual-threads.enabled=" + virtualThreads)
+                    .run();
+            try {
+                context.getBean(TokenService.class).create("abc", "https://dr.dk", null, User.builder().username("user1").build());
+                System.out.printf("%s threads, store latency %d ms%n", virtualThreads ? "Virtual" : "Platform", latencyMillis);
+                RedirectLoad.report("localhost", context.getWebServer().getPort(), "/abc", connections, 1, seconds);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private static class SlowTokenStore implements TokenStore {
+        private final TokenStore store;
+        private final long latencyNanos;
+
+        SlowTokenStore(TokenStore store, long latencyMillis) {
+            this.store = store;
+            this.latencyNanos = latencyMillis * 1_000_000;
+        }
+
+        @Override
+        public Token get(String token) {
+            LockSupport.parkNanos(latencyNanos);
+            return store.get(token);
+        }
+
+        @Override
+        public Token compute(String token, UnaryOperator<Token> remapping) {
+            return store.compute(token, remapping);
+        }
+
+        @Override
+        public Stream<Token> tokens() {
+            return store.tokens();
+        }
+
+        @Override
+        public long size() {
+            return store.size();
+        }
+    }
+}
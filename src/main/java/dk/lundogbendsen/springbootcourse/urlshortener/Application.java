@@ -1,11 +1,23 @@
 package dk.lundogbendsen.springbootcourse.urlshortener;
 
+import dk.lundogbendsen.springbootcourse.urlshortener.cli.ExportCommand;
+import dk.lundogbendsen.springbootcourse.urlshortener.edge.EdgeApplication;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import java.util.Arrays;
+
 @SpringBootApplication
 public class Application {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("--edge")) {
+            EdgeApplication.main(args);
+            return;
+        }
+        if (Arrays.asList(args).contains("--export") || Arrays.asList(args).contains("--import")) {
+            ExportCommand.main(args);
+            return;
+        }
         SpringApplication.run(Application.class, args);
 
     }
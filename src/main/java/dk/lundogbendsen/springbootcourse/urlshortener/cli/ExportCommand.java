@@ -0,0 +1,71 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.cli;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.controller.AdminController;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.export.ExportFormat;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Exports a running instance's store to a file, or imports a file into it, through the endpoints of
+ * {@link AdminController}. Started with {@code --export} or {@code --import}, and takes these options:
+ * <ul>
+ *     <li>{@code --url} of the instance (http://localhost:8080)</li>
+ *     <li>{@code --secret}, its {@code urlshortener.admin.secret}</li>
+ *     <li>{@code --file} to write to or read from</li>
+ *     <li>{@code --format}, {@code binary} (the default) or {@code ndjson}</li>
+ * </ul>
+ * The file is streamed straight to and from the connection, so any size of export can be moved.
+ */
+public class ExportCommand {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        final String url = option(options, "url", "http://localhost:8080") + AdminController.ADMIN_PATH;
+        final String secret = option(options, "secret", null);
+        final String file = option(options, "file", null);
+        if (secret == null || file == null) {
+            System.err.println("Usage: --export|--import --secret=<admin secret> --file=<path> [--url=<instance>] [--format=binary|ndjson]");
+            System.exit(2);
+        }
+        final ExportFormat format = ExportFormat.of(option(options, "format", "binary"));
+        final HttpClient client = HttpClient.newHttpClient();
+        final Path path = Path.of(file);
+        if (options.containsProperty("export")) {
+            final HttpResponse<Path> response = client.send(HttpRequest.newBuilder(URI.create(url + "/export?format=" + format.name().toLowerCase(Locale.ROOT)))
+                    .header(AdminController.ADMIN_HEADER, secret)
+                    .GET().build(), HttpResponse.BodyHandlers.ofFile(path));
+            if (response.statusCode() != 200) {
+                final String message = Files.readString(path);
+                Files.delete(path);
+                fail(response.statusCode(), message);
+            }
+            System.out.println("Exported to " + path + ", " + Files.size(path) + " bytes");
+        } else {
+            final HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url + "/import"))
+                    .header(AdminController.ADMIN_HEADER, secret)
+                    .header("Content-Type", format.mediaType())
+                    .POST(HttpRequest.BodyPublishers.ofFile(path)).build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                fail(response.statusCode(), response.body());
+            }
+            System.out.println(response.body());
+        }
+    }
+
+    private static void fail(int status, String message) {
+        System.err.println("Failed with status " + status + ": " + message);
+        System.exit(1);
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        final String value = options.getProperty(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,68 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.export.ExportFormat;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.export.StoreExporter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Exports and imports the whole store, see {@link StoreExporter}. Only there when {@code urlshortener.admin.secret}
+ * is set, and only requests carrying it are let through. With sharding, each node exports and imports its own
+ * tokens.
+ * <p>
+ * Exports are streamed as they are written, so a failure part way, such as too many changes during the export,
+ * shows as a response cut off before the trailer, which imports reject.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "urlshortener.admin.secret")
+@RequestMapping(AdminController.ADMIN_PATH)
+public class AdminController {
+    public static final String ADMIN_HEADER = "X-Urlshortener-Admin";
+    public static final String ADMIN_PATH = "/internal/admin";
+    private static final int RESPONSE_BUFFER_SIZE = 1 << 16;
+
+    @Autowired
+    StoreExporter exporter;
+    @Value("${urlshortener.admin.secret}")
+    String secret;
+
+    @GetMapping("/export")
+    public void export(@RequestHeader(value = ADMIN_HEADER, required = false) String secret,
+                       @RequestParam(defaultValue = "binary") String format,
+                       HttpServletResponse response) throws IOException {
+        authorize(secret);
+        final ExportFormat exportFormat = ExportFormat.of(format);
+        response.setContentType(exportFormat.mediaType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"urlshortener-export."
+                + exportFormat.name().toLowerCase(Locale.ROOT) + "\"");
+        response.setBufferSize(RESPONSE_BUFFER_SIZE);
+        exporter.export(response.getOutputStream(), exportFormat);
+    }
+
+    @PostMapping("/import")
+    public Map<String, Long> importFrom(@RequestHeader(value = ADMIN_HEADER, required = false) String secret,
+                                        HttpServletRequest request) throws IOException {
+        authorize(secret);
+        return Map.of("imported", exporter.importFrom(request.getInputStream(), ExportFormat.ofMediaType(request.getContentType())));
+    }
+
+    private void authorize(String header) {
+        if (header == null || !MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), header.getBytes(StandardCharsets.UTF_8))) {
+            throw new AccessDeniedException();
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.controller;
 
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
 import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
@@ -10,11 +15,15 @@ import javax.servlet.http.HttpServletRequest;
 import java.util.Map;
 
 @RestControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ControllerAdvicerServiceLayer {
+    @Autowired(required = false)
+    UrlShortenerMetrics metrics = UrlShortenerMetrics.NONE;
 
     @ExceptionHandler({TokenAlreadyExistsException.class, UserExistsException.class})
     @ResponseStatus(HttpStatus.CONFLICT)
     public Map<String, String> handleConflict(Exception exception) {
+        metrics.error(exception);
         if (exception instanceof TokenAlreadyExistsException) {
             return Map.of("message", "The token already exists");
         } else {
@@ -25,18 +34,58 @@ public class ControllerAdvicerServiceLayer {
     @ExceptionHandler({TokenNotFoundExistsException.class})
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public Map<String, String> handleNotFound(TokenNotFoundExistsException exception) {
+        metrics.error(exception);
         return Map.of("message", "The token was not found");
     }
 
-    @ExceptionHandler({IllegalTargetUrlException.class, IllegalTokenNameException.class, InvalidTargetUrlException.class, TokenTargetUrlIsNullException.class})
+    @ExceptionHandler({IllegalTargetUrlException.class, IllegalTokenNameException.class, InvalidTargetUrlException.class, TokenTargetUrlIsNullException.class,
+            InvalidExpiryException.class, IllegalProtectTokenException.class})
     @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
     public Map<String, String> handleValidation(Exception exception) {
+        metrics.error(exception);
         return Map.of("message", "The token did not validate", "validation-type", exception.getClass().getSimpleName());
     }
 
+    @ExceptionHandler({IllegalUsernameException.class})
+    @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+    public Map<String, String> handleIllegalUsername(IllegalUsernameException exception) {
+        metrics.error(exception);
+        return Map.of("message", "The username is not valid");
+    }
+
+    @ExceptionHandler({InvalidCursorException.class})
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public Map<String, String> handleBadRequest(InvalidCursorException exception) {
+        metrics.error(exception);
+        return Map.of("message", "The cursor is not valid");
+    }
+
+    @ExceptionHandler({InvalidExportException.class})
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public Map<String, String> handleInvalidExport(InvalidExportException exception) {
+        metrics.error(exception);
+        return Map.of("message", exception.getMessage());
+    }
+
+    @ExceptionHandler({ReadOnlyReplicaException.class})
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public Map<String, String> handleReadOnly(ReadOnlyReplicaException exception) {
+        metrics.error(exception);
+        return Map.of("message", "This instance is a read-only replica, writes go to the leader");
+    }
+
     @ExceptionHandler({AccessDeniedException.class})
     @ResponseStatus(HttpStatus.UNAUTHORIZED)
     public Map<String, String> handleSecurity(AccessDeniedException exception, HttpServletRequest request) {
+        metrics.error(exception);
         return Map.of("message", "The operation is not allowed", "path", request.getRequestURI());
     }
+
+    @ExceptionHandler({RateLimitedException.class})
+    public ResponseEntity<Map<String, String>> handleRateLimited(RateLimitedException exception) {
+        metrics.error(exception);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(exception.retryAfterSeconds()))
+                .body(Map.of("message", "Too many requests"));
+    }
 }
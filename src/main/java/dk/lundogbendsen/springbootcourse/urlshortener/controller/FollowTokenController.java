@@ -1,7 +1,12 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.controller;
 
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics.Outcome;
 import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenNotFoundExistsException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -10,15 +15,41 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class FollowTokenController {
+    private static final Map<String, String> NOT_FOUND = Map.of("message", "The token was not found");
+
     @Autowired
     TokenService tokenService;
+    @Autowired(required = false)
+    UrlShortenerMetrics metrics = UrlShortenerMetrics.NONE;
+    @Autowired(required = false)
+    RedirectCaching caching = RedirectCaching.DEFAULT;
 
     @GetMapping("{token}")
     public ResponseEntity<Object> follow(@PathVariable String token, @RequestHeader(required = false) String protectToken) {
-        final String targetUrl = tokenService.resolveToken(token, protectToken);
-        return ResponseEntity.status(HttpStatus.MOVED_PERMANENTLY).header(HttpHeaders.LOCATION, targetUrl).build();
+        final long start = System.nanoTime();
+        final String targetUrl;
+        try {
+            targetUrl = tokenService.resolveToken(token, protectToken);
+        } catch (TokenNotFoundExistsException e) {
+            // Answered here rather than by the controller advice, misses are mostly bots and there are many of them
+            metrics.redirect(Outcome.MISS, start);
+            metrics.error(e);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).header(HttpHeaders.CACHE_CONTROL, caching.notFoundCacheControl()).body(NOT_FOUND);
+        } catch (AccessDeniedException e) {
+            metrics.redirect(Outcome.DENIED, start);
+            throw e;
+        }
+        tokenService.recordClick(token);
+        metrics.redirect(Outcome.HIT, start);
+        return ResponseEntity.status(caching.status())
+                .header(HttpHeaders.LOCATION, targetUrl)
+                .header(HttpHeaders.CACHE_CONTROL, caching.cacheControl(protectToken))
+                .build();
     }
 
 }
@@ -0,0 +1,57 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimiter;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimits;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.ShardClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+
+/**
+ * Enables rate limits with {@code urlshortener.rate-limit.enabled=true}. Each of {@code ip}, {@code user} and
+ * {@code token} under {@code urlshortener.rate-limit} takes {@code requests} per {@code period} (default 1s) with
+ * bursts of up to {@code burst} (default requests); without requests there is no such limit. Each keeps buckets for
+ * about {@code urlshortener.rate-limit.table-size} keys. The client address is the connection's, so behind a proxy
+ * set {@code server.forward-headers-strategy} for it to be the client's.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "urlshortener.rate-limit.enabled", havingValue = "true")
+public class RateLimitConfig {
+
+    @Bean
+    public RateLimits rateLimits(Environment environment, @Value("${urlshortener.rate-limit.table-size:65536}") int tableSize) {
+        return new RateLimits(limiter(environment, "ip", tableSize), limiter(environment, "user", tableSize), limiter(environment, "token", tableSize));
+    }
+
+    @Bean
+    public FilterRegistrationBean<RateLimitFilter> rateLimitFilter(RateLimits rateLimits, ObjectProvider<ShardClient> shardClient,
+                                                                   ObjectProvider<UrlShortenerMetrics> metrics) {
+        final RateLimitFilter filter = new RateLimitFilter(rateLimits, shardClient.getIfAvailable(), metrics.getIfAvailable(() -> UrlShortenerMetrics.NONE));
+        final FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(filter);
+        registration.addUrlPatterns("/*");
+        // Before shard routing, so requests are limited where they come in rather than on every node they reach
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    private static RateLimiter limiter(Environment environment, String scope, int tableSize) {
+        final String prefix = "urlshortener.rate-limit." + scope + ".";
+        final int requests = environment.getProperty(prefix + "requests", Integer.class, 0);
+        if (requests <= 0) {
+            return null;
+        }
+        final Duration period = environment.getProperty(prefix + "period", Duration.class, Duration.ofSeconds(1));
+        final int burst = environment.getProperty(prefix + "burst", Integer.class, requests);
+        return new RateLimiter(requests, period, burst, tableSize);
+    }
+}
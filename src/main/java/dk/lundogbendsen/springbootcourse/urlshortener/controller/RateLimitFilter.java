@@ -0,0 +1,98 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.RateLimitedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimits;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.ShardClient;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.util.UriUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Applies the limits per client address to every request and the limits per token to {@code GET /{token}}, ahead
+ * of every other filter so the redirect fast path and shard forwarding are limited too. Throttled requests get
+ * 429 with Retry-After. Requests forwarded by another shard were limited where they came in. The limits per user
+ * need the user to be authenticated, the SecurityIntercepter applies them.
+ */
+public class RateLimitFilter extends HttpFilter {
+    private static final byte[] TOO_MANY_REQUESTS = "{\"message\":\"Too many requests\"}".getBytes(StandardCharsets.UTF_8);
+    private static final Set<String> NOT_TOKENS = Set.of("token", "user", "actuator", "internal", "error");
+
+    private final RateLimits rateLimits;
+    private final ShardClient shardClient;
+    private final UrlShortenerMetrics metrics;
+
+    /**
+     * shardClient is null without sharding.
+     */
+    public RateLimitFilter(RateLimits rateLimits, ShardClient shardClient, UrlShortenerMetrics metrics) {
+        this.rateLimits = rateLimits;
+        this.shardClient = shardClient;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (shardClient == null || !shardClient.isFromShard(request.getHeader(ShardClient.SHARD_HEADER))) {
+            try {
+                rateLimits.client(request.getRemoteAddr());
+                final String token = redirectToken(request);
+                if (token != null) {
+                    rateLimits.token(token);
+                }
+            } catch (RateLimitedException e) {
+                metrics.error(e);
+                response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(e.retryAfterSeconds()));
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                response.setContentLength(TOO_MANY_REQUESTS.length);
+                response.getOutputStream().write(TOO_MANY_REQUESTS);
+                return;
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * The token of a redirect as Spring MVC resolves it, or null if the request isn't one. A trailing slash and path
+     * parameters are dropped and the rest is percent-decoded, so {@code /abc}, {@code /abc/} and {@code /%61bc}
+     * share one limit.
+     */
+    static String redirectToken(HttpServletRequest request) {
+        final String method = request.getMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            return null;
+        }
+        final String uri = request.getRequestURI();
+        final int start = request.getContextPath().length() + 1;
+        int end = uri.length();
+        if (end > start && uri.charAt(end - 1) == '/') {
+            end--;
+        }
+        final int parameters = uri.indexOf(';', start);
+        if (parameters >= 0 && parameters < end) {
+            end = parameters;
+        }
+        if (end <= start || uri.lastIndexOf('/', end - 1) >= start) {
+            return null;
+        }
+        final String token;
+        try {
+            token = UriUtils.decode(uri.substring(start, end), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            // Not a valid encoding, MVC rejects it
+            return null;
+        }
+        return NOT_TOKENS.contains(token) ? null : token;
+    }
+}
@@ -0,0 +1,54 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics.Outcome;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenNotFoundExistsException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.reactive.ReactiveTokenService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveFollowTokenController {
+    private static final Map<String, String> NOT_FOUND = Map.of("message", "The token was not found");
+
+    @Autowired
+    ReactiveTokenService tokenService;
+    @Autowired(required = false)
+    UrlShortenerMetrics metrics = UrlShortenerMetrics.NONE;
+    @Autowired(required = false)
+    RedirectCaching caching = RedirectCaching.DEFAULT;
+
+    @GetMapping("{token}")
+    public Mono<ResponseEntity<Object>> follow(@PathVariable String token, @RequestHeader(required = false) String protectToken) {
+        final long start = System.nanoTime();
+        return tokenService.resolveToken(token, protectToken)
+                .doOnError(AccessDeniedException.class, e -> metrics.reactiveRedirect(Outcome.DENIED, start))
+                .map(targetUrl -> {
+                    tokenService.recordClick(token);
+                    metrics.reactiveRedirect(Outcome.HIT, start);
+                    return ResponseEntity.status(caching.status())
+                            .header(HttpHeaders.LOCATION, targetUrl)
+                            .header(HttpHeaders.CACHE_CONTROL, caching.cacheControl(protectToken))
+                            .build();
+                })
+                .onErrorResume(TokenNotFoundExistsException.class, e -> {
+                    metrics.reactiveRedirect(Outcome.MISS, start);
+                    metrics.error(e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND)
+                            .header(HttpHeaders.CACHE_CONTROL, caching.notFoundCacheControl())
+                            .body(NOT_FOUND));
+                });
+    }
+}
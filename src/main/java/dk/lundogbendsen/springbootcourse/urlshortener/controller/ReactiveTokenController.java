@@ -0,0 +1,188 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.controller.security.ReactiveSecurityContext;
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenPage;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenStats;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.reactive.ReactiveTokenService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * TokenController on WebFlux, enabled with {@code spring.main.web-application-type=reactive}. Same endpoints,
+ * statuses and bodies; the user comes from ReactiveSecurityContext.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/token")
+public class ReactiveTokenController {
+    @Autowired
+    ReactiveTokenService tokenService;
+    @Autowired(required = false)
+    UrlShortenerMetrics metrics = UrlShortenerMetrics.NONE;
+
+    /**
+     * Listings carry the same ETags as TokenController's and answer 304 without reading any tokens.
+     */
+    @GetMapping(params = {"!limit", "!cursor"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<List<Token>>> list(@RequestHeader HttpHeaders headers) {
+        return ReactiveSecurityContext.requireUser().flatMap(user -> {
+            final String etag = TokenController.listingETag(tokenService.listingVersion(user), "json");
+            if (TokenController.notModified(headers, etag)) {
+                return Mono.just(notModified(etag));
+            }
+            return tokenService.listUserTokens(user).map(tokens -> listing(etag, tokens));
+        });
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<TokenPage>> page(@RequestParam(defaultValue = "100") int limit, @RequestParam(required = false) String cursor,
+                                                @RequestHeader HttpHeaders headers) {
+        return ReactiveSecurityContext.requireUser().flatMap(user -> {
+            final String etag = TokenController.listingETag(tokenService.listingVersion(user), "json");
+            if (TokenController.notModified(headers, etag)) {
+                return Mono.just(notModified(etag));
+            }
+            return tokenService.listUserTokens(user, cursor, limit).map(page -> listing(etag, page));
+        });
+    }
+
+    /**
+     * All of the user's tokens (after cursor) as NDJSON, written as the client reads them.
+     */
+    @GetMapping(produces = TokenController.NDJSON)
+    public Mono<ResponseEntity<Flux<Token>>> stream(@RequestParam(required = false) String cursor, @RequestHeader HttpHeaders headers) {
+        return ReactiveSecurityContext.requireUser().map(user -> {
+            final String etag = TokenController.listingETag(tokenService.listingVersion(user), "ndjson");
+            if (TokenController.notModified(headers, etag)) {
+                return notModified(etag);
+            }
+            return listing(etag, tokenService.streamUserTokens(user, cursor));
+        });
+    }
+
+    private static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(TokenController.LISTING_CACHE_CONTROL).build();
+    }
+
+    private static <T> ResponseEntity<T> listing(String etag, T body) {
+        return ResponseEntity.ok().eTag(etag).cacheControl(TokenController.LISTING_CACHE_CONTROL).body(body);
+    }
+
+    /**
+     * Without a token in the body the server picks a short code; the created token is returned either way.
+     */
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<Token> create(@RequestBody Map<String, String> body) {
+        final String token = body.get("token");
+        final String targetUrl = body.get("targetUrl");
+        final String protectToken = body.get("protectToken");
+        final long start = System.nanoTime();
+        return ReactiveSecurityContext.requireUser()
+                .flatMap(user -> tokenService.create(token, targetUrl, protectToken, body.get("expiresAt"), body.get("ttl"), user))
+                .doFinally(signal -> metrics.create(start));
+    }
+
+    /**
+     * Creates tokens from a JSON array or NDJSON body and answers with one NDJSON line per token, like
+     * {@link TokenBatchImporter}. The body is decoded as it arrives, a batch at a time.
+     */
+    @PostMapping(value = "/batch", produces = TokenController.NDJSON)
+    public Flux<Map<String, Object>> createBatch(@RequestBody Flux<Map<String, Object>> body) {
+        final long start = System.nanoTime();
+        return ReactiveSecurityContext.requireUser().flatMapMany(user -> {
+            final int[] index = {0};
+            final AtomicReference<ServerWebInputException> malformed = new AtomicReference<>();
+            // Malformed JSON ends the body early, so the tokens before it are still created
+            final Flux<TokenBatchImporter.Item> tokens = body.map(this::toItem).onErrorResume(ServerWebInputException.class, e -> {
+                malformed.set(e);
+                return Flux.empty();
+            });
+            return tokens.buffer(TokenBatchImporter.BATCH_SIZE)
+                    .concatMap(batch -> createAll(batch, user).flatMapIterable(failures -> results(index, batch, failures)))
+                    .concatWith(Mono.fromSupplier(() -> malformed.get() == null ? null : Map.<String, Object>of("index", index[0],
+                            "status", HttpStatus.BAD_REQUEST.value(),
+                            "message", "The batch is malformed: " + malformed.get().getMostSpecificCause().getMessage())));
+        }).doFinally(signal -> metrics.batchCreate(start));
+    }
+
+    private TokenBatchImporter.Item toItem(Map<String, Object> fields) {
+        return TokenBatchImporter.Item.of(Token.builder()
+                        .token(scalar(fields.get("token")))
+                        .targetUrl(scalar(fields.get("targetUrl")))
+                        .protectToken(scalar(fields.get("protectToken"))),
+                () -> tokenService.expiry(scalar(fields.get("expiresAt")), scalar(fields.get("ttl"))));
+    }
+
+    private Mono<List<RuntimeException>> createAll(List<TokenBatchImporter.Item> batch, User user) {
+        final List<Token> valid = TokenBatchImporter.valid(batch);
+        return (valid.isEmpty() ? Mono.just(List.<RuntimeException>of()) : tokenService.createAll(valid, user))
+                .map(created -> TokenBatchImporter.failures(batch, created));
+    }
+
+    private static String scalar(Object value) {
+        return value instanceof Map || value instanceof List || value == null ? null : value.toString();
+    }
+
+    private static List<Map<String, Object>> results(int[] index, List<TokenBatchImporter.Item> batch, List<RuntimeException> failures) {
+        final List<Map<String, Object>> results = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            final Map<String, Object> result = new LinkedHashMap<>();
+            result.put("index", index[0]++);
+            result.put("token", batch.get(i).token.getToken());
+            result.putAll(TokenBatchImporter.status(failures.get(i)));
+            results.add(result);
+        }
+        return results;
+    }
+
+    @PutMapping("/{token}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> update(@PathVariable String token, @RequestBody Map<String, String> body) {
+        final String targetUrl = body.get("targetUrl");
+        final String protectToken = body.get("protectToken");
+        final long start = System.nanoTime();
+        return ReactiveSecurityContext.requireUser()
+                .flatMap(user -> tokenService.update(token, targetUrl, protectToken, body.get("expiresAt"), body.get("ttl"), user))
+                .doFinally(signal -> metrics.update(start))
+                .then();
+    }
+
+    @GetMapping("/{token}/stats")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<TokenStats> stats(@PathVariable String token) {
+        return ReactiveSecurityContext.requireUser().flatMap(user -> tokenService.clickStats(token, user));
+    }
+
+    @DeleteMapping("/{token}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> delete(@PathVariable String token) {
+        return ReactiveSecurityContext.requireUser().flatMap(user -> tokenService.deleteToken(token, user));
+    }
+
+    @PutMapping("/{token}/protect")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<Void> protect(@PathVariable("token") String theToken, @RequestBody Map<String, String> body) {
+        final String protectToken = body.get("protectToken");
+        return ReactiveSecurityContext.requireUser().flatMap(user -> tokenService.getToken(theToken, user)
+                        .flatMap(token -> tokenService.update(theToken, token.getTargetUrl(), protectToken, user)))
+                .then();
+    }
+}
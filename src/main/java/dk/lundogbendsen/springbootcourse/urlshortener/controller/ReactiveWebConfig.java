@@ -0,0 +1,21 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Serves the reactive API, enabled with {@code spring.main.web-application-type=reactive}, from Netty, with one
+ * event loop thread per core. Spring Boot would otherwise pick Tomcat, since it is on the classpath for the
+ * servlet API.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWebConfig {
+
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+}
@@ -0,0 +1,68 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import java.time.Duration;
+
+/**
+ * The status and caching headers of {@code GET /{token}} responses, the same for the MVC, reactive, fast path and
+ * edge redirects. A redirect may be cached for max-age, so an update reaches clients that followed the token before
+ * within that time; 301 and 308 are only cached that long as well, as they carry a Cache-Control. Unknown tokens
+ * are cached briefly, which keeps repeated guesses off the server without hiding a new token for long. Redirects
+ * followed with a protectToken header are never stored, a shared cache would hand them to anyone.
+ */
+public class RedirectCaching {
+    public static final RedirectCaching DEFAULT = new RedirectCaching(301, Duration.ofMinutes(5), Duration.ofSeconds(10));
+    public static final String NO_STORE = "private, no-store";
+
+    private final int status;
+    private final String reason;
+    private final String cacheControl;
+    private final String notFoundCacheControl;
+
+    /**
+     * @throws IllegalArgumentException if status isn't 301, 302, 307 or 308
+     */
+    public RedirectCaching(int status, Duration maxAge, Duration notFoundMaxAge) {
+        this.status = status;
+        this.reason = reason(status);
+        this.cacheControl = cacheControl(maxAge);
+        this.notFoundCacheControl = cacheControl(notFoundMaxAge);
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 301:
+                return "Moved Permanently";
+            case 302:
+                return "Found";
+            case 307:
+                return "Temporary Redirect";
+            case 308:
+                return "Permanent Redirect";
+            default:
+                throw new IllegalArgumentException("Not a redirect status: " + status);
+        }
+    }
+
+    private static String cacheControl(Duration maxAge) {
+        return maxAge.isZero() || maxAge.isNegative() ? "no-cache" : "public, max-age=" + maxAge.getSeconds();
+    }
+
+    public int status() {
+        return status;
+    }
+
+    public String reason() {
+        return reason;
+    }
+
+    /**
+     * Cache-Control of a redirect requested with the given protectToken header, which may be null.
+     */
+    public String cacheControl(String protectToken) {
+        return protectToken != null ? NO_STORE : cacheControl;
+    }
+
+    public String notFoundCacheControl() {
+        return notFoundCacheControl;
+    }
+}
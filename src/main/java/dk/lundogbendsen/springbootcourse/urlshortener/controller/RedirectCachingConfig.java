@@ -0,0 +1,23 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Redirect caching from {@code urlshortener.redirect.status} (301, 302, 307 or 308),
+ * {@code urlshortener.redirect.max-age} and {@code urlshortener.redirect.not-found-max-age}; the defaults are those
+ * of {@link RedirectCaching#DEFAULT}. A max-age of 0 makes clients check back every time.
+ */
+@Configuration
+public class RedirectCachingConfig {
+
+    @Bean
+    public RedirectCaching redirectCaching(@Value("${urlshortener.redirect.status:301}") int status,
+                                           @Value("${urlshortener.redirect.max-age:5m}") Duration maxAge,
+                                           @Value("${urlshortener.redirect.not-found-max-age:10s}") Duration notFoundMaxAge) {
+        return new RedirectCaching(status, maxAge, notFoundMaxAge);
+    }
+}
@@ -0,0 +1,32 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Enables the redirect fast path with {@code urlshortener.redirect.fast-path=true}.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "urlshortener.redirect.fast-path", havingValue = "true")
+public class RedirectFastPathConfig {
+
+    @Bean
+    public FilterRegistrationBean<RedirectFastPathFilter> redirectFastPathFilter(TokenService tokenService, ObjectProvider<UrlShortenerMetrics> metrics,
+                                                                                 ObjectProvider<RedirectCaching> caching) {
+        final RedirectFastPathFilter filter = new RedirectFastPathFilter(tokenService, metrics.getIfAvailable(() -> UrlShortenerMetrics.NONE),
+                caching.getIfAvailable(() -> RedirectCaching.DEFAULT));
+        final FilterRegistrationBean<RedirectFastPathFilter> registration = new FilterRegistrationBean<>(filter);
+        registration.addUrlPatterns("/*");
+        // After shard routing, which sends redirects for tokens owned elsewhere to their owner
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+        return registration;
+    }
+}
@@ -0,0 +1,110 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics.Outcome;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenNotFoundExistsException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Answers {@code GET /{token}} straight from the servlet filter chain, without going through the dispatcher
+ * servlet, the SecurityIntercepter, argument resolution or ResponseEntity. Unknown tokens and protected tokens
+ * without the right protect token are answered here too, with the same status, headers and body as
+ * FollowTokenController and the controller advice give them, so the token is resolved only once. Requests with
+ * credentials or encoded paths continue down the chain to FollowTokenController.
+ */
+public class RedirectFastPathFilter extends HttpFilter {
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final byte[] NOT_FOUND = "{\"message\":\"The token was not found\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final TokenService tokenService;
+    private final UrlShortenerMetrics metrics;
+    private final RedirectCaching caching;
+
+    public RedirectFastPathFilter(TokenService tokenService) {
+        this(tokenService, UrlShortenerMetrics.NONE, RedirectCaching.DEFAULT);
+    }
+
+    public RedirectFastPathFilter(TokenService tokenService, UrlShortenerMetrics metrics, RedirectCaching caching) {
+        this.tokenService = tokenService;
+        this.metrics = metrics;
+        this.caching = caching;
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final String token = redirectToken(request);
+        if (token != null) {
+            final long start = System.nanoTime();
+            final String protectToken = request.getHeader("protectToken");
+            final String targetUrl;
+            try {
+                targetUrl = tokenService.resolveToken(token, protectToken);
+            } catch (TokenNotFoundExistsException e) {
+                metrics.redirect(Outcome.MISS, start);
+                metrics.error(e);
+                response.setHeader(HttpHeaders.CACHE_CONTROL, caching.notFoundCacheControl());
+                writeJson(response, HttpStatus.NOT_FOUND, NOT_FOUND);
+                return;
+            } catch (AccessDeniedException e) {
+                metrics.redirect(Outcome.DENIED, start);
+                metrics.error(e);
+                writeJson(response, HttpStatus.UNAUTHORIZED,
+                        JSON.writeValueAsBytes(Map.of("message", "The operation is not allowed", "path", request.getRequestURI())));
+                return;
+            }
+            response.setStatus(caching.status());
+            response.setHeader(HttpHeaders.LOCATION, targetUrl);
+            response.setHeader(HttpHeaders.CACHE_CONTROL, caching.cacheControl(protectToken));
+            response.setContentLength(0);
+            tokenService.recordClick(token);
+            metrics.fastPathRedirect(start);
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    private static void writeJson(HttpServletResponse response, HttpStatus status, byte[] body) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * The token of a request the fast path may answer, or null. Requests with credentials are left to the
+     * interceptor, which rejects bad ones even on redirects.
+     */
+    static String redirectToken(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod()) || request.getHeader(HttpHeaders.AUTHORIZATION) != null) {
+            return null;
+        }
+        final String uri = request.getRequestURI();
+        final int start = request.getContextPath().length() + 1;
+        if (uri.length() <= start || uri.charAt(start - 1) != '/') {
+            return null;
+        }
+        for (int i = start; i < uri.length(); i++) {
+            final char c = uri.charAt(i);
+            // Leave decoding and path parameters to Spring MVC
+            if (c == '/' || c == '%' || c == ';') {
+                return null;
+            }
+        }
+        final String token = uri.substring(start);
+        return token.equals("token") || token.equals("error") || token.equals("actuator") ? null : token;
+    }
+}
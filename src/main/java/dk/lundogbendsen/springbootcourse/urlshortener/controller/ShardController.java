@@ -0,0 +1,125 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.HashRing;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.ShardClient;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.ShardRebalancer;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.Shards;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The endpoints the nodes of a sharded cluster use between them, see {@link ShardClient}. Only requests carrying
+ * the shared secret are let through, which includes starting a rebalance.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "urlshortener.sharding.self")
+@RequestMapping(ShardClient.INTERNAL_PATH)
+public class ShardController {
+    @Autowired
+    Shards shards;
+    @Autowired
+    ShardClient shardClient;
+    @Autowired
+    ShardRebalancer rebalancer;
+    @Autowired
+    TokenService tokenService;
+    @Autowired
+    UserService userService;
+
+    @GetMapping
+    public Map<String, Object> status(@RequestHeader(value = ShardClient.SHARD_HEADER, required = false) String secret) {
+        authorize(secret);
+        final HashRing previous = shards.previousRing();
+        final Map<String, Object> status = new LinkedHashMap<>();
+        status.put("self", shards.self());
+        status.put("nodes", shards.ring().nodes());
+        status.put("previous", previous == null ? null : previous.nodes());
+        status.put("moving", rebalancer.isMoving());
+        status.put("coordinating", rebalancer.isCoordinating());
+        status.put("moved", rebalancer.movedCount());
+        status.put("tokens", tokenService.tokenCount());
+        return status;
+    }
+
+    @PostMapping("/rebalance")
+    public ResponseEntity<Map<String, String>> rebalance(@RequestHeader(value = ShardClient.SHARD_HEADER, required = false) String secret,
+                                                         @RequestBody Map<String, List<String>> body) {
+        authorize(secret);
+        try {
+            rebalancer.coordinate(body.get("nodes"));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("message", e.getMessage()));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("message", "Rebalancing to " + body.get("nodes")));
+    }
+
+    @PutMapping("/ring")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void startRebalance(@RequestHeader(value = ShardClient.SHARD_HEADER, required = false) String secret,
+                               @RequestBody Map<String, List<String>> body) {
+        authorize(secret);
+        rebalancer.start(body.get("previous"), body.get("nodes"));
+    }
+
+    @DeleteMapping("/previous")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void finishRebalance(@RequestHeader(value = ShardClient.SHARD_HEADER, required = false) String secret) {
+        authorize(secret);
+        rebalancer.finish();
+    }
+
+    @RequestMapping(path = "/tokens/{token}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> hasToken(@RequestHeader(value = ShardClient.SHARD_HEADER, required = false) String secret,
+                                         @PathVariable String token) {
+        authorize(secret);
+        return tokenService.hasToken(token) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    @PostMapping(path = "/changes", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void adopt(@RequestHeader(value = ShardClient.SHARD_HEADER, required = false) String secret,
+                      HttpServletRequest request) throws IOException {
+        authorize(secret);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(request.getInputStream()));
+        // A batch of ShardRebalancer.BATCH_SIZE at most, adopted with one journal sync
+        final List<Change> tokens = new ArrayList<>();
+        ChangeCodec.Frame frame;
+        while ((frame = ChangeCodec.read(in)) != null) {
+            final Change change = frame.change;
+            if (change.getType() == Change.Type.TOKEN_SAVED) {
+                tokens.add(change);
+            } else if (change.getType() == Change.Type.USER_SAVED) {
+                userService.adopt(change);
+            }
+        }
+        if (!tokens.isEmpty()) {
+            tokenService.adopt(tokens);
+        }
+    }
+
+    private void authorize(String secret) {
+        if (!shardClient.isFromShard(secret)) {
+            throw new AccessDeniedException();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.ShardClient;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.Shards;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Routes requests to the node owning their token when sharding is enabled, see
+ * {@link dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.ShardingConfig}. It runs before every other
+ * filter but rate limiting, the redirect fast path included, since only the owner can answer.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "urlshortener.sharding.self")
+public class ShardRoutingConfig {
+
+    @Bean
+    public FilterRegistrationBean<ShardRoutingFilter> shardRoutingFilter(Shards shards, ShardClient shardClient, TokenService tokenService,
+                                                                         ObjectMapper objectMapper, ObjectProvider<UrlShortenerMetrics> metrics) {
+        final ShardRoutingFilter filter = new ShardRoutingFilter(shards, shardClient, tokenService, objectMapper,
+                metrics.getIfAvailable(() -> UrlShortenerMetrics.NONE));
+        final FilterRegistrationBean<ShardRoutingFilter> registration = new FilterRegistrationBean<>(filter);
+        registration.addUrlPatterns("/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 5);
+        return registration;
+    }
+}
@@ -0,0 +1,526 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenAlreadyExistsException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.ShardClient;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.Shards;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.util.UriUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Makes a sharded cluster look like one instance: requests about a token are sent on to the node that owns it, see
+ * {@link Shards}, and the answer is passed back as it is. Listings of a user's tokens are asked of every node and
+ * merged in name order, and batches are split by owner with the results put back in order. User changes go to
+ * every node. Requests from other nodes, and everything this node owns, continue down the filter chain.
+ * <p>
+ * During a rebalance, a token this node owns but doesn't have yet is asked of its previous owner, and a new token
+ * is only created here if the previous owner doesn't have one by that name; batches skip that check. Nodes switch
+ * rings one at a time, so a node that hasn't yet may send a request for a token that was already moved; that is
+ * sent on to the new owner.
+ */
+public class ShardRoutingFilter extends HttpFilter {
+    // Headers that only concern one hop, or that the HTTP client sets itself
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "transfer-encoding", "te", "trailer", "upgrade",
+            "proxy-authorization", "proxy-authenticate", "host", "content-length", "expect");
+    private static final Set<String> NOT_TOKENS = Set.of("", "token", "user", "actuator", "internal", "error");
+
+    private final Shards shards;
+    private final ShardClient client;
+    private final TokenService tokenService;
+    private final ObjectMapper objectMapper;
+    private final UrlShortenerMetrics metrics;
+
+    public ShardRoutingFilter(Shards shards, ShardClient client, TokenService tokenService, ObjectMapper objectMapper, UrlShortenerMetrics metrics) {
+        this.shards = shards;
+        this.client = client;
+        this.tokenService = tokenService;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final String path = request.getRequestURI().substring(request.getContextPath().length());
+        final String method = request.getMethod();
+        if (client.isFromShard(request.getHeader(ShardClient.SHARD_HEADER))) {
+            final String token = shards.isRebalancing() ? routedToken(path, method) : null;
+            if (token != null && !shards.isLocal(token) && !tokenService.hasToken(token)) {
+                // Sent by a node that hasn't switched rings yet, after this one handed the token to its new owner
+                forward(shards.owner(token), request, response, request.getInputStream().readAllBytes());
+            } else {
+                chain.doFilter(request, response);
+            }
+            return;
+        }
+        if (path.equals("/token")) {
+            if (method.equals("GET")) {
+                listing(request, response);
+            } else if (method.equals("POST")) {
+                create(request, response, chain);
+            } else {
+                chain.doFilter(request, response);
+            }
+        } else if (path.equals("/token/batch") && method.equals("POST")) {
+            batch(request, response);
+        } else if (path.startsWith("/token/")) {
+            route(segment(path, "/token/".length()), request, response, chain);
+        } else if (path.equals("/user") && method.equals("POST") || path.startsWith("/user/") && method.equals("DELETE")) {
+            everyNode(request, response);
+        } else if ((method.equals("GET") || method.equals("HEAD")) && path.indexOf('/', 1) < 0 && !NOT_TOKENS.contains(segment(path, 1))) {
+            route(segment(path, 1), request, response, chain);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    /**
+     * The token a request about a single token is about, or null.
+     */
+    private static String routedToken(String path, String method) {
+        if (path.startsWith("/token/") && !(path.equals("/token/batch") && method.equals("POST"))) {
+            return segment(path, "/token/".length());
+        }
+        if ((method.equals("GET") || method.equals("HEAD")) && path.indexOf('/', 1) < 0 && !NOT_TOKENS.contains(segment(path, 1))) {
+            return segment(path, 1);
+        }
+        return null;
+    }
+
+    private static String segment(String path, int start) {
+        final int end = path.indexOf('/', start);
+        return UriUtils.decode(end < 0 ? path.substring(start) : path.substring(start, end), StandardCharsets.UTF_8);
+    }
+
+    private void route(String token, HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final String owner = shards.owner(token);
+        if (!owner.equals(shards.self())) {
+            forward(owner, request, response, request.getInputStream().readAllBytes());
+            return;
+        }
+        final String previous = shards.previousOwner(token);
+        if (previous == null || tokenService.hasToken(token)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        forward(previous, request, response, request.getInputStream().readAllBytes());
+    }
+
+    private void create(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final byte[] body = request.getInputStream().readAllBytes();
+        final JsonNode name = readTree(body).path("token");
+        if (!name.isTextual()) {
+            final String node = shards.codeNode();
+            if (node.equals(shards.self())) {
+                chain.doFilter(new BodyRequest(request, body), response);
+            } else {
+                forward(node, request, response, body);
+            }
+            return;
+        }
+        final String token = name.asText();
+        final String owner = shards.owner(token);
+        if (!owner.equals(shards.self())) {
+            forward(owner, request, response, body);
+            return;
+        }
+        final String previous = shards.previousOwner(token);
+        if (previous != null && !tokenService.hasToken(token)) {
+            try {
+                if (client.hasToken(previous, token)) {
+                    metrics.error(new TokenAlreadyExistsException());
+                    writeJson(response, HttpStatus.CONFLICT, Map.of("message", "The token already exists"));
+                    return;
+                }
+            } catch (IOException e) {
+                unreachable(response, previous, e);
+                return;
+            }
+        }
+        chain.doFilter(new BodyRequest(request, body), response);
+    }
+
+    private JsonNode readTree(byte[] body) {
+        try {
+            final JsonNode tree = objectMapper.readTree(body);
+            return tree == null ? objectMapper.missingNode() : tree;
+        } catch (IOException e) {
+            // Left to the controller to reject
+            return objectMapper.missingNode();
+        }
+    }
+
+    /**
+     * Sends the request to every node, this one first, and answers with the first failure or else this node's answer.
+     */
+    private void everyNode(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final byte[] body = request.getInputStream().readAllBytes();
+        final List<String> nodes = new ArrayList<>(shards.nodes());
+        nodes.remove(shards.self());
+        nodes.add(0, shards.self());
+        HttpResponse<byte[]> answer = null;
+        for (String node : nodes) {
+            final HttpResponse<byte[]> nodeAnswer;
+            try {
+                nodeAnswer = client.send(toNode(node, request, request.getRequestURI(), body, false), HttpResponse.BodyHandlers.ofByteArray());
+            } catch (IOException e) {
+                unreachable(response, node, e);
+                return;
+            }
+            if (answer == null || isSuccess(answer) && !isSuccess(nodeAnswer)) {
+                answer = nodeAnswer;
+            }
+        }
+        copyHeaders(answer, response);
+        response.getOutputStream().write(answer.body());
+    }
+
+    private void listing(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final String accept = request.getHeader(HttpHeaders.ACCEPT);
+        final boolean ndjson = accept != null && accept.contains(TokenController.NDJSON);
+        final List<String> nodes = shards.nodes();
+        final List<CompletableFuture<HttpResponse<InputStream>>> pending = new ArrayList<>();
+        for (String node : nodes) {
+            // Without If-None-Match, each node has to answer in full for the merged ETag
+            pending.add(client.sendAsync(toNode(node, request, pathAndQuery(request), new byte[0], true), HttpResponse.BodyHandlers.ofInputStream()));
+        }
+        final List<HttpResponse<InputStream>> answers = new ArrayList<>();
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    answers.add(pending.get(i).join());
+                } catch (CompletionException e) {
+                    unreachable(response, nodes.get(i), e.getCause());
+                    return;
+                }
+            }
+            for (HttpResponse<InputStream> answer : answers) {
+                if (answer.statusCode() != HttpStatus.OK.value()) {
+                    copyHeaders(answer, response);
+                    answer.body().transferTo(response.getOutputStream());
+                    return;
+                }
+            }
+            final StringBuilder versions = new StringBuilder();
+            answers.forEach(answer -> versions.append(answer.headers().firstValue(HttpHeaders.ETAG).orElse("")).append(','));
+            final String etag = TokenController.listingETag(UUID.nameUUIDFromBytes(versions.toString().getBytes(StandardCharsets.UTF_8)).toString(),
+                    ndjson ? "ndjson" : "json");
+            response.setHeader(HttpHeaders.ETAG, etag);
+            response.setHeader(HttpHeaders.CACHE_CONTROL, TokenController.LISTING_CACHE_CONTROL.getHeaderValue());
+            final HttpHeaders requestHeaders = new HttpHeaders();
+            Collections.list(request.getHeaders(HttpHeaders.IF_NONE_MATCH)).forEach(value -> requestHeaders.add(HttpHeaders.IF_NONE_MATCH, value));
+            if (TokenController.notModified(requestHeaders, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            if (ndjson) {
+                response.setContentType(TokenController.NDJSON);
+                mergeLines(answers, response.getOutputStream());
+            } else if (request.getParameter("limit") != null || request.getParameter("cursor") != null) {
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                mergePages(answers, request.getParameter("limit"), response.getOutputStream());
+            } else {
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                final TreeMap<String, JsonNode> tokens = new TreeMap<>();
+                for (HttpResponse<InputStream> answer : answers) {
+                    objectMapper.readTree(answer.body()).forEach(token -> tokens.putIfAbsent(token.path("token").asText(), token));
+                }
+                objectMapper.writeValue(response.getOutputStream(), tokens.values());
+            }
+        } finally {
+            for (HttpResponse<InputStream> answer : answers) {
+                answer.body().close();
+            }
+        }
+    }
+
+    private void mergePages(List<HttpResponse<InputStream>> answers, String limitParameter, OutputStream out) throws IOException {
+        int limit = 100;
+        try {
+            limit = limitParameter != null ? Integer.parseInt(limitParameter) : limit;
+        } catch (NumberFormatException e) {
+            // The nodes have answered 400 already
+        }
+        limit = Math.max(1, Math.min(limit, TokenService.MAX_PAGE_SIZE));
+        final TreeMap<String, JsonNode> tokens = new TreeMap<>();
+        boolean more = false;
+        for (HttpResponse<InputStream> answer : answers) {
+            final JsonNode page = objectMapper.readTree(answer.body());
+            page.path("tokens").forEach(token -> tokens.putIfAbsent(token.path("token").asText(), token));
+            more |= page.path("next").isTextual();
+        }
+        // Each node sent its first limit tokens after the cursor, so the first limit of all of them are complete
+        final ArrayNode page = objectMapper.createArrayNode();
+        String last = null;
+        for (Map.Entry<String, JsonNode> token : tokens.entrySet()) {
+            if (page.size() == limit) {
+                more = true;
+                break;
+            }
+            page.add(token.getValue());
+            last = token.getKey();
+        }
+        final ObjectNode result = objectMapper.createObjectNode();
+        result.set("tokens", page);
+        result.put("next", more && last != null ? TokenService.cursorAfter(Token.builder().token(last).build()) : null);
+        objectMapper.writeValue(out, result);
+    }
+
+    private void mergeLines(List<HttpResponse<InputStream>> answers, ServletOutputStream out) throws IOException {
+        final PriorityQueue<Line> heads = new PriorityQueue<>(Comparator.comparing((Line line) -> line.token));
+        for (HttpResponse<InputStream> answer : answers) {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(answer.body(), StandardCharsets.UTF_8));
+            final Line head = nextLine(reader);
+            if (head != null) {
+                heads.add(head);
+            }
+        }
+        String previous = null;
+        while (!heads.isEmpty()) {
+            final Line head = heads.poll();
+            if (!head.token.equals(previous)) {
+                out.write(head.json.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+                previous = head.token;
+            }
+            final Line next = nextLine(head.reader);
+            if (next != null) {
+                heads.add(next);
+            }
+        }
+    }
+
+    private Line nextLine(BufferedReader reader) throws IOException {
+        String json;
+        do {
+            json = reader.readLine();
+        } while (json != null && json.isBlank());
+        return json == null ? null : new Line(objectMapper.readTree(json).path("token").asText(), json, reader);
+    }
+
+    private static final class Line {
+        final String token;
+        final String json;
+        final BufferedReader reader;
+
+        Line(String token, String json, BufferedReader reader) {
+            this.token = token;
+            this.json = json;
+            this.reader = reader;
+        }
+    }
+
+    private void batch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final List<JsonNode> items = new ArrayList<>();
+        String malformed = null;
+        try (JsonParser parser = objectMapper.getFactory().createParser(request.getInputStream())) {
+            JsonToken next = parser.nextToken();
+            if (next == JsonToken.START_ARRAY) {
+                next = parser.nextToken();
+            }
+            while (next != null && next != JsonToken.END_ARRAY) {
+                items.add(objectMapper.readTree(parser));
+                next = parser.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            malformed = e.getOriginalMessage();
+        }
+        final Map<String, List<Integer>> byNode = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            final JsonNode name = items.get(i).path("token");
+            final String node = name.isTextual() ? shards.owner(name.asText()) : shards.codeNode();
+            byNode.computeIfAbsent(node, key -> new ArrayList<>()).add(i);
+        }
+        final Map<String, CompletableFuture<HttpResponse<byte[]>>> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Integer>> group : byNode.entrySet()) {
+            final ArrayNode part = objectMapper.createArrayNode();
+            group.getValue().forEach(index -> part.add(items.get(index)));
+            final HttpRequest toNode = toNode(group.getKey(), request, request.getRequestURI(), objectMapper.writeValueAsBytes(part), false);
+            pending.put(group.getKey(), client.sendAsync(toNode, HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        final String[] results = new String[items.size()];
+        for (Map.Entry<String, CompletableFuture<HttpResponse<byte[]>>> group : pending.entrySet()) {
+            final HttpResponse<byte[]> answer;
+            try {
+                answer = group.getValue().join();
+            } catch (CompletionException e) {
+                unreachable(response, group.getKey(), e.getCause());
+                return;
+            }
+            if (answer.statusCode() != HttpStatus.OK.value()) {
+                copyHeaders(answer, response);
+                response.getOutputStream().write(answer.body());
+                return;
+            }
+            final List<Integer> indexes = byNode.get(group.getKey());
+            for (String line : new String(answer.body(), StandardCharsets.UTF_8).split("\n")) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                final ObjectNode result = (ObjectNode) objectMapper.readTree(line);
+                final int index = result.path("index").asInt();
+                if (index < indexes.size()) {
+                    result.put("index", indexes.get(index));
+                    results[indexes.get(index)] = objectMapper.writeValueAsString(result);
+                }
+            }
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(TokenController.NDJSON);
+        final ServletOutputStream out = response.getOutputStream();
+        for (String result : results) {
+            if (result != null) {
+                out.write(result.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+        }
+        if (malformed != null) {
+            final Map<String, Object> status = new LinkedHashMap<>();
+            status.put("index", items.size());
+            status.put("status", HttpStatus.BAD_REQUEST.value());
+            status.put("message", "The batch is malformed: " + malformed);
+            out.write(objectMapper.writeValueAsBytes(status));
+            out.write('\n');
+        }
+    }
+
+    private void forward(String node, HttpServletRequest request, HttpServletResponse response, byte[] body) throws IOException {
+        final HttpResponse<InputStream> answer;
+        try {
+            answer = client.send(toNode(node, request, pathAndQuery(request), body, false), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            unreachable(response, node, e);
+            return;
+        }
+        copyHeaders(answer, response);
+        try (InputStream in = answer.body()) {
+            in.transferTo(response.getOutputStream());
+        }
+    }
+
+    private HttpRequest toNode(String node, HttpServletRequest request, String pathAndQuery, byte[] body, boolean unconditional) {
+        final HttpRequest.Builder builder = client.request(node, pathAndQuery);
+        for (String name : Collections.list(request.getHeaderNames())) {
+            final String lowerCase = name.toLowerCase(Locale.ROOT);
+            if (HOP_BY_HOP.contains(lowerCase) || lowerCase.equals(ShardClient.SHARD_HEADER.toLowerCase(Locale.ROOT))
+                    || unconditional && lowerCase.equals("if-none-match")) {
+                continue;
+            }
+            Collections.list(request.getHeaders(name)).forEach(value -> builder.header(name, value));
+        }
+        builder.method(request.getMethod(), body.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+        return builder.build();
+    }
+
+    private static String pathAndQuery(HttpServletRequest request) {
+        return request.getQueryString() == null ? request.getRequestURI() : request.getRequestURI() + "?" + request.getQueryString();
+    }
+
+    private static boolean isSuccess(HttpResponse<?> answer) {
+        return answer.statusCode() / 100 == 2;
+    }
+
+    private static void copyHeaders(HttpResponse<?> answer, HttpServletResponse response) {
+        response.setStatus(answer.statusCode());
+        answer.headers().map().forEach((name, values) -> {
+            if (!HOP_BY_HOP.contains(name.toLowerCase(Locale.ROOT))) {
+                values.forEach(value -> response.addHeader(name, value));
+            }
+        });
+    }
+
+    private void unreachable(HttpServletResponse response, String node, Throwable cause) throws IOException {
+        metrics.error(cause instanceof Exception ? (Exception) cause : new IOException(cause));
+        response.reset();
+        writeJson(response, HttpStatus.BAD_GATEWAY, Map.of("message", "The node holding the token is not reachable", "node", node));
+    }
+
+    private void writeJson(HttpServletResponse response, HttpStatus status, Map<String, String> body) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), body);
+    }
+
+    /**
+     * The request with a body that has been read already.
+     */
+    private static final class BodyRequest extends javax.servlet.http.HttpServletRequestWrapper {
+        private final byte[] body;
+
+        BodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public javax.servlet.ServletInputStream getInputStream() {
+            final ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new javax.servlet.ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(javax.servlet.ReadListener listener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return in.read(buffer, offset, length);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+    }
+}
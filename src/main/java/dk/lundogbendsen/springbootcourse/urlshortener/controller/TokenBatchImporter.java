@@ -0,0 +1,196 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.InvalidExpiryException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenAlreadyExistsException;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Streams a batch of tokens from a JSON array or newline delimited JSON objects into TokenService, and streams one
+ * NDJSON result line per item back. At most one batch of tokens is held in memory, and results are flushed after
+ * every batch so the client sees progress. Malformed JSON ends the import with a final 400 line, since the stream
+ * can't be resynchronised after it; everything before it has been created.
+ */
+class TokenBatchImporter {
+    static final int BATCH_SIZE = 1000;
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final TokenService tokenService;
+
+    TokenBatchImporter(TokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
+    void importTokens(InputStream in, OutputStream out, User user) throws IOException {
+        try (JsonParser parser = JSON.createParser(in); JsonGenerator generator = JSON.createGenerator(out)) {
+            generator.setRootValueSeparator(new SerializedString("\n"));
+            final List<Item> batch = new ArrayList<>(BATCH_SIZE);
+            int index = 0;
+            try {
+                JsonToken next = parser.nextToken();
+                if (next == JsonToken.START_ARRAY) {
+                    next = parser.nextToken();
+                }
+                while (next != null && next != JsonToken.END_ARRAY) {
+                    batch.add(readToken(parser));
+                    if (batch.size() == BATCH_SIZE) {
+                        index = createBatch(generator, index, batch, user);
+                    }
+                    next = parser.nextToken();
+                }
+                createBatch(generator, index, batch, user);
+            } catch (JsonProcessingException e) {
+                index = createBatch(generator, index, batch, user);
+                generator.writeStartObject();
+                generator.writeNumberField("index", index);
+                generator.writeNumberField("status", HttpStatus.BAD_REQUEST.value());
+                generator.writeStringField("message", "The batch is malformed: " + e.getOriginalMessage());
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * A token read from a batch, with the reason it can't be created if that is known before createAll.
+     */
+    static final class Item {
+        final Token token;
+        final RuntimeException failure;
+
+        private Item(Token token, RuntimeException failure) {
+            this.token = token;
+            this.failure = failure;
+        }
+
+        /**
+         * The token, or the token without an expiry and the InvalidExpiryException if expiry throws one.
+         */
+        static Item of(Token.TokenBuilder token, Supplier<Instant> expiry) {
+            try {
+                return new Item(token.expiresAt(expiry.get()).build(), null);
+            } catch (InvalidExpiryException e) {
+                return new Item(token.build(), e);
+            }
+        }
+    }
+
+    /**
+     * The tokens of the items that were read without a failure, to be passed to createAll.
+     */
+    static List<Token> valid(List<Item> batch) {
+        return batch.stream().filter(item -> item.failure == null).map(item -> item.token).collect(Collectors.toList());
+    }
+
+    /**
+     * The failure of every item, given what createAll returned for {@link #valid} of them.
+     */
+    static List<RuntimeException> failures(List<Item> batch, List<RuntimeException> created) {
+        final List<RuntimeException> failures = new ArrayList<>(batch.size());
+        final Iterator<RuntimeException> results = created.iterator();
+        for (Item item : batch) {
+            failures.add(item.failure != null ? item.failure : results.next());
+        }
+        return failures;
+    }
+
+    private Item readToken(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a token object");
+        }
+        final Token.TokenBuilder token = Token.builder();
+        String expiresAt = null;
+        String ttl = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final String value = parser.nextToken().isScalarValue() ? parser.getValueAsString() : null;
+            parser.skipChildren();
+            switch (field) {
+                case "token":
+                    token.token(value);
+                    break;
+                case "targetUrl":
+                    token.targetUrl(value);
+                    break;
+                case "protectToken":
+                    token.protectToken(value);
+                    break;
+                case "expiresAt":
+                    expiresAt = value;
+                    break;
+                case "ttl":
+                    ttl = value;
+                    break;
+                default:
+            }
+        }
+        final String theExpiresAt = expiresAt;
+        final String theTtl = ttl;
+        return Item.of(token, () -> tokenService.expiry(theExpiresAt, theTtl));
+    }
+
+    private int createBatch(JsonGenerator generator, int index, List<Item> batch, User user) throws IOException {
+        if (batch.isEmpty()) {
+            return index;
+        }
+        final List<Token> valid = valid(batch);
+        final List<RuntimeException> failures = failures(batch, valid.isEmpty() ? List.of() : tokenService.createAll(valid, user));
+        for (int i = 0; i < batch.size(); i++) {
+            generator.writeStartObject();
+            generator.writeNumberField("index", index + i);
+            generator.writeStringField("token", batch.get(i).token.getToken());
+            writeStatus(generator, failures.get(i));
+            generator.writeEndObject();
+        }
+        generator.flush();
+        final int next = index + batch.size();
+        batch.clear();
+        return next;
+    }
+
+    private static void writeStatus(JsonGenerator generator, RuntimeException failure) throws IOException {
+        for (Map.Entry<String, Object> field : status(failure).entrySet()) {
+            if (field.getValue() instanceof Integer) {
+                generator.writeNumberField(field.getKey(), (Integer) field.getValue());
+            } else {
+                generator.writeStringField(field.getKey(), (String) field.getValue());
+            }
+        }
+    }
+
+    // Same statuses and messages as ControllerAdvicerServiceLayer gives the single token endpoints
+    static Map<String, Object> status(RuntimeException failure) {
+        final Map<String, Object> status = new LinkedHashMap<>();
+        if (failure == null) {
+            status.put("status", HttpStatus.CREATED.value());
+        } else if (failure instanceof TokenAlreadyExistsException) {
+            status.put("status", HttpStatus.CONFLICT.value());
+            status.put("message", "The token already exists");
+        } else {
+            status.put("status", HttpStatus.UNPROCESSABLE_ENTITY.value());
+            status.put("message", "The token did not validate");
+            status.put("validation-type", failure.getClass().getSimpleName());
+        }
+        return status;
+    }
+}
@@ -1,37 +1,165 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import dk.lundogbendsen.springbootcourse.urlshortener.controller.security.SecurityContext;
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
 import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenPage;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenStats;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
 import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
 import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/token")
 public class TokenController {
+    static final String NDJSON = "application/x-ndjson";
+    // Listings may be kept by the client, but have to be revalidated with their ETag every time
+    static final CacheControl LISTING_CACHE_CONTROL = CacheControl.noCache().cachePrivate();
+
     @Autowired
     TokenService tokenService;
     @Autowired
     UserService userService;
 
-    @GetMapping
-    @ResponseStatus(HttpStatus.OK)
-    public List<Token> list() {
-        return tokenService.listUserTokens(SecurityContext.getUser());
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired(required = false)
+    UrlShortenerMetrics metrics = UrlShortenerMetrics.NONE;
+
+    /**
+     * Listings carry an ETag from {@link TokenService#listingVersion}; when the client already has the current one,
+     * the answer is a 304 without reading any tokens.
+     */
+    @GetMapping(params = {"!limit", "!cursor"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<Token>> list(@RequestHeader HttpHeaders headers) {
+        final User user = SecurityContext.getUser();
+        final String etag = listingETag(tokenService.listingVersion(user), "json");
+        if (notModified(headers, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(LISTING_CACHE_CONTROL).build();
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(LISTING_CACHE_CONTROL).body(tokenService.listUserTokens(user));
     }
 
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<TokenPage> page(@RequestParam(defaultValue = "100") int limit, @RequestParam(required = false) String cursor,
+                                          @RequestHeader HttpHeaders headers) {
+        final User user = SecurityContext.getUser();
+        final String etag = listingETag(tokenService.listingVersion(user), "json");
+        if (notModified(headers, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(LISTING_CACHE_CONTROL).build();
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(LISTING_CACHE_CONTROL).body(tokenService.listUserTokens(user, cursor, limit));
+    }
+
+    /**
+     * All of the user's tokens (after cursor) as NDJSON, written as they are read from the store instead of being
+     * collected into a list first.
+     */
+    @GetMapping(produces = NDJSON)
+    public void stream(@RequestParam(required = false) String cursor, @RequestHeader HttpHeaders headers,
+                       HttpServletResponse response) throws IOException {
+        final User user = SecurityContext.getUser();
+        final String etag = listingETag(tokenService.listingVersion(user), "ndjson");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, LISTING_CACHE_CONTROL.getHeaderValue());
+        if (notModified(headers, etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        final Stream<Token> tokens = tokenService.streamUserTokens(user, cursor);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(NDJSON);
+        try (SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(response.getOutputStream())) {
+            final Iterator<Token> iterator = tokens.iterator();
+            while (iterator.hasNext()) {
+                writer.write(iterator.next());
+            }
+        }
+    }
+
+    /**
+     * The ETag of a listing; the URL tells listings apart, but JSON and NDJSON of the same URL need different tags.
+     */
+    static String listingETag(String version, String representation) {
+        return "\"" + version + "-" + representation + "\"";
+    }
+
+    /**
+     * Whether the request's If-None-Match has etag, compared weakly as RFC 7232 asks.
+     */
+    static boolean notModified(HttpHeaders headers, String etag) {
+        final List<String> ifNoneMatch;
+        try {
+            ifNoneMatch = headers.getIfNoneMatch();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch) {
+            if (candidate.equals("*") || candidate.equals(etag) || candidate.startsWith("W/") && candidate.substring(2).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Without a token in the body the server picks a short code; the created token is returned either way. It
+     * expires at {@code expiresAt} or after {@code ttl}, see {@link TokenService#expiry}, if either is given.
+     */
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
-    public void create(@RequestBody Map<String, String> body) {
+    public Token create(@RequestBody Map<String, String> body) {
         final String token = body.get("token");
         final String targetUrl = body.get("targetUrl");
         final String protectToken = body.get("protectToken");
-        tokenService.create(token, targetUrl, protectToken, SecurityContext.getUser());
+        final long start = System.nanoTime();
+        try {
+            final Instant expiresAt = tokenService.expiry(body.get("expiresAt"), body.get("ttl"));
+            return tokenService.create(token, targetUrl, protectToken, expiresAt, SecurityContext.getUser());
+        } finally {
+            metrics.create(start);
+        }
+    }
+
+    /**
+     * Creates tokens from a JSON array or NDJSON body and answers with one NDJSON line per token, see
+     * {@link TokenBatchImporter}.
+     */
+    @PostMapping("/batch")
+    public void createBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final User user = SecurityContext.getUser();
+        if (user == null) {
+            throw new AccessDeniedException();
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(NDJSON);
+        final long start = System.nanoTime();
+        try {
+            new TokenBatchImporter(tokenService).importTokens(request.getInputStream(), response.getOutputStream(), user);
+        } finally {
+            metrics.batchCreate(start);
+        }
     }
 
     @PutMapping("/{token}")
@@ -39,7 +167,19 @@ public class TokenController {
     public void update(@PathVariable String token, @RequestBody Map<String, String> body) {
         final String targetUrl = body.get("targetUrl");
         final String protectToken = body.get("protectToken");
-        tokenService.update(token, targetUrl, protectToken, SecurityContext.getUser());
+        final long start = System.nanoTime();
+        try {
+            final Instant expiresAt = tokenService.expiry(body.get("expiresAt"), body.get("ttl"));
+            tokenService.update(token, targetUrl, protectToken, expiresAt, SecurityContext.getUser());
+        } finally {
+            metrics.update(start);
+        }
+    }
+
+    @GetMapping("/{token}/stats")
+    @ResponseStatus(HttpStatus.OK)
+    public TokenStats stats(@PathVariable String token) {
+        return tokenService.clickStats(token, SecurityContext.getUser());
     }
 
     @DeleteMapping("/{token}")
@@ -0,0 +1,54 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs every request on its own virtual thread instead of Tomcat's pool of 200 platform threads when
+ * {@code urlshortener.virtual-threads.enabled=true}, so requests blocked on the journal or a store don't cap how
+ * many are served at once. Virtual threads need Java 21; on older runtimes this logs a warning and keeps the pool.
+ * SecurityContext stays per request, since a request's interceptors and handler run on one thread either way.
+ */
+@Configuration
+@ConditionalOnProperty(name = "urlshortener.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadsConfig.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsProtocolHandlerCustomizer() {
+        final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        if (executor == null) {
+            log.warn("Virtual threads need Java 21 or later, this is Java {}. Requests run on Tomcat's thread pool",
+                    Runtime.version().feature());
+            return protocolHandler -> {
+            };
+        }
+        log.info("Running requests on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    // Looked up reflectively so the application still builds and runs on Java 17
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        final Method factory;
+        try {
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller.security;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Checks the credentials of a Basic Authorization header, for SecurityIntercepter and ReactiveSecurityFilter.
+ * A password hash check can take tens of milliseconds, which the cache of verified credentials avoids for
+ * repeated requests; callers on an event loop must still run it somewhere else.
+ */
+class BasicAuthenticator {
+    private final VerifiedCredentials verifiedCredentials = new VerifiedCredentials();
+
+    /**
+     * Returns the user the base64 encoded {@code username:password} belongs to, or null if they don't check out.
+     */
+    User authenticate(String credentials, UserService userService, PasswordEncoder passwordEncoder) {
+        final String decoded;
+        try {
+            decoded = new String(Base64.getDecoder().decode(credentials), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // Only the username is split off, the password may contain colons
+        final int colon = decoded.indexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        final String password = decoded.substring(colon + 1);
+        final User user = userService.getUser(decoded.substring(0, colon));
+        if (user == null || user.getPassword() == null) {
+            return null;
+        }
+        if (verifiedCredentials.contains(user, password)) {
+            return user;
+        }
+        if (!passwordEncoder.matches(password, user.getPassword())) {
+            return null;
+        }
+        final User upgraded = userService.upgradePassword(user, password);
+        final User current = upgraded != null ? upgraded : user;
+        verifiedCredentials.add(current, password);
+        return current;
+    }
+}
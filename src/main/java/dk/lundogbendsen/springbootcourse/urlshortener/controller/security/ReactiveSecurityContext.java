@@ -0,0 +1,29 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller.security;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+/**
+ * SecurityContext for the reactive API. A request may hop between threads, so the user travels in the Reactor
+ * context of the request, written by ReactiveSecurityFilter, instead of a ThreadLocal.
+ */
+public class ReactiveSecurityContext {
+    private static final Class<User> USER = User.class;
+
+    public static Mono<User> getUser() {
+        return Mono.deferContextual(context -> Mono.justOrEmpty(context.getOrEmpty(USER)));
+    }
+
+    /**
+     * The user of the request, or AccessDeniedException if it isn't authenticated.
+     */
+    public static Mono<User> requireUser() {
+        return getUser().switchIfEmpty(Mono.error(AccessDeniedException::new));
+    }
+
+    static Context withUser(Context context, User user) {
+        return context.put(USER, user);
+    }
+}
@@ -0,0 +1,77 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller.security;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.Passwords;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * SecurityIntercepter for the reactive API: authenticates Basic credentials and passes the user on in the Reactor
+ * context, see ReactiveSecurityContext. The password check runs off the event loop, since a hash can take tens of
+ * milliseconds. Wrong credentials are answered here with the same 401 the controllers give.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveSecurityFilter implements WebFilter {
+    @Autowired
+    UserService userService;
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired(required = false)
+    UrlShortenerMetrics metrics = UrlShortenerMetrics.NONE;
+    @Autowired(required = false)
+    PasswordEncoder passwordEncoder = Passwords.newEncoder();
+    private final BasicAuthenticator authenticator = new BasicAuthenticator();
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        final String auth = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (auth == null || !auth.startsWith("Basic")) {
+            return chain.filter(exchange);
+        }
+        final long start = System.nanoTime();
+        return Mono.fromCallable(() -> Optional.ofNullable(authenticator.authenticate(auth.substring(6), userService, passwordEncoder)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(user -> {
+                    metrics.authentication(user.isPresent(), start);
+                    if (user.isEmpty()) {
+                        return deny(exchange);
+                    }
+                    final User authenticated = user.get();
+                    return chain.filter(exchange).contextWrite(context -> ReactiveSecurityContext.withUser(context, authenticated));
+                });
+    }
+
+    private Mono<Void> deny(ServerWebExchange exchange) {
+        metrics.error(new AccessDeniedException());
+        final ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.UNAUTHORIZED);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        final byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Map.of("message", "The operation is not allowed", "path", exchange.getRequest().getPath().value()));
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+}
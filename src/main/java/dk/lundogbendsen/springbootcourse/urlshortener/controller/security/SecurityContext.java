@@ -22,4 +22,13 @@ public class SecurityContext {
     public static String getProtectToken() {
         return protectTokenState.get();
     }
+
+    /**
+     * Forgets the user and protect token of the current request. Must run when every request completes, also when
+     * it failed, or the next request on a pooled thread would see them.
+     */
+    public static void clear() {
+        userState.remove();
+        protectTokenState.remove();
+    }
 }
@@ -1,35 +1,44 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.controller.security;
 
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
 import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.Passwords;
 import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
 import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimits;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.servlet.HandlerInterceptor;
-import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Base64;
 
 public class SecurityIntercepter implements HandlerInterceptor {
     @Autowired
     UserService userService;
+    @Autowired(required = false)
+    UrlShortenerMetrics metrics = UrlShortenerMetrics.NONE;
+    @Autowired(required = false)
+    PasswordEncoder passwordEncoder = Passwords.newEncoder();
+    @Autowired(required = false)
+    RateLimits rateLimits = RateLimits.NONE;
+    private final BasicAuthenticator authenticator = new BasicAuthenticator();
 
     @Override
 //    @Transactional
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        SecurityContext.clear();
         final String auth = request.getHeader("Authorization");
         if (auth != null) {
             if (auth.startsWith("Basic")) {
-                String userNamePassword = auth.substring(6);
-                String decoded = new String(Base64.getDecoder().decode(userNamePassword));
-                final String[] split = decoded.split(":");
-                String userName = split[0];
-                String password = split[1];
-                final User user = userService.getUser(userName);
-                if (user != null && user.getPassword().equals(password)) {
+                final long start = System.nanoTime();
+                final User user = authenticator.authenticate(auth.substring(6), userService, passwordEncoder);
+                if (user != null) {
                     SecurityContext.setUser(user);
+                    metrics.authentication(true, start);
+                    rateLimits.user(user.getUsername());
                 } else {
+                    metrics.authentication(false, start);
                     throw new AccessDeniedException();
                 }
             } else if (auth.startsWith("Bearer")) {
@@ -45,9 +54,9 @@ public class SecurityIntercepter implements HandlerInterceptor {
         return true;
     }
 
+    // Unlike postHandle this also runs when the handler threw
     @Override
-    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler, ModelAndView modelAndView) {
-        SecurityContext.setUser(null);
-        SecurityContext.setProtectToken(null);
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        SecurityContext.clear();
     }
 }
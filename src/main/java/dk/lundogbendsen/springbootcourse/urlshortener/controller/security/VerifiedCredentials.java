@@ -0,0 +1,81 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller.security;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Credentials that recently passed the slow password hash check, so repeated requests from the same user cost a map
+ * lookup and a SHA-256 instead of a bcrypt. An entry holds the User instance it was verified against, and UserService
+ * replaces that instance whenever the user is deleted or its password changes, so those invalidate it. It holds a
+ * digest keyed with a per-process secret rather than the password itself, and expires after {@link #TTL_SECONDS}.
+ * At most {@link #MAXIMUM_SIZE} users are cached; when full, new credentials are verified but not cached.
+ */
+class VerifiedCredentials {
+    static final long TTL_SECONDS = 60;
+    static final int MAXIMUM_SIZE = 10_000;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final MessageDigest prototype;
+
+    VerifiedCredentials() {
+        try {
+            prototype = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        prototype.update(secret);
+    }
+
+    boolean contains(User user, String password) {
+        final Entry entry = entries.get(user.getUsername());
+        if (entry == null) {
+            return false;
+        }
+        if (entry.user != user || System.nanoTime() - entry.expires >= 0) {
+            entries.remove(user.getUsername(), entry);
+            return false;
+        }
+        return MessageDigest.isEqual(entry.digest, digest(password));
+    }
+
+    void add(User user, String password) {
+        if (entries.size() >= MAXIMUM_SIZE) {
+            final long now = System.nanoTime();
+            entries.values().removeIf(entry -> now - entry.expires >= 0);
+            if (entries.size() >= MAXIMUM_SIZE) {
+                return;
+            }
+        }
+        entries.put(user.getUsername(), new Entry(user, digest(password), System.nanoTime() + TimeUnit.SECONDS.toNanos(TTL_SECONDS)));
+    }
+
+    private byte[] digest(String password) {
+        final MessageDigest digest;
+        try {
+            digest = (MessageDigest) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class Entry {
+        final User user;
+        final byte[] digest;
+        final long expires;
+
+        Entry(User user, byte[] digest, long expires) {
+            this.user = user;
+            this.digest = digest;
+            this.expires = expires;
+        }
+    }
+}
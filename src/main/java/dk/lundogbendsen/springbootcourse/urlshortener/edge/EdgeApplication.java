@@ -0,0 +1,92 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.edge;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.controller.RedirectCaching;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.FileJournal;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.CompactTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.FilteredTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.InMemoryTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.MappedTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.TokenStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Runs only the redirect endpoint on an EdgeServer, without Spring MVC, Tomcat or the management API. Started with
+ * {@code --edge}, and takes the same store and persistence options as the full application, as command line
+ * arguments or system properties:
+ * <ul>
+ *     <li>{@code urlshortener.edge.port} (8080) and {@code urlshortener.edge.threads} (one per core)</li>
+ *     <li>{@code urlshortener.store.type=mapped} with {@code urlshortener.store.directory} and
+ *     {@code urlshortener.store.chunk-size} to serve a mapped store, and the {@code urlshortener.store.filter.*}
+ *     options of its filter, or {@code urlshortener.store.type=compact} for a {@link CompactTokenStore}</li>
+ *     <li>{@code urlshortener.persistence.directory} (data), replayed at startup when it exists</li>
+ *     <li>{@code urlshortener.redirect.status}, {@code urlshortener.redirect.max-age} and
+ *     {@code urlshortener.redirect.not-found-max-age}, see {@link RedirectCaching}</li>
+ * </ul>
+ * The journal is only read, never written, so point it at a copy of the primary's data directory. Tokens created
+ * after startup aren't seen, and clicks aren't counted.
+ */
+public class EdgeApplication {
+    private static final Logger log = LoggerFactory.getLogger(EdgeApplication.class);
+
+    public static void main(String[] args) throws IOException {
+        final SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        final TokenStore store;
+        final String storeType = option(options, "urlshortener.store.type", "memory");
+        if ("mapped".equals(storeType)) {
+            store = new MappedTokenStore(Path.of(option(options, "urlshortener.store.directory", "data/tokens")),
+                    (int) DataSize.parse(option(options, "urlshortener.store.chunk-size", "64MB")).toBytes());
+        } else if ("compact".equals(storeType)) {
+            store = new CompactTokenStore();
+        } else {
+            store = new InMemoryTokenStore();
+        }
+        final boolean filtered = store instanceof MappedTokenStore
+                && Boolean.parseBoolean(option(options, "urlshortener.store.filter.enabled", "true"));
+        final TokenService tokenService = TokenService.withStore(!filtered ? store : new FilteredTokenStore(store,
+                Long.parseLong(option(options, "urlshortener.store.filter.expected-tokens", "1000000")),
+                Double.parseDouble(option(options, "urlshortener.store.filter.false-positive-rate", "0.01"))));
+        final Path journal = Path.of(option(options, "urlshortener.persistence.directory", "data"));
+        if (Files.isDirectory(journal)) {
+            new FileJournal(journal, Duration.ZERO, 0, false).replay(List.of(tokenService));
+        }
+
+        final int port = Integer.parseInt(option(options, "urlshortener.edge.port", "8080"));
+        final int threads = Integer.parseInt(option(options, "urlshortener.edge.threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        final RedirectCaching caching = new RedirectCaching(Integer.parseInt(option(options, "urlshortener.redirect.status", "301")),
+                DurationStyle.detectAndParse(option(options, "urlshortener.redirect.max-age", "5m")),
+                DurationStyle.detectAndParse(option(options, "urlshortener.redirect.not-found-max-age", "10s")));
+        final EdgeServer server = new EdgeServer(tokenService, new InetSocketAddress(port), threads, caching);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                if (store instanceof MappedTokenStore) {
+                    ((MappedTokenStore) store).close();
+                }
+            } catch (IOException e) {
+                log.warn("Could not shut down cleanly", e);
+            }
+        }, "edge-shutdown"));
+        log.info("Edge server serving {} tokens on port {} with {} threads, started in {} ms", tokenService.tokenCount(),
+                server.port(), threads, ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        final String value = options.getProperty(name);
+        return value != null ? value : System.getProperty(name, defaultValue);
+    }
+}
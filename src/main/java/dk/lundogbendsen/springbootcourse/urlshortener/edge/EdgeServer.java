@@ -0,0 +1,534 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.edge;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.controller.RedirectCaching;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenNotFoundExistsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal HTTP/1.1 server that only answers {@code GET /{token}} (and HEAD), the same way FollowTokenController
+ * does: a redirect to the target with the caching of {@link RedirectCaching}, 404 for unknown tokens and 401 when the
+ * protectToken header doesn't match. Each event
+ * loop thread owns a selector and its connections, so a request is parsed, resolved and answered on one thread
+ * without locks or handoffs. Connections are kept alive, and pipelined requests are answered in order; a connection
+ * whose responses aren't being read stops being read from until they are. Requests with a body, other methods and
+ * anything malformed get an error and the connection is closed.
+ */
+public class EdgeServer implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(EdgeServer.class);
+    static final int MAX_REQUEST_HEAD = 8192;
+    static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    // Stop answering pipelined requests once this much output is waiting for the client
+    private static final int OUTPUT_HIGH_WATER = 64 * 1024;
+    private static final byte[] NOT_FOUND_BODY = "{\"message\":\"The token was not found\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    private final TokenService tokenService;
+    private final RedirectCaching caching;
+    // The response heads are the same for every request, so they are put together once
+    private final String redirectHead;
+    private final String notFoundHeaders;
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private int nextLoop;
+
+    public EdgeServer(TokenService tokenService, InetSocketAddress address, int threads) throws IOException {
+        this(tokenService, address, threads, RedirectCaching.DEFAULT);
+    }
+
+    public EdgeServer(TokenService tokenService, InetSocketAddress address, int threads, RedirectCaching caching) throws IOException {
+        this.tokenService = tokenService;
+        this.caching = caching;
+        this.redirectHead = "HTTP/1.1 " + caching.status() + " " + caching.reason() + "\r\nCache-Control: ";
+        this.notFoundHeaders = "Cache-Control: " + caching.notFoundCacheControl() + "\r\n";
+        server = ServerSocketChannel.open();
+        server.bind(address, 1024);
+        server.configureBlocking(false);
+        loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        // The first loop accepts and hands connections out round robin
+        server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public void start() {
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    public int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (EventLoop loop : loops) {
+            loop.running = false;
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            try {
+                loop.thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        server.close();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final EventLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            loop.accepted.add(channel);
+            if (loop != loops[0]) {
+                loop.selector.wakeup();
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        volatile boolean running = true;
+        long now;
+        long nextSweep;
+        byte[] date;
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "edge-" + index);
+            nextSweep = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(1000);
+                    now = System.nanoTime();
+                    if (now - nextSweep >= 0) {
+                        sweep();
+                    }
+                    SocketChannel channel;
+                    while ((channel = accepted.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection(channel, this));
+                    }
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                } catch (IOException e) {
+                    log.warn("Edge event loop {} failed, continuing", thread.getName(), e);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("Closing selector", e);
+            }
+        }
+
+        private void handle(SelectionKey key) throws IOException {
+            if (key.attachment() == null) {
+                accept();
+                return;
+            }
+            final Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isWritable()) {
+                    connection.flush();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                closeQuietly(key);
+            } catch (RuntimeException e) {
+                // Only this connection is given up, the loop goes on serving the others
+                log.error("Edge connection failed unexpectedly, closing it", e);
+                closeQuietly(key);
+            }
+        }
+
+        // Closes idle connections and refreshes the Date header once a second
+        private void sweep() {
+            nextSweep = now + TimeUnit.SECONDS.toNanos(1);
+            date = ("Date: " + HTTP_DATE.format(ZonedDateTime.now(ZoneOffset.UTC)) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection && now - ((Connection) key.attachment()).lastActive > IDLE_TIMEOUT_NANOS) {
+                    closeQuietly(key);
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("Closing connection", e);
+        }
+    }
+
+    private final class Connection {
+        final SocketChannel channel;
+        final EventLoop loop;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_HEAD);
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        long lastActive;
+        boolean closing;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.lastActive = loop.now;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("Closed by client");
+            }
+            lastActive = loop.now;
+            process();
+            flush();
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            final boolean drained = !out.hasRemaining();
+            out.compact();
+            final SelectionKey key = channel.keyFor(loop.selector);
+            if (!drained) {
+                // Stop reading until the client has taken what it asked for
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (closing) {
+                closeQuietly(key);
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (in.position() > 0 && out.position() == 0) {
+                // Pipelined requests that were held back by a full output buffer
+                process();
+                if (out.position() > 0) {
+                    flush();
+                }
+            }
+        }
+
+        private void process() {
+            in.flip();
+            final byte[] buffer = in.array();
+            while (!closing && out.position() < OUTPUT_HIGH_WATER) {
+                final int start = in.position();
+                final int end = endOfHead(buffer, start, in.limit());
+                if (end < 0) {
+                    if (start == 0 && in.limit() == in.capacity()) {
+                        respond(431, "Request Header Fields Too Large", null, false, true);
+                    }
+                    break;
+                }
+                in.position(end);
+                handleRequest(buffer, start, end);
+            }
+            in.compact();
+        }
+
+        private void handleRequest(byte[] buffer, int start, int end) {
+            // Request line: METHOD SP target SP HTTP/1.x CRLF
+            final int lineEnd = indexOf(buffer, start, end, (byte) '\r');
+            final int methodEnd = indexOf(buffer, start, lineEnd, (byte) ' ');
+            final int targetEnd = methodEnd < 0 ? -1 : indexOf(buffer, methodEnd + 1, lineEnd, (byte) ' ');
+            if (targetEnd < 0 || !startsWith(buffer, targetEnd + 1, lineEnd, "HTTP/1.")) {
+                respond(400, "Bad Request", null, false, true);
+                return;
+            }
+            final boolean head = matches(buffer, start, methodEnd, "HEAD");
+            final boolean http10 = lineEnd - targetEnd - 1 == 8 && buffer[lineEnd - 1] == '0';
+            boolean keepAlive = !http10;
+            String protectToken = null;
+            boolean hasBody = false;
+            int line = lineEnd + 2;
+            while (line < end - 2) {
+                final int next = indexOf(buffer, line, end, (byte) '\r');
+                final int colon = indexOf(buffer, line, next, (byte) ':');
+                if (colon < 0) {
+                    respond(400, "Bad Request", null, head, true);
+                    return;
+                }
+                final int value = skipSpaces(buffer, colon + 1, next);
+                if (matchesIgnoreCase(buffer, line, colon, "connection")) {
+                    if (containsIgnoreCase(buffer, value, next, "close")) {
+                        keepAlive = false;
+                    } else if (containsIgnoreCase(buffer, value, next, "keep-alive")) {
+                        keepAlive = true;
+                    }
+                } else if (matchesIgnoreCase(buffer, line, colon, "protecttoken")) {
+                    protectToken = new String(buffer, value, trimEnd(buffer, value, next) - value, StandardCharsets.UTF_8);
+                } else if (matchesIgnoreCase(buffer, line, colon, "transfer-encoding")
+                        || matchesIgnoreCase(buffer, line, colon, "content-length") && !isZero(buffer, value, next)) {
+                    hasBody = true;
+                }
+                line = next + 2;
+            }
+            if (!head && !matches(buffer, start, methodEnd, "GET")) {
+                respond(405, "Method Not Allowed", "Allow: GET, HEAD\r\n", null, false, true);
+                return;
+            }
+            if (hasBody) {
+                respond(400, "Bad Request", null, head, true);
+                return;
+            }
+            final String token = decodeToken(buffer, methodEnd + 1, targetEnd);
+            if (token == null) {
+                respond(400, "Bad Request", null, head, true);
+                return;
+            }
+            try {
+                final String targetUrl = tokenService.resolveToken(token, protectToken);
+                redirect(targetUrl, caching.cacheControl(protectToken), !keepAlive);
+            } catch (TokenNotFoundExistsException e) {
+                respond(404, "Not Found", notFoundHeaders, NOT_FOUND_BODY, head, !keepAlive);
+            } catch (AccessDeniedException e) {
+                final String path = new String(buffer, methodEnd + 1, targetEnd - methodEnd - 1, StandardCharsets.ISO_8859_1);
+                final byte[] body = ("{\"message\":\"The operation is not allowed\",\"path\":\"" + jsonEscape(path) + "\"}").getBytes(StandardCharsets.UTF_8);
+                respond(401, "Unauthorized", body, head, !keepAlive);
+            } catch (RuntimeException e) {
+                log.error("Resolving token {} failed", token, e);
+                respond(500, "Internal Server Error", null, head, true);
+            }
+        }
+
+        private void redirect(String targetUrl, String cacheControl, boolean close) {
+            write(redirectHead);
+            write(cacheControl);
+            write("\r\nLocation: ");
+            // Anything that isn't printable ASCII is percent-encoded, which also rules out header injection
+            final byte[] url = targetUrl.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(url.length * 3);
+            for (byte b : url) {
+                if (b > 0x20 && b < 0x7f) {
+                    out.put(b);
+                } else {
+                    out.put((byte) '%').put(HEX[(b >> 4) & 0xf]).put(HEX[b & 0xf]);
+                }
+            }
+            write("\r\nContent-Length: 0\r\n");
+            endHead(close);
+        }
+
+        private void respond(int status, String reason, byte[] body, boolean head, boolean close) {
+            respond(status, reason, null, body, head, close);
+        }
+
+        // headers are complete header lines, or null
+        private void respond(int status, String reason, String headers, byte[] body, boolean head, boolean close) {
+            write("HTTP/1.1 " + status + " " + reason + "\r\n");
+            if (headers != null) {
+                write(headers);
+            }
+            if (body != null) {
+                write("Content-Type: application/json\r\nContent-Length: " + body.length + "\r\n");
+            } else {
+                write("Content-Length: 0\r\n");
+            }
+            endHead(close);
+            if (body != null && !head) {
+                ensureCapacity(body.length);
+                out.put(body);
+            }
+        }
+
+        private void endHead(boolean close) {
+            if (loop.date != null) {
+                ensureCapacity(loop.date.length);
+                out.put(loop.date);
+            }
+            if (close) {
+                write("Connection: close\r\n");
+                closing = true;
+            }
+            write("\r\n");
+        }
+
+        private void write(String ascii) {
+            ensureCapacity(ascii.length());
+            for (int i = 0; i < ascii.length(); i++) {
+                out.put((byte) ascii.charAt(i));
+            }
+        }
+
+        private void ensureCapacity(int length) {
+            if (out.remaining() < length) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + length));
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+        }
+    }
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The token of an origin-form target like {@code /abc?x=y}, percent-decoded as UTF-8, or null if the target
+     * isn't a single path segment.
+     */
+    static String decodeToken(byte[] buffer, int start, int end) {
+        if (end - start < 2 || buffer[start] != '/') {
+            return null;
+        }
+        int pathEnd = indexOf(buffer, start, end, (byte) '?');
+        if (pathEnd < 0) {
+            pathEnd = end;
+        }
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream(pathEnd - start);
+        for (int i = start + 1; i < pathEnd; i++) {
+            final byte b = buffer[i];
+            if (b == '/') {
+                return null;
+            }
+            if (b == '%') {
+                if (i + 2 >= pathEnd) {
+                    return null;
+                }
+                final int high = Character.digit(buffer[i + 1], 16);
+                final int low = Character.digit(buffer[i + 2], 16);
+                if (high < 0 || low < 0) {
+                    return null;
+                }
+                decoded.write(high << 4 | low);
+                i += 2;
+            } else {
+                decoded.write(b);
+            }
+        }
+        return decoded.size() == 0 ? null : decoded.toString(StandardCharsets.UTF_8);
+    }
+
+    // The index just past the CRLFCRLF ending a request head, or -1
+    private static int endOfHead(byte[] buffer, int start, int limit) {
+        for (int i = start; i + 3 < limit; i++) {
+            if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] buffer, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpaces(byte[] buffer, int start, int end) {
+        while (start < end && (buffer[start] == ' ' || buffer[start] == '\t')) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] buffer, int start, int end) {
+        while (end > start && (buffer[end - 1] == ' ' || buffer[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isZero(byte[] buffer, int start, int end) {
+        end = trimEnd(buffer, start, end);
+        return end - start == 1 && buffer[start] == '0';
+    }
+
+    private static boolean matches(byte[] buffer, int start, int end, String ascii) {
+        return end - start == ascii.length() && startsWith(buffer, start, end, ascii);
+    }
+
+    private static boolean startsWith(byte[] buffer, int start, int end, String ascii) {
+        if (end - start < ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buffer[start + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesIgnoreCase(byte[] buffer, int start, int end, String lowerCase) {
+        if (end - start != lowerCase.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length(); i++) {
+            if (Character.toLowerCase(buffer[start + i]) != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] buffer, int start, int end, String lowerCase) {
+        for (int i = start; i + lowerCase.length() <= end; i++) {
+            if (matchesIgnoreCase(buffer, i, i + lowerCase.length(), lowerCase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String jsonEscape(String value) {
+        final StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.metrics;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.expiry.TokenExpiry;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimiter;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimits;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.replication.ReplicationFollower;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.replication.ReplicationLeader;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.CachingTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.FilteredTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.TokenStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public UrlShortenerMetrics urlShortenerMetrics(MeterRegistry registry) {
+        return new UrlShortenerMetrics(registry);
+    }
+
+    /**
+     * Token, user, expiry, cache, filter, replication and rate limit gauges. The services are looked up when a gauge is read rather than when it is bound,
+     * because they depend on urlShortenerMetrics and so on the registry being bound.
+     */
+    @Bean
+    public MeterBinder urlShortenerGauges(ObjectProvider<TokenService> tokenService, ObjectProvider<UserService> userService,
+                                          ObjectProvider<TokenStore> tokenStore, ObjectProvider<FilteredTokenStore> filteredTokenStore,
+                                          ObjectProvider<ReplicationLeader> leader, ObjectProvider<ReplicationFollower> follower,
+                                          ObjectProvider<TokenExpiry> expiry, ObjectProvider<RateLimits> rateLimits) {
+        return registry -> {
+            Gauge.builder("urlshortener.tokens", tokenService, service -> service.getObject().tokenCount())
+                    .strongReference(true)
+                    .register(registry);
+            Gauge.builder("urlshortener.users", userService, service -> service.getObject().userCount())
+                    .strongReference(true)
+                    .register(registry);
+            Gauge.builder("urlshortener.expiry.backlog", expiry, service -> service.getObject().backlog())
+                    .description("Expiries waiting on the timing wheel, including ones changed since")
+                    .strongReference(true)
+                    .register(registry);
+            final TokenStore store = tokenStore.getIfAvailable();
+            if (store instanceof CachingTokenStore) {
+                bindCache((CachingTokenStore) store, registry);
+            }
+            filteredTokenStore.ifAvailable(filter -> bindFilter(filter, registry));
+            leader.ifAvailable(replication -> bindLeader(replication, registry));
+            follower.ifAvailable(replication -> bindFollower(replication, registry));
+            rateLimits.ifAvailable(limits -> bindRateLimits(limits, registry));
+        };
+    }
+
+    private static void bindRateLimits(RateLimits limits, MeterRegistry registry) {
+        bindRateLimiter("ip", limits.clients(), registry);
+        bindRateLimiter("user", limits.users(), registry);
+        bindRateLimiter("token", limits.tokens(), registry);
+    }
+
+    private static void bindRateLimiter(String scope, RateLimiter limiter, MeterRegistry registry) {
+        if (limiter != null) {
+            FunctionCounter.builder("urlshortener.rate-limit.throttled", limiter, RateLimiter::throttledCount)
+                    .description("Requests refused with 429")
+                    .tag("scope", scope).register(registry);
+        }
+    }
+
+    private static void bindLeader(ReplicationLeader leader, MeterRegistry registry) {
+        Gauge.builder("urlshortener.replication.sequence", leader, ReplicationLeader::lastSequence)
+                .description("The sequence of the last change made")
+                .register(registry);
+        Gauge.builder("urlshortener.replication.followers", leader, ReplicationLeader::followerCount).register(registry);
+    }
+
+    private static void bindFollower(ReplicationFollower follower, MeterRegistry registry) {
+        Gauge.builder("urlshortener.replication.sequence", follower, ReplicationFollower::appliedSequence)
+                .description("The sequence of the last change applied")
+                .register(registry);
+        Gauge.builder("urlshortener.replication.lag", follower, ReplicationFollower::lag)
+                .description("Changes made on the leader that aren't applied here yet")
+                .baseUnit("changes")
+                .register(registry);
+        TimeGauge.builder("urlshortener.replication.delay", follower, TimeUnit.MILLISECONDS, ReplicationFollower::delayMillis)
+                .description("Age of the last applied change while there is a lag")
+                .register(registry);
+        Gauge.builder("urlshortener.replication.connected", follower, replication -> replication.isConnected() ? 1 : 0).register(registry);
+        FunctionCounter.builder("urlshortener.replication.snapshots", follower, ReplicationFollower::snapshotCount).register(registry);
+    }
+
+    private static void bindFilter(FilteredTokenStore filter, MeterRegistry registry) {
+        FunctionCounter.builder("urlshortener.filter.lookups", filter, FilteredTokenStore::absentCount)
+                .description("Token reads, answered by the filter alone when the token is absent")
+                .tag("result", "absent").register(registry);
+        FunctionCounter.builder("urlshortener.filter.lookups", filter, FilteredTokenStore::presentCount).tag("result", "present").register(registry);
+        FunctionCounter.builder("urlshortener.filter.lookups", filter, FilteredTokenStore::falsePositiveCount).tag("result", "false-positive").register(registry);
+        Gauge.builder("urlshortener.filter.false-positive-rate", filter, FilteredTokenStore::configuredFalsePositiveRate)
+                .tag("rate", "configured").register(registry);
+        Gauge.builder("urlshortener.filter.false-positive-rate", filter, FilteredTokenStore::expectedFalsePositiveRate)
+                .description("The rate to expect with the tokens stored now")
+                .tag("rate", "expected").register(registry);
+        Gauge.builder("urlshortener.filter.memory", filter, FilteredTokenStore::memoryBytes).baseUnit("bytes").register(registry);
+    }
+
+    private static void bindCache(CachingTokenStore cache, MeterRegistry registry) {
+        FunctionCounter.builder("urlshortener.cache.requests", cache, CachingTokenStore::hitCount).tag("result", "hit").register(registry);
+        FunctionCounter.builder("urlshortener.cache.requests", cache, CachingTokenStore::missCount).tag("result", "miss").register(registry);
+        FunctionCounter.builder("urlshortener.cache.evictions", cache, CachingTokenStore::evictionCount).register(registry);
+        FunctionCounter.builder("urlshortener.cache.rejections", cache, CachingTokenStore::rejectionCount)
+                .description("Tokens not admitted because they were less popular than what they would replace")
+                .register(registry);
+        Gauge.builder("urlshortener.cache.size", cache, CachingTokenStore::cachedCount).register(registry);
+    }
+}
@@ -0,0 +1,97 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The application's meters. They are registered up front, so recording on the request path is a Timer.record or
+ * Counter.increment without any registry lookup. Percentiles and histograms are configured by meter name with
+ * Spring Boot's {@code management.metrics.distribution.*} properties.
+ */
+public class UrlShortenerMetrics {
+    // Meters of a composite registry without children record nothing, for services used outside Spring
+    public static final UrlShortenerMetrics NONE = new UrlShortenerMetrics(new CompositeMeterRegistry());
+
+    public enum Outcome {
+        HIT, MISS, DENIED
+    }
+
+    private final MeterRegistry registry;
+    private final Timer[] redirects = new Timer[Outcome.values().length];
+    private final Timer[] reactiveRedirects = new Timer[Outcome.values().length];
+    private final Timer fastPathRedirects;
+    private final Timer creates;
+    private final Timer batchCreates;
+    private final Timer updates;
+    private final Timer authenticated;
+    private final Timer authenticationDenied;
+    private final ConcurrentHashMap<Class<?>, Counter> errors = new ConcurrentHashMap<>();
+
+    public UrlShortenerMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Outcome outcome : Outcome.values()) {
+            redirects[outcome.ordinal()] = Timer.builder("urlshortener.redirect")
+                    .description("Resolving a token for GET /{token}")
+                    .tags("path", "mvc", "outcome", outcome.name().toLowerCase())
+                    .register(registry);
+            reactiveRedirects[outcome.ordinal()] = Timer.builder("urlshortener.redirect")
+                    .description("Resolving a token for GET /{token}")
+                    .tags("path", "reactive", "outcome", outcome.name().toLowerCase())
+                    .register(registry);
+        }
+        fastPathRedirects = Timer.builder("urlshortener.redirect")
+                .description("Resolving a token for GET /{token}")
+                .tags("path", "fast-path", "outcome", "hit")
+                .register(registry);
+        creates = Timer.builder("urlshortener.token.create").register(registry);
+        batchCreates = Timer.builder("urlshortener.token.batch").description("One POST /token/batch request").register(registry);
+        updates = Timer.builder("urlshortener.token.update").register(registry);
+        authenticated = Timer.builder("urlshortener.authentication").tags("outcome", "success").register(registry);
+        authenticationDenied = Timer.builder("urlshortener.authentication").tags("outcome", "denied").register(registry);
+    }
+
+    public void redirect(Outcome outcome, long startNanos) {
+        redirects[outcome.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void reactiveRedirect(Outcome outcome, long startNanos) {
+        reactiveRedirects[outcome.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * A redirect answered by the fast-path filter. Requests it passes on are recorded by the controller.
+     */
+    public void fastPathRedirect(long startNanos) {
+        fastPathRedirects.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void create(long startNanos) {
+        creates.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void batchCreate(long startNanos) {
+        batchCreates.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void update(long startNanos) {
+        updates.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void authentication(boolean success, long startNanos) {
+        (success ? authenticated : authenticationDenied).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts an exception turned into an error response, tagged with its type.
+     */
+    public void error(Exception exception) {
+        errors.computeIfAbsent(exception.getClass(), type -> Counter.builder("urlshortener.errors")
+                .tag("exception", type.getSimpleName())
+                .register(registry)).increment();
+    }
+}
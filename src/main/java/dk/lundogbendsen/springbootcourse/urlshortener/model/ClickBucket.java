@@ -0,0 +1,13 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@Builder
+public class ClickBucket {
+    Instant start;
+    long clicks;
+}
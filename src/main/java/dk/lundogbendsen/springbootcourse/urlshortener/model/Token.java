@@ -3,6 +3,8 @@ package dk.lundogbendsen.springbootcourse.urlshortener.model;
 import lombok.Builder;
 import lombok.Data;
 
+import java.time.Instant;
+
 @Data
 @Builder
 public class Token {
@@ -10,4 +12,6 @@ public class Token {
     String protectToken;
     String targetUrl;
     User user;
+    // Null for tokens that don't expire
+    Instant expiresAt;
 }
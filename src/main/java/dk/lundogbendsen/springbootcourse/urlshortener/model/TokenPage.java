@@ -0,0 +1,17 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of a user's tokens, ordered by token name. next is the cursor for the following page, or null on the
+ * last page.
+ */
+@Data
+@Builder
+public class TokenPage {
+    List<Token> tokens;
+    String next;
+}
@@ -0,0 +1,18 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Clicks on a token: the total, the last hour per minute and the last day per hour, oldest bucket first.
+ */
+@Data
+@Builder
+public class TokenStats {
+    String token;
+    long clicks;
+    List<ClickBucket> minutes;
+    List<ClickBucket> hours;
+}
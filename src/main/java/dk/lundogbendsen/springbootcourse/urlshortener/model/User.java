@@ -1,5 +1,6 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Builder;
 import lombok.Data;
 
@@ -7,5 +8,7 @@ import lombok.Data;
 @Builder
 public class User {
     String username;
+    // The stored hash, never written to responses
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     String password;
 }
@@ -0,0 +1,34 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+public final class Passwords {
+    private Passwords() {
+    }
+
+    /**
+     * bcrypt for new passwords. Stored passwords without an {id} prefix are plaintext from before passwords were
+     * hashed; they still match, and upgradeEncoding reports them so they can be rehashed on the next login.
+     */
+    public static PasswordEncoder newEncoder() {
+        final DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder("bcrypt", Map.of("bcrypt", new BCryptPasswordEncoder()));
+        encoder.setDefaultPasswordEncoderForMatches(new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                throw new UnsupportedOperationException("Plaintext passwords are only matched, never stored");
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                return MessageDigest.isEqual(rawPassword.toString().getBytes(StandardCharsets.UTF_8), encodedPassword.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        return encoder;
+    }
+}
@@ -1,113 +1,502 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.service;
 
 import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenPage;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenStats;
 import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.analytics.ClickAnalytics;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.codes.ShortCodeGenerator;
 import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.*;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.expiry.TokenExpiry;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.export.ChangeLog;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journal;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journaled;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.policy.TargetUrlPolicy;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.sharding.Shards;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.InMemoryTokenStore;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.TokenStore;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.util.HashMap;
+import javax.annotation.PostConstruct;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
-public class TokenService {
-    private HashMap<String, Token> tokens = new HashMap<>();
+public class TokenService implements Journaled {
+    public static final int MAX_PAGE_SIZE = 1000;
+    // Keeps every field of a change well inside what the journal can encode
+    public static final int MAX_PROTECT_TOKEN_LENGTH = 256;
+
+    // Stored tokens are never mutated in place, update swaps in a new instance so resolveToken can't observe a
+    // half-updated token.
+    @Autowired(required = false)
+    private TokenStore tokens = new InMemoryTokenStore();
+    // Secondary index username -> token names. Every insert into or removal from tokens happens inside
+    // userTokens.compute for the owner, so the index and the token store can't drift apart. The names are sorted,
+    // which gives pagination a stable order that inserts and deletes don't shift.
+    private final ConcurrentHashMap<String, NavigableSet<String>> userTokens = new ConcurrentHashMap<>();
+    // The last change to each user's tokens, from one counter for all users so no two users share a version. A
+    // version is set after its change is in the store and read before listing, so a listing is never older than
+    // the version it is reported with. The epoch keeps versions from before a restart from being mistaken for new ones.
+    private final ConcurrentHashMap<String, Long> listingVersions = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    // Changes are appended while the affected key is locked, so the journal order matches the order they were applied in
+    @Autowired(required = false)
+    private Journal journal = Journal.NONE;
+    // Appended to along with the journal, for exports
+    @Autowired(required = false)
+    private ChangeLog changeLog = ChangeLog.NONE;
+    @Autowired(required = false)
+    private ClickAnalytics clickAnalytics = new ClickAnalytics();
+    @Autowired(required = false)
+    private ShortCodeGenerator codes = new ShortCodeGenerator();
+    // Applied alike to created and updated target URLs
+    @Autowired(required = false)
+    private TargetUrlPolicy urlPolicy = TargetUrlPolicy.DEFAULT;
+    // With sharding, generated codes must be owned by this node
+    @Autowired(required = false)
+    private Shards shards = Shards.LOCAL;
+    @Autowired(required = false)
+    private TokenExpiry expiry = new TokenExpiry();
 
+    /**
+     * A service on the given store, for use outside Spring.
+     */
+    public static TokenService withStore(TokenStore tokens) {
+        final TokenService tokenService = new TokenService();
+        tokenService.tokens = tokens;
+        tokenService.indexStoredTokens();
+        return tokenService;
+    }
+
+    @PostConstruct
+    public void indexStoredTokens() {
+        expiry.onExpired(this::expire);
+        tokens.tokens().forEach(token -> {
+            index(token);
+            scheduleExpiry(token);
+            changed(token.getUser().getUsername());
+        });
+    }
 
     public List<Token> listUserTokens(User user) {
+        return streamUserTokens(user, null).collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * At most limit of the user's tokens, ordered by name and starting after cursor (from the start if it is null).
+     * limit is clamped to 1..{@value #MAX_PAGE_SIZE}.
+     */
+    public TokenPage listUserTokens(User user, String cursor, int limit) {
+        final int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        // One extra token tells whether there is a next page
+        final List<Token> page = streamUserTokens(user, cursor).limit(pageSize + 1L).collect(Collectors.toList());
+        if (page.size() <= pageSize) {
+            return TokenPage.builder().tokens(page).build();
+        }
+        page.remove(pageSize);
+        return TokenPage.builder().tokens(page).next(cursorAfter(page.get(pageSize - 1))).build();
+    }
+
+    /**
+     * The user's tokens ordered by name, starting after cursor, read lazily from the store. Tokens created or deleted
+     * while the stream is consumed may or may not be included.
+     */
+    public Stream<Token> streamUserTokens(User user, String cursor) {
         if (user == null) {
             throw new AccessDeniedException();
         }
-        final List<Token> userTokens = this.tokens.values().stream().filter(token -> token.getUser().getUsername().equals(user.getUsername())).collect(Collectors.toUnmodifiableList());
-        return userTokens;
+        final NavigableSet<String> names = this.userTokens.get(user.getUsername());
+        if (names == null) {
+            return Stream.empty();
+        }
+        final NavigableSet<String> remaining = cursor == null ? names : names.tailSet(tokenAfter(cursor), false);
+        return remaining.stream().map(tokens::get).filter(Objects::nonNull);
+    }
+
+    /**
+     * The cursor for the page following token. It is opaque to clients, so its encoding may change.
+     */
+    public static String cursorAfter(Token token) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getToken().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String tokenAfter(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException();
+        }
+    }
+
+    /**
+     * An opaque version of the user's tokens, which changes whenever any of them is created, updated or deleted,
+     * and on every restart. Read it before listing the tokens it is meant to describe.
+     */
+    public String listingVersion(User user) {
+        if (user == null) {
+            throw new AccessDeniedException();
+        }
+        return epoch + "-" + Long.toString(listingVersions.getOrDefault(user.getUsername(), 0L), 36);
     }
 
     public void deleteTokens(User user) {
         if (user == null) {
             throw new AccessDeniedException();
         }
-        tokens.values().removeIf(token -> token.getUser().getUsername().equals(user.getUsername()));
+        journal.checkWritable();
+        userTokens.computeIfPresent(user.getUsername(), (username, names) -> {
+            names.forEach(name -> {
+                if (tokens.compute(name, current -> isOwner(current, username) ? null : current) == null) {
+                    clickAnalytics.forget(name);
+                }
+            });
+            append(Change.userTokensDeleted(username));
+            return null;
+        });
+        changed(user.getUsername());
+        sync();
     }
 
     public Token create(String theToken, String targetUrl, String protectToken, User user) {
+        return create(theToken, targetUrl, protectToken, null, user);
+    }
+
+    /**
+     * Creates a token named theToken, or with a generated short code if theToken is null. It expires at expiresAt,
+     * which must be in the future, or never if that is null.
+     */
+    public Token create(String theToken, String targetUrl, String protectToken, Instant expiresAt, User user) {
         if (user == null) {
             throw new AccessDeniedException();
         }
-        if (theToken.equals("token")) {
-            throw new IllegalTokenNameException();
-        }
-        if (tokens.containsKey(theToken)) {
-            throw new TokenAlreadyExistsException();
-        }
-        if (targetUrl == null) {
-            throw new TokenTargetUrlIsNullException();
-        }
-        if (targetUrl.contains("localhost")) {
-            throw new IllegalTargetUrlException();
-        }
-        try {
-            new URL(targetUrl);
-        } catch (MalformedURLException e) {
-            throw new InvalidTargetUrlException();
+        journal.checkWritable();
+        validateExpiry(expiresAt);
+        validateProtectToken(protectToken);
+        if (theToken == null) {
+            return createWithCode(targetUrl, protectToken, expiresAt, user);
         }
+        validateNew(theToken, targetUrl);
 
-        final Token token = Token.builder().token(theToken).targetUrl(targetUrl).protectToken(protectToken).user(user).build();
-        tokens.put(theToken, token);
+        final Token token = Token.builder().token(theToken).targetUrl(targetUrl).protectToken(protectToken).user(user).expiresAt(expiresAt).build();
+        // The get in validateNew is only a fast reject, the check inside compute is what makes the insert race free
+        userTokens.compute(user.getUsername(), (username, names) -> {
+            final NavigableSet<String> userNames = names != null ? names : new ConcurrentSkipListSet<>();
+            insert(token, userNames);
+            return userNames;
+        });
+        changed(user.getUsername());
+        sync();
         return token;
     }
 
-    public Token update(String theToken, String targetUrl, String protectToken, User user) {
+    private Token createWithCode(String targetUrl, String protectToken, Instant expiresAt, User user) {
+        validateTargetUrl(targetUrl);
+        while (true) {
+            final String code = codes.next();
+            if (isReserved(code) || !shards.ownsNewCode(code) || tokens.get(code) != null) {
+                continue;
+            }
+            final Token token = Token.builder().token(code).targetUrl(targetUrl).protectToken(protectToken).user(user).expiresAt(expiresAt).build();
+            try {
+                userTokens.compute(user.getUsername(), (username, names) -> {
+                    final NavigableSet<String> userNames = names != null ? names : new ConcurrentSkipListSet<>();
+                    insert(token, userNames);
+                    return userNames;
+                });
+            } catch (TokenAlreadyExistsException e) {
+                // A client picked this name itself since the get above, move on to the next code
+                continue;
+            }
+            changed(user.getUsername());
+            sync();
+            return token;
+        }
+    }
+
+    /**
+     * Creates a batch of tokens for one user, validating each like {@link #create} but syncing the journal once for
+     * the whole batch. Element i of the result is null if batch.get(i) was created, otherwise the exception create
+     * would have thrown for it; the rest of the batch is created regardless.
+     */
+    public List<RuntimeException> createAll(List<Token> batch, User user) {
         if (user == null) {
             throw new AccessDeniedException();
         }
-        final Token token = tokens.get(theToken);
-        if (token == null) {
-            throw new TokenNotFoundExistsException();
+        journal.checkWritable();
+        final RuntimeException[] failures = new RuntimeException[batch.size()];
+        final Token[] valid = new Token[batch.size()];
+        // Validated before taking the user's lock, the URL policy in particular isn't cheap
+        for (int i = 0; i < failures.length; i++) {
+            final Token candidate = batch.get(i);
+            try {
+                validateNew(candidate.getToken(), candidate.getTargetUrl());
+                validateExpiry(candidate.getExpiresAt());
+                validateProtectToken(candidate.getProtectToken());
+                valid[i] = Token.builder().token(candidate.getToken()).targetUrl(candidate.getTargetUrl()).protectToken(candidate.getProtectToken()).user(user)
+                        .expiresAt(candidate.getExpiresAt()).build();
+            } catch (IllegalTokenNameException | TokenAlreadyExistsException | TokenTargetUrlIsNullException |
+                     IllegalTargetUrlException | InvalidTargetUrlException | InvalidExpiryException | IllegalProtectTokenException e) {
+                failures[i] = e;
+            }
         }
-        if (!token.getUser().getUsername().equals(user.getUsername())) {
+        userTokens.compute(user.getUsername(), (username, names) -> {
+            final NavigableSet<String> userNames = names != null ? names : new ConcurrentSkipListSet<>();
+            for (int i = 0; i < valid.length; i++) {
+                if (valid[i] == null) {
+                    continue;
+                }
+                try {
+                    insert(valid[i], userNames);
+                } catch (TokenAlreadyExistsException e) {
+                    failures[i] = e;
+                }
+            }
+            return userNames.isEmpty() ? null : userNames;
+        });
+        changed(user.getUsername());
+        sync();
+        return Arrays.asList(failures);
+    }
+
+    public Token update(String theToken, String targetUrl, String protectToken, User user) {
+        return update(theToken, targetUrl, protectToken, null, user);
+    }
+
+    /**
+     * Replaces the target URL and protect token of theToken. A null targetUrl or expiresAt keeps the stored one.
+     */
+    public Token update(String theToken, String targetUrl, String protectToken, Instant expiresAt, User user) {
+        if (user == null) {
             throw new AccessDeniedException();
         }
-        if (targetUrl == null) {
-            targetUrl = token.getTargetUrl();
+        journal.checkWritable();
+        // Without a new target URL the stored one is kept, it was validated when it was set
+        if (targetUrl != null) {
+            validateTargetUrl(targetUrl);
         }
-        if (targetUrl.contains("localhost")) {
-            throw new IllegalTargetUrlException();
+        validateExpiry(expiresAt);
+        validateProtectToken(protectToken);
+        final Token updated = tokens.compute(theToken, token -> {
+            if (token == null) {
+                throw new TokenNotFoundExistsException();
+            }
+            if (!token.getUser().getUsername().equals(user.getUsername())) {
+                throw new AccessDeniedException();
+            }
+            final String newTargetUrl = targetUrl != null ? targetUrl : token.getTargetUrl();
+            final Instant newExpiresAt = expiresAt != null ? expiresAt : token.getExpiresAt();
+            final Token replacement = Token.builder().token(theToken).targetUrl(newTargetUrl).protectToken(protectToken).user(token.getUser())
+                    .expiresAt(newExpiresAt).build();
+            append(Change.tokenSaved(replacement));
+            return replacement;
+        });
+        if (expiresAt != null) {
+            scheduleExpiry(updated);
         }
-        try {
-            new URI(targetUrl);
-        } catch (URISyntaxException e) {
-            throw new InvalidTargetUrlException();
-        }
-        token.setTargetUrl(targetUrl);
-        token.setProtectToken(protectToken);
-        return token;
+        changed(user.getUsername());
+        sync();
+        return updated;
     }
 
     public void deleteToken(String theToken, String userName) {
         if (userName == null) {
             throw new AccessDeniedException();
         }
+        journal.checkWritable();
         final Token token = tokens.get(theToken);
+        if (token == null) {
+            throw new TokenNotFoundExistsException();
+        }
         if (!token.getUser().getUsername().equals(userName)) {
             throw new AccessDeniedException();
         }
-        tokens.remove(theToken);
+        // Only the owner's compute can remove the token, so re-checking under it is enough
+        userTokens.computeIfPresent(userName, (username, names) -> {
+            final Token remaining = tokens.compute(theToken, current -> {
+                if (!isOwner(current, username)) {
+                    return current;
+                }
+                append(Change.tokenDeleted(theToken));
+                return null;
+            });
+            if (remaining == null) {
+                names.remove(theToken);
+                clickAnalytics.forget(theToken);
+            }
+            return names.isEmpty() ? null : names;
+        });
+        changed(userName);
+        sync();
+    }
+
+    /**
+     * Stores a token moved here from another shard as saved there, replacing any token of that name.
+     */
+    public void adopt(Change saved) {
+        adopt(List.of(saved));
+    }
+
+    /**
+     * Stores tokens as saved elsewhere, replacing any tokens of those names, with one journal sync for all of them.
+     */
+    public void adopt(List<Change> saved) {
+        journal.checkWritable();
+        saved.forEach(this::store);
+        sync();
+    }
+
+    /**
+     * Checks a token saved elsewhere, such as one read from an export, as {@link #create} checks a new token, except
+     * that it may replace a token of that name and may already have expired.
+     */
+    public void validateSaved(Change saved) {
+        if (saved.getToken() == null || isReserved(saved.getToken()) || isTooLong(saved.getToken())) {
+            throw new IllegalTokenNameException();
+        }
+        validateTargetUrl(saved.getTargetUrl());
+        validateProtectToken(saved.getProtectToken());
+        UserService.validateUsername(saved.getUsername());
+    }
+
+    private void store(Change saved) {
+        final Token token = saved.savedToken();
+        final User owner = token.getUser();
+        final Token[] replaced = new Token[1];
+        userTokens.compute(owner.getUsername(), (username, names) -> {
+            final NavigableSet<String> userNames = names != null ? names : new ConcurrentSkipListSet<>();
+            tokens.compute(token.getToken(), current -> {
+                replaced[0] = current;
+                append(Change.tokenSaved(token));
+                return token;
+            });
+            userNames.add(token.getToken());
+            return userNames;
+        });
+        if (replaced[0] != null && !isOwner(replaced[0], owner.getUsername())) {
+            unindex(replaced[0]);
+            changed(replaced[0].getUser().getUsername());
+        }
+        scheduleExpiry(token);
+        changed(owner.getUsername());
+    }
+
+    /**
+     * Removes theToken whoever owns it, if there is one.
+     */
+    public void remove(String theToken) {
+        journal.checkWritable();
+        final Token token = tokens.get(theToken);
+        if (token == null) {
+            return;
+        }
+        final boolean[] removed = new boolean[1];
+        userTokens.computeIfPresent(token.getUser().getUsername(), (username, names) -> {
+            tokens.compute(theToken, current -> {
+                if (!isOwner(current, username)) {
+                    return current;
+                }
+                append(Change.tokenDeleted(theToken));
+                removed[0] = true;
+                return null;
+            });
+            if (removed[0]) {
+                names.remove(theToken);
+                clickAnalytics.forget(theToken);
+            }
+            return names.isEmpty() ? null : names;
+        });
+        if (removed[0]) {
+            changed(token.getUser().getUsername());
+            sync();
+        }
+    }
+
+    /**
+     * Removes a token that has been moved to another shard, unless it was changed after saved was read from it.
+     * Returns whether it was removed.
+     */
+    public boolean release(Change saved) {
+        journal.checkWritable();
+        final boolean[] released = new boolean[1];
+        userTokens.computeIfPresent(saved.getUsername(), (username, names) -> {
+            tokens.compute(saved.getToken(), current -> {
+                if (current == null || !Change.tokenSaved(current).equals(saved)) {
+                    return current;
+                }
+                append(Change.tokenDeleted(saved.getToken()));
+                released[0] = true;
+                return null;
+            });
+            if (released[0]) {
+                names.remove(saved.getToken());
+                clickAnalytics.forget(saved.getToken());
+            }
+            return names.isEmpty() ? null : names;
+        });
+        if (released[0]) {
+            changed(saved.getUsername());
+        }
+        sync();
+        return released[0];
+    }
+
+    public boolean hasToken(String theToken) {
+        return tokens.get(theToken) != null;
+    }
+
+    public long tokenCount() {
+        return tokens.size();
     }
 
+    /**
+     * The target URL of theToken. Expired tokens are not found, even before they have been removed.
+     */
     public String resolveToken(String theToken, String protectToken) {
+        final String targetUrl = tokens.resolve(theToken, protectToken, expiry.now());
+        if (targetUrl == null) {
+            throw new TokenNotFoundExistsException();
+        }
+        return targetUrl;
+    }
+
+    /**
+     * Counts a redirect to theToken, see {@link ClickAnalytics}. Call it only once the token has been resolved.
+     */
+    public void recordClick(String theToken) {
+        clickAnalytics.record(theToken);
+    }
+
+    public TokenStats clickStats(String theToken, User user) {
+        if (user == null) {
+            throw new AccessDeniedException();
+        }
         final Token token = tokens.get(theToken);
         if (token == null) {
             throw new TokenNotFoundExistsException();
         }
-        if (token.getProtectToken() != null && !token.getProtectToken().equals(protectToken)) {
+        if (!isOwner(token, user.getUsername())) {
             throw new AccessDeniedException();
         }
-
-        return token.getTargetUrl();
+        return clickAnalytics.stats(theToken);
     }
 
     public Token getToken(String theToken, String username) {
@@ -120,4 +509,218 @@ public class TokenService {
         }
         return token;
     }
+
+    @Override
+    public void apply(Change change) {
+        switch (change.getType()) {
+            case TOKEN_SAVED: {
+                final Token token = change.savedToken();
+                final User owner = token.getUser();
+                final Token previous = tokens.get(token.getToken());
+                tokens.compute(token.getToken(), current -> token.equals(current) ? current : token);
+                if (previous != null && !isOwner(previous, owner.getUsername())) {
+                    unindex(previous);
+                    changed(previous.getUser().getUsername());
+                }
+                index(token);
+                scheduleExpiry(token);
+                changed(owner.getUsername());
+                break;
+            }
+            case TOKEN_DELETED: {
+                final Token previous = tokens.get(change.getToken());
+                if (previous != null) {
+                    tokens.compute(change.getToken(), current -> null);
+                    unindex(previous);
+                    clickAnalytics.forget(change.getToken());
+                    changed(previous.getUser().getUsername());
+                }
+                break;
+            }
+            case USER_TOKENS_DELETED: {
+                final NavigableSet<String> names = userTokens.remove(change.getUsername());
+                if (names != null) {
+                    names.forEach(name -> {
+                        if (tokens.compute(name, current -> isOwner(current, change.getUsername()) ? null : current) == null) {
+                            clickAnalytics.forget(name);
+                        }
+                    });
+                }
+                changed(change.getUsername());
+                break;
+            }
+            default:
+        }
+    }
+
+    @Override
+    public Stream<Change> snapshot() {
+        // A durable store is its own snapshot, it only has to be flushed
+        if (tokens.isDurable()) {
+            tokens.flush();
+            return Stream.empty();
+        }
+        return tokens.tokens().map(Change::tokenSaved);
+    }
+
+    @Override
+    public Stream<Change> contents() {
+        return tokens.tokens().map(Change::tokenSaved);
+    }
+
+    /**
+     * The expiry given as either an ISO-8601 instant or a time to live, in seconds or as an ISO-8601 duration;
+     * null if neither is given.
+     *
+     * @throws InvalidExpiryException if both are given or either can't be parsed
+     */
+    public Instant expiry(String expiresAt, String ttl) {
+        if (expiresAt != null && ttl != null) {
+            throw new InvalidExpiryException();
+        }
+        try {
+            if (expiresAt != null) {
+                return Instant.parse(expiresAt);
+            }
+            if (ttl != null) {
+                final Duration duration = ttl.chars().allMatch(Character::isDigit) ? Duration.ofSeconds(Long.parseLong(ttl)) : Duration.parse(ttl);
+                return Instant.ofEpochMilli(expiry.now()).plus(duration);
+            }
+        } catch (DateTimeParseException | ArithmeticException | NumberFormatException e) {
+            throw new InvalidExpiryException();
+        }
+        return null;
+    }
+
+    // Called by TokenExpiry once expiresAt has passed
+    private void expire(String theToken, long expiresAt) {
+        final Token token = tokens.get(theToken);
+        if (token == null || !expiresAt(token, expiresAt)) {
+            return;
+        }
+        if (journal == Journal.READ_ONLY) {
+            // The leader removes it, and replicates that
+            return;
+        }
+        final boolean[] removed = new boolean[1];
+        userTokens.computeIfPresent(token.getUser().getUsername(), (username, names) -> {
+            tokens.compute(theToken, current -> {
+                if (!isOwner(current, username) || !expiresAt(current, expiresAt)) {
+                    return current;
+                }
+                append(Change.tokenDeleted(theToken));
+                removed[0] = true;
+                return null;
+            });
+            if (removed[0]) {
+                names.remove(theToken);
+                clickAnalytics.forget(theToken);
+            }
+            return names.isEmpty() ? null : names;
+        });
+        if (removed[0]) {
+            changed(token.getUser().getUsername());
+            sync();
+        }
+    }
+
+    private static boolean expiresAt(Token token, long expiresAt) {
+        return token.getExpiresAt() != null && token.getExpiresAt().toEpochMilli() == expiresAt;
+    }
+
+    private void validateExpiry(Instant expiresAt) {
+        if (expiresAt != null && expiresAt.toEpochMilli() <= expiry.now()) {
+            throw new InvalidExpiryException();
+        }
+    }
+
+    private static void validateProtectToken(String protectToken) {
+        if (protectToken != null && protectToken.length() > MAX_PROTECT_TOKEN_LENGTH) {
+            throw new IllegalProtectTokenException();
+        }
+    }
+
+    private void scheduleExpiry(Token token) {
+        if (token.getExpiresAt() != null) {
+            expiry.schedule(token.getToken(), token.getExpiresAt().toEpochMilli());
+        }
+    }
+
+    private void validateNew(String theToken, String targetUrl) {
+        if (theToken == null || isReserved(theToken) || isTooLong(theToken)) {
+            throw new IllegalTokenNameException();
+        }
+        if (tokens.get(theToken) != null) {
+            throw new TokenAlreadyExistsException();
+        }
+        validateTargetUrl(targetUrl);
+    }
+
+    private static boolean isReserved(String theToken) {
+        return theToken.equals("token") || theToken.equals("actuator");
+    }
+
+    private static boolean isTooLong(String theToken) {
+        // A char is at most three bytes in UTF-8, so short names needn't be encoded
+        return theToken.length() * 3 > TokenStore.MAX_NAME_BYTES
+                && theToken.getBytes(StandardCharsets.UTF_8).length > TokenStore.MAX_NAME_BYTES;
+    }
+
+    private void validateTargetUrl(String targetUrl) {
+        if (targetUrl == null) {
+            throw new TokenTargetUrlIsNullException();
+        }
+        switch (urlPolicy.check(targetUrl)) {
+            case INVALID:
+                throw new InvalidTargetUrlException();
+            case ILLEGAL:
+                throw new IllegalTargetUrlException();
+            default:
+        }
+    }
+
+    // Must be called inside userTokens.compute for the token's owner, with that owner's names
+    private void insert(Token token, Set<String> names) {
+        tokens.compute(token.getToken(), current -> {
+            if (current != null) {
+                throw new TokenAlreadyExistsException();
+            }
+            append(Change.tokenSaved(token));
+            return token;
+        });
+        names.add(token.getToken());
+        scheduleExpiry(token);
+    }
+
+    // Call while the change is being applied, see the journal field
+    private void append(Change change) {
+        journal.append(change);
+        changeLog.append(change);
+    }
+
+    // Call once the changes appended are applied, outside any lock
+    private void sync() {
+        changeLog.applied();
+        journal.sync();
+    }
+
+    // Call after the change is in the store
+    private void changed(String username) {
+        listingVersions.merge(username, changes.incrementAndGet(), Math::max);
+    }
+
+    private static boolean isOwner(Token token, String username) {
+        return token != null && token.getUser().getUsername().equals(username);
+    }
+
+    private void index(Token token) {
+        userTokens.computeIfAbsent(token.getUser().getUsername(), username -> new ConcurrentSkipListSet<>()).add(token.getToken());
+    }
+
+    private void unindex(Token token) {
+        userTokens.computeIfPresent(token.getUser().getUsername(), (username, names) -> {
+            names.remove(token.getToken());
+            return names.isEmpty() ? null : names;
+        });
+    }
 }
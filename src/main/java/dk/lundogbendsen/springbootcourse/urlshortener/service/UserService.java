@@ -1,36 +1,142 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.service;
 
 import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.IllegalUsernameException;
 import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.UserExistsException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.export.ChangeLog;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journal;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journaled;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 @Service
-public class UserService {
+public class UserService implements Journaled {
+    // Keeps every field of a change well inside what the journal can encode
+    public static final int MAX_USERNAME_LENGTH = 256;
+
     @Autowired
     private TokenService tokenService;
-    private HashMap<String, User> users = new HashMap<>();
+    @Autowired(required = false)
+    private Journal journal = Journal.NONE;
+    // Appended to along with the journal, for exports
+    @Autowired(required = false)
+    private ChangeLog changeLog = ChangeLog.NONE;
+    @Autowired(required = false)
+    private PasswordEncoder passwordEncoder = Passwords.newEncoder();
+    private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
 
     public User create(String userName, String password) {
-        if (users.containsKey(userName)) {
-            throw new UserExistsException();
-        }
-        final User user = User.builder().username(userName).password(password).build();
-        users.put(userName, user);
+        journal.checkWritable();
+        validateUsername(userName);
+        final User user = User.builder().username(userName).password(password == null ? null : passwordEncoder.encode(password)).build();
+        users.compute(userName, (name, existing) -> {
+            if (existing != null) {
+                throw new UserExistsException();
+            }
+            append(Change.userSaved(user));
+            return user;
+        });
+        sync();
         return user;
     }
 
     public void delete(String userName) {
+        journal.checkWritable();
         final User user = users.get(userName);
         if (user != null) {
-            users.remove(userName);
+            users.computeIfPresent(userName, (name, existing) -> {
+                if (existing != user) {
+                    return existing;
+                }
+                append(Change.userDeleted(name));
+                return null;
+            });
             tokenService.deleteTokens(user);
         }
     }
 
+    /**
+     * Stores a user copied from another shard as saved there, unless there already is a user of that name.
+     */
+    public void adopt(Change saved) {
+        journal.checkWritable();
+        final User user = User.builder().username(saved.getUsername()).password(saved.getPassword()).build();
+        users.computeIfAbsent(user.getUsername(), name -> {
+            append(Change.userSaved(user));
+            return user;
+        });
+        sync();
+    }
+
+    /**
+     * @throws IllegalUsernameException if userName is null or longer than {@value #MAX_USERNAME_LENGTH} characters
+     */
+    public static void validateUsername(String userName) {
+        if (userName == null || userName.length() > MAX_USERNAME_LENGTH) {
+            throw new IllegalUsernameException();
+        }
+    }
+
     public User getUser(String userName) {
         return users.get(userName);
     }
+
+    /**
+     * Rehashes the password of user if it is stored in an outdated encoding, such as plaintext from before passwords
+     * were hashed. rawPassword must already have been verified against it. Nothing changes if user is no longer the
+     * stored instance. Returns the stored user afterwards.
+     */
+    public User upgradePassword(User user, String rawPassword) {
+        if (!passwordEncoder.upgradeEncoding(user.getPassword())) {
+            return user;
+        }
+        final User upgraded = User.builder().username(user.getUsername()).password(passwordEncoder.encode(rawPassword)).build();
+        final User stored = users.computeIfPresent(user.getUsername(), (name, existing) -> {
+            if (existing != user) {
+                return existing;
+            }
+            append(Change.userSaved(upgraded));
+            return upgraded;
+        });
+        sync();
+        return stored;
+    }
+
+    public long userCount() {
+        return users.mappingCount();
+    }
+
+    private void append(Change change) {
+        journal.append(change);
+        changeLog.append(change);
+    }
+
+    // Call once the changes appended are applied, outside any lock
+    private void sync() {
+        changeLog.applied();
+        journal.sync();
+    }
+
+    @Override
+    public void apply(Change change) {
+        switch (change.getType()) {
+            case USER_SAVED:
+                users.put(change.getUsername(), User.builder().username(change.getUsername()).password(change.getPassword()).build());
+                break;
+            case USER_DELETED:
+                users.remove(change.getUsername());
+                break;
+            default:
+        }
+    }
+
+    @Override
+    public Stream<Change> snapshot() {
+        return users.values().stream().map(Change::userSaved);
+    }
 }
@@ -0,0 +1,166 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.analytics;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.ClickBucket;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenStats;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-token click counts. Recording a click is a ConcurrentHashMap get and a LongAdder increment, so the redirect
+ * path takes no lock and does no I/O, and concurrent clicks on the same token don't contend on one counter. A
+ * background thread drains the counters every second into per-minute buckets for the last hour and per-hour
+ * buckets for the last day. Reading stats drains that token first, so they are current without waiting for it.
+ * <p>
+ * The counts live in memory only and start from zero after a restart.
+ */
+@Service
+public class ClickAnalytics {
+    static final int MINUTES = 60;
+    static final int HOURS = 24;
+
+    private final ConcurrentHashMap<String, Clicks> clicks = new ConcurrentHashMap<>();
+    private final Clock clock;
+    private ScheduledExecutorService drainer;
+
+    public ClickAnalytics() {
+        this(Clock.systemUTC());
+    }
+
+    ClickAnalytics(Clock clock) {
+        this.clock = clock;
+    }
+
+    @PostConstruct
+    public void start() {
+        drainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "click-analytics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        drainer.scheduleAtFixedRate(this::drain, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (drainer != null) {
+            drainer.shutdownNow();
+        }
+    }
+
+    public void record(String token) {
+        Clicks tokenClicks = clicks.get(token);
+        if (tokenClicks == null) {
+            tokenClicks = clicks.computeIfAbsent(token, name -> new Clicks());
+        }
+        tokenClicks.pending.increment();
+    }
+
+    /**
+     * Drops the counts of a deleted token, so a new token with the same name starts from zero.
+     */
+    public void forget(String token) {
+        clicks.remove(token);
+    }
+
+    public TokenStats stats(String token) {
+        final long minute = currentMinute();
+        final Clicks tokenClicks = clicks.get(token);
+        if (tokenClicks == null) {
+            return new Clicks().stats(token, minute);
+        }
+        synchronized (tokenClicks) {
+            tokenClicks.drain(minute);
+            return tokenClicks.stats(token, minute);
+        }
+    }
+
+    void drain() {
+        final long minute = currentMinute();
+        for (Clicks tokenClicks : clicks.values()) {
+            synchronized (tokenClicks) {
+                tokenClicks.drain(minute);
+            }
+        }
+    }
+
+    private long currentMinute() {
+        return TimeUnit.MILLISECONDS.toMinutes(clock.millis());
+    }
+
+    /**
+     * The buckets are rings indexed by minute (hour) modulo their length, with the minute (hour) each slot was last
+     * written for, so stale slots read as zero without having to be cleared. They are only allocated while the token
+     * has had clicks within the last day.
+     */
+    private static final class Clicks {
+        final LongAdder pending = new LongAdder();
+        // The rest is guarded by this
+        long total;
+        long lastMinute;
+        long[] minuteCounts;
+        long[] minuteStamps;
+        long[] hourCounts;
+        long[] hourStamps;
+
+        void drain(long minute) {
+            // sumThenReset resets cell by cell, so a concurrent click is counted either now or on the next drain
+            final long count = pending.sumThenReset();
+            if (count == 0) {
+                if (minuteCounts != null && minute - lastMinute >= HOURS * MINUTES) {
+                    minuteCounts = minuteStamps = hourCounts = hourStamps = null;
+                }
+                return;
+            }
+            if (minuteCounts == null) {
+                minuteCounts = new long[MINUTES];
+                minuteStamps = new long[MINUTES];
+                hourCounts = new long[HOURS];
+                hourStamps = new long[HOURS];
+            }
+            total += count;
+            lastMinute = minute;
+            add(minuteCounts, minuteStamps, minute, count);
+            add(hourCounts, hourStamps, minute / MINUTES, count);
+        }
+
+        TokenStats stats(String token, long minute) {
+            return TokenStats.builder()
+                    .token(token)
+                    .clicks(total)
+                    .minutes(buckets(minuteCounts, minuteStamps, minute, TimeUnit.MINUTES))
+                    .hours(buckets(hourCounts, hourStamps, minute / MINUTES, TimeUnit.HOURS))
+                    .build();
+        }
+
+        private static void add(long[] counts, long[] stamps, long period, long count) {
+            final int slot = (int) (period % counts.length);
+            if (stamps[slot] != period) {
+                stamps[slot] = period;
+                counts[slot] = 0;
+            }
+            counts[slot] += count;
+        }
+
+        private static List<ClickBucket> buckets(long[] counts, long[] stamps, long current, TimeUnit unit) {
+            final int length = unit == TimeUnit.MINUTES ? MINUTES : HOURS;
+            final List<ClickBucket> buckets = new ArrayList<>(length);
+            for (long period = current - length + 1; period <= current; period++) {
+                final int slot = (int) (period % length);
+                final long count = counts != null && stamps[slot] == period ? counts[slot] : 0;
+                buckets.add(ClickBucket.builder().start(Instant.ofEpochSecond(unit.toSeconds(period))).clicks(count).build());
+            }
+            return buckets;
+        }
+    }
+}
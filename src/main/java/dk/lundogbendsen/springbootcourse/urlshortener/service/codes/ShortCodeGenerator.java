@@ -0,0 +1,94 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.codes;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journal;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journaled;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+
+/**
+ * Hands out short base62 codes for tokens created without a name. Codes are the base62 encoding of a counter, so
+ * they are as short as the number of codes handed out allows and never repeat. The counter is split into ranges
+ * of {@value #RANGE_SIZE} reserved from a shared high-water mark; a thread takes codes from the range of its stripe
+ * with a single getAndIncrement, so the shared mark is only touched once per range.
+ * <p>
+ * The high-water mark is journaled, so codes are not handed out again after a restart. The unused rest of the ranges
+ * in use at the time is skipped. Generated codes can still clash with names clients picked themselves, the caller
+ * has to insert atomically and ask for the next code when that happens.
+ */
+@Service
+public class ShortCodeGenerator implements Journaled {
+    static final int RANGE_SIZE = 256;
+    private static final char[] ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) * 2;
+
+    private final AtomicLong highWaterMark = new AtomicLong();
+    private final AtomicReferenceArray<Range> ranges = new AtomicReferenceArray<>(STRIPES);
+    @Autowired(required = false)
+    private Journal journal = Journal.NONE;
+
+    public String next() {
+        final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        while (true) {
+            final Range range = ranges.get(stripe);
+            if (range != null) {
+                // Can overshoot end under contention, which only wastes increments of an exhausted range
+                final long code = range.next.getAndIncrement();
+                if (code < range.end) {
+                    return encode(code);
+                }
+            }
+            final long start = highWaterMark.getAndAdd(RANGE_SIZE);
+            final Range reserved = new Range(start, start + RANGE_SIZE);
+            journal.append(Change.codesReserved(encode(reserved.end)));
+            // Losing the race only drops the freshly reserved range, the winner's is just as good
+            ranges.compareAndSet(stripe, range, reserved);
+        }
+    }
+
+    static String encode(long value) {
+        final char[] buffer = new char[11];
+        int position = buffer.length;
+        do {
+            buffer[--position] = ALPHABET[(int) (value % ALPHABET.length)];
+            value /= ALPHABET.length;
+        } while (value > 0);
+        return new String(buffer, position, buffer.length - position);
+    }
+
+    static long decode(String code) {
+        long value = 0;
+        for (int i = 0; i < code.length(); i++) {
+            final char c = code.charAt(i);
+            final int digit = c <= '9' ? c - '0' : c <= 'Z' ? c - 'A' + 36 : c - 'a' + 10;
+            value = value * ALPHABET.length + digit;
+        }
+        return value;
+    }
+
+    @Override
+    public void apply(Change change) {
+        if (change.getType() == Change.Type.CODES_RESERVED) {
+            highWaterMark.accumulateAndGet(decode(change.getToken()), Math::max);
+        }
+    }
+
+    @Override
+    public Stream<Change> snapshot() {
+        return Stream.of(Change.codesReserved(encode(highWaterMark.get())));
+    }
+
+    private static final class Range {
+        final AtomicLong next;
+        final long end;
+
+        Range(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
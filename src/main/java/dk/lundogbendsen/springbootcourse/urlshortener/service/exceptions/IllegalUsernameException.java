@@ -0,0 +1,4 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions;
+
+public class IllegalUsernameException extends RuntimeException {
+}
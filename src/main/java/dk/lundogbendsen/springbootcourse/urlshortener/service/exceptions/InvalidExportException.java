@@ -0,0 +1,10 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions;
+
+/**
+ * An import that isn't a complete export, or an unknown export format.
+ */
+public class InvalidExportException extends RuntimeException {
+    public InvalidExportException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,18 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimitedException extends RuntimeException {
+    private final long retryAfterNanos;
+
+    public RateLimitedException(long retryAfterNanos) {
+        this.retryAfterNanos = retryAfterNanos;
+    }
+
+    /**
+     * Whole seconds until the request would be allowed, rounded up as Retry-After needs.
+     */
+    public long retryAfterSeconds() {
+        return Math.max(1, (retryAfterNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
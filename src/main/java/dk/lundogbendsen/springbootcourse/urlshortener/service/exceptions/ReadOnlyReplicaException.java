@@ -0,0 +1,7 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions;
+
+/**
+ * Thrown for a write sent to a replication follower, which only serves reads; writes go to the leader.
+ */
+public class ReadOnlyReplicaException extends RuntimeException {
+}
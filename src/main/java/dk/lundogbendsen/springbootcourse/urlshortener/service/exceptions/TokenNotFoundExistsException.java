@@ -1,4 +1,12 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions;
 
+/**
+ * Thrown for every redirect to a token that doesn't exist, which bots guessing codes cause a lot of. It never
+ * leaves the service layer as anything but a 404, so it skips the stack trace, by far the most expensive part of
+ * throwing it.
+ */
 public class TokenNotFoundExistsException extends RuntimeException {
+    public TokenNotFoundExistsException() {
+        super(null, null, false, false);
+    }
 }
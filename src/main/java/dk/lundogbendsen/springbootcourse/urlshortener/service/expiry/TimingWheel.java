@@ -0,0 +1,120 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.expiry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel for deadlines in epoch millis. Time advances in ticks of tickMillis; level l has
+ * {@value #SLOTS} slots of {@code SLOTS^l} ticks each, so {@value #LEVELS} levels cover {@code SLOTS^LEVELS} ticks
+ * (194 days at one second). Scheduling puts an entry at the head of the slot its deadline falls in, and every tick
+ * takes the due slot of the lowest level. Each time a level wraps around, the next slot of the level above is
+ * emptied into the levels below, so an entry is moved at most once per level. Both are O(1) per entry, however many
+ * entries are pending.
+ * <p>
+ * Deadlines further out than the wheel covers wait in the last slot in reach and are placed again when they get
+ * there. Entries are never taken out before they are due; callers check whether a due entry still applies.
+ */
+public final class TimingWheel {
+    static final int BITS = 6;
+    static final int SLOTS = 1 << BITS;
+    static final int LEVELS = 4;
+    private static final long MASK = SLOTS - 1;
+    private static final long RANGE = 1L << (BITS * LEVELS);
+
+    private final long tickMillis;
+    private final Entry[][] wheels = new Entry[LEVELS][SLOTS];
+    // The next tick to be processed
+    private long base;
+    private long size;
+
+    public TimingWheel(long tickMillis, long nowMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("A tick must be at least a millisecond");
+        }
+        this.tickMillis = tickMillis;
+        this.base = Math.floorDiv(nowMillis, tickMillis) + 1;
+    }
+
+    /**
+     * An entry that is due.
+     */
+    public static final class Entry {
+        public final String key;
+        public final long deadline;
+        private final long tick;
+        private Entry next;
+
+        private Entry(String key, long deadline, long tick) {
+            this.key = key;
+            this.deadline = deadline;
+            this.tick = tick;
+        }
+    }
+
+    /**
+     * Schedules key for deadline, in epoch millis. A deadline that has passed is due at the next tick.
+     */
+    public synchronized void schedule(String key, long deadline) {
+        // Rounded up, an entry is never due before its deadline
+        place(new Entry(key, deadline, Math.floorDiv(deadline, tickMillis) + (Math.floorMod(deadline, tickMillis) == 0 ? 0 : 1)));
+        size++;
+    }
+
+    /**
+     * Processes every tick up to nowMillis and returns the entries that became due, in no particular order.
+     */
+    public synchronized List<Entry> advance(long nowMillis) {
+        final long now = Math.floorDiv(nowMillis, tickMillis);
+        final List<Entry> due = new ArrayList<>();
+        while (base <= now) {
+            final int slot = (int) (base & MASK);
+            if (slot == 0) {
+                cascade(1);
+            }
+            for (Entry entry = wheels[0][slot]; entry != null; entry = entry.next) {
+                due.add(entry);
+            }
+            wheels[0][slot] = null;
+            base++;
+        }
+        size -= due.size();
+        return due;
+    }
+
+    /**
+     * Entries scheduled and not yet due.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    private void cascade(int level) {
+        if (level == LEVELS) {
+            return;
+        }
+        final int slot = (int) ((base >>> (BITS * level)) & MASK);
+        if (slot == 0) {
+            cascade(level + 1);
+        }
+        Entry entry = wheels[level][slot];
+        wheels[level][slot] = null;
+        while (entry != null) {
+            final Entry next = entry.next;
+            place(entry);
+            entry = next;
+        }
+    }
+
+    private void place(Entry entry) {
+        final long delta = Math.max(entry.tick - base, 0);
+        // Out of reach entries wait in the last slot the wheel covers
+        final long tick = base + Math.min(delta, RANGE - 1);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        final int slot = (int) ((tick >>> (BITS * level)) & MASK);
+        entry.next = wheels[level][slot];
+        wheels[level][slot] = entry;
+    }
+}
@@ -0,0 +1,93 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.expiry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * When tokens expire. Expired tokens stop resolving right away, TokenService checks that on every redirect; this
+ * removes them from the store afterwards. Every expiry that is set is put on a {@link TimingWheel}, and a
+ * background thread hands the due ones to the handler every second. Expiries that were changed or whose token was
+ * deleted meanwhile are still handed over, the handler skips them.
+ */
+@Service
+public class TokenExpiry {
+    private static final Logger log = LoggerFactory.getLogger(TokenExpiry.class);
+    static final long TICK_MILLIS = 1000;
+
+    private final Clock clock;
+    private final TimingWheel wheel;
+    private volatile BiConsumer<String, Long> handler = (token, expiresAt) -> {
+    };
+    private ScheduledExecutorService ticker;
+
+    public TokenExpiry() {
+        this(Clock.systemUTC());
+    }
+
+    public TokenExpiry(Clock clock) {
+        this.clock = clock;
+        this.wheel = new TimingWheel(TICK_MILLIS, clock.millis());
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "token-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::expireDue, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    /**
+     * Sets what is called with the name and expiry, in epoch millis, of every expiry that is due.
+     */
+    public void onExpired(BiConsumer<String, Long> handler) {
+        this.handler = handler;
+    }
+
+    public long now() {
+        return clock.millis();
+    }
+
+    public void schedule(String token, long expiresAt) {
+        wheel.schedule(token, expiresAt);
+    }
+
+    /**
+     * Expiries that are not due yet, including ones that no longer apply.
+     */
+    public long backlog() {
+        return wheel.size();
+    }
+
+    /**
+     * Hands every expiry that is due to the handler; the background thread calls this every tick.
+     */
+    public void expireDue() {
+        for (TimingWheel.Entry entry : wheel.advance(clock.millis())) {
+            try {
+                handler.accept(entry.key, entry.deadline);
+            } catch (RuntimeException e) {
+                // One failed removal mustn't stop the thread, the token still doesn't resolve
+                log.warn("Could not remove expired token {}", entry.key, e);
+            }
+        }
+    }
+}
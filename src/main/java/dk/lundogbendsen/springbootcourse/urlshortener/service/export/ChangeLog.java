@@ -0,0 +1,109 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.export;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ApplyTracker;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last changes made to tokens and users, numbered in the order they were appended. The services append to it
+ * next to the journal, while the change is being applied, so changes to one key are in the order they were
+ * applied, and call {@link #applied()} next to the journal's sync. An export waits for the changes up to where it
+ * starts to be applied, scans the state while writes continue and then replays the changes made since, as
+ * FileJournal snapshots do; see {@link StoreExporter}.
+ * <p>
+ * Only the last {@code urlshortener.export.log-size} changes are kept, in a ring. Appending is one increment and
+ * one store, without locks. Only there when exports are, with {@code urlshortener.admin.secret} set; otherwise the
+ * services append to {@link #NONE}.
+ */
+@Service
+@ConditionalOnProperty(name = "urlshortener.admin.secret")
+public class ChangeLog {
+    /**
+     * Keeps nothing, for services used outside Spring.
+     */
+    public static final ChangeLog NONE = new ChangeLog(1) {
+        @Override
+        public void append(Change change) {
+        }
+    };
+
+    private final AtomicLong lastSequence = new AtomicLong();
+    private final AtomicReferenceArray<Logged> ring;
+    private final ApplyTracker applying = new ApplyTracker();
+
+    public ChangeLog(@Value("${urlshortener.export.log-size:65536}") int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The change log must hold at least one change");
+        }
+        this.ring = new AtomicReferenceArray<>(Integer.highestOneBit(capacity * 2 - 1));
+    }
+
+    private static final class Logged {
+        final long sequence;
+        final Change change;
+
+        Logged(long sequence, Change change) {
+            this.sequence = sequence;
+            this.change = change;
+        }
+    }
+
+    public void append(Change change) {
+        // Registered before the sequence is taken, with one no later than it, so an export that sees the sequence
+        // also sees that it isn't applied yet
+        applying.appended(lastSequence.get() + 1);
+        final long sequence = lastSequence.incrementAndGet();
+        ring.set(slot(sequence), new Logged(sequence, change));
+    }
+
+    /**
+     * Call once the changes this thread appended are applied.
+     */
+    public void applied() {
+        applying.applied();
+    }
+
+    /**
+     * Waits until every change up to sequence has been applied.
+     *
+     * @throws IOException if that takes too long
+     */
+    public void awaitApplied(long sequence) throws IOException {
+        applying.await(sequence);
+    }
+
+    public long lastSequence() {
+        return lastSequence.get();
+    }
+
+    public int capacity() {
+        return ring.length();
+    }
+
+    /**
+     * The change with the given sequence, which must not be after {@link #lastSequence()}; null if it has been
+     * overwritten. Waits for a change that has been numbered but not stored yet.
+     */
+    public Change get(long sequence) {
+        while (true) {
+            final Logged logged = ring.get(slot(sequence));
+            if (logged != null && logged.sequence == sequence) {
+                return logged.change;
+            }
+            if (logged != null && logged.sequence > sequence || lastSequence.get() - sequence >= ring.length()) {
+                return null;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence & (ring.length() - 1));
+    }
+}
@@ -0,0 +1,50 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.export;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.InvalidExportException;
+
+import java.util.Locale;
+
+/**
+ * How an export is written, see {@link StoreExporter}.
+ */
+public enum ExportFormat {
+    /**
+     * One JSON object per line, each a change such as {@code {"type":"TOKEN_SAVED","token":"abc",...}}.
+     */
+    NDJSON("application/x-ndjson"),
+    /**
+     * The framing of the journal, {@link dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec},
+     * after a header.
+     */
+    BINARY("application/octet-stream");
+
+    private final String mediaType;
+
+    ExportFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public String mediaType() {
+        return mediaType;
+    }
+
+    /**
+     * The format named name, in any case.
+     *
+     * @throws InvalidExportException if there is none
+     */
+    public static ExportFormat of(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidExportException("Unknown format " + name);
+        }
+    }
+
+    /**
+     * The format of the given media type, ignoring parameters; NDJSON for JSON types, otherwise binary.
+     */
+    public static ExportFormat ofMediaType(String mediaType) {
+        return mediaType != null && mediaType.toLowerCase(Locale.ROOT).contains("json") ? NDJSON : BINARY;
+    }
+}
@@ -0,0 +1,381 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.export;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.exc.InputCoercionException;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.codes.ShortCodeGenerator;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.*;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec.ExposedByteArrayOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Writes all users, tokens and the code high-water mark to a stream, and reads them back. Click statistics are not
+ * included. The stream is a sequence of changes ending in a trailer with their count, so an import can tell a
+ * complete export from a cut off one.
+ * <p>
+ * Exports don't stop writes. The export takes the change log's current sequence S and waits for every change up
+ * to S to be applied, so the scan sees all of them. The state is scanned while writes continue, then the changes
+ * after S are read from the {@link ChangeLog} and written after it, replaying any the scan missed. Changes carry
+ * the full new state, so replaying ones the scan already saw is harmless, and an import ends up with the state as
+ * it was when the export finished. If more changes are made during the export than the change log
+ * holds, the export fails and has to be retried. Memory use doesn't depend on the size of the store either way.
+ * <p>
+ * Imports apply the changes as clients' writes are applied, journaled and replicated. Tokens replace tokens of the
+ * same name; users that already exist are kept as they are. Each change is checked as the write that made it would
+ * have been, so an export from a differently configured instance or an edited file can't store what clients
+ * couldn't. An import that turns out to be incomplete, or has a change that doesn't pass, is rejected there, with
+ * what was read until then applied.
+ * <p>
+ * Only there with {@code urlshortener.admin.secret} set, like the {@code AdminController} it serves.
+ */
+@Service
+@ConditionalOnProperty(name = "urlshortener.admin.secret")
+public class StoreExporter {
+    private static final int MAGIC = 0x55535845;
+    private static final int VERSION = 1;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Autowired
+    TokenService tokenService;
+    @Autowired
+    UserService userService;
+    @Autowired
+    ShortCodeGenerator codes;
+    @Autowired
+    ChangeLog changeLog;
+
+    /**
+     * Writes everything to out, which is flushed but not closed. Returns the number of changes written.
+     *
+     * @throws IOException if writing fails, if changes made before it weren't applied in time, or if too many changes
+     *                     were made during the export
+     */
+    public long export(OutputStream out, ExportFormat format) throws IOException {
+        final long first = changeLog.lastSequence() + 1;
+        changeLog.awaitApplied(first - 1);
+        final ChangeWriter writer = format == ExportFormat.NDJSON ? new NdjsonWriter(out) : new BinaryWriter(out);
+        long count = 0;
+        for (Stream<Change> state : List.of(userService.contents(), tokenService.contents(), codes.snapshot())) {
+            final Iterator<Change> changes = state.iterator();
+            while (changes.hasNext()) {
+                writer.write(changes.next());
+                // Fail early rather than scan on for nothing
+                if ((++count & 0xfff) == 0 && changeLog.lastSequence() - first >= changeLog.capacity()) {
+                    throw tooManyChanges();
+                }
+            }
+        }
+        final long last = changeLog.lastSequence();
+        for (long sequence = first; sequence <= last; sequence++) {
+            final Change change = changeLog.get(sequence);
+            if (change == null) {
+                throw tooManyChanges();
+            }
+            writer.write(change);
+            count++;
+        }
+        writer.finish(count);
+        return count;
+    }
+
+    /**
+     * Applies an export read from in. Returns the number of changes applied.
+     *
+     * @throws InvalidExportException if in isn't a complete export in the given format
+     */
+    public long importFrom(InputStream in, ExportFormat format) throws IOException {
+        final ChangeReader reader = format == ExportFormat.NDJSON ? new NdjsonReader(in) : new BinaryReader(in);
+        final List<Change> saved = new ArrayList<>(IMPORT_BATCH_SIZE);
+        long count = 0;
+        Change change;
+        while ((change = reader.next()) != null) {
+            count++;
+            try {
+                validate(change);
+            } catch (InvalidExportException e) {
+                adopt(saved);
+                throw e;
+            }
+            if (change.getType() == Change.Type.TOKEN_SAVED) {
+                saved.add(change);
+                if (saved.size() == IMPORT_BATCH_SIZE) {
+                    adopt(saved);
+                }
+                continue;
+            }
+            // Keeps the changes in order
+            adopt(saved);
+            apply(change);
+        }
+        adopt(saved);
+        if (reader.count() != count) {
+            throw new InvalidExportException("The export is incomplete or damaged");
+        }
+        return count;
+    }
+
+    private void adopt(List<Change> saved) {
+        if (!saved.isEmpty()) {
+            tokenService.adopt(saved);
+            saved.clear();
+        }
+    }
+
+    private void validate(Change change) {
+        try {
+            switch (change.getType()) {
+                case TOKEN_SAVED:
+                    tokenService.validateSaved(change);
+                    break;
+                case USER_SAVED:
+                case USER_DELETED:
+                case USER_TOKENS_DELETED:
+                    UserService.validateUsername(change.getUsername());
+                    break;
+                case TOKEN_DELETED:
+                case CODES_RESERVED:
+                    if (change.getToken() == null) {
+                        throw new InvalidExportException("A " + change.getType() + " change has no token");
+                    }
+                    break;
+                default:
+            }
+        } catch (IllegalTokenNameException | TokenTargetUrlIsNullException | InvalidTargetUrlException | IllegalTargetUrlException |
+                 IllegalProtectTokenException | IllegalUsernameException e) {
+            throw new InvalidExportException("A " + change.getType() + " change is not valid: " + e.getClass().getSimpleName());
+        }
+    }
+
+    private void apply(Change change) {
+        switch (change.getType()) {
+            case TOKEN_DELETED:
+                tokenService.remove(change.getToken());
+                break;
+            case USER_TOKENS_DELETED:
+                tokenService.deleteTokens(User.builder().username(change.getUsername()).build());
+                break;
+            case USER_SAVED:
+                userService.adopt(change);
+                break;
+            case USER_DELETED:
+                userService.delete(change.getUsername());
+                break;
+            case CODES_RESERVED:
+                codes.apply(change);
+                break;
+            default:
+        }
+    }
+
+    private static IOException tooManyChanges() {
+        return new IOException("More changes were made during the export than the change log holds, retry it or raise urlshortener.export.log-size");
+    }
+
+    private interface ChangeWriter {
+        void write(Change change) throws IOException;
+
+        void finish(long count) throws IOException;
+    }
+
+    private interface ChangeReader {
+        /**
+         * The next change, or null once the trailer has been read.
+         */
+        Change next() throws IOException;
+
+        /**
+         * The count from the trailer.
+         */
+        long count();
+    }
+
+    private static final class BinaryWriter implements ChangeWriter {
+        private final DataOutputStream out;
+        private final ExposedByteArrayOutputStream scratch = new ExposedByteArrayOutputStream(512);
+
+        BinaryWriter(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, IO_BUFFER_SIZE));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+        }
+
+        @Override
+        public void write(Change change) throws IOException {
+            ChangeCodec.write(out, scratch, 0, change);
+        }
+
+        @Override
+        public void finish(long count) throws IOException {
+            out.writeInt(-1);
+            out.writeLong(count);
+            out.flush();
+        }
+    }
+
+    private static final class BinaryReader implements ChangeReader {
+        private final DataInputStream in;
+        private long count = -1;
+
+        BinaryReader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in, IO_BUFFER_SIZE));
+            try {
+                if (this.in.readInt() != MAGIC || this.in.readInt() != VERSION) {
+                    throw new InvalidExportException("Not a binary export");
+                }
+            } catch (EOFException e) {
+                throw new InvalidExportException("Not a binary export");
+            }
+        }
+
+        @Override
+        public Change next() throws IOException {
+            final ChangeCodec.Frame frame = ChangeCodec.read(in);
+            if (frame != null) {
+                return frame.change;
+            }
+            // The end marker, or a damaged frame that leaves the count wrong
+            try {
+                count = in.readLong();
+            } catch (EOFException e) {
+                count = -1;
+            }
+            return null;
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+    }
+
+    private static final class NdjsonWriter implements ChangeWriter {
+        private final JsonGenerator json;
+
+        NdjsonWriter(OutputStream out) throws IOException {
+            json = JSON.createGenerator(new BufferedOutputStream(out, IO_BUFFER_SIZE));
+            json.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+            json.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(Change change) throws IOException {
+            json.writeStartObject();
+            json.writeStringField("type", change.getType().name());
+            writeField("token", change.getToken());
+            writeField("targetUrl", change.getTargetUrl());
+            writeField("protectToken", change.getProtectToken());
+            writeField("username", change.getUsername());
+            writeField("password", change.getPassword());
+            if (change.getExpiresAt() != null) {
+                json.writeNumberField("expiresAt", change.getExpiresAt());
+            }
+            json.writeEndObject();
+            json.writeRaw('\n');
+        }
+
+        private void writeField(String name, String value) throws IOException {
+            if (value != null) {
+                json.writeStringField(name, value);
+            }
+        }
+
+        @Override
+        public void finish(long count) throws IOException {
+            json.writeStartObject();
+            json.writeStringField("type", "END");
+            json.writeNumberField("count", count);
+            json.writeEndObject();
+            json.writeRaw('\n');
+            json.close();
+        }
+    }
+
+    private static final class NdjsonReader implements ChangeReader {
+        private final JsonParser json;
+        private long count = -1;
+
+        NdjsonReader(InputStream in) throws IOException {
+            json = JSON.createParser(in);
+        }
+
+        @Override
+        public Change next() throws IOException {
+            try {
+                final JsonToken start = json.nextToken();
+                if (start == null) {
+                    return null;
+                }
+                if (start != JsonToken.START_OBJECT) {
+                    throw new InvalidExportException("Expected a JSON object per line");
+                }
+                final Change.ChangeBuilder change = Change.builder();
+                String type = null;
+                while (json.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = json.getCurrentName();
+                    json.nextToken();
+                    switch (field) {
+                        case "type":
+                            type = json.getText();
+                            break;
+                        case "token":
+                            change.token(json.getText());
+                            break;
+                        case "targetUrl":
+                            change.targetUrl(json.getText());
+                            break;
+                        case "protectToken":
+                            change.protectToken(json.getText());
+                            break;
+                        case "username":
+                            change.username(json.getText());
+                            break;
+                        case "password":
+                            change.password(json.getText());
+                            break;
+                        case "expiresAt":
+                            change.expiresAt(json.getLongValue());
+                            break;
+                        case "count":
+                            count = json.getLongValue();
+                            break;
+                        default:
+                            json.skipChildren();
+                    }
+                }
+                if ("END".equals(type)) {
+                    return null;
+                }
+                try {
+                    return change.type(Change.Type.valueOf(String.valueOf(type))).build();
+                } catch (IllegalArgumentException e) {
+                    throw new InvalidExportException("Unknown change type " + type);
+                }
+            } catch (JsonParseException | InputCoercionException e) {
+                throw new InvalidExportException("The export is not valid JSON: " + e.getOriginalMessage());
+            }
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.journal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which threads have appended changes they are still applying. The services append a change while they
+ * apply it and call {@link Journal#sync()} once it is applied, so a thread is applying from its first append until
+ * its next sync. A fuzzy scan of the state waits with {@link #await(long)} for every change up to the sequence it
+ * starts from to be applied, and then sees all of them.
+ */
+public final class ApplyTracker {
+    // A thread still applying a change after this long most likely failed on the way to its sync. The scan is
+    // given up; the thread is forgotten at its next sync
+    private static final long APPLY_TIMEOUT_MILLIS = 10_000;
+
+    // The first sequence each thread has appended since it last called applied()
+    private final ConcurrentHashMap<Thread, Long> applying = new ConcurrentHashMap<>();
+
+    /**
+     * Call from the appending thread once sequence is taken.
+     */
+    public void appended(long sequence) {
+        applying.putIfAbsent(Thread.currentThread(), sequence);
+    }
+
+    /**
+     * Call from the appending thread once what it appended is applied, at the start of sync().
+     */
+    public void applied() {
+        applying.remove(Thread.currentThread());
+    }
+
+    /**
+     * Waits until every change up to sequence has been applied.
+     *
+     * @throws IOException if that takes too long, or the wait is interrupted
+     */
+    public void await(long sequence) throws IOException {
+        final long deadline = System.currentTimeMillis() + APPLY_TIMEOUT_MILLIS;
+        while (applying.values().stream().anyMatch(appended -> appended <= sequence)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Changes up to sequence " + sequence + " were not applied in time");
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for changes to be applied");
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.journal;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+
+/**
+ * A single mutation of the token or user state. Saved changes always carry the full new state, so replaying
+ * a change that is already reflected in the state is harmless.
+ */
+@Value
+@Builder
+public class Change {
+    public enum Type {
+        TOKEN_SAVED, TOKEN_DELETED, USER_TOKENS_DELETED, USER_SAVED, USER_DELETED, CODES_RESERVED
+    }
+
+    Type type;
+    String token;
+    String targetUrl;
+    String protectToken;
+    String username;
+    String password;
+    // Epoch millis, or null if the token doesn't expire
+    Long expiresAt;
+
+    public static Change tokenSaved(Token token) {
+        return Change.builder().type(Type.TOKEN_SAVED).token(token.getToken()).targetUrl(token.getTargetUrl())
+                .protectToken(token.getProtectToken()).username(token.getUser().getUsername())
+                .expiresAt(token.getExpiresAt() == null ? null : token.getExpiresAt().toEpochMilli()).build();
+    }
+
+    /**
+     * The token saved by this change.
+     */
+    public Token savedToken() {
+        return Token.builder().token(token).targetUrl(targetUrl).protectToken(protectToken).user(User.builder().username(username).build())
+                .expiresAt(expiresAt == null ? null : Instant.ofEpochMilli(expiresAt)).build();
+    }
+
+    public static Change tokenDeleted(String token) {
+        return Change.builder().type(Type.TOKEN_DELETED).token(token).build();
+    }
+
+    public static Change userTokensDeleted(String username) {
+        return Change.builder().type(Type.USER_TOKENS_DELETED).username(username).build();
+    }
+
+    public static Change userSaved(User user) {
+        return Change.builder().type(Type.USER_SAVED).username(user.getUsername()).password(user.getPassword()).build();
+    }
+
+    public static Change userDeleted(String username) {
+        return Change.builder().type(Type.USER_DELETED).username(username).build();
+    }
+
+    /**
+     * Generated codes below upTo (in code order) have been handed out, see ShortCodeGenerator.
+     */
+    public static Change codesReserved(String upTo) {
+        return Change.builder().type(Type.CODES_RESERVED).token(upTo).build();
+    }
+}
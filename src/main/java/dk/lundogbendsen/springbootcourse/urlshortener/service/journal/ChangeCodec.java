@@ -0,0 +1,123 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.journal;
+
+import java.io.*;
+import java.util.zip.CRC32;
+
+/**
+ * Binary framing of changes: {@code [int length][int crc32][long sequence][byte type][fields]}. A frame with a
+ * bad length or checksum marks the end of the readable data, which is how a torn write at the tail of a
+ * journal segment is detected.
+ */
+public final class ChangeCodec {
+    static final int HEADER_SIZE = 8;
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+    private static final Change.Type[] TYPES = Change.Type.values();
+
+    private ChangeCodec() {
+    }
+
+    /**
+     * Writes change as one frame. It is encoded in full before anything is written to out, so out is left as it
+     * was if a string is too long for {@link DataOutputStream#writeUTF}.
+     */
+    public static void write(DataOutputStream out, ExposedByteArrayOutputStream scratch, long sequence, Change change) throws IOException {
+        scratch.reset();
+        final DataOutputStream payload = new DataOutputStream(scratch);
+        payload.writeLong(sequence);
+        payload.writeByte(change.getType().ordinal());
+        writeString(payload, change.getToken());
+        writeString(payload, change.getTargetUrl());
+        writeString(payload, change.getProtectToken());
+        writeString(payload, change.getUsername());
+        writeString(payload, change.getPassword());
+        payload.writeBoolean(change.getExpiresAt() != null);
+        if (change.getExpiresAt() != null) {
+            payload.writeLong(change.getExpiresAt());
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(scratch.buffer(), 0, scratch.size());
+        out.writeInt(scratch.size());
+        out.writeInt((int) crc.getValue());
+        out.write(scratch.buffer(), 0, scratch.size());
+    }
+
+    /**
+     * Reads the next frame, or returns null at end of data or at the first damaged frame.
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        final int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            return null;
+        }
+        final byte[] payload = new byte[length];
+        try {
+            final int crc = in.readInt();
+            in.readFully(payload);
+            final CRC32 actual = new CRC32();
+            actual.update(payload);
+            if ((int) actual.getValue() != crc) {
+                return null;
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+        final DataInputStream fields = new DataInputStream(new ByteArrayInputStream(payload));
+        final long sequence = fields.readLong();
+        final int type = fields.readUnsignedByte();
+        if (type >= TYPES.length) {
+            return null;
+        }
+        final Change change = Change.builder()
+                .type(TYPES[type])
+                .token(readString(fields))
+                .targetUrl(readString(fields))
+                .protectToken(readString(fields))
+                .username(readString(fields))
+                .password(readString(fields))
+                // Frames written before expiries existed end here
+                .expiresAt(fields.available() > 0 && fields.readBoolean() ? fields.readLong() : null)
+                .build();
+        return new Frame(sequence, change, HEADER_SIZE + length);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    public static final class Frame {
+        public final long sequence;
+        public final Change change;
+        public final int size;
+
+        Frame(long sequence, Change change, int size) {
+            this.sequence = sequence;
+            this.change = change;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A ByteArrayOutputStream whose buffer can be handed to a channel without copying.
+     */
+    public static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        public ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        public byte[] buffer() {
+            return buf;
+        }
+    }
+}
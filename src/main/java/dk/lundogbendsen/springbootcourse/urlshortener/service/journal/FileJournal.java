@@ -0,0 +1,421 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.journal;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec.ExposedByteArrayOutputStream;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec.Frame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Write-ahead journal in a directory of segment files ({@code journal-<first sequence>.log}) and snapshots
+ * ({@code snapshot-<sequence>.bin}).
+ * <p>
+ * Appends only encode the change into an in-memory buffer. A single writer thread writes whatever has piled up
+ * and fsyncs once for the whole batch (group commit), so under load many requests share one fsync.
+ * <p>
+ * Snapshots are fuzzy: the writer rolls to a new segment at sequence S, then the state is scanned while writes
+ * continue, and the segments up to S are deleted. The services append a change while they apply it and call
+ * {@link #sync()} once it is applied, so before the scan the snapshot waits for every thread that appended a
+ * change up to S to get to its sync. Every change up to S is then visible to the scan, and replaying the segments
+ * after S on top of the snapshot gives the latest state.
+ */
+public class FileJournal implements Journal, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(FileJournal.class);
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int SNAPSHOT_MAGIC = 0x55534e31;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final Duration snapshotInterval;
+    private final long snapshotAfterChanges;
+    private final boolean snapshotOnClose;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+    private final ExposedByteArrayOutputStream scratch = new ExposedByteArrayOutputStream(512);
+    private ExposedByteArrayOutputStream pending = new ExposedByteArrayOutputStream(IO_BUFFER_SIZE);
+    private DataOutputStream pendingOut = new DataOutputStream(pending);
+    private ExposedByteArrayOutputStream writing = new ExposedByteArrayOutputStream(IO_BUFFER_SIZE);
+    private long lastSequence;
+    private long durableSequence;
+    private volatile long snapshotSequence;
+    private CompletableFuture<Long> rollRequest;
+    // A snapshot that waits too long for a change to be applied is given up, and the segments are kept
+    private final ApplyTracker applying = new ApplyTracker();
+    private volatile IOException failure;
+    private boolean closed = true;
+
+    private List<Journaled> journaled = List.of();
+    private FileChannel segment;
+    private Thread writer;
+    private ScheduledExecutorService snapshotter;
+
+    public FileJournal(Path directory, Duration snapshotInterval, long snapshotAfterChanges, boolean snapshotOnClose) {
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+        this.snapshotAfterChanges = snapshotAfterChanges;
+        this.snapshotOnClose = snapshotOnClose;
+    }
+
+    /**
+     * Replays the latest snapshot and the journal tail into the given state, then starts accepting changes.
+     */
+    public void open(List<Journaled> journaled) throws IOException {
+        this.journaled = journaled;
+        Files.createDirectories(directory);
+        final long sequence = recover(true);
+        lastSequence = sequence;
+        durableSequence = sequence;
+        segment = openSegment(sequence + 1);
+        closed = false;
+        writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "journal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long intervalMillis = snapshotInterval.toMillis();
+        snapshotter.scheduleWithFixedDelay(this::snapshotIfChanged, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replays the latest snapshot and the journal tail into the given state without taking over the directory:
+     * nothing is truncated, created or written, so it is safe on a copy or on a directory another process is still
+     * writing to. A frame being written at the time just ends the replay. Returns the last sequence replayed.
+     */
+    public long replay(List<Journaled> journaled) throws IOException {
+        this.journaled = journaled;
+        return recover(false);
+    }
+
+    private long recover(boolean repair) throws IOException {
+        final long started = System.nanoTime();
+        long sequence = 0;
+        long replayed = 0;
+
+        final List<Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            try {
+                final long[] result = readSnapshot(snapshots.get(i));
+                sequence = result[0];
+                replayed += result[1];
+                break;
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable snapshot {}", snapshots.get(i), e);
+            }
+        }
+        snapshotSequence = sequence;
+
+        for (Path file : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            long validLength = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_SIZE))) {
+                Frame frame;
+                while ((frame = ChangeCodec.read(in)) != null) {
+                    validLength += frame.size;
+                    if (frame.sequence > sequence) {
+                        apply(frame.change);
+                        sequence = frame.sequence;
+                        replayed++;
+                    }
+                }
+            }
+            if (repair && validLength < Files.size(file)) {
+                log.warn("Truncating torn tail of {} at {} bytes", file, validLength);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                    channel.force(true);
+                }
+            }
+        }
+        log.info("{} {} changes up to sequence {} from {} in {} ms", repair ? "Recovered" : "Replayed", replayed, sequence, directory,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        return sequence;
+    }
+
+    @Override
+    public void append(Change change) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The journal is not open");
+            }
+            // The sequence is only taken once the change is encoded, a change that can't be leaves no gap
+            final long sequence = lastSequence + 1;
+            ChangeCodec.write(pendingOut, scratch, sequence, change);
+            lastSequence = sequence;
+            applying.appended(sequence);
+            workAvailable.signal();
+            if (sequence - snapshotSequence == snapshotAfterChanges && !snapshotter.isShutdown()) {
+                try {
+                    snapshotter.execute(this::snapshotIfChanged);
+                } catch (RejectedExecutionException e) {
+                    // Closing, the final snapshot is taken by close()
+                }
+            }
+        } catch (IOException e) {
+            // Only from a string too long for the encoding, the services bound what they accept below that
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void sync() {
+        // The caller has applied what it appended
+        applying.applied();
+        lock.lock();
+        try {
+            final long target = lastSequence;
+            while (durableSequence < target && failure == null) {
+                durable.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("The journal has failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current state and deletes the segments and snapshots it makes obsolete.
+     */
+    public void snapshot() throws IOException {
+        final long sequence = roll().join();
+        applying.await(sequence);
+        final Path target = directory.resolve(fileName(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+        final Path temp = directory.resolve(target.getFileName() + ".tmp");
+        long count = 0;
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, IO_BUFFER_SIZE))) {
+            final ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream(512);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(sequence);
+            for (Journaled state : journaled) {
+                final Iterator<Change> changes = state.snapshot().iterator();
+                while (changes.hasNext()) {
+                    ChangeCodec.write(out, buffer, sequence, changes.next());
+                    count++;
+                }
+            }
+            // An explicit count lets recovery tell a complete snapshot from a truncated one
+            out.writeInt(-1);
+            out.writeLong(count);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        snapshotSequence = sequence;
+        for (Path file : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (firstSequence(file, SEGMENT_PREFIX, SEGMENT_SUFFIX) <= sequence) {
+                Files.deleteIfExists(file);
+            }
+        }
+        for (Path file : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (!file.equals(target)) {
+                Files.deleteIfExists(file);
+            }
+        }
+        log.info("Wrote snapshot of {} entries at sequence {}", count, sequence);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+            if (snapshotOnClose && failure == null && lastSequence() > snapshotSequence) {
+                snapshot();
+            }
+            sync();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            closed = true;
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+    }
+
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CompletableFuture<Long> roll() {
+        lock.lock();
+        try {
+            if (rollRequest == null) {
+                rollRequest = new CompletableFuture<>();
+                workAvailable.signal();
+            }
+            return rollRequest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void snapshotIfChanged() {
+        try {
+            if (failure == null && lastSequence() > snapshotSequence) {
+                snapshot();
+            }
+        } catch (Exception e) {
+            log.error("Snapshot failed, the journal segments are kept", e);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            final long batchSequence;
+            final CompletableFuture<Long> roll;
+            lock.lock();
+            try {
+                while (pending.size() == 0 && rollRequest == null && !closed) {
+                    workAvailable.awaitUninterruptibly();
+                }
+                if (pending.size() == 0 && rollRequest == null) {
+                    return;
+                }
+                final ExposedByteArrayOutputStream batch = pending;
+                pending = writing;
+                pendingOut = new DataOutputStream(pending);
+                writing = batch;
+                batchSequence = lastSequence;
+                roll = rollRequest;
+                rollRequest = null;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                final ByteBuffer buffer = ByteBuffer.wrap(writing.buffer(), 0, writing.size());
+                while (buffer.hasRemaining()) {
+                    segment.write(buffer);
+                }
+                segment.force(false);
+                writing.reset();
+                if (roll != null) {
+                    // Everything up to batchSequence is in the old segment, everything after goes to the new one
+                    segment.close();
+                    segment = openSegment(batchSequence + 1);
+                    roll.complete(batchSequence);
+                }
+            } catch (IOException e) {
+                log.error("Writing the journal failed, no further changes can be made durable", e);
+                if (roll != null) {
+                    roll.completeExceptionally(e);
+                }
+                lock.lock();
+                try {
+                    failure = e;
+                    durable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                durableSequence = batchSequence;
+                durable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private long[] readSnapshot(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_SIZE))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot file");
+            }
+            final long sequence = in.readLong();
+            Frame frame;
+            long count = 0;
+            while ((frame = ChangeCodec.read(in)) != null) {
+                apply(frame.change);
+                count++;
+            }
+            if (in.readLong() != count) {
+                throw new IOException("Snapshot is incomplete");
+            }
+            return new long[]{sequence, count};
+        }
+    }
+
+    private void apply(Change change) {
+        for (Journaled state : journaled) {
+            state.apply(change);
+        }
+    }
+
+    private FileChannel openSegment(long firstSequence) throws IOException {
+        final Path file = directory.resolve(fileName(SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                        final String name = file.getFileName().toString();
+                        return name.startsWith(prefix) && name.endsWith(suffix);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String fileName(String prefix, long sequence, String suffix) {
+        return String.format("%s%020d%s", prefix, sequence, suffix);
+    }
+
+    private static long firstSequence(Path file, String prefix, String suffix) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+}
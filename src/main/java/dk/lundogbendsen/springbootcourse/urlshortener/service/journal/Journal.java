@@ -0,0 +1,50 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.journal;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.ReadOnlyReplicaException;
+
+/**
+ * Receives every change made to the services. {@link #append(Change)} is called while the change is being
+ * applied, so it must be cheap and must not block; {@link #sync()} is called afterwards, outside any lock,
+ * and returns once everything appended so far is durable. {@link #checkWritable()} is called before a client's
+ * write touches anything.
+ */
+public interface Journal {
+    Journal NONE = new Journal() {
+        @Override
+        public void append(Change change) {
+        }
+
+        @Override
+        public void sync() {
+        }
+    };
+
+    /**
+     * The journal of a replication follower. Its state only changes by applying what the leader sends, so clients
+     * can't write; appends still happen for local housekeeping such as rehashing a password, and are dropped.
+     */
+    Journal READ_ONLY = new Journal() {
+        @Override
+        public void checkWritable() {
+            throw new ReadOnlyReplicaException();
+        }
+
+        @Override
+        public void append(Change change) {
+        }
+
+        @Override
+        public void sync() {
+        }
+    };
+
+    /**
+     * Throws ReadOnlyReplicaException if clients can't make changes here.
+     */
+    default void checkWritable() {
+    }
+
+    void append(Change change);
+
+    void sync();
+}
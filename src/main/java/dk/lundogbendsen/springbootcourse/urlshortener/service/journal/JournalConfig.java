@@ -0,0 +1,42 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.journal;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Persists tokens and users when {@code urlshortener.persistence.enabled=true}. Without it everything stays on
+ * the heap, as before.
+ */
+@Configuration
+@ConditionalOnProperty(name = "urlshortener.persistence.enabled", havingValue = "true")
+public class JournalConfig {
+
+    @Bean(destroyMethod = "close")
+    public FileJournal journal(@Value("${urlshortener.persistence.directory:data}") Path directory,
+                               @Value("${urlshortener.persistence.snapshot-interval:10m}") Duration snapshotInterval,
+                               @Value("${urlshortener.persistence.snapshot-after-changes:1000000}") long snapshotAfterChanges,
+                               @Value("${urlshortener.persistence.snapshot-on-shutdown:true}") boolean snapshotOnShutdown) {
+        return new FileJournal(directory, snapshotInterval, snapshotAfterChanges, snapshotOnShutdown);
+    }
+
+    // Runs once all services exist but before the web server starts taking requests
+    @Bean
+    public SmartInitializingSingleton journalRecovery(FileJournal journal, List<Journaled> journaled) {
+        return () -> {
+            try {
+                journal.open(journaled);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not recover the journal", e);
+            }
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.journal;
+
+import java.util.stream.Stream;
+
+/**
+ * State that is written to the journal. On startup the journal replays every recovered change into
+ * {@link #apply(Change)}; implementations ignore change types they don't own.
+ */
+public interface Journaled {
+    void apply(Change change);
+
+    /**
+     * The current state as saved changes. It doesn't have to be a consistent view, changes made while it is
+     * being read are replayed from the journal on top of it.
+     */
+    Stream<Change> snapshot();
+
+    /**
+     * The whole current state as saved changes, for copying it to another instance. Unlike {@link #snapshot()} it
+     * includes state that is persisted some other way. Like it, it doesn't have to be a consistent view.
+     */
+    default Stream<Change> contents() {
+        return snapshot();
+    }
+}
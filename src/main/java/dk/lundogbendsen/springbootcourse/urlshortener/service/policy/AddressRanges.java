@@ -0,0 +1,290 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.policy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A set of IPv4 and IPv6 CIDR ranges, plus the parsers for the address literals a URL host can be written as.
+ * IPv4 ranges are merged into sorted, disjoint intervals and looked up with a binary search. IPv6 ranges are few
+ * in practice and checked one by one. An IPv4-mapped IPv6 address ({@code ::ffff:a.b.c.d}) is checked as the IPv4
+ * address it maps to.
+ */
+final class AddressRanges {
+    static final long INVALID = -1;
+
+    private final long[] v4Starts;
+    private final long[] v4Ends;
+    // {high bits, low bits, high mask, low mask} per range
+    private final long[][] v6;
+
+    AddressRanges(Collection<String> cidrs) {
+        final List<long[]> v4 = new ArrayList<>();
+        final List<long[]> v6 = new ArrayList<>();
+        for (String cidr : cidrs) {
+            final String range = cidr.trim();
+            if (range.isEmpty()) {
+                continue;
+            }
+            final int slash = range.indexOf('/');
+            final String address = slash < 0 ? range : range.substring(0, slash);
+            if (address.indexOf(':') >= 0) {
+                final long[] parsed = parseIpv6(address, 0, address.length());
+                final int prefix = prefix(range, slash, 128);
+                if (parsed == null) {
+                    throw new IllegalArgumentException("Not an IPv6 range: " + range);
+                }
+                final long highMask = mask(Math.min(prefix, 64));
+                final long lowMask = mask(Math.max(prefix - 64, 0));
+                v6.add(new long[]{parsed[0] & highMask, parsed[1] & lowMask, highMask, lowMask});
+            } else {
+                final long parsed = parseDottedQuad(address, 0, address.length());
+                final int prefix = prefix(range, slash, 32);
+                if (parsed == INVALID) {
+                    throw new IllegalArgumentException("Not an IPv4 range: " + range);
+                }
+                final long mask = mask(prefix) >>> 32;
+                v4.add(new long[]{parsed & mask, (parsed & mask) | (~mask & 0xffffffffL)});
+            }
+        }
+        v4.sort(Comparator.comparingLong(interval -> interval[0]));
+        final List<long[]> merged = new ArrayList<>();
+        for (long[] interval : v4) {
+            final long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && interval[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], interval[1]);
+            } else {
+                merged.add(interval.clone());
+            }
+        }
+        this.v4Starts = merged.stream().mapToLong(interval -> interval[0]).toArray();
+        this.v4Ends = merged.stream().mapToLong(interval -> interval[1]).toArray();
+        this.v6 = v6.toArray(new long[0][]);
+    }
+
+    private static int prefix(String range, int slash, int bits) {
+        if (slash < 0) {
+            return bits;
+        }
+        final String prefix = range.substring(slash + 1);
+        if (prefix.isEmpty() || prefix.length() > 3 || !prefix.chars().allMatch(c -> c >= '0' && c <= '9')
+                || Integer.parseInt(prefix) > bits) {
+            throw new IllegalArgumentException("Not a valid prefix length: " + range);
+        }
+        return Integer.parseInt(prefix);
+    }
+
+    // The top bits bits set
+    private static long mask(int bits) {
+        return bits == 0 ? 0 : -1L << (64 - bits);
+    }
+
+    boolean isEmpty() {
+        return v4Starts.length == 0 && v6.length == 0;
+    }
+
+    boolean containsIpv4(long address) {
+        int low = 0;
+        int high = v4Starts.length - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (v4Starts[middle] > address) {
+                high = middle - 1;
+            } else if (v4Ends[middle] < address) {
+                low = middle + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean containsIpv6(long high, long low) {
+        if (high == 0 && (low >>> 32) == 0xffffL) {
+            return containsIpv4(low & 0xffffffffL);
+        }
+        for (long[] range : v6) {
+            if ((high & range[2]) == range[0] && (low & range[3]) == range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the last label of host[start, end) is a number, which makes the host an IPv4 address to browsers
+     * (or an invalid host), never a domain name.
+     */
+    static boolean endsInNumber(CharSequence host, int start, int end) {
+        int label = end;
+        while (label > start && host.charAt(label - 1) != '.') {
+            label--;
+        }
+        if (label == end) {
+            return false;
+        }
+        if (end - label >= 2 && host.charAt(label) == '0' && (host.charAt(label + 1) | 0x20) == 'x') {
+            for (int i = label + 2; i < end; i++) {
+                if (Character.digit(host.charAt(i), 16) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (int i = label; i < end; i++) {
+            if (host.charAt(i) < '0' || host.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * host[start, end) as an IPv4 address the way browsers read it: one to four parts, each decimal, octal with a
+     * leading 0 or hexadecimal with 0x, the last part filling the remaining bytes. So 2130706433, 0x7f.1 and 127.1
+     * are all 127.0.0.1. Returns {@link #INVALID} if it isn't one.
+     */
+    static long parseIpv4(CharSequence host, int start, int end) {
+        long address = 0;
+        int parts = 0;
+        int part = start;
+        while (part <= end) {
+            int partEnd = part;
+            while (partEnd < end && host.charAt(partEnd) != '.') {
+                partEnd++;
+            }
+            final long value = parseNumber(host, part, partEnd);
+            if (value == INVALID || ++parts > 4) {
+                return INVALID;
+            }
+            if (partEnd == end) {
+                // The last part fills the bytes the others left
+                final int remainingBytes = 5 - parts;
+                if (value >= 1L << (8 * remainingBytes)) {
+                    return INVALID;
+                }
+                return (address << (8 * remainingBytes)) | value;
+            }
+            if (value > 255) {
+                return INVALID;
+            }
+            address = (address << 8) | value;
+            part = partEnd + 1;
+        }
+        return INVALID;
+    }
+
+    private static long parseNumber(CharSequence host, int start, int end) {
+        if (start == end) {
+            return INVALID;
+        }
+        int radix = 10;
+        if (end - start >= 2 && host.charAt(start) == '0' && (host.charAt(start + 1) | 0x20) == 'x') {
+            radix = 16;
+            start += 2;
+        } else if (end - start >= 2 && host.charAt(start) == '0') {
+            radix = 8;
+            start++;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = Character.digit(host.charAt(i), radix);
+            if (digit < 0 || host.charAt(i) > 'f') {
+                return INVALID;
+            }
+            value = value * radix + digit;
+            if (value > 0xffffffffL) {
+                return INVALID;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Exactly four decimal parts of 0-255, the only IPv4 form allowed in IPv6 literals and in ranges.
+     */
+    static long parseDottedQuad(CharSequence text, int start, int end) {
+        long address = 0;
+        int parts = 0;
+        int i = start;
+        while (parts < 4) {
+            int value = 0;
+            final int partStart = i;
+            while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9' && i - partStart < 3) {
+                value = value * 10 + (text.charAt(i++) - '0');
+            }
+            if (i == partStart || value > 255) {
+                return INVALID;
+            }
+            address = (address << 8) | value;
+            if (++parts < 4) {
+                if (i == end || text.charAt(i) != '.') {
+                    return INVALID;
+                }
+                i++;
+            }
+        }
+        return i == end ? address : INVALID;
+    }
+
+    /**
+     * text[start, end), without brackets, as an IPv6 address: {high 64 bits, low 64 bits}, or null if it isn't one.
+     * Zone identifiers are not accepted.
+     */
+    static long[] parseIpv6(CharSequence text, int start, int end) {
+        final int[] groups = new int[8];
+        int count = 0;
+        int compressAt = -1;
+        int i = start;
+        if (end - start >= 2 && text.charAt(i) == ':' && text.charAt(i + 1) == ':') {
+            compressAt = 0;
+            i += 2;
+        }
+        while (i < end) {
+            final int groupStart = i;
+            int value = 0;
+            while (i < end && i - groupStart < 4 && Character.digit(text.charAt(i), 16) >= 0 && text.charAt(i) <= 'f') {
+                value = value * 16 + Character.digit(text.charAt(i++), 16);
+            }
+            if (i < end && text.charAt(i) == '.') {
+                // An IPv4 address in the last 32 bits
+                final long ipv4 = parseDottedQuad(text, groupStart, end);
+                if (ipv4 == INVALID || count > 6) {
+                    return null;
+                }
+                groups[count++] = (int) (ipv4 >>> 16);
+                groups[count++] = (int) (ipv4 & 0xffff);
+                i = end;
+                break;
+            }
+            if (i == groupStart || count == 8) {
+                return null;
+            }
+            groups[count++] = value;
+            if (i == end) {
+                break;
+            }
+            if (text.charAt(i) != ':' || ++i == end) {
+                return null;
+            }
+            if (text.charAt(i) == ':') {
+                if (compressAt >= 0) {
+                    return null;
+                }
+                compressAt = count;
+                i++;
+            }
+        }
+        if (compressAt < 0 ? count != 8 : count > 7) {
+            return null;
+        }
+        final long[] address = new long[2];
+        final int gap = 8 - count;
+        for (int group = 0; group < count; group++) {
+            final int position = compressAt >= 0 && group >= compressAt ? group + gap : group;
+            address[position / 4] |= (long) groups[group] << (16 * (3 - position % 4));
+        }
+        return address;
+    }
+}
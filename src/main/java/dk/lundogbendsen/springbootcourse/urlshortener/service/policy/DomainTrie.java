@@ -0,0 +1,104 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.policy;
+
+import java.net.IDN;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * A set of domains, each matching itself and all of its subdomains. The domains are stored with their characters
+ * reversed, so a host is matched by walking it from its last character towards the first, and the walk stops at
+ * the first domain that ends on a label boundary. Matching is ASCII case-insensitive and doesn't allocate.
+ */
+final class DomainTrie {
+    private final Node root = new Node();
+    private final boolean empty;
+
+    /**
+     * Entries may be written as {@code example.com}, {@code .example.com} or {@code *.example.com}, they all mean the
+     * same. Internationalised names are converted to their ASCII form.
+     */
+    DomainTrie(Collection<String> domains) {
+        boolean none = true;
+        for (String domain : domains) {
+            final String normalised = normalise(domain);
+            if (normalised.isEmpty()) {
+                continue;
+            }
+            Node node = root;
+            for (int i = normalised.length() - 1; i >= 0; i--) {
+                node = node.add(normalised.charAt(i));
+            }
+            node.terminal = true;
+            none = false;
+        }
+        this.empty = none;
+    }
+
+    private static String normalise(String domain) {
+        String normalised = domain.trim();
+        if (normalised.startsWith("*.")) {
+            normalised = normalised.substring(2);
+        } else if (normalised.startsWith(".")) {
+            normalised = normalised.substring(1);
+        }
+        if (normalised.endsWith(".")) {
+            normalised = normalised.substring(0, normalised.length() - 1);
+        }
+        return IDN.toASCII(normalised, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Whether host[start, end) is one of the domains or a subdomain of one. The host must not end with a dot.
+     */
+    boolean matches(CharSequence host, int start, int end) {
+        Node node = root;
+        for (int i = end - 1; i >= start; i--) {
+            node = node.child(lowerCase(host.charAt(i)));
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal && (i == start || host.charAt(i - 1) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static char lowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static final class Node {
+        // Few children per node in practice, so a linear scan over a compact array beats a map
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+
+        Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node add(char c) {
+            final Node existing = child(c);
+            if (existing != null) {
+                return existing;
+            }
+            final Node node = new Node();
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            keys[keys.length - 1] = c;
+            children[children.length - 1] = node;
+            return node;
+        }
+    }
+}
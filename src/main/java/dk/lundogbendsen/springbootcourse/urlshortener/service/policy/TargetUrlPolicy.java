@@ -0,0 +1,263 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.policy;
+
+import java.net.IDN;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decides which target URLs tokens may redirect to. A policy is compiled once from its rules: allowed schemes, a
+ * maximum length, blocked and allowed hosts (each matching its subdomains too) and blocked IP ranges. Checking a URL
+ * is then a single pass over it that doesn't allocate or throw, unless the host is an internationalised name.
+ * <p>
+ * Hosts are compared the way a browser would resolve them: case-insensitively, without a trailing dot, after the
+ * user info, with internationalised names in their ASCII form and with numeric hosts read as IPv4 addresses in any
+ * of the forms browsers accept. So neither {@code http://LOCALHOST.}, {@code http://dr.dk@localhost} nor
+ * {@code http://2130706433} gets past a block of localhost and 127.0.0.0/8. Only URLs with a host are accepted.
+ * <p>
+ * When allowed hosts are given, every other host is illegal, including IP addresses.
+ */
+public final class TargetUrlPolicy {
+    public static final int DEFAULT_MAX_LENGTH = 2048;
+    // The longest maxLength allowed, so any accepted URL fits in a journal record
+    public static final int MAX_LENGTH_LIMIT = 16384;
+    public static final List<String> DEFAULT_SCHEMES = List.of("http", "https");
+    public static final List<String> DEFAULT_BLOCKED_HOSTS = List.of("localhost");
+    public static final List<String> DEFAULT_BLOCKED_RANGES = List.of("0.0.0.0/8", "127.0.0.0/8", "::/128", "::1/128");
+
+    /**
+     * http and https URLs of at most {@value #DEFAULT_MAX_LENGTH} characters that don't point at this machine.
+     */
+    public static final TargetUrlPolicy DEFAULT = builder().build();
+
+    public enum Verdict {
+        ALLOWED,
+        // Not a URL, or not one with a host
+        INVALID,
+        // A URL, but one the policy rejects
+        ILLEGAL
+    }
+
+    private final String[] schemes;
+    private final int maxLength;
+    private final DomainTrie blockedHosts;
+    private final DomainTrie allowedHosts;
+    private final AddressRanges blockedRanges;
+
+    private TargetUrlPolicy(Builder builder) {
+        this.schemes = builder.schemes.stream().map(String::trim).filter(scheme -> !scheme.isEmpty())
+                .map(scheme -> scheme.toLowerCase(Locale.ROOT)).toArray(String[]::new);
+        this.maxLength = builder.maxLength;
+        this.blockedHosts = new DomainTrie(builder.blockedHosts);
+        this.allowedHosts = new DomainTrie(builder.allowedHosts);
+        this.blockedRanges = new AddressRanges(builder.blockedRanges);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Verdict check(String url) {
+        final int length = url.length();
+        if (length > maxLength) {
+            return Verdict.ILLEGAL;
+        }
+        for (int i = 0; i < length; i++) {
+            final char c = url.charAt(i);
+            if (c <= ' ' || c == 0x7f) {
+                return Verdict.INVALID;
+            }
+        }
+
+        int colon = 0;
+        while (colon < length && isSchemeCharacter(url.charAt(colon), colon == 0)) {
+            colon++;
+        }
+        if (colon == 0 || colon == length || url.charAt(colon) != ':' || !url.startsWith("//", colon + 1)) {
+            return Verdict.INVALID;
+        }
+        if (!isAllowedScheme(url, colon)) {
+            return Verdict.ILLEGAL;
+        }
+
+        // Browsers end the authority at a backslash as well, and the host starts after the last @ in it
+        final int authorityStart = colon + 3;
+        int authorityEnd = length;
+        int hostStart = authorityStart;
+        for (int i = authorityStart; i < length; i++) {
+            final char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#' || c == '\\') {
+                authorityEnd = i;
+                break;
+            }
+            if (c == '@') {
+                hostStart = i + 1;
+            }
+        }
+
+        final Verdict host;
+        int hostEnd;
+        if (hostStart < authorityEnd && url.charAt(hostStart) == '[') {
+            hostEnd = url.indexOf(']', hostStart);
+            if (hostEnd < 0 || hostEnd >= authorityEnd) {
+                return Verdict.INVALID;
+            }
+            host = checkIpv6(url, hostStart + 1, hostEnd++);
+        } else {
+            hostEnd = hostStart;
+            while (hostEnd < authorityEnd && url.charAt(hostEnd) != ':') {
+                hostEnd++;
+            }
+            host = checkHost(url, hostStart, hostEnd);
+        }
+        if (hostEnd < authorityEnd && !isPort(url, hostEnd, authorityEnd)) {
+            return Verdict.INVALID;
+        }
+        return host;
+    }
+
+    private static boolean isSchemeCharacter(char c, boolean first) {
+        final boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        return first ? letter : letter || (c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.';
+    }
+
+    private boolean isAllowedScheme(String url, int colon) {
+        for (String scheme : schemes) {
+            if (scheme.length() == colon && url.regionMatches(true, 0, scheme, 0, colon)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A colon followed by up to five digits, at most 65535
+    private static boolean isPort(String url, int colon, int end) {
+        if (end - colon > 6) {
+            return false;
+        }
+        int port = 0;
+        for (int i = colon + 1; i < end; i++) {
+            final char c = url.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            port = port * 10 + (c - '0');
+        }
+        return port <= 65535;
+    }
+
+    private Verdict checkIpv6(String url, int start, int end) {
+        final long[] address = AddressRanges.parseIpv6(url, start, end);
+        if (address == null) {
+            return Verdict.INVALID;
+        }
+        return blockedRanges.containsIpv6(address[0], address[1]) || !allowedHosts.isEmpty() ? Verdict.ILLEGAL : Verdict.ALLOWED;
+    }
+
+    private Verdict checkHost(CharSequence host, int start, int end) {
+        if (end > start && host.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (start == end) {
+            return Verdict.INVALID;
+        }
+        boolean ascii = true;
+        for (int i = start; i < end; i++) {
+            final char c = host.charAt(i);
+            if (c >= 0x80) {
+                ascii = false;
+            } else if (c == '.' ? i == start || host.charAt(i - 1) == '.' : !isHostCharacter(c)) {
+                return Verdict.INVALID;
+            }
+        }
+        if (!ascii) {
+            return checkInternationalHost(host.subSequence(start, end).toString());
+        }
+
+        if (AddressRanges.endsInNumber(host, start, end)) {
+            final long address = AddressRanges.parseIpv4(host, start, end);
+            if (address == AddressRanges.INVALID) {
+                return Verdict.INVALID;
+            }
+            return blockedRanges.containsIpv4(address) || !allowedHosts.isEmpty() ? Verdict.ILLEGAL : Verdict.ALLOWED;
+        }
+        if (blockedHosts.matches(host, start, end)) {
+            return Verdict.ILLEGAL;
+        }
+        if (!allowedHosts.isEmpty() && !allowedHosts.matches(host, start, end)) {
+            return Verdict.ILLEGAL;
+        }
+        return Verdict.ALLOWED;
+    }
+
+    private static boolean isHostCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+
+    // Mapped to ASCII like a browser does, which also folds look-alikes such as full-width letters and dots
+    private Verdict checkInternationalHost(String host) {
+        final String ascii;
+        try {
+            ascii = IDN.toASCII(host, IDN.ALLOW_UNASSIGNED);
+        } catch (IllegalArgumentException e) {
+            return Verdict.INVALID;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (ascii.charAt(i) >= 0x80) {
+                return Verdict.INVALID;
+            }
+        }
+        return checkHost(ascii, 0, ascii.length());
+    }
+
+    public static final class Builder {
+        private Collection<String> schemes = DEFAULT_SCHEMES;
+        private int maxLength = DEFAULT_MAX_LENGTH;
+        private Collection<String> blockedHosts = DEFAULT_BLOCKED_HOSTS;
+        private Collection<String> allowedHosts = List.of();
+        private Collection<String> blockedRanges = DEFAULT_BLOCKED_RANGES;
+
+        private Builder() {
+        }
+
+        public Builder schemes(Collection<String> schemes) {
+            this.schemes = new ArrayList<>(schemes);
+            return this;
+        }
+
+        public Builder maxLength(int maxLength) {
+            this.maxLength = maxLength;
+            return this;
+        }
+
+        public Builder blockedHosts(Collection<String> blockedHosts) {
+            this.blockedHosts = new ArrayList<>(blockedHosts);
+            return this;
+        }
+
+        public Builder allowedHosts(Collection<String> allowedHosts) {
+            this.allowedHosts = new ArrayList<>(allowedHosts);
+            return this;
+        }
+
+        /**
+         * CIDR ranges such as {@code 10.0.0.0/8} or {@code fc00::/7}; a plain address is a range of one.
+         */
+        public Builder blockedRanges(Collection<String> blockedRanges) {
+            this.blockedRanges = new ArrayList<>(blockedRanges);
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if a host or range can't be parsed, or maxLength is above
+         *                                  {@value #MAX_LENGTH_LIMIT}
+         */
+        public TargetUrlPolicy build() {
+            if (maxLength > MAX_LENGTH_LIMIT) {
+                throw new IllegalArgumentException("The maximum URL length can be at most " + MAX_LENGTH_LIMIT);
+            }
+            return new TargetUrlPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.policy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * The target URL policy from {@code urlshortener.url-policy.*}; the defaults are those of
+ * {@link TargetUrlPolicy#DEFAULT}. Lists are comma separated, and an empty allowed-hosts allows every host that
+ * isn't blocked. To keep tokens away from internal networks as well, add e.g. {@code 10.0.0.0/8},
+ * {@code 172.16.0.0/12}, {@code 192.168.0.0/16}, {@code 169.254.0.0/16} and {@code fc00::/7} to blocked-ranges.
+ */
+@Configuration
+public class TargetUrlPolicyConfig {
+
+    @Bean
+    public TargetUrlPolicy targetUrlPolicy(@Value("${urlshortener.url-policy.schemes:http,https}") List<String> schemes,
+                                           @Value("${urlshortener.url-policy.max-length:2048}") int maxLength,
+                                           @Value("${urlshortener.url-policy.blocked-hosts:localhost}") List<String> blockedHosts,
+                                           @Value("${urlshortener.url-policy.allowed-hosts:}") List<String> allowedHosts,
+                                           @Value("${urlshortener.url-policy.blocked-ranges:0.0.0.0/8,127.0.0.0/8,::/128,::1/128}") List<String> blockedRanges) {
+        return TargetUrlPolicy.builder()
+                .schemes(schemes)
+                .maxLength(maxLength)
+                .blockedHosts(blockedHosts)
+                .allowedHosts(allowedHosts)
+                .blockedRanges(blockedRanges)
+                .build();
+    }
+}
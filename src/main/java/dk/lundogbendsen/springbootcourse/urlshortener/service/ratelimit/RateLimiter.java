@@ -0,0 +1,150 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets per key, for one kind of key such as client IPs. A bucket is a single long, the theoretical
+ * arrival time of the generic cell rate algorithm: each request moves it one interval (period / requests) into
+ * the future, and a request is allowed while it is no more than burst - 1 intervals ahead of now. Taking a request
+ * is one compare-and-set on that long, so there are no locks and no background refill.
+ * <p>
+ * The buckets live in a fixed size table of sets of {@value #WAYS}, picked by the key's hash. A key that isn't in
+ * its set takes the place of the bucket that is closest to being full again; a full bucket is the same as no
+ * bucket, so while there is room the limits are exact. Under a flood of distinct keys, such as spoofed addresses,
+ * memory stays the same and the least limited keys are forgotten first.
+ */
+public final class RateLimiter {
+    static final int WAYS = 4;
+    private static final VarHandle ARRIVAL;
+
+    static {
+        try {
+            ARRIVAL = MethodHandles.lookup().findVarHandle(Bucket.class, "arrival", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long interval;
+    private final long tolerance;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final int setMask;
+    private final LongSupplier nanoTime;
+    private final long origin;
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * Allows requests per period on average and up to burst at once, keeping buckets for about tableSize keys.
+     */
+    public RateLimiter(int requests, Duration period, int burst, int tableSize) {
+        this(requests, period, burst, tableSize, System::nanoTime);
+    }
+
+    RateLimiter(int requests, Duration period, int burst, int tableSize, LongSupplier nanoTime) {
+        if (requests < 1 || burst < 1 || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("A rate limit needs at least one request per period and a burst of at least one");
+        }
+        this.interval = Math.max(1, period.toNanos() / requests);
+        this.tolerance = interval * (burst - 1);
+        final int sets = Integer.highestOneBit(Math.max(tableSize / WAYS, 1) * 2 - 1);
+        this.buckets = new AtomicReferenceArray<>(sets * WAYS);
+        this.setMask = sets - 1;
+        this.nanoTime = nanoTime;
+        this.origin = nanoTime.getAsLong();
+    }
+
+    private static final class Bucket {
+        final String key;
+        final int hash;
+        volatile long arrival;
+
+        Bucket(String key, int hash, long arrival) {
+            this.key = key;
+            this.hash = hash;
+            this.arrival = arrival;
+        }
+    }
+
+    /**
+     * Takes a request for key. Returns 0 if it is allowed, otherwise the nanoseconds until it would be.
+     */
+    public long acquire(String key) {
+        final long now = nanoTime.getAsLong() - origin;
+        final int hash = spread(key.hashCode());
+        final int set = (hash & setMask) * WAYS;
+        Bucket bucket = find(set, hash, key);
+        if (bucket == null) {
+            bucket = add(set, hash, key, now);
+        }
+        while (true) {
+            final long arrival = bucket.arrival;
+            final long start = Math.max(arrival, now);
+            final long wait = start - tolerance - now;
+            if (wait > 0) {
+                throttled.increment();
+                return wait;
+            }
+            if (ARRIVAL.compareAndSet(bucket, arrival, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Requests refused so far.
+     */
+    public long throttledCount() {
+        return throttled.sum();
+    }
+
+    public int capacity() {
+        return buckets.length();
+    }
+
+    private Bucket find(int set, int hash, String key) {
+        for (int i = set; i < set + WAYS; i++) {
+            final Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.hash == hash && bucket.key.equals(key)) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    private Bucket add(int set, int hash, String key, long now) {
+        final Bucket added = new Bucket(key, hash, now);
+        int victim = set;
+        long victimArrival = Long.MAX_VALUE;
+        for (int i = set; i < set + WAYS; i++) {
+            final Bucket bucket = buckets.get(i);
+            if (bucket == null) {
+                victim = i;
+                break;
+            }
+            if (bucket.hash == hash && bucket.key.equals(key)) {
+                // Added by another thread since find, a second bucket would double the key's limit
+                return bucket;
+            }
+            if (bucket.arrival < victimArrival) {
+                victim = i;
+                victimArrival = bucket.arrival;
+            }
+        }
+        final Bucket replaced = buckets.get(victim);
+        if (buckets.compareAndSet(victim, replaced, added)) {
+            return added;
+        }
+        // Another thread changed the slot; if it added this key, share its bucket
+        final Bucket raced = find(set, hash, key);
+        return raced != null ? raced : added;
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x45d9f3b;
+    }
+}
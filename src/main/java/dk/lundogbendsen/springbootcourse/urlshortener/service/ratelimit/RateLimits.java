@@ -0,0 +1,66 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.RateLimitedException;
+
+/**
+ * The rate limits per client address, per authenticated user and per token redirected to; each may be null for
+ * no limit.
+ */
+public class RateLimits {
+    /**
+     * No limits.
+     */
+    public static final RateLimits NONE = new RateLimits(null, null, null);
+
+    private final RateLimiter clients;
+    private final RateLimiter users;
+    private final RateLimiter tokens;
+
+    public RateLimits(RateLimiter clients, RateLimiter users, RateLimiter tokens) {
+        this.clients = clients;
+        this.users = users;
+        this.tokens = tokens;
+    }
+
+    /**
+     * @throws RateLimitedException if the client at address has used up its limit
+     */
+    public void client(String address) {
+        check(clients, address);
+    }
+
+    /**
+     * @throws RateLimitedException if the user has used up its limit
+     */
+    public void user(String username) {
+        check(users, username);
+    }
+
+    /**
+     * @throws RateLimitedException if redirects to token have used up its limit
+     */
+    public void token(String token) {
+        check(tokens, token);
+    }
+
+    public RateLimiter clients() {
+        return clients;
+    }
+
+    public RateLimiter users() {
+        return users;
+    }
+
+    public RateLimiter tokens() {
+        return tokens;
+    }
+
+    private static void check(RateLimiter limiter, String key) {
+        if (limiter != null) {
+            final long wait = limiter.acquire(key);
+            if (wait > 0) {
+                throw new RateLimitedException(wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.reactive;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenPage;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenStats;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * TokenService for the reactive API, safe to call from an event loop. Reads go straight to the store, which never
+ * blocks on them. Writes wait for the journal to make them durable, so they run on the bounded elastic scheduler
+ * and the event loop carries on with other requests meanwhile. Errors are the same exceptions TokenService throws.
+ */
+@Service
+public class ReactiveTokenService {
+    @Autowired
+    TokenService tokenService;
+    Scheduler writes = Schedulers.boundedElastic();
+
+    public Mono<String> resolveToken(String theToken, String protectToken) {
+        return Mono.fromCallable(() -> tokenService.resolveToken(theToken, protectToken));
+    }
+
+    /**
+     * Counts a redirect, which only increments a counter.
+     */
+    public void recordClick(String theToken) {
+        tokenService.recordClick(theToken);
+    }
+
+    /**
+     * See {@link TokenService#listingVersion}, a map read.
+     */
+    public String listingVersion(User user) {
+        return tokenService.listingVersion(user);
+    }
+
+    public Mono<List<Token>> listUserTokens(User user) {
+        return Mono.fromCallable(() -> tokenService.listUserTokens(user));
+    }
+
+    public Mono<TokenPage> listUserTokens(User user, String cursor, int limit) {
+        return Mono.fromCallable(() -> tokenService.listUserTokens(user, cursor, limit));
+    }
+
+    /**
+     * The user's tokens after cursor, read from the store as they are requested.
+     */
+    public Flux<Token> streamUserTokens(User user, String cursor) {
+        return Flux.defer(() -> Flux.fromStream(tokenService.streamUserTokens(user, cursor)));
+    }
+
+    public Mono<Token> getToken(String theToken, User user) {
+        return Mono.fromCallable(() -> tokenService.getToken(theToken, user.getUsername()));
+    }
+
+    public Mono<TokenStats> clickStats(String theToken, User user) {
+        return Mono.fromCallable(() -> tokenService.clickStats(theToken, user));
+    }
+
+    public Mono<Token> create(String theToken, String targetUrl, String protectToken, User user) {
+        return Mono.fromCallable(() -> tokenService.create(theToken, targetUrl, protectToken, user)).subscribeOn(writes);
+    }
+
+    /**
+     * Creates a token that expires at expiresAt or after ttl, see {@link TokenService#expiry}.
+     */
+    public Mono<Token> create(String theToken, String targetUrl, String protectToken, String expiresAt, String ttl, User user) {
+        return Mono.fromCallable(() -> tokenService.create(theToken, targetUrl, protectToken, tokenService.expiry(expiresAt, ttl), user)).subscribeOn(writes);
+    }
+
+    /**
+     * See {@link TokenService#expiry}.
+     */
+    public Instant expiry(String expiresAt, String ttl) {
+        return tokenService.expiry(expiresAt, ttl);
+    }
+
+    /**
+     * See {@link TokenService#createAll}; the list has null for every token that was created.
+     */
+    public Mono<List<RuntimeException>> createAll(List<Token> batch, User user) {
+        return Mono.fromCallable(() -> tokenService.createAll(batch, user)).subscribeOn(writes);
+    }
+
+    public Mono<Token> update(String theToken, String targetUrl, String protectToken, User user) {
+        return Mono.fromCallable(() -> tokenService.update(theToken, targetUrl, protectToken, user)).subscribeOn(writes);
+    }
+
+    public Mono<Token> update(String theToken, String targetUrl, String protectToken, String expiresAt, String ttl, User user) {
+        return Mono.fromCallable(() -> tokenService.update(theToken, targetUrl, protectToken, tokenService.expiry(expiresAt, ttl), user)).subscribeOn(writes);
+    }
+
+    public Mono<Void> deleteToken(String theToken, User user) {
+        return Mono.<Void>fromRunnable(() -> tokenService.deleteToken(theToken, user.getUsername())).subscribeOn(writes);
+    }
+}
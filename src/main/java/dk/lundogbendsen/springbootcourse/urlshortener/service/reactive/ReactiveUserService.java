@@ -0,0 +1,32 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.reactive;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * UserService for the reactive API. Creating a user hashes its password and both creating and deleting wait for the
+ * journal, so they run on the bounded elastic scheduler; lookups are a map read.
+ */
+@Service
+public class ReactiveUserService {
+    @Autowired
+    UserService userService;
+    Scheduler writes = Schedulers.boundedElastic();
+
+    public Mono<User> create(String userName, String password) {
+        return Mono.fromCallable(() -> userService.create(userName, password)).subscribeOn(writes);
+    }
+
+    public Mono<User> getUser(String userName) {
+        return Mono.fromSupplier(() -> userService.getUser(userName));
+    }
+
+    public Mono<Void> delete(String userName) {
+        return Mono.<Void>fromRunnable(() -> userService.delete(userName)).subscribeOn(writes);
+    }
+}
@@ -0,0 +1,237 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.replication;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec.Frame;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journaled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the state of an instance a copy of the leader's, see ReplicationLeader. A single thread reads the change
+ * stream and applies each change in sequence order through {@link Journaled#apply(Change)}, while the instance
+ * serves reads from its own state. After a lost connection it reconnects, backing off up to maxReconnectDelay, and
+ * continues after the last sequence it applied.
+ * <p>
+ * A snapshot is applied on top of the current state, so reads keep being answered while it arrives; tokens and
+ * users it doesn't contain are deleted once it is complete.
+ */
+public class ReplicationFollower implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ReplicationFollower.class);
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 100;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final InetSocketAddress leader;
+    private final Duration heartbeatInterval;
+    private final Duration maxReconnectDelay;
+
+    private List<Journaled> journaled = List.of();
+    private volatile long logId;
+    private volatile long appliedSequence;
+    private volatile long appliedAt;
+    private volatile long leaderSequence;
+    private volatile long leaderClockOffset;
+    private volatile boolean connected;
+    private final AtomicLong snapshots = new AtomicLong();
+    private volatile Socket socket;
+    private volatile boolean closed;
+    private Thread follower;
+
+    public ReplicationFollower(InetSocketAddress leader, Duration heartbeatInterval, Duration maxReconnectDelay) {
+        this.leader = leader;
+        this.heartbeatInterval = heartbeatInterval;
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+
+    public void start(List<Journaled> journaled) {
+        this.journaled = journaled;
+        follower = new Thread(this::followLoop, "replication-follower");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    public long appliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Changes the leader had made, as of its last heartbeat, that aren't applied here yet.
+     */
+    public long lag() {
+        return Math.max(0, leaderSequence - appliedSequence);
+    }
+
+    /**
+     * How long ago, in the leader's clock, the last applied change was made, or 0 when there is no lag.
+     */
+    public long delayMillis() {
+        if (lag() == 0) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() + leaderClockOffset - appliedAt);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Snapshots received, one for the first connection and one for every reconnect the leader's log couldn't
+     * continue.
+     */
+    public long snapshotCount() {
+        return snapshots.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        final Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+        if (follower != null) {
+            follower.interrupt();
+            try {
+                follower.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void followLoop() {
+        final int timeoutMillis = (int) heartbeatInterval.multipliedBy(ReplicationProtocol.MISSED_HEARTBEATS).toMillis();
+        long reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+        while (!closed) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                if (closed) {
+                    return;
+                }
+                // Resolved again for every attempt, the leader may have moved
+                connection.connect(new InetSocketAddress(leader.getHostString(), leader.getPort()), timeoutMillis);
+                connection.setTcpNoDelay(true);
+                connection.setSoTimeout(timeoutMillis);
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), IO_BUFFER_SIZE));
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                handshake(in, out);
+                connected = true;
+                reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+                follow(in);
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Replication from {}:{} interrupted, reconnecting in {} ms: {}", leader.getHostString(), leader.getPort(), reconnectDelay, e.toString());
+                }
+            } finally {
+                connected = false;
+            }
+            try {
+                Thread.sleep(reconnectDelay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            reconnectDelay = Math.min(reconnectDelay * 2, Math.max(MIN_RECONNECT_DELAY_MILLIS, maxReconnectDelay.toMillis()));
+        }
+    }
+
+    private void handshake(DataInputStream in, DataOutputStream out) throws IOException {
+        out.writeInt(ReplicationProtocol.MAGIC);
+        out.writeLong(logId);
+        out.writeLong(appliedSequence);
+        out.flush();
+        if (in.readInt() != ReplicationProtocol.MAGIC) {
+            throw new IOException("Not a replication leader");
+        }
+        final long leaderLogId = in.readLong();
+        final byte mode = in.readByte();
+        final long sequence = in.readLong();
+        if (mode == ReplicationProtocol.SNAPSHOT) {
+            // Until the snapshot is complete the state belongs to no log, a reconnect has to start over
+            logId = 0;
+            applySnapshot(in);
+            snapshots.incrementAndGet();
+            appliedAt = System.currentTimeMillis() + leaderClockOffset;
+            log.info("Applied a snapshot from {}:{} up to sequence {}", leader.getHostString(), leader.getPort(), sequence);
+        } else if (mode != ReplicationProtocol.TAIL || leaderLogId != logId || sequence != appliedSequence) {
+            throw new IOException("Unexpected answer from the leader");
+        }
+        logId = leaderLogId;
+        appliedSequence = sequence;
+        leaderSequence = sequence;
+    }
+
+    private void applySnapshot(DataInputStream in) throws IOException {
+        final Set<String> tokens = new HashSet<>();
+        final Set<String> users = new HashSet<>();
+        Frame frame;
+        long count = 0;
+        while ((frame = ChangeCodec.read(in)) != null) {
+            apply(frame.change);
+            if (frame.change.getType() == Change.Type.TOKEN_SAVED) {
+                tokens.add(frame.change.getToken());
+            } else if (frame.change.getType() == Change.Type.USER_SAVED) {
+                users.add(frame.change.getUsername());
+            }
+            count++;
+        }
+        if (in.readLong() != count) {
+            throw new IOException("Snapshot is incomplete");
+        }
+        // Whatever was deleted on the leader while this instance didn't follow it
+        final List<Change> stale = new ArrayList<>();
+        for (Journaled state : journaled) {
+            state.contents().forEach(change -> {
+                if (change.getType() == Change.Type.TOKEN_SAVED && !tokens.contains(change.getToken())) {
+                    stale.add(Change.tokenDeleted(change.getToken()));
+                } else if (change.getType() == Change.Type.USER_SAVED && !users.contains(change.getUsername())) {
+                    stale.add(Change.userDeleted(change.getUsername()));
+                }
+            });
+        }
+        stale.forEach(this::apply);
+    }
+
+    private void follow(DataInputStream in) throws IOException {
+        while (!closed) {
+            final byte kind = in.readByte();
+            if (kind == ReplicationProtocol.CHANGE) {
+                final long changeAppendedAt = in.readLong();
+                final Frame frame = ChangeCodec.read(in);
+                if (frame == null) {
+                    throw new IOException("Damaged change");
+                }
+                if (frame.sequence != appliedSequence + 1) {
+                    throw new IOException("Expected sequence " + (appliedSequence + 1) + " but got " + frame.sequence);
+                }
+                apply(frame.change);
+                appliedAt = changeAppendedAt;
+                appliedSequence = frame.sequence;
+                if (frame.sequence > leaderSequence) {
+                    leaderSequence = frame.sequence;
+                }
+            } else if (kind == ReplicationProtocol.HEARTBEAT) {
+                leaderSequence = Math.max(in.readLong(), appliedSequence);
+                leaderClockOffset = in.readLong() - System.currentTimeMillis();
+            } else {
+                throw new IOException("Unknown message " + kind);
+            }
+        }
+    }
+
+    private void apply(Change change) {
+        for (Journaled state : journaled) {
+            state.apply(change);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.replication;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journal;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journaled;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Makes this instance a read-only copy of the leader at {@code urlshortener.replication.leader} (host:port) with
+ * {@code urlshortener.replication.role=follower}. Writes are answered with 503, clients or the load balancer have to
+ * send them to the leader. A follower gets its state from the leader when it starts, so it can't be persisted itself.
+ */
+@Configuration
+@ConditionalOnProperty(name = "urlshortener.replication.role", havingValue = "follower")
+public class ReplicationFollowerConfig {
+
+    @Bean
+    public Journal readOnlyJournal(@Value("${urlshortener.persistence.enabled:false}") boolean persistence) {
+        if (persistence) {
+            throw new IllegalStateException("A replication follower can't have urlshortener.persistence.enabled");
+        }
+        return Journal.READ_ONLY;
+    }
+
+    @Bean(destroyMethod = "close")
+    public ReplicationFollower replicationFollower(@Value("${urlshortener.replication.leader}") String leader,
+                                                   @Value("${urlshortener.replication.heartbeat-interval:1s}") Duration heartbeatInterval,
+                                                   @Value("${urlshortener.replication.max-reconnect-delay:5s}") Duration maxReconnectDelay) {
+        final int colon = leader.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("urlshortener.replication.leader must be host:port, not " + leader);
+        }
+        final InetSocketAddress address = InetSocketAddress.createUnresolved(leader.substring(0, colon), Integer.parseInt(leader.substring(colon + 1)));
+        return new ReplicationFollower(address, heartbeatInterval, maxReconnectDelay);
+    }
+
+    @Bean
+    public ApplicationListener<ApplicationReadyEvent> replicationFollowerStart(ReplicationFollower follower, List<Journaled> journaled) {
+        return event -> follower.start(journaled);
+    }
+}
@@ -0,0 +1,318 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.replication;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ApplyTracker;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec.ExposedByteArrayOutputStream;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journal;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journaled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The journal of the instance that takes writes. Every change is given the next sequence number and kept, encoded,
+ * in a ring of the last logSize changes, from which it is streamed to the followers connected over TCP; the changes
+ * are then handed on to the durable journal, if there is one. Replication is asynchronous: sync() waits for the
+ * durable journal only, not for followers.
+ * <p>
+ * A follower says which log it has and the last sequence it applied. If that is still in the ring, it gets the
+ * changes after it. Otherwise, after a restart of either side or when it fell further behind than the ring
+ * reaches, it gets a snapshot first. The snapshot is fuzzy like those of FileJournal: the current sequence S is
+ * taken, the snapshot waits for every change up to S to be applied, the state is scanned while writes continue,
+ * and the changes after S follow it. Changes carry the full new state, so replaying ones the snapshot already has
+ * is harmless.
+ */
+public class ReplicationLeader implements Journal, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ReplicationLeader.class);
+    private static final int BATCH_SIZE = 256;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final Journal durable;
+    private final int port;
+    private final Duration heartbeatInterval;
+    private final long logId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final ExposedByteArrayOutputStream scratch = new ExposedByteArrayOutputStream(512);
+    private final ExposedByteArrayOutputStream frame = new ExposedByteArrayOutputStream(512);
+    private final DataOutputStream frameOut = new DataOutputStream(frame);
+    private final byte[][] frames;
+    private final long[] appendedAt;
+    private long lastSequence;
+    // A follower whose snapshot waits too long for a change to be applied is dropped, and tries again
+    private final ApplyTracker applying = new ApplyTracker();
+
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+    private List<Journaled> journaled = List.of();
+    private volatile ServerSocket server;
+    private volatile boolean closed;
+
+    public ReplicationLeader(Journal durable, int port, int logSize, Duration heartbeatInterval) {
+        if (logSize < 1) {
+            throw new IllegalArgumentException("The replication log must hold at least one change");
+        }
+        this.durable = durable;
+        this.port = port;
+        this.heartbeatInterval = heartbeatInterval;
+        this.frames = new byte[logSize][];
+        this.appendedAt = new long[logSize];
+    }
+
+    /**
+     * Starts taking followers. Must only be called once journaled holds the recovered state, a follower connecting
+     * earlier would copy it half done.
+     */
+    public void start(List<Journaled> journaled) throws IOException {
+        this.journaled = journaled;
+        final ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(port));
+        server = socket;
+        final Thread acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Replication leader listening on port {}", socket.getLocalPort());
+    }
+
+    @Override
+    public void checkWritable() {
+        durable.checkWritable();
+    }
+
+    @Override
+    public void append(Change change) {
+        lock.lock();
+        try {
+            // The sequence is only taken once the change is encoded, a change that can't be leaves no gap
+            final long sequence = lastSequence + 1;
+            frame.reset();
+            ChangeCodec.write(frameOut, scratch, sequence, change);
+            final int slot = slot(sequence);
+            frames[slot] = frame.toByteArray();
+            appendedAt[slot] = System.currentTimeMillis();
+            lastSequence = sequence;
+            applying.appended(sequence);
+            appended.signalAll();
+        } catch (IOException e) {
+            // Only from a string too long for the encoding, the services bound what they accept below that
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+        durable.append(change);
+    }
+
+    @Override
+    public void sync() {
+        // The caller has applied what it appended
+        applying.applied();
+        durable.sync();
+    }
+
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int followerCount() {
+        return followers.size();
+    }
+
+    /**
+     * The port followers connect to, which is only chosen on start when configured as 0.
+     */
+    public int port() {
+        final ServerSocket socket = server;
+        return socket != null ? socket.getLocalPort() : port;
+    }
+
+    /**
+     * Drops the connections to all followers, which reconnect and continue where they were.
+     */
+    void disconnectFollowers() throws IOException {
+        for (Socket follower : followers) {
+            follower.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        final ServerSocket socket = server;
+        if (socket != null) {
+            socket.close();
+        }
+        disconnectFollowers();
+        lock.lock();
+        try {
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int slot(long sequence) {
+        return (int) ((sequence - 1) % frames.length);
+    }
+
+    // Must hold the lock
+    private long firstRetained() {
+        return Math.max(1, lastSequence - frames.length + 1);
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("Accepting followers failed, no further followers can connect", e);
+                }
+                return;
+            }
+            followers.add(socket);
+            final Thread sender = new Thread(() -> serve(socket), "replication-sender-" + socket.getRemoteSocketAddress());
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            // Only the handshake is read from a follower
+            socket.setSoTimeout((int) heartbeatInterval.multipliedBy(ReplicationProtocol.MISSED_HEARTBEATS).toMillis());
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), IO_BUFFER_SIZE));
+            if (in.readInt() != ReplicationProtocol.MAGIC) {
+                throw new IOException("Not a follower");
+            }
+            final long followerLogId = in.readLong();
+            final long followerSequence = in.readLong();
+            long next;
+            lock.lock();
+            try {
+                next = followerLogId == logId && followerSequence + 1 >= firstRetained() && followerSequence <= lastSequence
+                        ? followerSequence + 1 : -1;
+            } finally {
+                lock.unlock();
+            }
+            out.writeInt(ReplicationProtocol.MAGIC);
+            out.writeLong(logId);
+            if (next > 0) {
+                log.info("Follower {} continues after sequence {}", socket.getRemoteSocketAddress(), next - 1);
+                out.writeByte(ReplicationProtocol.TAIL);
+                out.writeLong(next - 1);
+            } else {
+                next = sendSnapshot(out);
+                log.info("Follower {} was sent a snapshot up to sequence {}", socket.getRemoteSocketAddress(), next - 1);
+            }
+            stream(out, next);
+        } catch (EOFException | SocketException e) {
+            log.info("Follower {} disconnected", socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            log.warn("Replicating to follower {} failed", socket.getRemoteSocketAddress(), e);
+        } catch (RuntimeException e) {
+            log.error("Replicating to follower {} failed unexpectedly", socket.getRemoteSocketAddress(), e);
+        } finally {
+            followers.remove(socket);
+        }
+    }
+
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        final long next;
+        lock.lock();
+        try {
+            next = lastSequence + 1;
+        } finally {
+            lock.unlock();
+        }
+        applying.await(next - 1);
+        out.writeByte(ReplicationProtocol.SNAPSHOT);
+        out.writeLong(next - 1);
+        final ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream(512);
+        long count = 0;
+        for (Journaled state : journaled) {
+            final Iterator<Change> changes = state.contents().iterator();
+            while (changes.hasNext()) {
+                ChangeCodec.write(out, buffer, next - 1, changes.next());
+                count++;
+            }
+        }
+        out.writeInt(-1);
+        out.writeLong(count);
+        return next;
+    }
+
+    private void stream(DataOutputStream out, long next) throws IOException {
+        final byte[][] batch = new byte[BATCH_SIZE][];
+        final long[] batchAppendedAt = new long[BATCH_SIZE];
+        final long heartbeatNanos = heartbeatInterval.toNanos();
+        long lastHeartbeat = 0;
+        while (!closed) {
+            int count = 0;
+            final long head;
+            lock.lock();
+            try {
+                long waitNanos = heartbeatNanos;
+                while (next > lastSequence && waitNanos > 0 && !closed) {
+                    try {
+                        waitNanos = appended.awaitNanos(waitNanos);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (next < firstRetained()) {
+                    // Overwritten before this follower read it, it has to start over with a snapshot
+                    throw new IOException("Follower fell behind the replication log");
+                }
+                while (next + count <= lastSequence && count < BATCH_SIZE) {
+                    final int slot = slot(next + count);
+                    batch[count] = frames[slot];
+                    batchAppendedAt[count] = appendedAt[slot];
+                    count++;
+                }
+                head = lastSequence;
+            } finally {
+                lock.unlock();
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeByte(ReplicationProtocol.CHANGE);
+                out.writeLong(batchAppendedAt[i]);
+                out.write(batch[i]);
+                batch[i] = null;
+            }
+            next += count;
+            // Also sent while busy, so a follower that is behind learns how far
+            final long now = System.nanoTime();
+            if (count == 0 || now - lastHeartbeat >= heartbeatNanos) {
+                out.writeByte(ReplicationProtocol.HEARTBEAT);
+                out.writeLong(head);
+                out.writeLong(System.currentTimeMillis());
+                lastHeartbeat = now;
+            }
+            out.flush();
+        }
+    }
+}
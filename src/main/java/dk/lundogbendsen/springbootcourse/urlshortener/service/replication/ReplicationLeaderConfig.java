@@ -0,0 +1,52 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.replication;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.FileJournal;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journal;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journaled;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Makes this instance the replication leader with {@code urlshortener.replication.role=leader}: followers connect to
+ * {@code urlshortener.replication.port}, and can continue after a reconnect as long as they are no more than
+ * {@code urlshortener.replication.log-size} changes behind. With persistence enabled, changes go on to the
+ * FileJournal as well. The stream carries password hashes and is neither encrypted nor authenticated, so the port must
+ * only be reachable from the other instances.
+ */
+@Configuration
+@ConditionalOnProperty(name = "urlshortener.replication.role", havingValue = "leader")
+public class ReplicationLeaderConfig {
+
+    @Bean(destroyMethod = "close")
+    @Primary
+    public ReplicationLeader replicationLeader(ObjectProvider<FileJournal> fileJournal,
+                                               @Value("${urlshortener.replication.port:7070}") int port,
+                                               @Value("${urlshortener.replication.log-size:100000}") int logSize,
+                                               @Value("${urlshortener.replication.heartbeat-interval:1s}") Duration heartbeatInterval) {
+        final Journal durable = fileJournal.getIfAvailable();
+        return new ReplicationLeader(durable != null ? durable : Journal.NONE, port, logSize, heartbeatInterval);
+    }
+
+    // Only once the journal has been recovered, so followers copy the whole state
+    @Bean
+    public ApplicationListener<ApplicationReadyEvent> replicationLeaderStart(ReplicationLeader leader, List<Journaled> journaled) {
+        return event -> {
+            try {
+                leader.start(journaled);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not start the replication leader", e);
+            }
+        };
+    }
+}
@@ -0,0 +1,22 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.replication;
+
+/**
+ * The replication stream. The follower opens with {@code [int magic][long log id][long last applied sequence]},
+ * log id 0 if it has none. The leader answers {@code [int magic][long log id]} and then either
+ * {@code [TAIL][long sequence]}, continuing after the follower's sequence, or {@code [SNAPSHOT][long sequence]}
+ * followed by the frames of the snapshot and {@code [int -1][long frame count]}, as in a FileJournal snapshot file.
+ * The changes after the sequence follow as {@code [CHANGE][long appended at][ChangeCodec frame]}, in order, with a
+ * {@code [HEARTBEAT][long leader sequence][long leader time]} at least every heartbeat interval.
+ */
+final class ReplicationProtocol {
+    static final int MAGIC = 0x55535231;
+    static final byte TAIL = 1;
+    static final byte SNAPSHOT = 2;
+    static final byte CHANGE = 3;
+    static final byte HEARTBEAT = 4;
+    // Either side gives up on a connection that has been silent for this many heartbeat intervals
+    static final int MISSED_HEARTBEATS = 3;
+
+    private ReplicationProtocol() {
+    }
+}
@@ -0,0 +1,79 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hashing of token names onto nodes. Every node is placed on a 64 bit ring at virtualNodes points, and a
+ * name belongs to the node of the first point at or after the name's hash. Adding a node to N others only takes
+ * over the names just before its points, about 1/(N+1) of them, and removing one hands its names to the nodes
+ * after its points; the many points per node keep the shares close to even.
+ * <p>
+ * Placement only depends on the node names, so every instance configured with the same nodes agrees on the owners.
+ */
+public final class HashRing {
+    private final List<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    public HashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one node and one virtual node per node");
+        }
+        if (nodes.stream().distinct().count() != nodes.size()) {
+            throw new IllegalArgumentException("The nodes of a ring must be distinct: " + nodes);
+        }
+        this.nodes = List.copyOf(nodes);
+        final int size = nodes.size() * virtualNodes;
+        final long[][] placed = new long[size][];
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                placed[n * virtualNodes + v] = new long[]{hash(nodes.get(n) + "#" + v), n};
+            }
+        }
+        // Ties, which are very unlikely, go to the node listed first, the same on every instance
+        Arrays.sort(placed, (a, b) -> a[0] != b[0] ? Long.compareUnsigned(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[size];
+        this.owners = new String[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = placed[i][0];
+            owners[i] = nodes.get((int) placed[i][1]);
+        }
+    }
+
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    public boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    public String owner(String name) {
+        final long hash = hash(name);
+        // The first point at or after hash, in unsigned order, wrapping around to the first point
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(points[middle], hash) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+
+    // FNV-1a over the UTF-8 bytes, then a murmur finaliser so that similar names land far apart
+    static long hash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,135 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.sharding;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.ChangeCodec.ExposedByteArrayOutputStream;
+import org.springframework.web.util.UriUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP between the nodes of a sharded cluster. Every request carries the shared secret in {@value #SHARD_HEADER},
+ * which tells a node that the request comes from another node: it is served right there instead of being routed
+ * again, and it may use the internal endpoints under {@value #INTERNAL_PATH}.
+ */
+public class ShardClient {
+    public static final String SHARD_HEADER = "X-Urlshortener-Shard";
+    public static final String INTERNAL_PATH = "/internal/shards";
+
+    private final HttpClient http;
+    private final ObjectMapper objectMapper;
+    private final byte[] secret;
+    private final Duration timeout;
+
+    public ShardClient(ObjectMapper objectMapper, String secret, Duration timeout) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Sharding needs a shared secret");
+        }
+        this.http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(timeout).build();
+        this.objectMapper = objectMapper;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Whether a request with the given {@value #SHARD_HEADER} header, which may be null, was sent by another node.
+     */
+    public boolean isFromShard(String header) {
+        return header != null && MessageDigest.isEqual(secret, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A request to pathAndQuery on node, which must be encoded already.
+     */
+    public HttpRequest.Builder request(String node, String pathAndQuery) {
+        return HttpRequest.newBuilder(URI.create(node + pathAndQuery))
+                .timeout(timeout)
+                .header(SHARD_HEADER, new String(secret, StandardCharsets.UTF_8));
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return http.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.uri());
+        }
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return http.sendAsync(request, handler);
+    }
+
+    /**
+     * Hands tokens or users over to node, which stores them with {@code adopt}.
+     */
+    public void sendChanges(String node, List<Change> changes) throws IOException {
+        final ExposedByteArrayOutputStream body = new ExposedByteArrayOutputStream(changes.size() * 64);
+        final DataOutputStream out = new DataOutputStream(body);
+        final ExposedByteArrayOutputStream scratch = new ExposedByteArrayOutputStream(512);
+        for (Change change : changes) {
+            ChangeCodec.write(out, scratch, 0, change);
+        }
+        out.writeInt(-1);
+        internal(node, request(node, INTERNAL_PATH + "/changes")
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.buffer(), 0, body.size())));
+    }
+
+    /**
+     * Tells node to start moving from the ring of previous to the ring of nodes.
+     */
+    public void startRebalance(String node, List<String> previous, List<String> nodes) throws IOException {
+        final byte[] body = objectMapper.writeValueAsBytes(Map.of("previous", previous, "nodes", nodes));
+        internal(node, request(node, INTERNAL_PATH + "/ring")
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(body)));
+    }
+
+    /**
+     * Whether node is still moving tokens to their new owners.
+     */
+    public boolean isMoving(String node) throws IOException {
+        final JsonNode status = objectMapper.readTree(internal(node, request(node, INTERNAL_PATH).GET()));
+        return status.path("moving").asBoolean();
+    }
+
+    /**
+     * Whether node holds a token by that name.
+     */
+    public boolean hasToken(String node, String token) throws IOException {
+        final HttpResponse<Void> response = send(request(node, INTERNAL_PATH + "/tokens/" + UriUtils.encodePathSegment(token, StandardCharsets.UTF_8))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build(), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 204 && response.statusCode() != 404) {
+            throw new IOException("HEAD " + response.uri() + " on " + node + " answered " + response.statusCode());
+        }
+        return response.statusCode() == 204;
+    }
+
+    public void finishRebalance(String node) throws IOException {
+        internal(node, request(node, INTERNAL_PATH + "/previous").DELETE());
+    }
+
+    private byte[] internal(String node, HttpRequest.Builder request) throws IOException {
+        final HttpResponse<byte[]> response = send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException(response.request().method() + " " + response.uri() + " on " + node + " answered " + response.statusCode());
+        }
+        return response.body();
+    }
+}
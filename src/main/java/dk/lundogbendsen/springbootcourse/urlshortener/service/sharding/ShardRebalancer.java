@@ -0,0 +1,226 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.sharding;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Changes the nodes of a sharded cluster while it keeps serving. One node coordinates: it tells every node, old and
+ * new, to switch from the current ring to the new one, waits until all of them have moved the tokens they no
+ * longer own, and then tells them the rebalance is over.
+ * <p>
+ * Each node moves its tokens in passes over its store, in batches per new owner. A token is copied first and
+ * released only if it didn't change in the meantime; changed ones are moved again by the next pass, and the passes
+ * stop when one finds nothing left to move. Until then a new owner that lacks a token asks its previous owner, see
+ * {@link Shards}. Nodes that join get a copy of all users before any tokens. Click statistics are not moved.
+ */
+public class ShardRebalancer {
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+    static final int BATCH_SIZE = 1000;
+    private static final long RETRY_MILLIS = 1000;
+    private static final long POLL_MILLIS = 200;
+
+    private final Shards shards;
+    private final ShardClient client;
+    private final TokenService tokenService;
+    private final UserService userService;
+    private final int virtualNodes;
+
+    private final AtomicLong moved = new AtomicLong();
+    // Bumped by every rebalance, a mover that sees another value has been superseded
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean moving;
+    private volatile boolean coordinating;
+
+    public ShardRebalancer(Shards shards, ShardClient client, TokenService tokenService, UserService userService, int virtualNodes) {
+        this.shards = shards;
+        this.client = client;
+        this.tokenService = tokenService;
+        this.userService = userService;
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Moves the cluster to the given nodes in the background, with this node coordinating.
+     *
+     * @throws IllegalStateException if a rebalance is already under way
+     */
+    public synchronized void coordinate(List<String> nodes) {
+        if (coordinating || shards.isRebalancing()) {
+            throw new IllegalStateException("A rebalance is already under way");
+        }
+        final HashRing ring = new HashRing(nodes, virtualNodes);
+        final List<String> previous = shards.ring().nodes();
+        final List<String> all = new ArrayList<>(previous);
+        ring.nodes().stream().filter(node -> !all.contains(node)).forEach(all::add);
+        coordinating = true;
+        final Thread coordinator = new Thread(() -> {
+            try {
+                log.info("Rebalancing from {} to {}", previous, ring.nodes());
+                for (String node : all) {
+                    untilDone(() -> client.startRebalance(node, previous, ring.nodes()));
+                }
+                for (String node : all) {
+                    untilDone(() -> {
+                        while (client.isMoving(node)) {
+                            Thread.sleep(POLL_MILLIS);
+                        }
+                    });
+                }
+                for (String node : all) {
+                    untilDone(() -> client.finishRebalance(node));
+                }
+                log.info("Rebalanced to {}", ring.nodes());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                coordinating = false;
+            }
+        }, "shard-coordinator");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    /**
+     * Switches this node from the ring of previous to the ring of nodes, and starts moving its tokens.
+     */
+    public synchronized void start(List<String> previous, List<String> nodes) {
+        final HashRing ring = new HashRing(nodes, virtualNodes);
+        shards.rebalance(new HashRing(previous, virtualNodes), ring);
+        final long current = generation.incrementAndGet();
+        moving = true;
+        final Thread mover = new Thread(() -> move(current, previous, ring), "shard-mover");
+        mover.setDaemon(true);
+        mover.start();
+    }
+
+    public void finish() {
+        shards.finishRebalance();
+    }
+
+    public boolean isMoving() {
+        return moving;
+    }
+
+    public boolean isCoordinating() {
+        return coordinating;
+    }
+
+    /**
+     * Tokens this node has handed over to other nodes since it started.
+     */
+    public long movedCount() {
+        return moved.get();
+    }
+
+    private void move(long current, List<String> previous, HashRing ring) {
+        try {
+            untilDone(() -> {
+                for (String node : ring.nodes()) {
+                    if (!previous.contains(node) && !node.equals(shards.self())) {
+                        copyUsers(node);
+                    }
+                }
+            });
+            long pass;
+            do {
+                pass = untilDone(() -> movePass(current));
+            } while (pass > 0 && generation.get() == current);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (generation.get() == current) {
+                moving = false;
+            }
+        }
+    }
+
+    private void copyUsers(String node) throws IOException {
+        final List<Change> batch = new ArrayList<>(BATCH_SIZE);
+        final Iterator<Change> users = userService.snapshot().iterator();
+        while (users.hasNext()) {
+            batch.add(users.next());
+            if (batch.size() == BATCH_SIZE) {
+                client.sendChanges(node, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            client.sendChanges(node, batch);
+        }
+    }
+
+    // Returns the number of tokens found on the wrong node, moved or not
+    private long movePass(long current) throws IOException {
+        final Map<String, List<Change>> batches = new HashMap<>();
+        long found = 0;
+        final Iterator<Change> tokens = tokenService.contents().iterator();
+        while (tokens.hasNext() && generation.get() == current) {
+            final Change token = tokens.next();
+            final String owner = shards.owner(token.getToken());
+            if (owner.equals(shards.self())) {
+                continue;
+            }
+            found++;
+            final List<Change> batch = batches.computeIfAbsent(owner, node -> new ArrayList<>(BATCH_SIZE));
+            batch.add(token);
+            if (batch.size() == BATCH_SIZE) {
+                hand(owner, batch);
+            }
+        }
+        for (Map.Entry<String, List<Change>> batch : batches.entrySet()) {
+            hand(batch.getKey(), batch.getValue());
+        }
+        if (found > 0) {
+            log.info("Moved {} tokens to {} so far", moved.get(), batches.keySet().stream().sorted().collect(Collectors.toList()));
+        }
+        return found;
+    }
+
+    private void hand(String owner, List<Change> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        client.sendChanges(owner, batch);
+        for (Change token : batch) {
+            if (tokenService.release(token)) {
+                moved.incrementAndGet();
+            }
+        }
+        batch.clear();
+    }
+
+    private interface Step<T> {
+        T run() throws IOException, InterruptedException;
+    }
+
+    private interface VoidStep {
+        void run() throws IOException, InterruptedException;
+    }
+
+    private static void untilDone(VoidStep step) throws InterruptedException {
+        untilDone(() -> {
+            step.run();
+            return null;
+        });
+    }
+
+    // Nodes can be briefly unreachable, a rebalance keeps retrying until they are back
+    private static <T> T untilDone(Step<T> step) throws InterruptedException {
+        while (true) {
+            try {
+                return step.run();
+            } catch (IOException e) {
+                log.warn("Rebalancing step failed, retrying in {} ms: {}", RETRY_MILLIS, e.toString());
+                Thread.sleep(RETRY_MILLIS);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.sharding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Partitions the tokens across the nodes in {@code urlshortener.sharding.nodes}, a list of base URLs such as
+ * {@code http://10.0.0.1:8080}, when {@code urlshortener.sharding.self} says which of them this instance is. All nodes
+ * need the same list and the same {@code urlshortener.sharding.secret}. To add or remove nodes, start the new ones
+ * with the current list, which they are not on yet, and {@code POST /internal/shards/rebalance} the new list to any
+ * node with the secret in {@value ShardClient#SHARD_HEADER}; once it is done, update the configuration of every node
+ * so a restart keeps the new ring.
+ */
+@Configuration
+@ConditionalOnProperty(name = "urlshortener.sharding.self")
+public class ShardingConfig {
+
+    @Bean
+    public Shards shards(@Value("${urlshortener.sharding.self}") String self,
+                         @Value("${urlshortener.sharding.nodes}") List<String> nodes,
+                         @Value("${urlshortener.sharding.virtual-nodes:160}") int virtualNodes) {
+        return new Shards(self, new HashRing(nodes, virtualNodes));
+    }
+
+    @Bean
+    public ShardClient shardClient(ObjectMapper objectMapper, @Value("${urlshortener.sharding.secret}") String secret,
+                                   @Value("${urlshortener.sharding.timeout:5s}") Duration timeout) {
+        return new ShardClient(objectMapper, secret, timeout);
+    }
+
+    @Bean
+    public ShardRebalancer shardRebalancer(Shards shards, ShardClient shardClient, TokenService tokenService, UserService userService,
+                                           @Value("${urlshortener.sharding.virtual-nodes:160}") int virtualNodes) {
+        return new ShardRebalancer(shards, shardClient, tokenService, userService, virtualNodes);
+    }
+}
@@ -0,0 +1,131 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.sharding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which node owns which tokens. Nodes are named by their base URL, self is this instance's. While a rebalance is
+ * under way the ring it started from is kept as the previous ring: a token that has a new owner may not have been
+ * moved there yet, so an owner that doesn't have it asks the previous one.
+ * <p>
+ * Users are not partitioned, every node has all of them.
+ */
+public class Shards {
+    /**
+     * No sharding, this instance owns every token.
+     */
+    public static final Shards LOCAL = new Shards(null, null);
+
+    private final String self;
+    private volatile Placement placement;
+
+    public Shards(String self, HashRing ring) {
+        this.self = self;
+        this.placement = new Placement(ring, null);
+    }
+
+    public boolean isSharded() {
+        return self != null;
+    }
+
+    public String self() {
+        return self;
+    }
+
+    public HashRing ring() {
+        return placement.current;
+    }
+
+    /**
+     * The ring before the rebalance that is under way, or null.
+     */
+    public HashRing previousRing() {
+        return placement.previous;
+    }
+
+    public boolean isRebalancing() {
+        return placement.previous != null;
+    }
+
+    public String owner(String token) {
+        return isSharded() ? placement.current.owner(token) : self;
+    }
+
+    public boolean isLocal(String token) {
+        return !isSharded() || self.equals(placement.current.owner(token));
+    }
+
+    /**
+     * The node that owned token before the rebalance under way, if that was another one than its owner now;
+     * otherwise null.
+     */
+    public String previousOwner(String token) {
+        final Placement current = placement;
+        if (!isSharded() || current.previous == null) {
+            return null;
+        }
+        final String previous = current.previous.owner(token);
+        return previous.equals(current.current.owner(token)) ? null : previous;
+    }
+
+    /**
+     * Every node that may hold tokens: those of the ring, and during a rebalance those of the previous ring too.
+     */
+    public List<String> nodes() {
+        final Placement current = placement;
+        final List<String> nodes = new ArrayList<>(current.current.nodes());
+        if (current.previous != null) {
+            current.previous.nodes().stream().filter(node -> !nodes.contains(node)).forEach(nodes::add);
+        }
+        return nodes;
+    }
+
+    /**
+     * Whether this node may hand out code as a generated token name. Nodes generate codes independently, so each
+     * only uses codes it owns; during a rebalance only codes it owned before as well, another node may still have
+     * a token by that name that is waiting to be moved.
+     */
+    public boolean ownsNewCode(String code) {
+        final Placement current = placement;
+        return !isSharded() || self.equals(current.current.owner(code)) && (current.previous == null || self.equals(current.previous.owner(code)));
+    }
+
+    /**
+     * The node that should create tokens without a name that were sent here: this one, unless it is joining or
+     * leaving the ring and so owns no codes it can safely hand out.
+     */
+    public String codeNode() {
+        final Placement current = placement;
+        if (!isSharded() || current.current.contains(self) && (current.previous == null || current.previous.contains(self))) {
+            return self;
+        }
+        return current.current.nodes().stream()
+                .filter(node -> current.previous == null || current.previous.contains(node))
+                .findFirst()
+                .orElse(current.current.nodes().get(0));
+    }
+
+    /**
+     * Starts a rebalance from previous to ring.
+     */
+    public void rebalance(HashRing previous, HashRing ring) {
+        placement = new Placement(ring, previous);
+    }
+
+    /**
+     * Ends the rebalance under way, once every node has moved its tokens.
+     */
+    public void finishRebalance() {
+        placement = new Placement(placement.current, null);
+    }
+
+    private static final class Placement {
+        final HashRing current;
+        final HashRing previous;
+
+        Placement(HashRing current, HashRing previous) {
+            this.current = current;
+            this.previous = previous;
+        }
+    }
+}
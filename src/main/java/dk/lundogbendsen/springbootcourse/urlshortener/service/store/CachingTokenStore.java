@@ -0,0 +1,186 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * A bounded read-through cache in front of a slower store.
+ * <p>
+ * Entries live in an 8-way set-associative table. When a set is full, a newly read token only replaces the
+ * least frequently used entry of its set if a {@link FrequencySketch} says it is asked for more often
+ * (TinyLFU admission). A scan over many cold tokens therefore can't push the popular ones out, unlike LRU.
+ * <p>
+ * Every write goes through {@link #compute}, which drops the cached entry. A read that races with a write to
+ * the same stripe doesn't keep what it loaded, so the cache never holds a stale token.
+ */
+public class CachingTokenStore implements TokenStore {
+    private static final int WAYS = 8;
+    private static final int STRIPES = 1024;
+
+    private final TokenStore backing;
+    private final AtomicReferenceArray<Entry> entries;
+    private final int setMask;
+    private final FrequencySketch sketch;
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    private final AtomicLongArray writers = new AtomicLongArray(STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public CachingTokenStore(TokenStore backing, int maximumSize) {
+        this.backing = backing;
+        final int sets = Integer.highestOneBit(Math.max(1, (maximumSize + WAYS - 1) / WAYS - 1) << 1);
+        this.entries = new AtomicReferenceArray<>(sets * WAYS);
+        this.setMask = sets - 1;
+        this.sketch = new FrequencySketch(sets * WAYS);
+    }
+
+    @Override
+    public Token get(String token) {
+        final int hash = spread(token.hashCode());
+        sketch.increment(hash);
+        final int set = (hash & setMask) * WAYS;
+        for (int i = set; i < set + WAYS; i++) {
+            final Entry entry = entries.get(i);
+            if (entry != null && entry.hash == hash && entry.key.equals(token)) {
+                hits.increment();
+                return entry.token;
+            }
+        }
+        misses.increment();
+        final int stripe = hash & (STRIPES - 1);
+        final long version = versions.get(stripe);
+        final boolean quiet = writers.get(stripe) == 0;
+        final Token found = backing.get(token);
+        if (found != null && quiet) {
+            admit(new Entry(hash, token, found), set, stripe, version);
+        }
+        return found;
+    }
+
+    @Override
+    public Token compute(String token, UnaryOperator<Token> remapping) {
+        final int hash = spread(token.hashCode());
+        final int stripe = hash & (STRIPES - 1);
+        writers.incrementAndGet(stripe);
+        try {
+            return backing.compute(token, remapping);
+        } finally {
+            final int set = (hash & setMask) * WAYS;
+            for (int i = set; i < set + WAYS; i++) {
+                final Entry entry = entries.get(i);
+                if (entry != null && entry.hash == hash && entry.key.equals(token)) {
+                    entries.compareAndSet(i, entry, null);
+                }
+            }
+            versions.incrementAndGet(stripe);
+            writers.decrementAndGet(stripe);
+        }
+    }
+
+    @Override
+    public Stream<Token> tokens() {
+        return backing.tokens();
+    }
+
+    @Override
+    public long size() {
+        return backing.size();
+    }
+
+    @Override
+    public boolean isDurable() {
+        return backing.isDurable();
+    }
+
+    @Override
+    public void flush() {
+        backing.flush();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Tokens that were read but not admitted because they were less popular than what they would replace.
+     */
+    public long rejectionCount() {
+        return rejections.sum();
+    }
+
+    public long cachedCount() {
+        long count = 0;
+        for (int i = 0; i < entries.length(); i++) {
+            if (entries.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void admit(Entry candidate, int set, int stripe, long version) {
+        int victim = -1;
+        int victimFrequency = Integer.MAX_VALUE;
+        Entry victimEntry = null;
+        for (int i = set; i < set + WAYS; i++) {
+            final Entry entry = entries.get(i);
+            if (entry == null) {
+                victim = i;
+                victimEntry = null;
+                break;
+            }
+            final int frequency = sketch.frequency(entry.hash);
+            if (frequency < victimFrequency) {
+                victim = i;
+                victimFrequency = frequency;
+                victimEntry = entry;
+            }
+        }
+        if (victimEntry != null && sketch.frequency(candidate.hash) <= victimFrequency) {
+            rejections.increment();
+            return;
+        }
+        if (!entries.compareAndSet(victim, victimEntry, candidate)) {
+            return;
+        }
+        if (victimEntry != null) {
+            evictions.increment();
+        }
+        // A write may have started or finished since the token was read, in which case it could be stale
+        if (versions.get(stripe) != version || writers.get(stripe) != 0) {
+            entries.compareAndSet(victim, candidate, null);
+        }
+    }
+
+    private static int spread(int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry {
+        final int hash;
+        final String key;
+        final Token token;
+
+        Entry(int hash, String key, Token token) {
+            this.hash = hash;
+            this.key = key;
+            this.token = token;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Keeps tokens on the heap in the compact form of {@link CompactTokenStore} when
+ * {@code urlshortener.store.type=compact}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "urlshortener.store.type", havingValue = "compact")
+public class CompactStoreConfig {
+
+    @Bean
+    public TokenStore tokenStore() {
+        return new CompactTokenStore();
+    }
+}
@@ -0,0 +1,349 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * In-memory store that keeps tokens in a compact form instead of as {@link Token}s. The owner is an id into a
+ * dictionary of users holding only their name, so no stored token refers to a password hash, and the target URL
+ * is an id into a dictionary of scheme and host prefixes plus the rest of the URL. The token's name and the rest
+ * of its URL share one UTF-8 byte array, and the entries are chained in a hash table of their own rather than a
+ * map keyed by name, which saves a map node and a String per token. Tokens are turned back into a Token when they
+ * are read; resolve skips that and builds only the URL.
+ * <p>
+ * The dictionaries only grow. Users are few, and at most {@value #MAX_PREFIXES} prefixes are kept so that URLs on
+ * ever new hosts can't fill the heap; beyond that URLs are stored whole. Entries are never changed once
+ * published, writes put new chains in place, so reads need no locks. Writers lock a stripe for the name, and
+ * growing the table holds out all writers.
+ */
+public class CompactTokenStore implements TokenStore {
+    static final int MAX_PREFIXES = 1 << 16;
+    private static final int MAX_NAME_LENGTH = 0xffff;
+    private static final long NO_EXPIRY = Long.MIN_VALUE;
+    private static final int NO_URL = -1;
+    private static final int MIN_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.75;
+    private static final int STRIPES = 64;
+
+    private final Dictionary<User> owners = new Dictionary<>(Integer.MAX_VALUE, username -> User.builder().username(username).build());
+    private final Dictionary<byte[]> prefixes = new Dictionary<>(MAX_PREFIXES, prefix -> prefix.getBytes(StandardCharsets.UTF_8));
+    private final int noPrefix = prefixes.id("");
+    private final ReentrantReadWriteLock layoutLock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile AtomicReferenceArray<Entry> table = new AtomicReferenceArray<>(MIN_CAPACITY);
+
+    public CompactTokenStore() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    private static final class Entry {
+        final int hash;
+        final int owner;
+        // NO_URL if the token has no target URL
+        final int prefix;
+        final long expiresAt;
+        final String protectToken;
+        // [short name length][name][rest of the URL], in UTF-8
+        final byte[] data;
+        final Entry next;
+
+        Entry(int hash, int owner, int prefix, long expiresAt, String protectToken, byte[] data, Entry next) {
+            this.hash = hash;
+            this.owner = owner;
+            this.prefix = prefix;
+            this.expiresAt = expiresAt;
+            this.protectToken = protectToken;
+            this.data = data;
+            this.next = next;
+        }
+
+        Entry withNext(Entry next) {
+            return new Entry(hash, owner, prefix, expiresAt, protectToken, data, next);
+        }
+
+        int nameLength() {
+            return (data[0] & 0xff) << 8 | data[1] & 0xff;
+        }
+
+        boolean isNamed(int hash, byte[] name) {
+            return this.hash == hash && Arrays.equals(data, 2, 2 + nameLength(), name, 0, name.length);
+        }
+
+        String name() {
+            return new String(data, 2, nameLength(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public Token get(String token) {
+        final Entry entry = find(table, token);
+        return entry == null ? null : toToken(entry);
+    }
+
+    @Override
+    public String resolve(String token, String protectToken, long now) {
+        final Entry entry = find(table, token);
+        if (entry == null || entry.expiresAt != NO_EXPIRY && entry.expiresAt <= now) {
+            return null;
+        }
+        if (entry.protectToken != null && !entry.protectToken.equals(protectToken)) {
+            throw new AccessDeniedException();
+        }
+        return targetUrl(entry);
+    }
+
+    @Override
+    public Token compute(String token, UnaryOperator<Token> remapping) {
+        final int hash = spread(token.hashCode());
+        // From the low bits, as the bucket is, so that all writers to a bucket take the same stripe at any table size
+        final ReentrantLock stripe = stripes[hash & (STRIPES - 1)];
+        final Token after;
+        layoutLock.readLock().lock();
+        stripe.lock();
+        try {
+            final AtomicReferenceArray<Entry> current = table;
+            final int bucket = hash & (current.length() - 1);
+            final Entry head = current.get(bucket);
+            final Entry found = find(head, hash, token);
+            final Token before = found == null ? null : toToken(found);
+            after = remapping.apply(before);
+            if (after == before) {
+                return after;
+            }
+            if (after == null) {
+                current.set(bucket, without(head, found));
+                count.decrementAndGet();
+                return null;
+            }
+            final Entry rest = found == null ? head : without(head, found);
+            current.set(bucket, toEntry(hash, token, after, rest));
+            if (found == null) {
+                count.incrementAndGet();
+            }
+        } finally {
+            stripe.unlock();
+            layoutLock.readLock().unlock();
+        }
+        // Not while a caller's compute holds the read lock, it can't be upgraded
+        if (count.get() > table.length() * MAX_LOAD && layoutLock.getReadHoldCount() == 0) {
+            grow();
+        }
+        return after;
+    }
+
+    @Override
+    public Stream<Token> tokens() {
+        final AtomicReferenceArray<Entry> current = table;
+        return IntStream.range(0, current.length())
+                .mapToObj(current::get)
+                .flatMap(head -> Stream.iterate(head, entry -> entry != null, entry -> entry.next))
+                .map(this::toToken);
+    }
+
+    @Override
+    public long size() {
+        return count.get();
+    }
+
+    /**
+     * Distinct owners seen so far, including ones that no longer have tokens.
+     */
+    public int ownerCount() {
+        return owners.size();
+    }
+
+    /**
+     * Distinct URL prefixes seen so far, including ones no longer used.
+     */
+    public int prefixCount() {
+        return prefixes.size();
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+
+    private static Entry find(AtomicReferenceArray<Entry> table, String token) {
+        final int hash = spread(token.hashCode());
+        return find(table.get(hash & (table.length() - 1)), hash, token);
+    }
+
+    private static Entry find(Entry head, int hash, String token) {
+        byte[] name = null;
+        for (Entry entry = head; entry != null; entry = entry.next) {
+            if (entry.hash == hash) {
+                // Only encoded once the hash matches, which is usually the entry looked for
+                if (name == null) {
+                    name = token.getBytes(StandardCharsets.UTF_8);
+                }
+                if (entry.isNamed(hash, name)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    // The chain from head without entry; the entries before it are copied, the ones after it are shared
+    private static Entry without(Entry head, Entry entry) {
+        return head == entry ? entry.next : head.withNext(without(head.next, entry));
+    }
+
+    private void grow() {
+        layoutLock.writeLock().lock();
+        try {
+            final AtomicReferenceArray<Entry> current = table;
+            if (count.get() <= current.length() * MAX_LOAD) {
+                return;
+            }
+            final AtomicReferenceArray<Entry> grown = new AtomicReferenceArray<>(current.length() * 2);
+            final int mask = grown.length() - 1;
+            for (int i = 0; i < current.length(); i++) {
+                for (Entry entry = current.get(i); entry != null; entry = entry.next) {
+                    final int bucket = entry.hash & mask;
+                    grown.set(bucket, entry.withNext(grown.get(bucket)));
+                }
+            }
+            table = grown;
+        } finally {
+            layoutLock.writeLock().unlock();
+        }
+    }
+
+    private Token toToken(Entry entry) {
+        return Token.builder()
+                .token(entry.name())
+                .targetUrl(targetUrl(entry))
+                .protectToken(entry.protectToken)
+                .user(owners.value(entry.owner))
+                .expiresAt(entry.expiresAt == NO_EXPIRY ? null : Instant.ofEpochMilli(entry.expiresAt))
+                .build();
+    }
+
+    private Entry toEntry(int hash, String name, Token token, Entry next) {
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Token names can be at most " + MAX_NAME_LENGTH + " bytes");
+        }
+        final String url = token.getTargetUrl();
+        int prefix = NO_URL;
+        byte[] rest = new byte[0];
+        if (url != null) {
+            final int split = prefixLength(url);
+            prefix = split > 0 ? prefixes.id(url.substring(0, split)) : noPrefix;
+            if (prefix < 0) {
+                prefix = noPrefix;
+                rest = url.getBytes(StandardCharsets.UTF_8);
+            } else {
+                rest = url.substring(split).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        final byte[] data = new byte[2 + nameBytes.length + rest.length];
+        data[0] = (byte) (nameBytes.length >>> 8);
+        data[1] = (byte) nameBytes.length;
+        System.arraycopy(nameBytes, 0, data, 2, nameBytes.length);
+        System.arraycopy(rest, 0, data, 2 + nameBytes.length, rest.length);
+        return new Entry(hash, owners.id(token.getUser().getUsername()), prefix,
+                token.getExpiresAt() == null ? NO_EXPIRY : token.getExpiresAt().toEpochMilli(), token.getProtectToken(), data, next);
+    }
+
+    private String targetUrl(Entry entry) {
+        if (entry.prefix == NO_URL) {
+            return null;
+        }
+        final int start = 2 + entry.nameLength();
+        final byte[] prefix = prefixes.value(entry.prefix);
+        if (prefix.length == 0) {
+            return new String(entry.data, start, entry.data.length - start, StandardCharsets.UTF_8);
+        }
+        final byte[] url = Arrays.copyOf(prefix, prefix.length + entry.data.length - start);
+        System.arraycopy(entry.data, start, url, prefix.length, entry.data.length - start);
+        return new String(url, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The length of url's scheme and host, with port and user info, or 0 if it has none.
+     */
+    static int prefixLength(String url) {
+        final int authority = url.indexOf("://");
+        if (authority < 0) {
+            return 0;
+        }
+        for (int i = authority + 3; i < url.length(); i++) {
+            final char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return url.length();
+    }
+
+    /**
+     * Ids for strings, handed out in order and never reused; value holds what each id stands for.
+     */
+    private static final class Dictionary<T> {
+        private final int limit;
+        private final Function<String, T> factory;
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+        private volatile Object[] values = new Object[16];
+        private int size;
+
+        Dictionary(int limit, Function<String, T> factory) {
+            this.limit = limit;
+            this.factory = factory;
+        }
+
+        /**
+         * The id of key, added if it is new; -1 if it is new and the dictionary is full.
+         */
+        int id(String key) {
+            final Integer id = ids.get(key);
+            return id != null ? id : add(key);
+        }
+
+        private synchronized int add(String key) {
+            final Integer id = ids.get(key);
+            if (id != null) {
+                return id;
+            }
+            if (size == limit) {
+                return -1;
+            }
+            Object[] array = values;
+            if (size == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[size] = factory.apply(key);
+            // The volatile write publishes the value before the id can be looked up
+            values = array;
+            ids.put(key, size);
+            return size++;
+        }
+
+        @SuppressWarnings("unchecked")
+        T value(int id) {
+            return (T) values[id];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+}
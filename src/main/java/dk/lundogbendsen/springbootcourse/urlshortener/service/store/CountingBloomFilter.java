@@ -0,0 +1,125 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counting Bloom filter of 4 bit counters, so keys can be removed as well as added. It is blocked: all counters of
+ * a key lie in one 64 byte block of 128 counters, so a lookup touches a single cache line however many hash
+ * functions there are. Counters stick at 15 once they get there and are never decremented again, which can only
+ * cause false positives, never false negatives.
+ * <p>
+ * Updates are lock-free, but adding and removing the same key must not race; callers do both while the key is
+ * locked.
+ */
+class CountingBloomFilter {
+    private static final int BLOCK_WORDS = 8;
+    private static final int BLOCK_COUNTERS = BLOCK_WORDS * 16;
+
+    private final AtomicLongArray table;
+    private final long blocks;
+    private final int hashes;
+    private final double falsePositiveRate;
+    private final AtomicLong keys = new AtomicLong();
+
+    CountingBloomFilter(long expectedKeys, double falsePositiveRate) {
+        if (expectedKeys < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Expected keys must be positive and the false positive rate between 0 and 1");
+        }
+        // The optimal number of counters, plus a tenth for the clustering that blocking causes
+        final double counters = 1.1 * -expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.blocks = Math.max(1, Math.min((long) Math.ceil(counters / BLOCK_COUNTERS), Integer.MAX_VALUE / BLOCK_WORDS));
+        this.table = new AtomicLongArray((int) (blocks * BLOCK_WORDS));
+        this.hashes = (int) Math.max(1, Math.min(16, Math.round(counters / expectedKeys * Math.log(2))));
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    boolean mightContain(String key) {
+        final long hash = hash(key);
+        final int block = block(hash);
+        long bits = mix(hash);
+        for (int i = 0; i < hashes; i++) {
+            final int counter = (int) (bits & (BLOCK_COUNTERS - 1));
+            if (((table.get(block + (counter >>> 4)) >>> ((counter & 15) << 2)) & 15) == 0) {
+                return false;
+            }
+            bits = next(bits, i);
+        }
+        return true;
+    }
+
+    void add(String key) {
+        update(key, 1);
+        keys.incrementAndGet();
+    }
+
+    void remove(String key) {
+        update(key, -1);
+        keys.decrementAndGet();
+    }
+
+    private void update(String key, int delta) {
+        final long hash = hash(key);
+        final int block = block(hash);
+        long bits = mix(hash);
+        for (int i = 0; i < hashes; i++) {
+            final int counter = (int) (bits & (BLOCK_COUNTERS - 1));
+            final int word = block + (counter >>> 4);
+            final int shift = (counter & 15) << 2;
+            while (true) {
+                final long value = table.get(word);
+                final long current = (value >>> shift) & 15;
+                if (current == 15 || (current == 0 && delta < 0)) {
+                    break;
+                }
+                if (table.compareAndSet(word, value, value + ((long) delta << shift))) {
+                    break;
+                }
+            }
+            bits = next(bits, i);
+        }
+    }
+
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32) * BLOCK_WORDS;
+    }
+
+    // Seven bits per counter, with fresh bits once the first nine counters have used them up
+    private static long next(long bits, int i) {
+        return i % 9 == 8 ? mix(bits) : bits >>> 7;
+    }
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    long keyCount() {
+        return keys.get();
+    }
+
+    long memoryBytes() {
+        return table.length() * 8L;
+    }
+
+    double configuredFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * The false positive rate to expect with the number of keys currently in the filter.
+     */
+    double expectedFalsePositiveRate() {
+        final double counters = (double) blocks * BLOCK_COUNTERS;
+        return Math.pow(1 - Math.exp(-hashes * Math.max(0, keyCount()) / counters), hashes);
+    }
+}
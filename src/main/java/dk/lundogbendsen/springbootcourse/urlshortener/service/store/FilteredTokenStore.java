@@ -0,0 +1,120 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Answers reads of tokens that don't exist without asking the slower store behind it, which is most of what bots
+ * guessing codes ask for. A {@link CountingBloomFilter} holds every stored name; it is filled from the backing
+ * store when created and kept up to date by {@link #compute}, so tokens created, deleted or replayed from the
+ * journal are all seen. A name the filter doesn't know is certainly absent. A name it knows is usually present,
+ * and otherwise a false positive that costs one read of the backing store.
+ */
+public class FilteredTokenStore implements TokenStore {
+    private final TokenStore backing;
+    private final CountingBloomFilter filter;
+    private final LongAdder absent = new LongAdder();
+    private final LongAdder present = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public FilteredTokenStore(TokenStore backing, long expectedTokens, double falsePositiveRate) {
+        this.backing = backing;
+        this.filter = new CountingBloomFilter(expectedTokens, falsePositiveRate);
+        backing.tokens().forEach(token -> filter.add(token.getToken()));
+    }
+
+    @Override
+    public Token get(String token) {
+        if (!filter.mightContain(token)) {
+            absent.increment();
+            return null;
+        }
+        return counted(backing.get(token));
+    }
+
+    @Override
+    public String resolve(String token, String protectToken, long now) {
+        if (!filter.mightContain(token)) {
+            absent.increment();
+            return null;
+        }
+        return counted(backing.resolve(token, protectToken, now));
+    }
+
+    private <T> T counted(T found) {
+        (found != null ? present : falsePositives).increment();
+        return found;
+    }
+
+    @Override
+    public Token compute(String token, UnaryOperator<Token> remapping) {
+        // The filter is updated while the backing store holds the key's lock, so an add and a remove of the same
+        // name can't be applied out of order
+        return backing.compute(token, current -> {
+            final Token updated = remapping.apply(current);
+            if (current == null && updated != null) {
+                filter.add(token);
+            } else if (current != null && updated == null) {
+                filter.remove(token);
+            }
+            return updated;
+        });
+    }
+
+    @Override
+    public Stream<Token> tokens() {
+        return backing.tokens();
+    }
+
+    @Override
+    public long size() {
+        return backing.size();
+    }
+
+    @Override
+    public boolean isDurable() {
+        return backing.isDurable();
+    }
+
+    @Override
+    public void flush() {
+        backing.flush();
+    }
+
+    /**
+     * Reads answered by the filter alone.
+     */
+    public long absentCount() {
+        return absent.sum();
+    }
+
+    public long presentCount() {
+        return present.sum();
+    }
+
+    /**
+     * Reads the filter let through for tokens the backing store didn't have.
+     */
+    public long falsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    public double configuredFalsePositiveRate() {
+        return filter.configuredFalsePositiveRate();
+    }
+
+    /**
+     * The false positive rate to expect with the tokens stored now. It rises above the configured rate once there
+     * are more tokens than the filter was sized for.
+     */
+    public double expectedFalsePositiveRate() {
+        return filter.expectedFalsePositiveRate();
+    }
+
+    public long memoryBytes() {
+        return filter.memoryBytes();
+    }
+}
@@ -0,0 +1,72 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch of 4 bit counters, four rows deep, used to estimate how often a key was asked for recently.
+ * Once the number of increments reaches ten times the expected size all counters are halved, so old popularity fades.
+ * Updates are lock-free; a lost race only makes the estimate slightly less precise.
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final AtomicLongArray table;
+    private final int rowMask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    FrequencySketch(int expectedSize) {
+        // Four counters per row for every cached entry keeps collisions from drowning out real frequencies
+        final int width = Integer.highestOneBit(Math.max(4, expectedSize - 1) << 3);
+        this.table = new AtomicLongArray(4 * width / 16);
+        this.rowMask = width - 1;
+        this.sampleSize = 10 * expectedSize;
+    }
+
+    int frequency(int hash) {
+        int frequency = 15;
+        for (int row = 0; row < 4; row++) {
+            final int counter = counter(row, hash);
+            frequency = Math.min(frequency, (int) (table.get(counter >>> 4) >>> ((counter & 15) << 2)) & 15);
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            final int counter = counter(row, hash);
+            final int word = counter >>> 4;
+            final int shift = (counter & 15) << 2;
+            while (true) {
+                final long value = table.get(word);
+                if (((value >>> shift) & 15) == 15) {
+                    break;
+                }
+                if (table.compareAndSet(word, value, value + (1L << shift))) {
+                    added = true;
+                    break;
+                }
+            }
+        }
+        if (added && additions.incrementAndGet() == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            table.getAndUpdate(i, value -> (value >>> 1) & RESET_MASK);
+        }
+        additions.set(0);
+    }
+
+    // Row r's counter lives in the r-th quarter of the table
+    private int counter(int row, int hash) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return row * (rowMask + 1) + ((int) h & rowMask);
+    }
+}
@@ -0,0 +1,34 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * The default store. Reads are lock-free; writes only lock the hash bin they touch.
+ */
+public class InMemoryTokenStore implements TokenStore {
+    private final ConcurrentHashMap<String, Token> tokens = new ConcurrentHashMap<>();
+
+    @Override
+    public Token get(String token) {
+        return tokens.get(token);
+    }
+
+    @Override
+    public Token compute(String token, UnaryOperator<Token> remapping) {
+        return tokens.compute(token, (name, current) -> remapping.apply(current));
+    }
+
+    @Override
+    public Stream<Token> tokens() {
+        return tokens.values().stream();
+    }
+
+    @Override
+    public long size() {
+        return tokens.size();
+    }
+}
@@ -0,0 +1,48 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Keeps tokens in memory-mapped files when {@code urlshortener.store.type=mapped}, with a cache of the most
+ * popular tokens on the heap ({@code urlshortener.store.cache.maximum-size}, 0 turns it off). Between the two, a
+ * {@link FilteredTokenStore} answers reads of tokens that don't exist; it is sized with
+ * {@code urlshortener.store.filter.expected-tokens} and {@code urlshortener.store.filter.false-positive-rate}, and
+ * {@code urlshortener.store.filter.enabled=false} turns it off. Users are not part of the mapped store, enable the
+ * journal as well to keep them across restarts.
+ */
+@Configuration
+@ConditionalOnProperty(name = "urlshortener.store.type", havingValue = "mapped")
+public class MappedStoreConfig {
+
+    @Bean(destroyMethod = "close")
+    public MappedTokenStore mappedTokenStore(@Value("${urlshortener.store.directory:data/tokens}") Path directory,
+                                             @Value("${urlshortener.store.chunk-size:64MB}") DataSize chunkSize) throws IOException {
+        return new MappedTokenStore(directory, (int) chunkSize.toBytes());
+    }
+
+    @Bean(destroyMethod = "")
+    @ConditionalOnProperty(name = "urlshortener.store.filter.enabled", havingValue = "true", matchIfMissing = true)
+    public FilteredTokenStore filteredTokenStore(MappedTokenStore mappedTokenStore,
+                                                 @Value("${urlshortener.store.filter.expected-tokens:1000000}") long expectedTokens,
+                                                 @Value("${urlshortener.store.filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        return new FilteredTokenStore(mappedTokenStore, expectedTokens, falsePositiveRate);
+    }
+
+    @Bean(destroyMethod = "")
+    @Primary
+    public TokenStore tokenStore(MappedTokenStore mappedTokenStore, ObjectProvider<FilteredTokenStore> filteredTokenStore,
+                                 @Value("${urlshortener.store.cache.maximum-size:100000}") int maximumSize) {
+        final FilteredTokenStore filtered = filteredTokenStore.getIfAvailable();
+        final TokenStore backing = filtered != null ? filtered : mappedTokenStore;
+        return maximumSize > 0 ? new CachingTokenStore(backing, maximumSize) : backing;
+    }
+}
@@ -0,0 +1,649 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Token store kept in two memory-mapped files per generation, outside the Java heap:
+ * <ul>
+ * <li>{@code tokens-<generation>.idx}: an open-addressed hash table of longs, each holding a 24 bit hash tag and
+ * the offset of a record in the data file.</li>
+ * <li>{@code tokens-<generation>.dat}: append-only records {@code [int length][int crc][short token length]
+ * [short owner length][short protect length or -1][short flags][int target length][bytes...][long expiry]}, mapped
+ * in fixed size chunks. The expiry, in epoch millis, is only there if flag {@value #EXPIRES} is set; records
+ * written before expiries existed have no flags.</li>
+ * </ul>
+ * Records are never changed once written; updates append a new record and swap the slot, deletes leave a
+ * tombstone. Readers therefore need no locks: a slot is published with a release store after its record is
+ * written. Writers lock a stripe for the key, and growing the table or compacting away garbage writes the
+ * next generation while holding out all writers.
+ * <p>
+ * On a clean shutdown the files are forced and marked clean, and opening them again is just a remap. After a
+ * crash the next generation is rebuilt from the records that still check out; run it with the journal enabled
+ * to get back what the OS hadn't written yet.
+ */
+public class MappedTokenStore implements TokenStore, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MappedTokenStore.class);
+    private static final VarHandle SLOTS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int INDEX_MAGIC = 0x55534958;
+    private static final int DATA_MAGIC = 0x55534454;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_HEADER_SIZE = 20;
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = -1;
+    private static final int MIN_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.7;
+    private static final double FULL_LOAD = 0.9;
+    private static final int STRIPES = 64;
+    private static final short EXPIRES = 1;
+
+    private final Path directory;
+    private final int chunkSize;
+    private final ReentrantReadWriteLock layoutLock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger tombstones = new AtomicInteger();
+    private final AtomicLong garbage = new AtomicLong();
+    private volatile Layout layout;
+    private boolean closed;
+
+    public MappedTokenStore(Path directory, int chunkSize) throws IOException {
+        this.directory = directory;
+        this.chunkSize = chunkSize;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        Files.createDirectories(directory);
+        open();
+    }
+
+    @Override
+    public Token get(String token) {
+        final Layout layout = this.layout;
+        final int slot = find(layout, token.getBytes(StandardCharsets.UTF_8), hash(token));
+        return slot < 0 ? null : layout.read(offset(layout.slot(slot)));
+    }
+
+    @Override
+    public String resolve(String token, String protectToken, long now) {
+        final Layout layout = this.layout;
+        final int slot = find(layout, token.getBytes(StandardCharsets.UTF_8), hash(token));
+        if (slot < 0) {
+            return null;
+        }
+        final long offset = offset(layout.slot(slot));
+        final ByteBuffer chunk = layout.chunk(offset);
+        final int position = layout.position(offset);
+        final int tokenLength = chunk.getShort(position + 8);
+        final int ownerLength = chunk.getShort(position + 10);
+        final int protectLength = chunk.getShort(position + 12);
+        final int targetLength = chunk.getInt(position + 16);
+        int field = position + RECORD_HEADER_SIZE + tokenLength + ownerLength;
+        if ((chunk.getShort(position + 14) & EXPIRES) != 0
+                && chunk.getLong(field + Math.max(protectLength, 0) + targetLength) <= now) {
+            return null;
+        }
+        if (protectLength >= 0) {
+            if (protectToken == null || !equals(chunk, field, protectLength, protectToken.getBytes(StandardCharsets.UTF_8))) {
+                throw new AccessDeniedException();
+            }
+            field += protectLength;
+        }
+        return string(chunk, field, targetLength);
+    }
+
+    @Override
+    public Token compute(String token, UnaryOperator<Token> remapping) {
+        final byte[] key = token.getBytes(StandardCharsets.UTF_8);
+        final long hash = hash(token);
+        final ReentrantLock stripe = stripes[(int) (hash >>> 58)];
+        while (true) {
+            Token result = null;
+            boolean full = false;
+            layoutLock.readLock().lock();
+            stripe.lock();
+            try {
+                final Layout layout = this.layout;
+                if (count.get() + tombstones.get() >= layout.capacity * FULL_LOAD) {
+                    full = true;
+                } else {
+                    final int slot = find(layout, key, hash);
+                    final long offset = slot < 0 ? 0 : offset(layout.slot(slot));
+                    final Token current = slot < 0 ? null : layout.read(offset);
+                    final Token updated = remapping.apply(current);
+                    if (updated == current) {
+                        return current;
+                    }
+                    if (updated == null) {
+                        SLOTS.setRelease(layout.index, slotPosition(slot), TOMBSTONE);
+                        count.decrementAndGet();
+                        tombstones.incrementAndGet();
+                        garbage.addAndGet(layout.chunk(offset).getInt(layout.position(offset)));
+                    } else {
+                        if (!token.equals(updated.getToken())) {
+                            throw new IllegalArgumentException("A token can't change its name");
+                        }
+                        final long entry = entry(hash, layout.append(updated));
+                        if (slot >= 0) {
+                            SLOTS.setRelease(layout.index, slotPosition(slot), entry);
+                            garbage.addAndGet(layout.chunk(offset).getInt(layout.position(offset)));
+                        } else {
+                            insert(layout, hash, entry);
+                            count.incrementAndGet();
+                        }
+                    }
+                    result = updated;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                stripe.unlock();
+                layoutLock.readLock().unlock();
+            }
+            if (!full) {
+                if (needsRebuild(layout)) {
+                    rebuild(false);
+                }
+                return result;
+            }
+            // The table is too full to insert safely, grow it before calling the remapping function
+            rebuild(false);
+        }
+    }
+
+    @Override
+    public Stream<Token> tokens() {
+        final Layout layout = this.layout;
+        return IntStream.range(0, layout.capacity)
+                .mapToLong(layout::slot)
+                .filter(slot -> slot != EMPTY && slot != TOMBSTONE)
+                .mapToObj(slot -> layout.read(offset(slot)));
+    }
+
+    @Override
+    public long size() {
+        return count.get();
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        layoutLock.readLock().lock();
+        try {
+            // After close everything is already forced
+            if (!closed) {
+                force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            layoutLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        layoutLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            force(true);
+            layout.close();
+            closed = true;
+        } finally {
+            layoutLock.writeLock().unlock();
+        }
+    }
+
+    private void open() throws IOException {
+        final List<Long> generations;
+        try (Stream<Path> files = Files.list(directory)) {
+            generations = files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith("tokens-") && name.endsWith(".idx"))
+                    .map(name -> Long.parseLong(name.substring(7, name.length() - 4)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Layout opened = null;
+        for (int i = generations.size() - 1; i >= 0 && opened == null; i--) {
+            opened = Layout.open(directory, generations.get(i), chunkSize);
+        }
+        for (long generation : generations) {
+            if (opened == null || generation != opened.generation) {
+                Layout.delete(directory, generation);
+            }
+        }
+        if (opened == null) {
+            layout = Layout.create(directory, 1, MIN_CAPACITY, chunkSize);
+            layout.complete();
+            return;
+        }
+        layout = opened;
+        if (opened.index.getInt(12) == 1) {
+            count.set(opened.index.getInt(24));
+            tombstones.set(opened.index.getInt(28));
+            garbage.set(opened.chunks[0].getLong(16));
+            opened.index.putInt(12, 0);
+            opened.index.force();
+            log.info("Mapped {} tokens from {}", count.get(), directory);
+        } else {
+            log.warn("{} was not closed cleanly, rebuilding it from the records that check out", directory);
+            rebuild(true);
+        }
+    }
+
+    private void force(boolean clean) throws IOException {
+        final Layout layout = this.layout;
+        layout.index.putInt(24, count.get());
+        layout.index.putInt(28, tombstones.get());
+        layout.chunks[0].putLong(16, garbage.get());
+        layout.force(clean);
+    }
+
+    private boolean needsRebuild(Layout layout) {
+        final long live = layout.writePosition.get() - garbage.get();
+        return count.get() + tombstones.get() > layout.capacity * MAX_LOAD || garbage.get() > Math.max(chunkSize, live);
+    }
+
+    private void rebuild(boolean verify) {
+        layoutLock.writeLock().lock();
+        try {
+            final Layout current = layout;
+            if (!verify && !needsRebuild(current) && count.get() + tombstones.get() < current.capacity * FULL_LOAD) {
+                return;
+            }
+            int live = 0;
+            for (int i = 0; i < current.capacity; i++) {
+                final long slot = current.slot(i);
+                if (slot != EMPTY && slot != TOMBSTONE) {
+                    live++;
+                }
+            }
+            int capacity = MIN_CAPACITY;
+            while (live >= capacity * MAX_LOAD / 2) {
+                capacity <<= 1;
+            }
+            final Layout next = Layout.create(directory, current.generation + 1, capacity, chunkSize);
+            int copied = 0;
+            int dropped = 0;
+            for (int i = 0; i < current.capacity; i++) {
+                final long slot = current.slot(i);
+                if (slot == EMPTY || slot == TOMBSTONE) {
+                    continue;
+                }
+                final long offset = offset(slot);
+                if (verify && !current.verify(offset)) {
+                    dropped++;
+                    continue;
+                }
+                insert(next, hash(current.name(offset)), entry(slot, next.copy(current, offset)));
+                copied++;
+            }
+            next.force(false);
+            next.complete();
+            layout = next;
+            count.set(copied);
+            tombstones.set(0);
+            garbage.set(0);
+            current.close();
+            Layout.delete(directory, current.generation);
+            if (dropped > 0) {
+                log.warn("Dropped {} damaged token records from {}", dropped, directory);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            layoutLock.writeLock().unlock();
+        }
+    }
+
+    private static int find(Layout layout, byte[] key, long hash) {
+        final int tag = tag(hash);
+        for (int i = (int) hash & layout.mask, probes = 0; probes < layout.capacity; i = (i + 1) & layout.mask, probes++) {
+            final long slot = layout.slot(i);
+            if (slot == EMPTY) {
+                return -1;
+            }
+            if (slot != TOMBSTONE && tag(slot) == tag) {
+                final long offset = offset(slot);
+                final ByteBuffer chunk = layout.chunk(offset);
+                final int position = layout.position(offset);
+                if (equals(chunk, position + RECORD_HEADER_SIZE, chunk.getShort(position + 8), key)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // The key is known to be absent and only its stripe's owner inserts it, so any free slot will do
+    private static void insert(Layout layout, long hash, long entry) {
+        int i = (int) hash & layout.mask;
+        while (true) {
+            final long slot = layout.slot(i);
+            if ((slot == EMPTY || slot == TOMBSTONE) && SLOTS.compareAndSet(layout.index, slotPosition(i), slot, entry)) {
+                return;
+            }
+            if (slot != EMPTY && slot != TOMBSTONE) {
+                i = (i + 1) & layout.mask;
+            }
+        }
+    }
+
+    private static long hash(String token) {
+        final long hash = token.hashCode() * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static int tag(long hashOrEntry) {
+        return (int) (hashOrEntry >>> 40) & 0xFFFFFF;
+    }
+
+    private static long entry(long hashOrEntry, long offset) {
+        return (hashOrEntry & 0xFFFFFF0000000000L) | (offset >>> 3);
+    }
+
+    private static long offset(long entry) {
+        return (entry & 0xFFFFFFFFFFL) << 3;
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_SIZE + slot * 8;
+    }
+
+    private static boolean equals(ByteBuffer chunk, int position, int length, byte[] value) {
+        if (length != value.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chunk.get(position + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String string(ByteBuffer chunk, int position, int length) {
+        final byte[] bytes = new byte[length];
+        chunk.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Layout {
+        final long generation;
+        final int chunkSize;
+        final FileChannel indexChannel;
+        final FileChannel dataChannel;
+        final MappedByteBuffer index;
+        final int capacity;
+        final int mask;
+        final AtomicLong writePosition;
+        volatile MappedByteBuffer[] chunks;
+        // A lock rather than synchronized, so a virtual thread mapping a chunk doesn't pin its carrier
+        private final ReentrantLock mapLock = new ReentrantLock();
+
+        private Layout(long generation, int chunkSize, FileChannel indexChannel, FileChannel dataChannel, int capacity, long writePosition) throws IOException {
+            this.generation = generation;
+            this.chunkSize = chunkSize;
+            this.indexChannel = indexChannel;
+            this.dataChannel = dataChannel;
+            this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * 8);
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.writePosition = new AtomicLong(writePosition);
+            final int chunkCount = (int) Math.max(1, (writePosition + chunkSize - 1) / chunkSize);
+            final MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                chunks[i] = dataChannel.map(FileChannel.MapMode.READ_WRITE, (long) i * chunkSize, chunkSize);
+            }
+            this.chunks = chunks;
+        }
+
+        static Layout create(Path directory, long generation, int capacity, int chunkSize) throws IOException {
+            delete(directory, generation);
+            final Layout layout = new Layout(generation, chunkSize,
+                    FileChannel.open(indexFile(directory, generation), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                    FileChannel.open(dataFile(directory, generation), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                    capacity, HEADER_SIZE);
+            layout.index.putInt(8, capacity);
+            layout.index.putLong(16, generation);
+            layout.chunks[0].putInt(0, DATA_MAGIC);
+            return layout;
+        }
+
+        /**
+         * Opens a generation, or returns null if it was never completed.
+         */
+        static Layout open(Path directory, long generation, int chunkSize) throws IOException {
+            final Path indexFile = indexFile(directory, generation);
+            final Path dataFile = dataFile(directory, generation);
+            if (!Files.exists(dataFile) || Files.size(indexFile) < HEADER_SIZE || Files.size(dataFile) < HEADER_SIZE) {
+                return null;
+            }
+            final FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final FileChannel dataChannel = FileChannel.open(dataFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final ByteBuffer indexHeader = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            final ByteBuffer dataHeader = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            indexChannel.read(indexHeader, 0);
+            dataChannel.read(dataHeader, 0);
+            if (indexHeader.getInt(0) != INDEX_MAGIC || dataHeader.getInt(0) != DATA_MAGIC) {
+                indexChannel.close();
+                dataChannel.close();
+                return null;
+            }
+            // An unclean shutdown may not have stored the write position, fall back to the end of the file
+            final long writePosition = indexHeader.getInt(12) == 1 ? dataHeader.getLong(8) : dataChannel.size();
+            return new Layout(generation, chunkSize, indexChannel, dataChannel, indexHeader.getInt(8), writePosition);
+        }
+
+        static void delete(Path directory, long generation) throws IOException {
+            Files.deleteIfExists(indexFile(directory, generation));
+            Files.deleteIfExists(dataFile(directory, generation));
+        }
+
+        private static Path indexFile(Path directory, long generation) {
+            return directory.resolve("tokens-" + generation + ".idx");
+        }
+
+        private static Path dataFile(Path directory, long generation) {
+            return directory.resolve("tokens-" + generation + ".dat");
+        }
+
+        long slot(int slot) {
+            return (long) SLOTS.getAcquire(index, slotPosition(slot));
+        }
+
+        ByteBuffer chunk(long offset) {
+            return chunks[(int) (offset / chunkSize)];
+        }
+
+        int position(long offset) {
+            return (int) (offset % chunkSize);
+        }
+
+        String name(long offset) {
+            final ByteBuffer chunk = chunk(offset);
+            final int position = position(offset);
+            return string(chunk, position + RECORD_HEADER_SIZE, chunk.getShort(position + 8));
+        }
+
+        Token read(long offset) {
+            final ByteBuffer chunk = chunk(offset);
+            final int position = position(offset);
+            final int tokenLength = chunk.getShort(position + 8);
+            final int ownerLength = chunk.getShort(position + 10);
+            final int protectLength = chunk.getShort(position + 12);
+            final int targetLength = chunk.getInt(position + 16);
+            int field = position + RECORD_HEADER_SIZE;
+            final String token = string(chunk, field, tokenLength);
+            field += tokenLength;
+            final String owner = string(chunk, field, ownerLength);
+            field += ownerLength;
+            String protectToken = null;
+            if (protectLength >= 0) {
+                protectToken = string(chunk, field, protectLength);
+                field += protectLength;
+            }
+            final String targetUrl = string(chunk, field, targetLength);
+            field += targetLength;
+            final Instant expiresAt = (chunk.getShort(position + 14) & EXPIRES) != 0 ? Instant.ofEpochMilli(chunk.getLong(field)) : null;
+            return Token.builder().token(token).targetUrl(targetUrl).protectToken(protectToken).user(User.builder().username(owner).build())
+                    .expiresAt(expiresAt).build();
+        }
+
+        long append(Token token) throws IOException {
+            final byte[] name = token.getToken().getBytes(StandardCharsets.UTF_8);
+            final byte[] owner = token.getUser().getUsername().getBytes(StandardCharsets.UTF_8);
+            final byte[] protect = token.getProtectToken() == null ? null : token.getProtectToken().getBytes(StandardCharsets.UTF_8);
+            final byte[] target = token.getTargetUrl().getBytes(StandardCharsets.UTF_8);
+            if (name.length > Short.MAX_VALUE || owner.length > Short.MAX_VALUE || (protect != null && protect.length > Short.MAX_VALUE)) {
+                throw new IllegalArgumentException("Token field too long");
+            }
+            final int length = align(RECORD_HEADER_SIZE + name.length + owner.length + (protect == null ? 0 : protect.length) + target.length
+                    + (token.getExpiresAt() == null ? 0 : Long.BYTES));
+            final long offset = allocate(length);
+            final ByteBuffer chunk = chunk(offset);
+            int position = position(offset);
+            chunk.putInt(position, length);
+            chunk.putShort(position + 8, (short) name.length);
+            chunk.putShort(position + 10, (short) owner.length);
+            chunk.putShort(position + 12, (short) (protect == null ? -1 : protect.length));
+            chunk.putShort(position + 14, token.getExpiresAt() == null ? 0 : EXPIRES);
+            chunk.putInt(position + 16, target.length);
+            position += RECORD_HEADER_SIZE;
+            chunk.put(position, name);
+            position += name.length;
+            chunk.put(position, owner);
+            position += owner.length;
+            if (protect != null) {
+                chunk.put(position, protect);
+                position += protect.length;
+            }
+            chunk.put(position, target);
+            position += target.length;
+            if (token.getExpiresAt() != null) {
+                chunk.putLong(position, token.getExpiresAt().toEpochMilli());
+            }
+            chunk.putInt(position(offset) + 4, crc(chunk, position(offset), length));
+            return offset;
+        }
+
+        long copy(Layout from, long offset) throws IOException {
+            final ByteBuffer source = from.chunk(offset);
+            final int sourcePosition = from.position(offset);
+            final int length = source.getInt(sourcePosition);
+            final long target = allocate(length);
+            chunk(target).put(position(target), source, sourcePosition, length);
+            return target;
+        }
+
+        boolean verify(long offset) {
+            if (offset < HEADER_SIZE || offset >= writePosition.get() || offset / chunkSize >= chunks.length) {
+                return false;
+            }
+            final ByteBuffer chunk = chunk(offset);
+            final int position = position(offset);
+            final int length = chunk.getInt(position);
+            return length >= RECORD_HEADER_SIZE && position + length <= chunkSize && chunk.getInt(position + 4) == crc(chunk, position, length);
+        }
+
+        void complete() throws IOException {
+            index.putInt(0, INDEX_MAGIC);
+            index.force();
+        }
+
+        void force(boolean clean) throws IOException {
+            chunks[0].putLong(8, writePosition.get());
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+            index.force();
+            if (clean) {
+                index.putInt(12, 1);
+                index.force();
+            }
+        }
+
+        void close() throws IOException {
+            indexChannel.close();
+            dataChannel.close();
+        }
+
+        private long allocate(int length) throws IOException {
+            if (length > chunkSize - HEADER_SIZE) {
+                throw new IllegalArgumentException("Token record larger than a chunk");
+            }
+            while (true) {
+                final long start = writePosition.get();
+                long offset = start;
+                if (offset / chunkSize != (offset + length - 1) / chunkSize) {
+                    offset = (offset + length - 1) / chunkSize * chunkSize;
+                }
+                if (writePosition.compareAndSet(start, offset + length)) {
+                    ensureMapped((int) (offset / chunkSize));
+                    return offset;
+                }
+            }
+        }
+
+        private void ensureMapped(int chunk) throws IOException {
+            mapLock.lock();
+            try {
+                if (chunk < chunks.length) {
+                    return;
+                }
+                final MappedByteBuffer[] grown = Arrays.copyOf(chunks, chunk + 1);
+                for (int i = chunks.length; i <= chunk; i++) {
+                    grown[i] = dataChannel.map(FileChannel.MapMode.READ_WRITE, (long) i * chunkSize, chunkSize);
+                }
+                chunks = grown;
+            } finally {
+                mapLock.unlock();
+            }
+        }
+
+        private static int align(int length) {
+            return (length + 7) & ~7;
+        }
+
+        private static int crc(ByteBuffer chunk, int position, int length) {
+            final CRC32 crc = new CRC32();
+            crc.update(chunk.slice(position + 8, length - 8));
+            return (int) crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Where TokenService keeps its tokens. Reads must not block; all writes go through {@link #compute}, which runs
+ * the remapping function while the key is locked, so callers can append to the journal in the same step.
+ */
+public interface TokenStore {
+    /**
+     * The longest token name, in UTF-8 bytes, that every store can hold.
+     */
+    int MAX_NAME_BYTES = Short.MAX_VALUE;
+
+    Token get(String token);
+
+    /**
+     * Resolves a token to its target url, or returns null if it doesn't exist or has expired at now, in epoch millis.
+     *
+     * @throws AccessDeniedException if the token is protected by a different protect token
+     */
+    default String resolve(String token, String protectToken, long now) {
+        final Token found = get(token);
+        if (found == null || found.getExpiresAt() != null && found.getExpiresAt().toEpochMilli() <= now) {
+            return null;
+        }
+        if (found.getProtectToken() != null && !found.getProtectToken().equals(protectToken)) {
+            throw new AccessDeniedException();
+        }
+        return found.getTargetUrl();
+    }
+
+    /**
+     * Atomically replaces the token stored under the given name. The function receives the current token or
+     * null and returns the new one; null removes it and returning the current token leaves it untouched.
+     * Exceptions thrown by the function leave the store unchanged.
+     */
+    Token compute(String token, UnaryOperator<Token> remapping);
+
+    /**
+     * All tokens, weakly consistent with concurrent writes.
+     */
+    Stream<Token> tokens();
+
+    long size();
+
+    /**
+     * Whether the store keeps its contents across restarts by itself.
+     */
+    default boolean isDurable() {
+        return false;
+    }
+
+    /**
+     * Makes everything written so far durable. Only meaningful for durable stores.
+     */
+    default void flush() {
+    }
+}
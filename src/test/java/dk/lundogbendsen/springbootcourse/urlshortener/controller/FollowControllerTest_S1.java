@@ -1,6 +1,7 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.controller;
 
 import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenNotFoundExistsException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -11,6 +12,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.time.Duration;
+
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
@@ -41,4 +44,31 @@ class FollowControllerTest_S1 {
                 .andExpect(header().string("location", "https://dr.dk"))
         ;
     }
+
+    @Test
+    public void redirectsAndMissesAreCachedForAWhile() throws Exception {
+        when(tokenService.resolveToken("abc", null)).thenReturn("https://dr.dk");
+        when(tokenService.resolveToken("missing", null)).thenThrow(new TokenNotFoundExistsException());
+        mvc.perform(get("/abc"))
+                .andExpect(header().string("cache-control", "public, max-age=300"));
+        mvc.perform(get("/missing"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().string("cache-control", "public, max-age=10"));
+    }
+
+    @Test
+    public void protectedRedirectsAreNotStored() throws Exception {
+        when(tokenService.resolveToken("abc", "pt")).thenReturn("https://dr.dk");
+        mvc.perform(get("/abc").header("protectToken", "pt"))
+                .andExpect(header().string("cache-control", "private, no-store"));
+    }
+
+    @Test
+    public void redirectStatusIsConfigurable() throws Exception {
+        followController.caching = new RedirectCaching(307, Duration.ZERO, Duration.ZERO);
+        when(tokenService.resolveToken("abc", null)).thenReturn("https://dr.dk");
+        mvc.perform(get("/abc"))
+                .andExpect(status().is(HttpStatus.TEMPORARY_REDIRECT.value()))
+                .andExpect(header().string("cache-control", "no-cache"));
+    }
 }
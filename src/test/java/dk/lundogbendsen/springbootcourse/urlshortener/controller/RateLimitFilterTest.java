@@ -0,0 +1,74 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimiter;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimits;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitFilterTest {
+
+    private static MockHttpServletResponse filter(RateLimitFilter filter, MockHttpServletRequest request) throws Exception {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method, String uri, String address) {
+        final MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        request.setRemoteAddr(address);
+        return request;
+    }
+
+    @Test
+    public void clientsAreLimitedByAddress() throws Exception {
+        final RateLimits limits = new RateLimits(new RateLimiter(2, Duration.ofMinutes(1), 2, 1024), null, null);
+        final RateLimitFilter filter = new RateLimitFilter(limits, null, UrlShortenerMetrics.NONE);
+        assertEquals(200, filter(filter, request("POST", "/token", "10.0.0.1")).getStatus());
+        assertEquals(200, filter(filter, request("GET", "/abc", "10.0.0.1")).getStatus());
+        final MockHttpServletResponse throttled = filter(filter, request("GET", "/abc", "10.0.0.1"));
+        assertEquals(429, throttled.getStatus());
+        assertEquals("30", throttled.getHeader("Retry-After"));
+        assertEquals("{\"message\":\"Too many requests\"}", throttled.getContentAsString());
+        assertEquals(200, filter(filter, request("GET", "/abc", "10.0.0.2")).getStatus());
+    }
+
+    @Test
+    public void redirectsAreLimitedByToken() throws Exception {
+        final RateLimits limits = new RateLimits(null, null, new RateLimiter(1, Duration.ofMinutes(1), 1, 1024));
+        final RateLimitFilter filter = new RateLimitFilter(limits, null, UrlShortenerMetrics.NONE);
+        assertEquals(200, filter(filter, request("GET", "/abc", "10.0.0.1")).getStatus());
+        assertEquals(429, filter(filter, request("GET", "/abc", "10.0.0.2")).getStatus());
+        assertEquals(200, filter(filter, request("GET", "/def", "10.0.0.1")).getStatus());
+        // Not redirects
+        assertEquals(200, filter(filter, request("GET", "/token", "10.0.0.1")).getStatus());
+        assertEquals(200, filter(filter, request("GET", "/token", "10.0.0.1")).getStatus());
+        assertEquals(200, filter(filter, request("PUT", "/abc", "10.0.0.1")).getStatus());
+        assertEquals(200, filter(filter, request("GET", "/token/abc", "10.0.0.1")).getStatus());
+    }
+
+    @Test
+    public void redirectToken() {
+        assertEquals("abc", RateLimitFilter.redirectToken(new MockHttpServletRequest("HEAD", "/abc")));
+        assertNull(RateLimitFilter.redirectToken(new MockHttpServletRequest("GET", "/")));
+        assertNull(RateLimitFilter.redirectToken(new MockHttpServletRequest("GET", "/actuator")));
+        assertNull(RateLimitFilter.redirectToken(new MockHttpServletRequest("DELETE", "/abc")));
+        assertNull(RateLimitFilter.redirectToken(new MockHttpServletRequest("GET", "/a/b")));
+        assertNull(RateLimitFilter.redirectToken(new MockHttpServletRequest("GET", "/a%zz")));
+    }
+
+    @Test
+    public void redirectTokenIsNormalised() {
+        assertEquals("abc", RateLimitFilter.redirectToken(new MockHttpServletRequest("GET", "/%61bc")));
+        assertEquals("abc", RateLimitFilter.redirectToken(new MockHttpServletRequest("GET", "/abc/")));
+        assertEquals("abc", RateLimitFilter.redirectToken(new MockHttpServletRequest("GET", "/abc;x=1")));
+        assertEquals("æble", RateLimitFilter.redirectToken(new MockHttpServletRequest("GET", "/%C3%A6ble")));
+        assertNull(RateLimitFilter.redirectToken(new MockHttpServletRequest("GET", "/actuator/")));
+    }
+}
@@ -0,0 +1,106 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+class ReactiveControllerTest {
+    private static final String USER1 = "Basic dXNlcjE6cGFzc3dvcmQx";
+
+    @Autowired
+    WebTestClient client;
+
+    @BeforeEach
+    public void setup() {
+        client.delete().uri("/user/user1").exchange().expectStatus().isNoContent();
+        client.post().uri("/user").bodyValue(Map.of("username", "user1", "password", "password1"))
+                .exchange().expectStatus().isCreated();
+    }
+
+    private WebTestClient.ResponseSpec createToken(Map<String, String> token) {
+        return client.post().uri("/token").header(HttpHeaders.AUTHORIZATION, USER1).bodyValue(token).exchange();
+    }
+
+    @Test
+    public void followToken() {
+        createToken(Map.of("token", "abc", "targetUrl", "https://dr.dk")).expectStatus().isCreated();
+        client.get().uri("/abc").exchange()
+                .expectStatus().isEqualTo(HttpStatus.MOVED_PERMANENTLY)
+                .expectHeader().valueEquals(HttpHeaders.LOCATION, "https://dr.dk");
+        client.get().uri("/missing").exchange()
+                .expectStatus().isNotFound()
+                .expectBody().jsonPath("$.message").isEqualTo("The token was not found");
+    }
+
+    @Test
+    public void followProtectedToken() {
+        createToken(Map.of("token", "abc", "targetUrl", "https://dr.dk", "protectToken", "pt")).expectStatus().isCreated();
+        client.get().uri("/abc").exchange()
+                .expectStatus().isUnauthorized()
+                .expectBody().jsonPath("$.path").isEqualTo("/abc");
+        client.get().uri("/abc").header("protectToken", "pt").exchange()
+                .expectStatus().isEqualTo(HttpStatus.MOVED_PERMANENTLY);
+    }
+
+    @Test
+    public void tokensNeedAUser() {
+        client.get().uri("/token").exchange().expectStatus().isUnauthorized();
+        client.get().uri("/token").header(HttpHeaders.AUTHORIZATION, "Basic dXNlcjE6d3Jvbmc=").exchange()
+                .expectStatus().isUnauthorized()
+                .expectBody().jsonPath("$.message").isEqualTo("The operation is not allowed");
+        createToken(Map.of("token", "abc", "targetUrl", "localhost")).expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    @Test
+    public void listAndStreamTokens() {
+        for (String name : new String[]{"c", "a", "b"}) {
+            createToken(Map.of("token", name, "targetUrl", "https://dr.dk/" + name)).expectStatus().isCreated();
+        }
+        client.get().uri("/token").header(HttpHeaders.AUTHORIZATION, USER1).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.length()").isEqualTo(3).jsonPath("$[0].token").isEqualTo("a");
+        client.get().uri("/token?limit=2").header(HttpHeaders.AUTHORIZATION, USER1).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.tokens.length()").isEqualTo(2).jsonPath("$.next").exists();
+        final String lines = client.get().uri("/token?cursor=YQ").header(HttpHeaders.AUTHORIZATION, USER1)
+                .accept(MediaType.valueOf(TokenController.NDJSON)).exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+        assertEquals(2, lines.trim().split("\n").length);
+        assertTrue(lines.startsWith("{\"token\":\"b\""));
+
+        final String etag = client.get().uri("/token").header(HttpHeaders.AUTHORIZATION, USER1).exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class).getResponseHeaders().getETag();
+        client.get().uri("/token").header(HttpHeaders.AUTHORIZATION, USER1).header(HttpHeaders.IF_NONE_MATCH, etag).exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    public void importBatch() {
+        final String lines = client.post().uri("/token/batch").header(HttpHeaders.AUTHORIZATION, USER1)
+                .contentType(MediaType.valueOf(TokenController.NDJSON))
+                .bodyValue("{\"token\":\"t1\",\"targetUrl\":\"https://dr.dk\"}\n{\"token\":\"t1\",\"targetUrl\":\"https://dr.dk\"}\n{\"token\":")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+        final String[] results = lines.trim().split("\n");
+        assertEquals(3, results.length);
+        assertTrue(results[0].contains("\"status\":201"));
+        assertTrue(results[1].contains("\"status\":409"));
+        assertTrue(results[2].contains("\"status\":400"));
+    }
+}
@@ -0,0 +1,67 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenBatchImporterTest {
+    private final TokenService tokenService = new TokenService();
+    private final User user = User.builder().username("user1").password("password1").build();
+
+    private String[] importTokens(String body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new TokenBatchImporter(tokenService).importTokens(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), out, user);
+        return out.toString(StandardCharsets.UTF_8).split("\n");
+    }
+
+    @Test
+    public void importJsonArray() throws Exception {
+        final String[] results = importTokens("[{\"token\":\"a\",\"targetUrl\":\"https://dr.dk\",\"extra\":{\"x\":[1]}},"
+                + "{\"token\":\"a\",\"targetUrl\":\"https://dr.dk\"},"
+                + "{\"token\":\"b\",\"targetUrl\":\"http://localhost\"}]");
+        assertEquals("{\"index\":0,\"token\":\"a\",\"status\":201}", results[0]);
+        assertEquals("{\"index\":1,\"token\":\"a\",\"status\":409,\"message\":\"The token already exists\"}", results[1]);
+        assertEquals("{\"index\":2,\"token\":\"b\",\"status\":422,\"message\":\"The token did not validate\",\"validation-type\":\"IllegalTargetUrlException\"}", results[2]);
+        assertEquals("https://dr.dk", tokenService.resolveToken("a", null));
+    }
+
+    @Test
+    public void importNdjsonAcrossBatches() throws Exception {
+        final StringBuilder body = new StringBuilder();
+        final int count = TokenBatchImporter.BATCH_SIZE * 2 + 7;
+        for (int i = 0; i < count; i++) {
+            body.append("{\"token\":\"t").append(i).append("\",\"targetUrl\":\"https://dr.dk/").append(i).append("\",\"protectToken\":\"pt\"}\n");
+        }
+        final String[] results = importTokens(body.toString());
+        assertEquals(count, results.length);
+        assertEquals("{\"index\":" + (count - 1) + ",\"token\":\"t" + (count - 1) + "\",\"status\":201}", results[count - 1]);
+        assertEquals(count, tokenService.listUserTokens(user).size());
+        assertEquals("https://dr.dk/5", tokenService.resolveToken("t5", "pt"));
+    }
+
+    @Test
+    public void unreadableExpiryFailsOnlyItsItem() throws Exception {
+        final String[] results = importTokens("{\"token\":\"a\",\"targetUrl\":\"https://dr.dk\",\"ttl\":\"soon\"}\n"
+                + "{\"token\":\"b\",\"targetUrl\":\"https://dr.dk\",\"ttl\":\"60\"}\n"
+                + "{\"token\":\"c\",\"targetUrl\":\"https://dr.dk\",\"expiresAt\":\"tomorrow\"}");
+        assertEquals("{\"index\":0,\"token\":\"a\",\"status\":422,\"message\":\"The token did not validate\",\"validation-type\":\"InvalidExpiryException\"}", results[0]);
+        assertEquals("{\"index\":1,\"token\":\"b\",\"status\":201}", results[1]);
+        assertEquals("{\"index\":2,\"token\":\"c\",\"status\":422,\"message\":\"The token did not validate\",\"validation-type\":\"InvalidExpiryException\"}", results[2]);
+        assertEquals(1, tokenService.listUserTokens(user).size());
+    }
+
+    @Test
+    public void malformedInputStopsTheImport() throws Exception {
+        final String[] results = importTokens("{\"token\":\"a\",\"targetUrl\":\"https://dr.dk\"}\n{\"token\":\"b\",");
+        assertEquals(2, results.length);
+        assertEquals("{\"index\":0,\"token\":\"a\",\"status\":201}", results[0]);
+        assertEquals(true, results[1].startsWith("{\"index\":1,\"status\":400,\"message\":\"The batch is malformed"));
+    }
+}
@@ -0,0 +1,125 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.controller.security;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.Passwords;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.RateLimitedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimiter;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit.RateLimits;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class SecurityIntercepterTest {
+    private final UserService userService = new UserService();
+    private final PasswordEncoder passwordEncoder = Mockito.spy(Passwords.newEncoder());
+    private final SecurityIntercepter intercepter = new SecurityIntercepter();
+
+    @BeforeEach
+    public void setup() {
+        ReflectionTestUtils.setField(userService, "tokenService", new TokenService());
+        ReflectionTestUtils.setField(userService, "passwordEncoder", passwordEncoder);
+        intercepter.userService = userService;
+        intercepter.passwordEncoder = passwordEncoder;
+    }
+
+    @AfterEach
+    public void clear() {
+        SecurityContext.clear();
+    }
+
+    private User authenticate(String username, String password) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/token");
+        request.addHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8)));
+        intercepter.preHandle(request, new MockHttpServletResponse(), null);
+        return SecurityContext.getUser();
+    }
+
+    @Test
+    public void verifiedCredentialsSkipTheHash() {
+        final User user = userService.create("user1", "pass:word");
+        assertSame(user, authenticate("user1", "pass:word"));
+        assertSame(user, authenticate("user1", "pass:word"));
+        verify(passwordEncoder, times(1)).matches(any(), anyString());
+
+        assertThrows(AccessDeniedException.class, () -> authenticate("user1", "wrong"));
+        assertThrows(AccessDeniedException.class, () -> authenticate("nobody", "pass:word"));
+    }
+
+    @Test
+    public void replacingTheUserInvalidatesTheCache() {
+        userService.create("user1", "password1");
+        authenticate("user1", "password1");
+        userService.delete("user1");
+        assertThrows(AccessDeniedException.class, () -> authenticate("user1", "password1"));
+
+        final User recreated = userService.create("user1", "password2");
+        assertThrows(AccessDeniedException.class, () -> authenticate("user1", "password1"));
+        assertSame(recreated, authenticate("user1", "password2"));
+    }
+
+    @Test
+    public void plaintextPasswordsAreUpgradedOnLogin() {
+        userService.apply(Change.userSaved(User.builder().username("legacy").password("password1").build()));
+        final User legacy = userService.getUser("legacy");
+
+        final User authenticated = authenticate("legacy", "password1");
+        assertNotSame(legacy, authenticated);
+        assertSame(userService.getUser("legacy"), authenticated);
+        assertTrue(authenticated.getPassword().startsWith("{bcrypt}"));
+        assertEquals(authenticated, authenticate("legacy", "password1"));
+    }
+
+    @Test
+    public void theContextIsClearedWhenTheRequestCompletes() {
+        userService.create("user1", "password1");
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/token");
+        request.addHeader("Authorization", "Bearer protect");
+        intercepter.preHandle(request, new MockHttpServletResponse(), null);
+        assertEquals("protect", SecurityContext.getProtectToken());
+        intercepter.afterCompletion(request, new MockHttpServletResponse(), null, new IllegalStateException());
+        assertNull(SecurityContext.getProtectToken());
+
+        // Nothing from an earlier request survives into the next one on the same thread
+        assertEquals("user1", authenticate("user1", "password1").getUsername());
+        intercepter.preHandle(new MockHttpServletRequest("GET", "/abc"), new MockHttpServletResponse(), null);
+        assertNull(SecurityContext.getUser());
+    }
+
+    @Test
+    public void authenticatedUsersAreRateLimited() {
+        intercepter.rateLimits = new RateLimits(null, new RateLimiter(2, Duration.ofMinutes(1), 2, 1024), null);
+        userService.create("user1", "password1");
+        userService.create("user2", "password2");
+        authenticate("user1", "password1");
+        authenticate("user1", "password1");
+        assertThrows(RateLimitedException.class, () -> authenticate("user1", "password1"));
+        assertEquals("user2", authenticate("user2", "password2").getUsername());
+        // Failed logins don't count against the user
+        assertThrows(AccessDeniedException.class, () -> authenticate("user2", "wrong"));
+        assertEquals("user2", authenticate("user2", "password2").getUsername());
+    }
+}
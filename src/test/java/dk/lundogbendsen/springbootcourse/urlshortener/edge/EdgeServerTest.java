@@ -0,0 +1,163 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.edge;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.InMemoryTokenStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EdgeServerTest {
+    private EdgeServer server;
+
+    @BeforeEach
+    public void start() throws IOException {
+        final TokenService tokenService = TokenService.withStore(new InMemoryTokenStore());
+        final User user = User.builder().username("user1").password("password1").build();
+        tokenService.create("dr", "https://dr.dk", null, user);
+        tokenService.create("secret", "https://tv2.dk/nyheder?side=1", "protect", user);
+        tokenService.create("æble", "https://dr.dk/æble", null, user);
+        server = new EdgeServer(tokenService, new InetSocketAddress("localhost", 0), 2);
+        server.start();
+    }
+
+    @AfterEach
+    public void stop() throws IOException {
+        server.close();
+    }
+
+    @Test
+    @DisplayName("pipelined requests on a kept alive connection are answered in order")
+    public void testPipelining() throws IOException {
+        final String responses = exchange("GET /dr HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET /unknown HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET /dr?utm=x HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        final String[] parts = responses.split("HTTP/1.1 ");
+        assertEquals(4, parts.length);
+        assertTrue(parts[1].startsWith("301 "));
+        assertTrue(parts[1].contains("Location: https://dr.dk\r\n"));
+        assertTrue(parts[1].contains("Cache-Control: public, max-age=300\r\n"));
+        assertTrue(parts[2].startsWith("404 "));
+        assertTrue(parts[2].contains("Cache-Control: public, max-age=10\r\n"));
+        assertTrue(parts[2].endsWith("{\"message\":\"The token was not found\"}"));
+        assertTrue(parts[3].startsWith("301 "));
+        assertTrue(parts[3].contains("Connection: close\r\n"));
+    }
+
+    @Test
+    @DisplayName("protected tokens need the protectToken header")
+    public void testProtectedToken() throws IOException {
+        final String denied = exchange("GET /secret HTTP/1.1\r\nConnection: close\r\n\r\n");
+        assertTrue(denied.startsWith("HTTP/1.1 401 "));
+        assertTrue(denied.endsWith("{\"message\":\"The operation is not allowed\",\"path\":\"/secret\"}"));
+
+        final String wrong = exchange("GET /secret HTTP/1.1\r\nprotectToken: wrong\r\nConnection: close\r\n\r\n");
+        assertTrue(wrong.startsWith("HTTP/1.1 401 "));
+
+        final String allowed = exchange("GET /secret HTTP/1.1\r\nProtectToken:  protect \r\nConnection: close\r\n\r\n");
+        assertTrue(allowed.startsWith("HTTP/1.1 301 "));
+        assertTrue(allowed.contains("Location: https://tv2.dk/nyheder?side=1\r\n"));
+    }
+
+    @Test
+    @DisplayName("tokens and locations are percent-encoded UTF-8")
+    public void testPercentEncoding() throws IOException {
+        final String response = exchange("GET /%C3%A6ble HTTP/1.1\r\nConnection: close\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 301 "));
+        assertTrue(response.contains("Location: https://dr.dk/%C3%A6ble\r\n"));
+    }
+
+    @Test
+    @DisplayName("HEAD gets the headers without a body and HTTP/1.0 closes by default")
+    public void testHeadAndHttp10() throws IOException {
+        final String response = exchange("HEAD /unknown HTTP/1.0\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 404 "));
+        assertTrue(response.contains("Content-Length: 37\r\n"));
+        assertTrue(response.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    @DisplayName("other methods, bodies and oversized heads are rejected")
+    public void testRejected() throws IOException {
+        final String post = exchange("POST /dr HTTP/1.1\r\nContent-Length: 0\r\n\r\n");
+        assertTrue(post.startsWith("HTTP/1.1 405 "));
+        assertTrue(post.contains("Allow: GET, HEAD\r\n"));
+
+        final String body = exchange("GET /dr HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello");
+        assertTrue(body.startsWith("HTTP/1.1 400 "));
+
+        final String malformed = exchange("GET /dr\r\n\r\n");
+        assertTrue(malformed.startsWith("HTTP/1.1 400 "));
+
+        final String large = exchange("GET /dr HTTP/1.1\r\nX-Large: " + "x".repeat(EdgeServer.MAX_REQUEST_HEAD) + "\r\n\r\n");
+        assertTrue(large.startsWith("HTTP/1.1 431 "));
+    }
+
+    @Test
+    @DisplayName("a request that fails unexpectedly gets a 500 and the server keeps serving")
+    public void testUnexpectedFailure() throws IOException {
+        server.close();
+        final TokenService tokenService = TokenService.withStore(new InMemoryTokenStore() {
+            @Override
+            public String resolve(String token, String protectToken, long now) {
+                if (token.equals("broken")) {
+                    throw new IllegalStateException("broken store");
+                }
+                return super.resolve(token, protectToken, now);
+            }
+        });
+        tokenService.create("dr", "https://dr.dk", null, User.builder().username("user1").build());
+        server = new EdgeServer(tokenService, new InetSocketAddress("localhost", 0), 1);
+        server.start();
+
+        final String failed = exchange("GET /broken HTTP/1.1\r\n\r\nGET /dr HTTP/1.1\r\n\r\n");
+        assertTrue(failed.startsWith("HTTP/1.1 500 "));
+        assertTrue(failed.contains("Connection: close\r\n"));
+        assertEquals(1, failed.split("HTTP/1.1 ").length - 1);
+
+        final String next = exchange("GET /dr HTTP/1.1\r\nConnection: close\r\n\r\n");
+        assertTrue(next.startsWith("HTTP/1.1 301 "));
+    }
+
+    @Test
+    @DisplayName("decode the token of a request target")
+    public void testDecodeToken() {
+        assertEquals("dr", decode("/dr"));
+        assertEquals("dr", decode("/dr?x=/y"));
+        assertEquals("a b", decode("/a%20b"));
+        assertNull(decode("/"));
+        assertNull(decode("/a/b"));
+        assertNull(decode("/a%2"));
+        assertNull(decode("/a%zz"));
+        assertNull(decode("http://localhost/dr"));
+    }
+
+    private static String decode(String target) {
+        final byte[] bytes = target.getBytes(StandardCharsets.US_ASCII);
+        return EdgeServer.decodeToken(bytes, 0, bytes.length);
+    }
+
+    // Sends the requests and reads until the server closes the connection
+    private String exchange(String requests) throws IOException {
+        try (Socket socket = new Socket("localhost", server.port())) {
+            socket.setSoTimeout(5000);
+            final OutputStream out = socket.getOutputStream();
+            out.write(requests.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            final InputStream in = socket.getInputStream();
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.metrics;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.metrics.UrlShortenerMetrics.Outcome;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenNotFoundExistsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UrlShortenerMetricsTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final UrlShortenerMetrics metrics = new UrlShortenerMetrics(registry);
+
+    @Test
+    public void redirectsAreTimedPerPathAndOutcome() {
+        final long start = System.nanoTime();
+        metrics.redirect(Outcome.HIT, start);
+        metrics.redirect(Outcome.HIT, start);
+        metrics.redirect(Outcome.MISS, start);
+        metrics.fastPathRedirect(start);
+
+        assertEquals(2, registry.get("urlshortener.redirect").tags("path", "mvc", "outcome", "hit").timer().count());
+        assertEquals(1, registry.get("urlshortener.redirect").tags("path", "mvc", "outcome", "miss").timer().count());
+        assertEquals(0, registry.get("urlshortener.redirect").tags("path", "mvc", "outcome", "denied").timer().count());
+        assertEquals(1, registry.get("urlshortener.redirect").tags("path", "fast-path").timer().count());
+    }
+
+    @Test
+    public void errorsAreCountedPerExceptionType() {
+        metrics.error(new TokenNotFoundExistsException());
+        metrics.error(new TokenNotFoundExistsException());
+        metrics.error(new AccessDeniedException());
+
+        assertEquals(2, registry.get("urlshortener.errors").tag("exception", "TokenNotFoundExistsException").counter().count());
+        assertEquals(1, registry.get("urlshortener.errors").tag("exception", "AccessDeniedException").counter().count());
+    }
+
+    @Test
+    public void noneRecordsNothing() {
+        UrlShortenerMetrics.NONE.redirect(Outcome.HIT, System.nanoTime());
+        UrlShortenerMetrics.NONE.error(new AccessDeniedException());
+    }
+}
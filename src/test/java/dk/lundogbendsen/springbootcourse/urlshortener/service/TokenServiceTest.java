@@ -1,15 +1,41 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.service;
 
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
 import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.IllegalProtectTokenException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.IllegalTokenNameException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.InvalidExpiryException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.InvalidTargetUrlException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenAlreadyExistsException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenNotFoundExistsException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.expiry.TokenExpiry;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.store.TokenStore;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.net.URI;
 import java.net.URL;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,6 +54,25 @@ class TokenServiceTest {
         }
     }
 
+    @Test
+    @DisplayName("create token with a name longer than stores can hold (fails)")
+    public void testCreateTokenWithTooLongName() {
+        final String longest = "æ".repeat(TokenStore.MAX_NAME_BYTES / 2) + "a";
+        tokenService.create(longest, "https://dr.dk", null, user);
+        assertThrows(IllegalTokenNameException.class, () -> tokenService.create(longest + "a", "https://dr.dk", null, user));
+        assertThrows(IllegalTokenNameException.class, () -> tokenService.create("a".repeat(TokenStore.MAX_NAME_BYTES + 1), "https://dr.dk", null, user));
+    }
+
+    @Test
+    @DisplayName("create or update token with a protect token that is too long (fails)")
+    public void testTooLongProtectToken() {
+        final String longest = "p".repeat(TokenService.MAX_PROTECT_TOKEN_LENGTH);
+        tokenService.create("token1", "https://dr.dk", longest, user);
+        assertThrows(IllegalProtectTokenException.class, () -> tokenService.create("token2", "https://dr.dk", longest + "p", user));
+        assertThrows(IllegalProtectTokenException.class, () -> tokenService.update("token1", "https://dr.dk", longest + "p", user));
+        assertEquals(longest, tokenService.getToken("token1", "username").getProtectToken());
+    }
+
     @Test
     @DisplayName("create token that already exists (fails)")
     public void testCreateTokenThatAlreadExists() {
@@ -74,4 +119,182 @@ class TokenServiceTest {
     public void testCreateTokenWithLocalTargetUrl() {
         tokenService.create("abc", "https://dr.dk", "pt1", user);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("create the same token from many threads at once (only one succeeds)")
+    public void testConcurrentCreateOfSameToken() throws Exception {
+        final int threads = 16;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger conflicts = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            final String targetUrl = "https://dr.dk/" + i;
+            executor.submit(() -> {
+                start.await();
+                try {
+                    tokenService.create("race", targetUrl, null, user);
+                    created.incrementAndGet();
+                } catch (TokenAlreadyExistsException e) {
+                    conflicts.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        assertEquals(1, created.get());
+        assertEquals(threads - 1, conflicts.get());
+    }
+
+    @Test
+    @DisplayName("create, update and delete distinct tokens from many threads (no lost writes)")
+    public void testConcurrentMutationsOfDistinctTokens() throws Exception {
+        final int threads = 8;
+        final int perThread = 2_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    final String name = "t" + thread + "-" + i;
+                    tokenService.create(name, "https://dr.dk", null, user);
+                    tokenService.update(name, "https://tv2.dk", "pt", user);
+                    if (i % 2 == 0) {
+                        tokenService.deleteToken(name, user.getUsername());
+                    }
+                }
+                return null;
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        assertEquals(threads * perThread / 2, tokenService.listUserTokens(user).size());
+        assertEquals("https://tv2.dk", tokenService.resolveToken("t0-1", "pt"));
+    }
+
+    @Test
+    @DisplayName("list and delete tokens only touch the given user's tokens")
+    public void testListAndDeleteTokensPerUser() {
+        final User other = User.builder().username("other").password("password").build();
+        tokenService.create("mine1", "https://dr.dk", null, user);
+        tokenService.create("mine2", "https://dr.dk", null, user);
+        tokenService.create("theirs", "https://dr.dk", null, other);
+        assertEquals(2, tokenService.listUserTokens(user).size());
+        assertEquals(1, tokenService.listUserTokens(other).size());
+
+        tokenService.deleteToken("mine1", user.getUsername());
+        assertEquals(1, tokenService.listUserTokens(user).size());
+
+        tokenService.deleteTokens(user);
+        assertEquals(0, tokenService.listUserTokens(user).size());
+        assertEquals("https://dr.dk", tokenService.resolveToken("theirs", null));
+        // the name is free again once its owner's tokens are gone
+        tokenService.create("mine2", "https://dr.dk", null, other);
+    }
+
+    @Test
+    @DisplayName("create a batch of tokens (valid ones are created, the rest fail like create would)")
+    public void testCreateAll() {
+        tokenService.create("taken", "https://dr.dk", null, user);
+        final List<RuntimeException> failures = tokenService.createAll(List.of(
+                Token.builder().token("b1").targetUrl("https://dr.dk").build(),
+                Token.builder().token("taken").targetUrl("https://dr.dk").build(),
+                Token.builder().token("b2").targetUrl("htt").build(),
+                Token.builder().token("b1").targetUrl("https://tv2.dk").build(),
+                Token.builder().token("b3").targetUrl("https://tv2.dk").protectToken("pt").build()), user);
+
+        assertNull(failures.get(0));
+        assertTrue(failures.get(1) instanceof TokenAlreadyExistsException);
+        assertTrue(failures.get(2) instanceof InvalidTargetUrlException);
+        assertTrue(failures.get(3) instanceof TokenAlreadyExistsException);
+        assertNull(failures.get(4));
+        assertEquals("https://dr.dk", tokenService.resolveToken("b1", null));
+        assertEquals("https://tv2.dk", tokenService.resolveToken("b3", "pt"));
+        assertEquals(3, tokenService.listUserTokens(user).size());
+    }
+
+    @Test
+    @DisplayName("click stats are counted per token and only readable by its owner")
+    public void testClickStats() {
+        tokenService.create("clicked", "https://dr.dk", null, user);
+        tokenService.recordClick("clicked");
+        tokenService.recordClick("clicked");
+        assertEquals(2, tokenService.clickStats("clicked", user).getClicks());
+        assertThrows(AccessDeniedException.class, () -> tokenService.clickStats("clicked", User.builder().username("other").build()));
+        assertThrows(TokenNotFoundExistsException.class, () -> tokenService.clickStats("missing", user));
+
+        tokenService.deleteToken("clicked", user.getUsername());
+        tokenService.create("clicked", "https://dr.dk", null, user);
+        assertEquals(0, tokenService.clickStats("clicked", user).getClicks());
+    }
+
+    @Test
+    @DisplayName("create token without a name (gets a short generated code, skipping names already taken)")
+    public void testCreateTokenWithGeneratedCode() {
+        tokenService.create("0", "https://dr.dk", null, user);
+        tokenService.create("1", "https://dr.dk", null, user);
+        final Token generated = tokenService.create(null, "https://tv2.dk", null, user);
+        assertEquals("2", generated.getToken());
+        assertEquals("https://tv2.dk", tokenService.resolveToken("2", null));
+        assertEquals("3", tokenService.create(null, "https://tv2.dk", null, user).getToken());
+        assertThrows(InvalidTargetUrlException.class, () -> tokenService.create(null, "htt", null, user));
+    }
+
+    @Test
+    @DisplayName("expired tokens stop resolving at once and are removed with their index entry when the wheel gets to them")
+    public void testExpiry() {
+        final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+        final TokenExpiry expiry = new TokenExpiry(clock);
+        ReflectionTestUtils.setField(tokenService, "expiry", expiry);
+        tokenService.indexStoredTokens();
+
+        tokenService.create("short", "https://dr.dk", null, clock.instant().plusSeconds(10), user);
+        tokenService.create("long", "https://dr.dk", null, tokenService.expiry(null, "PT1H"), user);
+        tokenService.create("forever", "https://dr.dk", null, user);
+        assertThrows(InvalidExpiryException.class, () -> tokenService.create("past", "https://dr.dk", null, clock.instant(), user));
+        assertThrows(InvalidExpiryException.class, () -> tokenService.expiry("tomorrow", null));
+        assertEquals(2, expiry.backlog());
+
+        clock.instant = clock.instant.plusSeconds(10);
+        assertThrows(TokenNotFoundExistsException.class, () -> tokenService.resolveToken("short", null));
+        assertEquals(3, tokenService.listUserTokens(user).size());
+        expiry.expireDue();
+        assertEquals(2, tokenService.listUserTokens(user).size());
+        assertEquals(1, expiry.backlog());
+
+        // Moving the expiry leaves the old entry on the wheel, which is skipped when it comes due
+        tokenService.update("long", null, null, clock.instant().plusSeconds(7200), user);
+        clock.instant = clock.instant.plusSeconds(3600);
+        expiry.expireDue();
+        assertEquals("https://dr.dk", tokenService.resolveToken("long", null));
+        clock.instant = clock.instant.plusSeconds(3600);
+        expiry.expireDue();
+        assertEquals(List.of("forever"), tokenService.listUserTokens(user).stream().map(Token::getToken).collect(Collectors.toList()));
+        assertEquals(0, expiry.backlog());
+    }
+
+    private static class MutableClock extends Clock {
+        volatile Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package dk.lundogbendsen.springbootcourse.urlshortener.service;
 
 import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.IllegalUsernameException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -9,6 +11,10 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @ExtendWith(MockitoExtension.class)
 class UserServiceTest {
@@ -21,6 +27,26 @@ class UserServiceTest {
     public void createUserTest() {
         final User user = userService.create("user1", "password1");
         final User getUser = userService.getUser("user1");
-        assertEquals("password1", getUser.getPassword());
+        assertEquals(user, getUser);
+        assertNotEquals("password1", getUser.getPassword());
+        assertTrue(Passwords.newEncoder().matches("password1", getUser.getPassword()));
+    }
+
+    @Test
+    public void createUserWithIllegalNameTest() {
+        userService.create("u".repeat(UserService.MAX_USERNAME_LENGTH), "password1");
+        assertThrows(IllegalUsernameException.class, () -> userService.create("u".repeat(UserService.MAX_USERNAME_LENGTH + 1), "password1"));
+        assertThrows(IllegalUsernameException.class, () -> userService.create(null, "password1"));
+    }
+
+    @Test
+    public void upgradePlaintextPasswordTest() {
+        userService.apply(Change.userSaved(User.builder().username("legacy").password("password1").build()));
+        final User legacy = userService.getUser("legacy");
+        final User upgraded = userService.upgradePassword(legacy, "password1");
+        assertSame(upgraded, userService.getUser("legacy"));
+        assertTrue(upgraded.getPassword().startsWith("{bcrypt}"));
+        // Already hashed, nothing to do
+        assertSame(upgraded, userService.upgradePassword(upgraded, "password1"));
     }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.analytics;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.TokenStats;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ClickAnalyticsTest {
+    private final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T10:00:30Z"));
+    private final ClickAnalytics analytics = new ClickAnalytics(clock);
+
+    @Test
+    public void clicksAreBucketedByMinuteAndHour() {
+        analytics.record("abc");
+        analytics.record("abc");
+        analytics.drain();
+        clock.instant = Instant.parse("2024-01-01T10:01:10Z");
+        analytics.record("abc");
+
+        TokenStats stats = analytics.stats("abc");
+        assertEquals(3, stats.getClicks());
+        assertEquals(ClickAnalytics.MINUTES, stats.getMinutes().size());
+        assertEquals(Instant.parse("2024-01-01T10:01:00Z"), stats.getMinutes().get(59).getStart());
+        assertEquals(1, stats.getMinutes().get(59).getClicks());
+        assertEquals(2, stats.getMinutes().get(58).getClicks());
+        assertEquals(Instant.parse("2024-01-01T10:00:00Z"), stats.getHours().get(23).getStart());
+        assertEquals(3, stats.getHours().get(23).getClicks());
+
+        // An hour later the minutes have rolled out, the hours and the total have not
+        clock.instant = Instant.parse("2024-01-01T11:02:00Z");
+        stats = analytics.stats("abc");
+        assertEquals(3, stats.getClicks());
+        assertEquals(0, stats.getMinutes().stream().mapToLong(bucket -> bucket.getClicks()).sum());
+        assertEquals(3, stats.getHours().get(22).getClicks());
+        assertEquals(0, stats.getHours().get(23).getClicks());
+    }
+
+    @Test
+    public void forgetStartsFromZero() {
+        analytics.record("abc");
+        analytics.forget("abc");
+        assertEquals(0, analytics.stats("abc").getClicks());
+        assertEquals(0, analytics.stats("unknown").getClicks());
+    }
+
+    @Test
+    public void noClicksAreLostWhileDraining() throws Exception {
+        final int threads = 8;
+        final int perThread = 100_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    analytics.record(i % 2 == 0 ? "hot" : "t" + (i % 100));
+                }
+                done.countDown();
+            });
+        }
+        while (!done.await(1, TimeUnit.MILLISECONDS)) {
+            analytics.drain();
+        }
+        executor.shutdown();
+
+        long total = analytics.stats("hot").getClicks();
+        for (int i = 1; i < 100; i += 2) {
+            total += analytics.stats("t" + i).getClicks();
+        }
+        assertEquals((long) threads * perThread, total);
+    }
+
+    private static class MutableClock extends Clock {
+        volatile Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
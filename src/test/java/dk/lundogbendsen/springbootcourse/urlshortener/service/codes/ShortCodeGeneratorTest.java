@@ -0,0 +1,77 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.codes;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShortCodeGeneratorTest {
+    private final ShortCodeGenerator generator = new ShortCodeGenerator();
+
+    @Test
+    public void encodesBase62() {
+        assertEquals("0", ShortCodeGenerator.encode(0));
+        assertEquals("Z", ShortCodeGenerator.encode(61));
+        assertEquals("10", ShortCodeGenerator.encode(62));
+        assertEquals(Long.MAX_VALUE, ShortCodeGenerator.decode(ShortCodeGenerator.encode(Long.MAX_VALUE)));
+        assertEquals(123456789L, ShortCodeGenerator.decode(ShortCodeGenerator.encode(123456789L)));
+    }
+
+    @Test
+    public void codesAreShortAndUnique() {
+        final List<String> codes = new ArrayList<>();
+        for (int i = 0; i < 62; i++) {
+            codes.add(generator.next());
+        }
+        assertEquals(62, Set.copyOf(codes).size());
+        assertTrue(codes.stream().allMatch(code -> code.length() == 1));
+    }
+
+    @Test
+    public void codesAreUniqueAcrossThreads() throws Exception {
+        final int threads = 8;
+        final int perThread = 50_000;
+        final Set<String> codes = ConcurrentHashMap.newKeySet();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    codes.add(generator.next());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(threads * perThread, codes.size());
+    }
+
+    @Test
+    public void reservedCodesAreNotHandedOutAgain() {
+        final ShortCodeGenerator before = new ShortCodeGenerator();
+        final Set<Long> issued = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            issued.add(ShortCodeGenerator.decode(before.next()));
+        }
+        final ShortCodeGenerator restarted = new ShortCodeGenerator();
+        before.snapshot().collect(Collectors.toList()).forEach(restarted::apply);
+        final long next = ShortCodeGenerator.decode(restarted.next());
+        assertTrue(issued.stream().allMatch(code -> code < next));
+
+        restarted.apply(Change.codesReserved(ShortCodeGenerator.encode(1)));
+        assertTrue(ShortCodeGenerator.decode(restarted.next()) > next);
+    }
+}
@@ -0,0 +1,78 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.expiry;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+    private static final long TICK = 1000;
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    @DisplayName("every entry comes due in the first tick at or after its deadline, across all levels")
+    public void testDueOnTime() {
+        final TimingWheel wheel = new TimingWheel(TICK, START);
+        final Random random = new Random(42);
+        final Map<String, Long> deadlines = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            // Up to 64^4 ticks out, with a bias towards the near future
+            final long deadline = START + (long) (Math.pow(random.nextDouble(), 4) * TICK * (1L << 24));
+            deadlines.put("t" + i, deadline);
+            wheel.schedule("t" + i, deadline);
+        }
+        assertEquals(deadlines.size(), wheel.size());
+        long now = START;
+        int due = 0;
+        while (due < deadlines.size()) {
+            // Uneven steps, as a late ticker thread would make them
+            now += TICK * (1 + random.nextInt(5000));
+            final long previous = now;
+            for (TimingWheel.Entry entry : wheel.advance(now)) {
+                assertTrue(entry.deadline <= previous, entry.key);
+                assertEquals(deadlines.get(entry.key), entry.deadline);
+                due++;
+            }
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    @DisplayName("an entry is not due a tick early")
+    public void testNotEarly() {
+        final TimingWheel wheel = new TimingWheel(TICK, START);
+        wheel.schedule("a", START + 1500);
+        assertTrue(wheel.advance(START + 1999).isEmpty());
+        assertEquals(List.of("a"), wheel.advance(START + 2000).stream().map(entry -> entry.key).collect(java.util.stream.Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("ticks are processed exactly once: past deadlines come due at the next advance, later ones in their tick")
+    public void testExactTicks() {
+        final TimingWheel wheel = new TimingWheel(TICK, START);
+        for (int i = 1; i <= 5000; i++) {
+            wheel.schedule("t" + i, START + i * TICK);
+        }
+        wheel.schedule("past", START - 10 * TICK);
+        for (int i = 1; i <= 5000; i++) {
+            final List<TimingWheel.Entry> due = wheel.advance(START + i * TICK);
+            assertEquals(i == 1 ? 2 : 1, due.size(), "tick " + i);
+        }
+    }
+
+    @Test
+    @DisplayName("deadlines beyond the wheel's range wait at its end and come due on time")
+    public void testBeyondRange() {
+        final TimingWheel wheel = new TimingWheel(TICK, START);
+        final long far = START + 3 * TICK * (1L << 24) + 123 * TICK;
+        wheel.schedule("far", far);
+        assertTrue(wheel.advance(far - TICK).isEmpty());
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(far).size());
+    }
+}
@@ -0,0 +1,222 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.export;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.codes.ShortCodeGenerator;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.InvalidExportException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StoreExporterTest {
+    private static final class Node {
+        final TokenService tokenService = new TokenService();
+        final UserService userService = new UserService();
+        final ShortCodeGenerator codes = new ShortCodeGenerator();
+        final StoreExporter exporter = new StoreExporter();
+
+        Node(int logSize) {
+            final ChangeLog changeLog = new ChangeLog(logSize);
+            ReflectionTestUtils.setField(tokenService, "changeLog", changeLog);
+            ReflectionTestUtils.setField(tokenService, "codes", codes);
+            ReflectionTestUtils.setField(userService, "changeLog", changeLog);
+            ReflectionTestUtils.setField(userService, "tokenService", tokenService);
+            exporter.tokenService = tokenService;
+            exporter.userService = userService;
+            exporter.codes = codes;
+            exporter.changeLog = changeLog;
+        }
+
+        Node() {
+            this(1024);
+        }
+
+        Set<Change> contents() {
+            return Stream.concat(userService.contents(), tokenService.contents()).collect(Collectors.toSet());
+        }
+    }
+
+    // Runs action once the export has written its first buffer, in the middle of the scan
+    private static OutputStream writingDuring(OutputStream out, Runnable action) {
+        return new FilterOutputStream(out) {
+            private boolean done;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (!done) {
+                    done = true;
+                    action.run();
+                }
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    private static byte[] export(Node node, ExportFormat format) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        node.exporter.export(out, format);
+        return out.toByteArray();
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExportFormat.class)
+    @DisplayName("users, tokens and the code high-water mark are imported as exported")
+    public void testRoundTrip(ExportFormat format) throws IOException {
+        final Node source = new Node();
+        final User user1 = source.userService.create("user1", "password1");
+        final User user2 = source.userService.create("user2", "password2");
+        source.tokenService.create("abc", "https://dr.dk/nyheder", null, user1);
+        source.tokenService.create("def", "https://tv2.dk", "pt", Instant.now().plus(1, ChronoUnit.DAYS), user1);
+        source.tokenService.create("æøå \"quoted\"", "https://dr.dk/?q=æ", null, user2);
+        final String generated = source.tokenService.create(null, "https://dr.dk", null, user2).getToken();
+
+        final Node target = new Node();
+        final long count = target.exporter.importFrom(new ByteArrayInputStream(export(source, format)), format);
+
+        // Nothing changed during the export, so there is no tail after the scan
+        assertEquals(7, count);
+        assertEquals(source.contents(), target.contents());
+        assertEquals(user1.getPassword(), target.userService.getUser("user1").getPassword());
+        assertEquals("https://tv2.dk", target.tokenService.resolveToken("def", "pt"));
+        assertEquals(2, target.tokenService.listUserTokens(user2).size());
+        assertNotEquals(generated, target.tokenService.create(null, "https://dr.dk", null, user2).getToken());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExportFormat.class)
+    @DisplayName("changes made while the store is scanned are in the export")
+    public void testWritesDuringExport(ExportFormat format) throws IOException {
+        final Node source = new Node(8192);
+        final User user = source.userService.create("user1", "password1");
+        for (int i = 0; i < 5000; i++) {
+            source.tokenService.create("t" + i, "https://dr.dk/" + i, null, user);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.exporter.export(writingDuring(out, () -> {
+            for (int i = 0; i < 5000; i += 10) {
+                source.tokenService.update("t" + i, "https://tv2.dk/" + i, null, user);
+                source.tokenService.deleteToken("t" + (i + 1), "user1");
+                source.tokenService.create("n" + i, "https://dr.dk/new", null, user);
+            }
+            source.userService.create("user2", "password2");
+        }), format);
+
+        final Node target = new Node();
+        target.exporter.importFrom(new ByteArrayInputStream(out.toByteArray()), format);
+
+        assertEquals(source.contents(), target.contents());
+    }
+
+    @Test
+    @DisplayName("an export fails when more changes are made during it than the change log holds")
+    public void testTooManyChanges() {
+        final Node source = new Node();
+        final User user = source.userService.create("user1", "password1");
+        for (int i = 0; i < 10000; i++) {
+            source.tokenService.create("t" + i, "https://dr.dk/" + i, null, user);
+        }
+        final OutputStream out = writingDuring(new ByteArrayOutputStream(), () -> {
+            for (int i = 0; i < 3000; i++) {
+                source.tokenService.update("t" + i, "https://tv2.dk/" + i, null, user);
+            }
+        });
+
+        assertThrows(IOException.class, () -> source.exporter.export(out, ExportFormat.BINARY));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExportFormat.class)
+    @DisplayName("an export that was cut off is rejected")
+    public void testTruncated(ExportFormat format) throws IOException {
+        final Node source = new Node();
+        final User user = source.userService.create("user1", "password1");
+        for (int i = 0; i < 100; i++) {
+            source.tokenService.create("t" + i, "https://dr.dk/" + i, null, user);
+        }
+        final byte[] export = export(source, format);
+
+        for (int cut : new int[]{export.length / 2, export.length - 5}) {
+            final byte[] truncated = Arrays.copyOf(export, cut);
+            assertThrows(InvalidExportException.class, () -> new Node().exporter.importFrom(new ByteArrayInputStream(truncated), format));
+        }
+    }
+
+    @Test
+    @DisplayName("input that isn't an export is rejected")
+    public void testNotAnExport() {
+        final byte[] text = "not an export".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(InvalidExportException.class, () -> new Node().exporter.importFrom(new ByteArrayInputStream(text), ExportFormat.BINARY));
+        assertThrows(InvalidExportException.class, () -> new Node().exporter.importFrom(new ByteArrayInputStream(text), ExportFormat.NDJSON));
+        assertThrows(InvalidExportException.class, () -> ExportFormat.of("xml"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"type\":\"TOKEN_SAVED\",\"token\":\"abc\",\"targetUrl\":\"https://dr.dk\"}",
+            "{\"type\":\"TOKEN_SAVED\",\"token\":\"token\",\"targetUrl\":\"https://dr.dk\",\"username\":\"user1\"}",
+            "{\"type\":\"TOKEN_SAVED\",\"token\":\"abc\",\"targetUrl\":\"http://localhost/admin\",\"username\":\"user1\"}",
+            "{\"type\":\"TOKEN_SAVED\",\"token\":\"abc\",\"targetUrl\":\"https://dr.dk\",\"username\":\"user1\",\"expiresAt\":1e30}",
+            "{\"type\":\"USER_SAVED\",\"password\":\"x\"}",
+            "{\"type\":\"TOKEN_DELETED\"}"
+    })
+    @DisplayName("an import with a change its write would not have passed is rejected")
+    public void testInvalidChange(String line) {
+        final byte[] export = (line + "\n{\"type\":\"END\",\"count\":1}\n").getBytes(StandardCharsets.UTF_8);
+        final Node target = new Node();
+
+        assertThrows(InvalidExportException.class, () -> target.exporter.importFrom(new ByteArrayInputStream(export), ExportFormat.NDJSON));
+        assertEquals(0, target.tokenService.tokenCount());
+    }
+
+    @Test
+    @DisplayName("an export waits for changes appended before it to be applied")
+    public void testExportWaitsForApply() throws Exception {
+        final Node source = new Node();
+        final User user = source.userService.create("user1", "password1");
+        // As a service appends inside the store's compute, before the token is visible
+        final Change saved = Change.tokenSaved(Token.builder().token("abc").targetUrl("https://dr.dk").user(user).build());
+        source.exporter.changeLog.append(saved);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CompletableFuture<Long> export = CompletableFuture.supplyAsync(() -> {
+            try {
+                return source.exporter.export(out, ExportFormat.BINARY);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(export.isDone());
+        source.tokenService.apply(saved);
+        source.exporter.changeLog.applied();
+        export.get(10, TimeUnit.SECONDS);
+
+        final Node target = new Node();
+        target.exporter.importFrom(new ByteArrayInputStream(out.toByteArray()), ExportFormat.BINARY);
+        assertEquals("https://dr.dk", target.tokenService.resolveToken("abc", null));
+    }
+}
@@ -0,0 +1,156 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.journal;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileJournalTest {
+    @TempDir
+    Path directory;
+    private FileJournal journal;
+    private TokenService tokenService;
+    private UserService userService;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        journal.close();
+    }
+
+    private void start() throws IOException {
+        journal = new FileJournal(directory, Duration.ofHours(1), 1_000_000, false);
+        tokenService = new TokenService();
+        userService = new UserService();
+        ReflectionTestUtils.setField(tokenService, "journal", journal);
+        ReflectionTestUtils.setField(userService, "journal", journal);
+        ReflectionTestUtils.setField(userService, "tokenService", tokenService);
+        journal.open(List.of(userService, tokenService));
+    }
+
+    private void restart() throws IOException {
+        journal.close();
+        start();
+    }
+
+    @Test
+    @DisplayName("changes are recovered from the journal after a restart")
+    public void testRecoverFromJournal() throws IOException {
+        start();
+        final User user1 = userService.create("user1", "password1");
+        final User user2 = userService.create("user2", "password2");
+        tokenService.create("abc", "https://dr.dk", null, user1);
+        tokenService.create("def", "https://dr.dk", null, user1);
+        tokenService.create("ghi", "https://dr.dk", null, user2);
+        tokenService.update("abc", "https://tv2.dk", "pt", user1);
+        tokenService.deleteToken("def", "user1");
+        userService.delete("user2");
+
+        restart();
+
+        assertEquals(user1.getPassword(), userService.getUser("user1").getPassword());
+        assertNull(userService.getUser("user2"));
+        assertEquals("https://tv2.dk", tokenService.resolveToken("abc", "pt"));
+        assertEquals(1, tokenService.listUserTokens(user1).size());
+        assertEquals(0, tokenService.listUserTokens(user2).size());
+    }
+
+    @Test
+    @DisplayName("a snapshot plus the journal tail is recovered, and old segments are removed")
+    public void testRecoverFromSnapshotAndTail() throws IOException {
+        start();
+        final User user = userService.create("user1", "password1");
+        for (int i = 0; i < 1000; i++) {
+            tokenService.create("t" + i, "https://dr.dk/" + i, null, user);
+        }
+        journal.snapshot();
+        tokenService.update("t1", "https://tv2.dk", null, user);
+        tokenService.deleteToken("t2", "user1");
+
+        restart();
+
+        assertEquals(999, tokenService.listUserTokens(user).size());
+        assertEquals("https://tv2.dk", tokenService.resolveToken("t1", null));
+        assertEquals("https://dr.dk/3", tokenService.resolveToken("t3", null));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.getFileName().toString().startsWith("snapshot-")).count());
+        }
+    }
+
+    @Test
+    @DisplayName("a torn write at the end of the journal is dropped")
+    public void testTornTail() throws IOException {
+        start();
+        final User user = userService.create("user1", "password1");
+        tokenService.create("abc", "https://dr.dk", null, user);
+        journal.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            final Path segment = files.filter(file -> file.getFileName().toString().startsWith("journal-")).sorted().reduce((a, b) -> b).orElseThrow();
+            Files.write(segment, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+        }
+
+        start();
+        assertEquals("https://dr.dk", tokenService.resolveToken("abc", null));
+        tokenService.create("def", "https://dr.dk", null, user);
+
+        restart();
+        assertEquals(2, tokenService.listUserTokens(user).size());
+    }
+
+    @Test
+    @DisplayName("a snapshot waits for changes appended before it to be applied")
+    public void testSnapshotWaitsForApply() throws Exception {
+        start();
+        final User user = userService.create("user1", "password1");
+        // As a service appends inside the store's compute, before the token is visible
+        final Change saved = Change.tokenSaved(Token.builder().token("abc").targetUrl("https://dr.dk").user(user).build());
+        journal.append(saved);
+        final CompletableFuture<Void> snapshot = CompletableFuture.runAsync(() -> {
+            try {
+                journal.snapshot();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(snapshot.isDone());
+        tokenService.apply(saved);
+        journal.sync();
+        snapshot.get(10, TimeUnit.SECONDS);
+
+        restart();
+        assertEquals("https://dr.dk", tokenService.resolveToken("abc", null));
+    }
+
+    @Test
+    @DisplayName("a change too long to encode takes no sequence and leaves the journal readable")
+    public void testUnencodableChange() throws Exception {
+        start();
+        userService.create("user1", "password1");
+        final long before = journal.lastSequence();
+
+        assertThrows(UncheckedIOException.class, () -> journal.append(Change.userSaved(User.builder().username("u".repeat(70_000)).build())));
+        assertEquals(before, journal.lastSequence());
+        userService.create("user2", "password2");
+
+        restart();
+        assertNotNull(userService.getUser("user2"));
+    }
+}
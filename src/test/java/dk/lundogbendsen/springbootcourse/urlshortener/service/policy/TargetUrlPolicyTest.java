@@ -0,0 +1,84 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.policy;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.service.policy.TargetUrlPolicy.Verdict;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TargetUrlPolicyTest {
+    private final TargetUrlPolicy policy = TargetUrlPolicy.DEFAULT;
+
+    @Test
+    public void allowsOrdinaryUrls() {
+        for (String url : new String[]{"https://dr.dk", "https://tv2.dk/nyheder?side=1", "https://dr.dk/æble",
+                "HTTP://DR.DK:8080/a#b", "https://user:pw@dr.dk/", "https://æble.dk/", "http://[2001:db8::1]:80/",
+                "http://8.8.8.8", "https://localhost.dr.dk", "https://dr.dk/?next=http://localhost"}) {
+            assertEquals(Verdict.ALLOWED, policy.check(url), url);
+        }
+    }
+
+    @Test
+    public void rejectsWhatIsNotAUrlWithAHost() {
+        for (String url : new String[]{"htt", "dr.dk", "https:dr.dk", "https://", "https:///path", "https://dr..dk",
+                "https://dr.dk:port", "https://dr.dk:65536", "https://dr dk", "https://dr.dk/a b", "https://%6cocalhost",
+                "http://[::1", "http://[1::2::3]", "http://1.2.3.256", "http://0x100000000", "http://09.1.1.1"}) {
+            assertEquals(Verdict.INVALID, policy.check(url), url);
+        }
+    }
+
+    @Test
+    public void rejectsThisMachineHoweverItIsWritten() {
+        for (String url : new String[]{"http://localhost:8080/abc", "http://LocalHost.", "http://api.localhost/",
+                "http://dr.dk@localhost/", "http://localhost\\@dr.dk/", "http://127.0.0.1", "http://127.1",
+                "http://2130706433", "http://0x7f.0.0.1", "http://0177.0.0.1", "http://0", "http://[::1]",
+                "http://[::ffff:127.0.0.1]", "http://ｌｏｃａｌｈｏｓｔ/", "http://127。0。0。1/"}) {
+            assertEquals(Verdict.ILLEGAL, policy.check(url), url);
+        }
+    }
+
+    @Test
+    public void rejectsOtherSchemesAndLongUrls() {
+        assertEquals(Verdict.ILLEGAL, policy.check("ftp://dr.dk/file"));
+        assertEquals(Verdict.ILLEGAL, policy.check("javascript://dr.dk/%0aalert(1)"));
+        assertEquals(Verdict.ILLEGAL, policy.check("https://dr.dk/" + "a".repeat(TargetUrlPolicy.DEFAULT_MAX_LENGTH)));
+    }
+
+    @Test
+    public void appliesConfiguredRules() {
+        final TargetUrlPolicy configured = TargetUrlPolicy.builder()
+                .schemes(List.of("https"))
+                .allowedHosts(List.of("*.dk", "example.com"))
+                .blockedHosts(List.of("ads.example.com"))
+                .blockedRanges(List.of("10.0.0.0/8"))
+                .build();
+        assertEquals(Verdict.ALLOWED, configured.check("https://dr.dk"));
+        assertEquals(Verdict.ALLOWED, configured.check("https://www.example.com"));
+        assertEquals(Verdict.ILLEGAL, configured.check("https://ads.example.com"));
+        assertEquals(Verdict.ILLEGAL, configured.check("https://notexample.com"));
+        assertEquals(Verdict.ILLEGAL, configured.check("https://8.8.8.8"));
+        assertEquals(Verdict.ILLEGAL, configured.check("http://dr.dk"));
+        assertEquals(Verdict.ALLOWED, configured.check("https://localhost.dk"));
+        assertThrows(IllegalArgumentException.class, () -> TargetUrlPolicy.builder().blockedRanges(List.of("10.0.0.0/33")).build());
+    }
+
+    @Test
+    public void parsesAddresses() {
+        final AddressRanges ranges = new AddressRanges(List.of("10.0.0.0/8", "10.1.0.0/16", "192.168.1.1", "fc00::/7"));
+        assertEquals(true, ranges.containsIpv4(AddressRanges.parseDottedQuad("10.255.255.255", 0, 14)));
+        assertEquals(false, ranges.containsIpv4(AddressRanges.parseDottedQuad("11.0.0.0", 0, 8)));
+        assertEquals(true, ranges.containsIpv4(AddressRanges.parseDottedQuad("192.168.1.1", 0, 11)));
+        assertEquals(false, ranges.containsIpv4(AddressRanges.parseDottedQuad("192.168.1.2", 0, 11)));
+        assertEquals(true, ranges.containsIpv6(0xfd00L << 48, 1));
+        assertEquals(false, ranges.containsIpv6(0xfe80L << 48, 1));
+        assertArrayEquals(new long[]{0x20010db800000000L, 1}, AddressRanges.parseIpv6("2001:db8::1", 0, 11));
+        assertArrayEquals(new long[]{0, 0xffff7f000001L}, AddressRanges.parseIpv6("::ffff:127.0.0.1", 0, 16));
+        assertArrayEquals(new long[]{0x0001000200030004L, 0x0005000600070008L}, AddressRanges.parseIpv6("1:2:3:4:5:6:7:8", 0, 15));
+        assertNull(AddressRanges.parseIpv6("1:2:3:4:5:6:7:8:9", 0, 17));
+        assertEquals(0xc0a80001L, AddressRanges.parseIpv4("192.168.1", 0, 9));
+    }
+}
@@ -0,0 +1,102 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.ratelimit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    @DisplayName("a burst is allowed at once, then requests at the rate")
+    public void testBurstAndRate() {
+        final RateLimiter limiter = new RateLimiter(10, Duration.ofSeconds(1), 5, 1024, now::get);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.acquire("a"), "request " + i);
+        }
+        final long wait = limiter.acquire("a");
+        assertEquals(SECOND / 10, wait);
+        now.addAndGet(wait - 1);
+        assertTrue(limiter.acquire("a") > 0);
+        now.addAndGet(1);
+        assertEquals(0, limiter.acquire("a"));
+        assertTrue(limiter.acquire("a") > 0);
+        assertEquals(3, limiter.throttledCount());
+    }
+
+    @Test
+    @DisplayName("a bucket fills up again while idle, but not beyond the burst")
+    public void testRefill() {
+        final RateLimiter limiter = new RateLimiter(10, Duration.ofSeconds(1), 3, 1024, now::get);
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire("a");
+        }
+        now.addAndGet(10 * SECOND);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire("a"));
+        }
+        assertTrue(limiter.acquire("a") > 0);
+    }
+
+    @Test
+    @DisplayName("keys are limited separately")
+    public void testKeys() {
+        final RateLimiter limiter = new RateLimiter(1, Duration.ofMinutes(1), 1, 1024, now::get);
+        assertEquals(0, limiter.acquire("a"));
+        assertTrue(limiter.acquire("a") > 0);
+        assertEquals(0, limiter.acquire("b"));
+    }
+
+    @Test
+    @DisplayName("the table stays the same size under a flood of keys, and a limited key is kept over fresher ones")
+    public void testBounded() {
+        final RateLimiter limiter = new RateLimiter(10, Duration.ofSeconds(1), 10, 64, now::get);
+        assertEquals(64, limiter.capacity());
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire("abuser");
+        }
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(0, limiter.acquire("10.0." + (i >> 8) + "." + (i & 0xff)));
+            now.incrementAndGet();
+        }
+        assertEquals(64, limiter.capacity());
+        assertTrue(limiter.acquire("abuser") > 0);
+    }
+
+    @Test
+    @DisplayName("concurrent requests for one key are allowed exactly up to the burst")
+    public void testConcurrent() throws Exception {
+        final RateLimiter limiter = new RateLimiter(1, Duration.ofHours(1), 1000, 1024, now::get);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Future<?>[] futures = new Future<?>[8];
+            final AtomicLong allowed = new AtomicLong();
+            for (int t = 0; t < futures.length; t++) {
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.acquire("hot") == 0) {
+                            allowed.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(1000, allowed.get());
+            assertEquals(7000, limiter.throttledCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.replication;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.TokenService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.UserService;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.codes.ShortCodeGenerator;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.ReadOnlyReplicaException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.TokenNotFoundExistsException;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Change;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journal;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.journal.Journaled;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationTest {
+    private static final Duration HEARTBEAT = Duration.ofMillis(100);
+
+    private ReplicationLeader leader;
+    private Instance primary;
+    private ReplicationFollower follower1;
+    private Instance replica1;
+    private ReplicationFollower follower2;
+    private Instance replica2;
+
+    /**
+     * The services of one instance, wired like the application does.
+     */
+    private static class Instance {
+        final TokenService tokenService = new TokenService();
+        final UserService userService = new UserService();
+        final ShortCodeGenerator codes = new ShortCodeGenerator();
+
+        Instance(Journal journal) {
+            ReflectionTestUtils.setField(tokenService, "journal", journal);
+            ReflectionTestUtils.setField(tokenService, "codes", codes);
+            ReflectionTestUtils.setField(userService, "journal", journal);
+            ReflectionTestUtils.setField(userService, "tokenService", tokenService);
+            ReflectionTestUtils.setField(codes, "journal", journal);
+        }
+
+        List<Journaled> journaled() {
+            return List.of(userService, tokenService, codes);
+        }
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        leader = new ReplicationLeader(Journal.NONE, 0, 2048, HEARTBEAT);
+        primary = new Instance(leader);
+        leader.start(primary.journaled());
+        replica1 = new Instance(Journal.READ_ONLY);
+        replica2 = new Instance(Journal.READ_ONLY);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (ReplicationFollower follower : new ReplicationFollower[]{follower1, follower2}) {
+            if (follower != null) {
+                follower.close();
+            }
+        }
+        leader.close();
+    }
+
+    private ReplicationFollower follow(Instance replica) {
+        final ReplicationFollower follower = new ReplicationFollower(new InetSocketAddress("localhost", leader.port()), HEARTBEAT, Duration.ofMillis(200));
+        follower.start(replica.journaled());
+        return follower;
+    }
+
+    private void awaitCaughtUp(ReplicationFollower follower) throws InterruptedException {
+        final long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (follower.appliedSequence() != leader.lastSequence() || !follower.isConnected()) {
+            assertTrue(System.nanoTime() < deadline, "follower at " + follower.appliedSequence() + ", leader at " + leader.lastSequence());
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    @DisplayName("changes made on the leader are applied in order by every follower")
+    public void testChangesReachFollowers() throws InterruptedException {
+        follower1 = follow(replica1);
+        follower2 = follow(replica2);
+        final User user1 = primary.userService.create("user1", "password1");
+        final User user2 = primary.userService.create("user2", "password2");
+        for (int i = 0; i < 500; i++) {
+            primary.tokenService.create("t" + i, "https://dr.dk/" + i, null, user1);
+        }
+        primary.tokenService.create("mine", "https://dr.dk", null, user2);
+        primary.tokenService.update("t1", "https://tv2.dk", "pt", user1);
+        primary.tokenService.deleteToken("t2", "user1");
+        primary.userService.delete("user2");
+        final String code = primary.tokenService.create(null, "https://dr.dk/code", null, user1).getToken();
+
+        for (ReplicationFollower follower : List.of(follower1, follower2)) {
+            awaitCaughtUp(follower);
+            assertEquals(0, follower.lag());
+            assertEquals(0, follower.delayMillis());
+            assertEquals(1, follower.snapshotCount());
+        }
+        for (Instance replica : List.of(replica1, replica2)) {
+            assertEquals(user1.getPassword(), replica.userService.getUser("user1").getPassword());
+            assertNull(replica.userService.getUser("user2"));
+            assertEquals("https://tv2.dk", replica.tokenService.resolveToken("t1", "pt"));
+            assertThrows(TokenNotFoundExistsException.class, () -> replica.tokenService.resolveToken("t2", null));
+            assertThrows(TokenNotFoundExistsException.class, () -> replica.tokenService.resolveToken("mine", null));
+            assertEquals("https://dr.dk/code", replica.tokenService.resolveToken(code, null));
+            assertEquals(500, replica.tokenService.listUserTokens(user1).size());
+        }
+    }
+
+    @Test
+    @DisplayName("a follower that reconnects continues after the last change it applied")
+    public void testReconnectContinuesFromOffset() throws IOException, InterruptedException {
+        final User user = primary.userService.create("user1", "password1");
+        follower1 = follow(replica1);
+        awaitCaughtUp(follower1);
+        leader.disconnectFollowers();
+        for (int i = 0; i < 100; i++) {
+            primary.tokenService.create("t" + i, "https://dr.dk/" + i, null, user);
+        }
+
+        awaitCaughtUp(follower1);
+
+        assertEquals(1, follower1.snapshotCount());
+        assertEquals(100, replica1.tokenService.tokenCount());
+    }
+
+    @Test
+    @DisplayName("a follower starting from a snapshot drops what the leader doesn't have")
+    public void testSnapshotRemovesStaleState() throws InterruptedException {
+        final User user = primary.userService.create("user1", "password1");
+        primary.tokenService.create("kept", "https://dr.dk", null, user);
+        replica1.userService.apply(Change.userSaved(User.builder().username("gone").password("x").build()));
+        replica1.tokenService.apply(Change.tokenSaved(Token.builder().token("stale").targetUrl("https://dr.dk").user(user).build()));
+
+        follower1 = follow(replica1);
+        awaitCaughtUp(follower1);
+
+        assertEquals("https://dr.dk", replica1.tokenService.resolveToken("kept", null));
+        assertThrows(TokenNotFoundExistsException.class, () -> replica1.tokenService.resolveToken("stale", null));
+        assertNull(replica1.userService.getUser("gone"));
+    }
+
+    @Test
+    @DisplayName("followers refuse writes")
+    public void testFollowersAreReadOnly() {
+        final User user = User.builder().username("user1").build();
+        assertThrows(ReadOnlyReplicaException.class, () -> replica1.userService.create("user1", "password1"));
+        assertThrows(ReadOnlyReplicaException.class, () -> replica1.tokenService.create("abc", "https://dr.dk", null, user));
+        assertThrows(ReadOnlyReplicaException.class, () -> replica1.tokenService.create(null, "https://dr.dk", null, user));
+        assertThrows(ReadOnlyReplicaException.class, () -> replica1.tokenService.deleteTokens(user));
+        assertEquals(0, replica1.tokenService.tokenCount());
+    }
+
+    @Test
+    @DisplayName("a change too long to encode takes no sequence, and followers carry on past it")
+    public void testUnencodableChange() throws InterruptedException {
+        final User user = primary.userService.create("user1", "password1");
+        follower1 = follow(replica1);
+        awaitCaughtUp(follower1);
+        final long before = leader.lastSequence();
+
+        assertThrows(UncheckedIOException.class, () -> leader.append(Change.userSaved(User.builder().username("u".repeat(70_000)).build())));
+        assertEquals(before, leader.lastSequence());
+        primary.tokenService.create("after", "https://dr.dk", null, user);
+        awaitCaughtUp(follower1);
+
+        assertEquals("https://dr.dk", replica1.tokenService.resolveToken("after", null));
+    }
+
+    @Test
+    @DisplayName("a snapshot waits for changes appended before it to be applied")
+    public void testSnapshotWaitsForApply() throws InterruptedException {
+        final User user = primary.userService.create("user1", "password1");
+        // As a service appends inside the store's compute, before the token is visible
+        final Change saved = Change.tokenSaved(Token.builder().token("abc").targetUrl("https://dr.dk").user(user).build());
+        leader.append(saved);
+        follower1 = follow(replica1);
+        Thread.sleep(300);
+        assertEquals(0, follower1.snapshotCount());
+        primary.tokenService.apply(saved);
+        leader.sync();
+
+        awaitCaughtUp(follower1);
+        assertEquals("https://dr.dk", replica1.tokenService.resolveToken("abc", null));
+    }
+}
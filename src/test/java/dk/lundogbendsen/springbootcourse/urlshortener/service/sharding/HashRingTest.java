@@ -0,0 +1,61 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.sharding;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+    private static final int KEYS = 100_000;
+    private static final List<String> NODES = List.of("http://node1:8080", "http://node2:8080", "http://node3:8080", "http://node4:8080");
+
+    @Test
+    @DisplayName("every node gets close to an even share of the names")
+    public void testBalance() {
+        final HashRing ring = new HashRing(NODES, 160);
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.owner("token" + i), 1, Integer::sum);
+        }
+        assertEquals(NODES.size(), counts.size());
+        for (int count : counts.values()) {
+            assertTrue(Math.abs(count - KEYS / NODES.size()) < KEYS / NODES.size() * 0.15, counts.toString());
+        }
+    }
+
+    @Test
+    @DisplayName("adding a node to N moves about 1/(N+1) of the names, all of them to the new node")
+    public void testAddingMovesOnlyItsShare() {
+        final HashRing before = new HashRing(NODES, 160);
+        final HashRing after = new HashRing(List.of(NODES.get(0), NODES.get(1), NODES.get(2), NODES.get(3), "http://node5:8080"), 160);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            final String owner = after.owner("token" + i);
+            if (!owner.equals(before.owner("token" + i))) {
+                assertEquals("http://node5:8080", owner);
+                moved++;
+            }
+        }
+        assertTrue(Math.abs(moved - KEYS / 5) < KEYS / 5 * 0.15, "moved " + moved);
+    }
+
+    @Test
+    @DisplayName("placement only depends on the node names, not their order")
+    public void testOrderIndependence() {
+        final HashRing ring = new HashRing(NODES, 160);
+        final HashRing reversed = new HashRing(List.of(NODES.get(3), NODES.get(2), NODES.get(1), NODES.get(0)), 160);
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(ring.owner("token" + i), reversed.owner("token" + i));
+        }
+    }
+
+    @Test
+    public void testRejectsDuplicateNodes() {
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(List.of("a", "a"), 10));
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(List.of(), 10));
+    }
+}
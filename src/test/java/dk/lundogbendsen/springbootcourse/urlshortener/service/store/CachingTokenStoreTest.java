@@ -0,0 +1,74 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingTokenStoreTest {
+    private InMemoryTokenStore backing;
+    private CachingTokenStore cache;
+
+    private static Token token(String name, String targetUrl) {
+        return Token.builder().token(name).targetUrl(targetUrl).user(User.builder().username("user1").build()).build();
+    }
+
+    @BeforeEach
+    public void setup() {
+        backing = new InMemoryTokenStore();
+        cache = new CachingTokenStore(backing, 256);
+        for (int i = 0; i < 10_000; i++) {
+            final String name = "t" + i;
+            backing.compute(name, current -> token(name, "https://dr.dk/" + name));
+        }
+    }
+
+    @Test
+    @DisplayName("repeated reads are served from the cache")
+    public void testHitsAndMisses() {
+        assertEquals("https://dr.dk/t1", cache.resolve("t1", null, 0));
+        assertEquals("https://dr.dk/t1", cache.resolve("t1", null, 0));
+        assertEquals("https://dr.dk/t1", cache.resolve("t1", null, 0));
+        assertNull(cache.resolve("unknown", null, 0));
+        assertEquals(2, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    @DisplayName("writes through the cache invalidate the cached token")
+    public void testComputeInvalidates() {
+        cache.get("t1");
+        cache.compute("t1", current -> token("t1", "https://tv2.dk"));
+        assertEquals("https://tv2.dk", cache.resolve("t1", null, 0));
+        cache.compute("t1", current -> null);
+        assertNull(cache.get("t1"));
+    }
+
+    @Test
+    @DisplayName("a scan over cold tokens doesn't evict the hot ones")
+    public void testScanResistance() {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                cache.get("t" + i);
+            }
+        }
+        // Cold tokens are read once each, while the hot ones keep getting some traffic. A hot token is read
+        // again only after more than 256 other reads, so an LRU cache of this size would have lost all of them.
+        for (int i = 100; i < 10_000; i++) {
+            cache.get("t" + i);
+            if (i % 10 == 0) {
+                cache.get("t" + (i / 10 % 100));
+            }
+        }
+        final long hitsBefore = cache.hitCount();
+        for (int i = 0; i < 100; i++) {
+            cache.get("t" + i);
+        }
+        assertTrue(cache.hitCount() - hitsBefore >= 95, "hot tokens should still be cached");
+        assertTrue(cache.rejectionCount() > 0);
+        assertTrue(cache.cachedCount() <= 256);
+    }
+}
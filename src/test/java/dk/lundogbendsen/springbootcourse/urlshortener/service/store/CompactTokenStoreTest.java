@@ -0,0 +1,148 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactTokenStoreTest {
+    private final CompactTokenStore store = new CompactTokenStore();
+
+    private static Token token(String name, String targetUrl, String username) {
+        return Token.builder().token(name).targetUrl(targetUrl).user(User.builder().username(username).password("{bcrypt}hash").build()).build();
+    }
+
+    @Test
+    @DisplayName("tokens read back as they were stored, but with owners that carry only their name")
+    public void testRoundTrip() {
+        final Token token = Token.builder().token("abc").targetUrl("https://dr.dk:8443/nyheder?side=2#top").protectToken("pt")
+                .user(User.builder().username("user1").password("{bcrypt}hash").build()).expiresAt(Instant.ofEpochMilli(1234)).build();
+        assertSame(token, store.compute("abc", current -> token));
+        final Token read = store.get("abc");
+        assertEquals("abc", read.getToken());
+        assertEquals("https://dr.dk:8443/nyheder?side=2#top", read.getTargetUrl());
+        assertEquals("pt", read.getProtectToken());
+        assertEquals(Instant.ofEpochMilli(1234), read.getExpiresAt());
+        assertEquals("user1", read.getUser().getUsername());
+        assertNull(read.getUser().getPassword());
+        assertNull(store.get("def"));
+    }
+
+    @Test
+    @DisplayName("URLs without a host, with non-ASCII characters and without a path survive")
+    public void testUrls() {
+        final String[] urls = {"https://dr.dk", "https://dr.dk/", "https://dr.dk?q=1", "https://dr.dk/æble/ø?å=ü", "mailto:someone@dr.dk",
+                "htt", "", "https://xn--bl-1ia.dk/s"};
+        for (int i = 0; i < urls.length; i++) {
+            final String name = "t" + i;
+            final String url = urls[i];
+            store.compute(name, current -> token(name, url, "user1"));
+        }
+        for (int i = 0; i < urls.length; i++) {
+            assertEquals(urls[i], store.get("t" + i).getTargetUrl());
+            assertEquals(urls[i], store.resolve("t" + i, null, 0));
+        }
+        assertEquals(7, CompactTokenStore.prefixLength("ftp://a/b"));
+        assertEquals(0, CompactTokenStore.prefixLength("/relative"));
+    }
+
+    @Test
+    @DisplayName("owners and URL prefixes are stored once however many tokens share them")
+    public void testDictionaries() {
+        for (int i = 0; i < 10_000; i++) {
+            final String name = "t" + i;
+            final String url = (i % 2 == 0 ? "https://dr.dk/" : "https://tv2.dk/") + i;
+            final String username = "user" + (i % 3);
+            store.compute(name, current -> token(name, url, username));
+        }
+        assertEquals(10_000, store.size());
+        assertEquals(3, store.ownerCount());
+        // The empty prefix and the two hosts
+        assertEquals(3, store.prefixCount());
+        assertSame(store.get("t0").getUser(), store.get("t3").getUser());
+        assertEquals("https://tv2.dk/9999", store.resolve("t9999", null, 0));
+        assertEquals(3334, store.tokens().filter(token -> token.getUser().getUsername().equals("user0")).count());
+    }
+
+    @Test
+    @DisplayName("once the prefix dictionary is full, URLs on new hosts are stored whole")
+    public void testPrefixLimit() {
+        for (int i = 0; i < CompactTokenStore.MAX_PREFIXES + 100; i++) {
+            final String name = "t" + i;
+            final String url = "https://host" + i + ".dk/x";
+            store.compute(name, current -> token(name, url, "user1"));
+        }
+        assertEquals(CompactTokenStore.MAX_PREFIXES, store.prefixCount());
+        assertEquals("https://host" + (CompactTokenStore.MAX_PREFIXES + 50) + ".dk/x", store.resolve("t" + (CompactTokenStore.MAX_PREFIXES + 50), null, 0));
+        assertEquals("https://host7.dk/x", store.resolve("t7", null, 0));
+    }
+
+    @Test
+    @DisplayName("resolve checks protection and expiry, and compute keeps, replaces and removes tokens")
+    public void testResolveAndCompute() {
+        store.compute("abc", current -> Token.builder().token("abc").targetUrl("https://dr.dk").protectToken("pt")
+                .user(User.builder().username("user1").build()).expiresAt(Instant.ofEpochMilli(1000)).build());
+        assertEquals("https://dr.dk", store.resolve("abc", "pt", 999));
+        assertNull(store.resolve("abc", "pt", 1000));
+        assertThrows(AccessDeniedException.class, () -> store.resolve("abc", "wrong", 0));
+
+        final Token[] seen = new Token[1];
+        assertSame(store.compute("abc", current -> seen[0] = current), seen[0]);
+        assertEquals("https://dr.dk", store.resolve("abc", "pt", 0));
+        store.compute("abc", current -> token("abc", "https://tv2.dk", "user2"));
+        assertEquals("https://tv2.dk", store.resolve("abc", null, Long.MAX_VALUE));
+        assertEquals("user2", store.get("abc").getUser().getUsername());
+        assertNull(store.compute("abc", current -> null));
+        assertNull(store.get("abc"));
+        assertEquals(0, store.size());
+        assertEquals(List.of(), store.tokens().collect(Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("concurrent writers and readers see every token while the table grows and shrinks its chains")
+    public void testConcurrent() throws Exception {
+        final int threads = 4;
+        final int perThread = 20_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        final String name = thread + "-" + i;
+                        store.compute(name, current -> token(name, "https://dr.dk/" + name, "user" + thread));
+                        assertEquals("https://dr.dk/" + name, store.resolve(name, null, 0));
+                        if (i % 2 == 0) {
+                            store.compute(name, current -> null);
+                            assertNull(store.get(name));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * perThread / 2, store.size());
+        assertEquals(store.size(), store.tokens().count());
+        for (int t = 0; t < threads; t++) {
+            for (int i = 1; i < perThread; i += 2) {
+                assertEquals("user" + t, store.get(t + "-" + i).getUser().getUsername());
+            }
+        }
+    }
+}
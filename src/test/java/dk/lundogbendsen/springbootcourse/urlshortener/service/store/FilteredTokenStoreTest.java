@@ -0,0 +1,73 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilteredTokenStoreTest {
+    private static final int TOKENS = 10_000;
+
+    private InMemoryTokenStore backing;
+    private FilteredTokenStore filtered;
+
+    private static Token token(String name) {
+        return Token.builder().token(name).targetUrl("https://dr.dk/" + name).user(User.builder().username("user1").build()).build();
+    }
+
+    @BeforeEach
+    public void setup() {
+        backing = new InMemoryTokenStore();
+        for (int i = 0; i < TOKENS / 2; i++) {
+            final String name = "t" + i;
+            backing.compute(name, current -> token(name));
+        }
+        filtered = new FilteredTokenStore(backing, TOKENS, 0.01);
+        for (int i = TOKENS / 2; i < TOKENS; i++) {
+            final String name = "t" + i;
+            filtered.compute(name, current -> token(name));
+        }
+    }
+
+    @Test
+    @DisplayName("stored tokens, whether present at the start or created later, are always found")
+    public void testNoFalseNegatives() {
+        for (int i = 0; i < TOKENS; i++) {
+            assertEquals("https://dr.dk/t" + i, filtered.resolve("t" + i, null, 0));
+        }
+        assertEquals(TOKENS, filtered.presentCount());
+        assertEquals(0, filtered.absentCount());
+    }
+
+    @Test
+    @DisplayName("most unknown tokens are answered by the filter, at about the configured rate")
+    public void testUnknownTokens() {
+        for (int i = 0; i < 100_000; i++) {
+            assertNull(filtered.get("unknown" + i));
+        }
+        assertEquals(100_000, filtered.absentCount() + filtered.falsePositiveCount());
+        assertTrue(filtered.falsePositiveCount() < 2_000, "false positives: " + filtered.falsePositiveCount());
+        assertEquals(0.01, filtered.expectedFalsePositiveRate(), 0.005);
+        assertTrue(filtered.memoryBytes() > 0);
+    }
+
+    @Test
+    @DisplayName("deleted tokens leave the filter without disturbing the others")
+    public void testDeletes() {
+        for (int i = 0; i < TOKENS; i += 2) {
+            filtered.compute("t" + i, current -> null);
+        }
+        for (int i = 0; i < TOKENS; i++) {
+            if (i % 2 == 0) {
+                assertNull(filtered.get("t" + i));
+            } else {
+                assertEquals("https://dr.dk/t" + i, filtered.resolve("t" + i, null, 0));
+            }
+        }
+        assertTrue(filtered.falsePositiveCount() < TOKENS / 2 / 20, "deleted tokens let through: " + filtered.falsePositiveCount());
+        assertTrue(filtered.expectedFalsePositiveRate() < filtered.configuredFalsePositiveRate());
+    }
+}
@@ -0,0 +1,107 @@
+package dk.lundogbendsen.springbootcourse.urlshortener.service.store;
+
+import dk.lundogbendsen.springbootcourse.urlshortener.model.Token;
+import dk.lundogbendsen.springbootcourse.urlshortener.model.User;
+import dk.lundogbendsen.springbootcourse.urlshortener.service.exceptions.AccessDeniedException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedTokenStoreTest {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    @TempDir
+    Path directory;
+
+    private static Token token(String name, String targetUrl, String protectToken) {
+        return Token.builder().token(name).targetUrl(targetUrl).protectToken(protectToken).user(User.builder().username("user1").build()).build();
+    }
+
+    @Test
+    @DisplayName("tokens can be stored, resolved, replaced and removed")
+    public void testComputeAndResolve() throws IOException {
+        try (MappedTokenStore store = new MappedTokenStore(directory, CHUNK_SIZE)) {
+            store.compute("abc", current -> token("abc", "https://dr.dk", null));
+            store.compute("def", current -> token("def", "https://tv2.dk", "pæ"));
+
+            assertEquals("https://dr.dk", store.resolve("abc", null, 0));
+            assertEquals("https://tv2.dk", store.resolve("def", "pæ", 0));
+            assertThrows(AccessDeniedException.class, () -> store.resolve("def", "wrong", 0));
+            assertThrows(AccessDeniedException.class, () -> store.resolve("def", null, 0));
+            assertNull(store.resolve("ghi", null, 0));
+            assertEquals("user1", store.get("abc").getUser().getUsername());
+
+            store.compute("abc", current -> token("abc", current.getTargetUrl() + "/news", null));
+            assertEquals("https://dr.dk/news", store.resolve("abc", null, 0));
+            store.compute("def", current -> null);
+            assertNull(store.get("def"));
+            assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    @DisplayName("expiries are stored and survive a reopen, expired tokens don't resolve")
+    public void testExpiry() throws IOException {
+        final Instant expiresAt = Instant.ofEpochMilli(1_000_000);
+        try (MappedTokenStore store = new MappedTokenStore(directory, CHUNK_SIZE)) {
+            store.compute("abc", current -> Token.builder().token("abc").targetUrl("https://dr.dk").user(User.builder().username("user1").build()).expiresAt(expiresAt).build());
+            store.compute("def", current -> Token.builder().token("def").targetUrl("https://tv2.dk").protectToken("pæ").user(User.builder().username("user1").build())
+                    .expiresAt(expiresAt).build());
+        }
+        try (MappedTokenStore store = new MappedTokenStore(directory, CHUNK_SIZE)) {
+            assertEquals(expiresAt, store.get("abc").getExpiresAt());
+            assertEquals("https://dr.dk", store.resolve("abc", null, expiresAt.toEpochMilli() - 1));
+            assertEquals("https://tv2.dk", store.resolve("def", "pæ", expiresAt.toEpochMilli() - 1));
+            assertNull(store.resolve("abc", null, expiresAt.toEpochMilli()));
+            assertNull(store.resolve("def", "pæ", expiresAt.toEpochMilli()));
+        }
+    }
+
+    @Test
+    @DisplayName("tokens survive a close and reopen, through table growth and compaction")
+    public void testReopenAfterGrowth() throws IOException {
+        try (MappedTokenStore store = new MappedTokenStore(directory, CHUNK_SIZE)) {
+            for (int i = 0; i < 20_000; i++) {
+                final String name = "t" + i;
+                store.compute(name, current -> token(name, "https://dr.dk/" + name, null));
+            }
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 20_000; i += 2) {
+                    final String name = "t" + i;
+                    store.compute(name, current -> token(name, "https://tv2.dk/" + name, null));
+                }
+            }
+            for (int i = 0; i < 20_000; i += 4) {
+                store.compute("t" + i, current -> null);
+            }
+        }
+        try (MappedTokenStore store = new MappedTokenStore(directory, CHUNK_SIZE)) {
+            assertEquals(15_000, store.size());
+            assertEquals(15_000, store.tokens().count());
+            assertNull(store.get("t0"));
+            assertEquals("https://dr.dk/t1", store.resolve("t1", null, 0));
+            assertEquals("https://tv2.dk/t2", store.resolve("t2", null, 0));
+        }
+    }
+
+    @Test
+    @DisplayName("a store that wasn't closed is rebuilt from its records")
+    public void testUncleanReopen() throws IOException {
+        final MappedTokenStore crashed = new MappedTokenStore(directory, CHUNK_SIZE);
+        for (int i = 0; i < 1000; i++) {
+            final String name = "t" + i;
+            crashed.compute(name, current -> token(name, "https://dr.dk/" + name, null));
+        }
+        crashed.flush();
+
+        try (MappedTokenStore store = new MappedTokenStore(directory, CHUNK_SIZE)) {
+            assertEquals(1000, store.size());
+            assertEquals("https://dr.dk/t999", store.resolve("t999", null, 0));
+        }
+    }
+}